@@ -0,0 +1,197 @@
+package bot.schedule;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение DivisionResolver с прежним линейным поиском ScheduleFetcher (копия ниже, legacy*).
+ *
+ * Справочник синтетический, по размеру как у УрФУ: 40 институтов по 25 подразделений и 300 групп.
+ * Ищем узлы в конце массива — так линейный поиск проходит справочник целиком, как при неудачной регистрации.
+ * Запуск: mvn -Pbench test-compile exec:exec
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DivisionResolverBenchmark {
+
+    private static final int INSTITUTES = 40;
+    private static final int DEPARTMENTS_PER_INSTITUTE = 25;
+    private static final int GROUPS = 300;
+
+    private JsonNode divisions;
+    private JsonNode groups;
+    private DivisionResolver divisionResolver;
+    private DivisionResolver groupResolver;
+
+    private final String institute = "Институт номер " + (INSTITUTES - 1);
+    private final String department = "Департамент прикладной науки " + (INSTITUTES * 100 + DEPARTMENTS_PER_INSTITUTE - 1);
+    private final String group = "мен" + (240000 + GROUPS - 1); // без дефиса — прежний код находил такое только третьим проходом
+
+    @Setup
+    public void setUp() {
+        ObjectMapper mapper = new ObjectMapper();
+        ArrayNode divisionsArray = mapper.createArrayNode();
+        for (int i = 0; i < INSTITUTES; i++) {
+            ObjectNode inst = divisionsArray.addObject();
+            inst.put("id", i + 1);
+            inst.put("title", "Институт номер " + i);
+            for (int d = 0; d < DEPARTMENTS_PER_INSTITUTE; d++) {
+                ObjectNode dep = divisionsArray.addObject();
+                dep.put("id", 1000 + i * 100 + d);
+                dep.put("parentId", i + 1);
+                dep.put("title", "Департамент прикладной науки " + ((i + 1) * 100 + d));
+            }
+        }
+        ArrayNode groupsArray = mapper.createArrayNode();
+        for (int g = 0; g < GROUPS; g++) {
+            ObjectNode node = groupsArray.addObject();
+            node.put("id", 100_000 + g);
+            node.put("title", "МЕН-" + (240000 + g));
+        }
+        divisions = divisionsArray;
+        groups = groupsArray;
+        divisionResolver = DivisionResolver.of(divisions);
+        groupResolver = DivisionResolver.of(groups);
+    }
+
+
+    @Benchmark
+    public long legacyFindDepartment() {
+        return legacyFindDepartmentId(divisions, institute, department);
+    }
+
+    @Benchmark
+    public long resolverFindDepartment() {
+        return divisionResolver.findDepartment(institute, department).id();
+    }
+
+    @Benchmark
+    public long legacyFindGroup() {
+        return legacyFindGroupId(groups, group);
+    }
+
+    @Benchmark
+    public long resolverFindGroup() {
+        return groupResolver.findGroup(group).id();
+    }
+
+    @Benchmark
+    public DivisionResolver resolverBuild() { // цена построения индекса — платится раз на версию справочника
+        return DivisionResolver.of(divisions);
+    }
+
+
+    // --- прежний поиск из ScheduleFetcher (без изменений) ---
+
+    private static long legacyFindDepartmentId(JsonNode divisionsArray, String instituteName, String departmentName) {
+        String normalizedInstitute = legacyNormalize(instituteName);
+        String normalizedDepartment = legacyNormalize(departmentName);
+
+        Long instituteId = null;
+        if (instituteName != null && !instituteName.isEmpty()) {
+            for (JsonNode node : divisionsArray) {
+                String title = firstNonNullText(node, "title", "name");
+                if (title != null && title.toLowerCase().contains(instituteName.toLowerCase())) {
+                    instituteId = node.path("id").asLong(-1);
+                    break;
+                }
+            }
+            if (instituteId == null || instituteId == -1) {
+                for (JsonNode node : divisionsArray) {
+                    String title = firstNonNullText(node, "title", "name");
+                    if (title != null && legacyNormalize(title).contains(normalizedInstitute)) {
+                        instituteId = node.path("id").asLong(-1);
+                        break;
+                    }
+                }
+            }
+        }
+
+        List<JsonNode> searchArea = new ArrayList<>();
+        if (instituteId != null && instituteId != -1) {
+            for (JsonNode node : divisionsArray) {
+                if (node.path("parentId").asLong(-1) == instituteId) {
+                    searchArea.add(node);
+                }
+            }
+        } else {
+            for (JsonNode node : divisionsArray) {
+                searchArea.add(node);
+            }
+        }
+
+        if (departmentName == null || departmentName.isEmpty()) {
+            return -1L;
+        }
+        for (JsonNode node : searchArea) {
+            String title = firstNonNullText(node, "title", "name");
+            if (title != null && title.toLowerCase().contains(departmentName.toLowerCase())) {
+                return node.path("id").asLong(-1);
+            }
+        }
+        for (JsonNode node : searchArea) {
+            String title = firstNonNullText(node, "title", "name");
+            if (title != null && legacyNormalize(title).contains(normalizedDepartment)) {
+                return node.path("id").asLong(-1);
+            }
+        }
+        return -1L;
+    }
+
+    private static long legacyFindGroupId(JsonNode groupsArray, String groupName) {
+        if (groupName == null || groupName.isEmpty()) {
+            return -1L;
+        }
+        String normalizedGroup = legacyNormalize(groupName);
+        for (JsonNode node : groupsArray) {
+            String title = firstNonNullText(node, "title", "name");
+            if (title != null && title.toLowerCase().contains(groupName.toLowerCase())) {
+                return node.path("id").asLong(-1);
+            }
+        }
+        for (JsonNode node : groupsArray) {
+            String title = firstNonNullText(node, "title", "name");
+            if (title != null && legacyNormalize(title).contains(normalizedGroup)) {
+                return node.path("id").asLong(-1);
+            }
+        }
+        String groupWithoutHyphen = groupName.replace("-", "").toLowerCase();
+        for (JsonNode node : groupsArray) {
+            String title = firstNonNullText(node, "title", "name");
+            if (title != null && title.toLowerCase().replace("-", "").contains(groupWithoutHyphen)) {
+                return node.path("id").asLong(-1);
+            }
+        }
+        return -1L;
+    }
+
+    private static String firstNonNullText(JsonNode node, String... keys) {
+        for (String key : keys) {
+            if (node.has(key) && !node.get(key).isNull()) {
+                return node.get(key).asText();
+            }
+        }
+        return null;
+    }
+
+    private static String legacyNormalize(String s) {
+        if (s == null) {
+            return "";
+        }
+        return s.toLowerCase()
+                .replaceAll("[^\\p{Alnum}\\s]", " ")
+                .replaceAll("\\s+", " ")
+                .trim();
+    }
+}
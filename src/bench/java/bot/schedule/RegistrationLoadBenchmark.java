@@ -0,0 +1,162 @@
+package bot.schedule;
+
+import bot.commands.FakeUrfuServer;
+import bot.db.SQLiteDatabase;
+import bot.fsm.DialogState;
+import bot.user.User;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Волна регистраций против локального стенда FakeUrfuServer: тысячи синтетических пользователей одновременно
+ * проходят шаг ASK_COURSE (ScheduleProvider.scheduleFor) с настоящими ScheduleFetcher, UrfuApiClient и schedules.db.
+ *
+ * Пользователи распределены по всем департаментам справочника, курсам 1–4 и groupsPerCourse группам, так что
+ * большинство приходит в группу, расписание которой уже загрузил одногруппник. Время одной волны — результат JMH,
+ * а задержки отдельных регистраций (p50/p99), ошибки и число запросов к стенду печатаются после каждой итерации.
+ * Запуск: mvn -Pbench test-compile exec:exec -Dbench.args="RegistrationLoad -p users=5000 -p errorRate=0.05"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class RegistrationLoadBenchmark {
+
+    @Param({"1000", "5000"})
+    public int users;
+
+    @Param({"32"})
+    public int threads; // одновременно обрабатываемых обновлений Telegram
+
+    @Param({"20"})
+    public int latencyMillis; // задержка стенда: случайная в [latency, 4 * latency]
+
+    @Param({"0.01"})
+    public double errorRate;
+
+    @Param({"10"})
+    public int groupsPerCourse;
+
+    private FakeUrfuServer urfu;
+    private Path dir;
+    private SQLiteDatabase database;
+    private CatalogueCache catalogue;
+    private ScheduleProvider provider;
+    private ExecutorService pool;
+    private List<User> registrations;
+    private long[] latencies;
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicReference<String> firstError = new AtomicReference<>();
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        urfu = new FakeUrfuServer().start()
+                .setLatency(latencyMillis, 4L * latencyMillis)
+                .setErrorRate(errorRate)
+                .setGroupsPerCourse(groupsPerCourse);
+        dir = Files.createTempDirectory("registration-load");
+        database = new SQLiteDatabase(dir.resolve("schedules.db").toString());
+        SQLiteScheduleStorage common = new SQLiteScheduleStorage(database);
+        common.initialize();
+        ScheduleManager manager = new ScheduleManager(null, common, null, null);
+        String baseUrl = urfu.getBaseUrl(); // новый порт на итерацию — свои предохранители
+        catalogue = new CatalogueCache(dir.resolve("catalogue"), CatalogueCache.DEFAULT_TTL,
+                CatalogueCache.DEFAULT_MAX_STALE, System::currentTimeMillis, Runnable::run); // холодный на каждую итерацию
+        provider = new ScheduleProvider(manager, () -> new ScheduleFetcher(new UrfuApiClient(baseUrl, catalogue)),
+                ScheduleProvider.DEFAULT_FRESH_FOR, ScheduleProvider.DEFAULT_MAX_AGE, System::currentTimeMillis,
+                Runnable::run);
+        pool = Executors.newFixedThreadPool(threads);
+        registrations = syntheticUsers();
+        latencies = new long[registrations.size()];
+        failed.set(0);
+        firstError.set(null);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        pool.shutdownNow();
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%nusers=%d, failed=%d%s, p50=%.1fms, p99=%.1fms, max=%.1fms%n  urfu: %s%n  provider: %s%n  catalogue: %s%n",
+                sorted.length, failed.get(), firstError.get() == null ? "" : " (" + firstError.get() + ")",
+                percentile(sorted, 0.50), percentile(sorted, 0.99), sorted[sorted.length - 1] / 1e6,
+                urfu.metricsSummary(), provider.metricsSummary(), catalogue.metricsSummary());
+        database.close();
+        urfu.close();
+        try (var files = Files.walk(dir)) {
+            files.sorted(Collections.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+
+    @Benchmark
+    public void registerAll(Blackhole bh) throws Exception {
+        List<Future<?>> done = new ArrayList<>(registrations.size());
+        for (int i = 0; i < registrations.size(); i++) {
+            int n = i;
+            done.add(pool.submit(() -> {
+                long start = System.nanoTime();
+                try {
+                    bh.consume(provider.scheduleFor(registrations.get(n)));
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    firstError.compareAndSet(null, e.getClass().getSimpleName() + ": " + e.getMessage());
+                } finally {
+                    latencies[n] = System.nanoTime() - start;
+                }
+            }));
+        }
+        for (Future<?> f : done) {
+            f.get();
+        }
+    }
+
+
+    private List<User> syntheticUsers() { // департаменты x курсы 1–4 x группы, порядок перемешан
+        Map<Long, String> institutes = new HashMap<>();
+        List<FakeUrfuServer.Division> departments = new ArrayList<>();
+        for (FakeUrfuServer.Division division : urfu.getDivisions()) {
+            if (division.parentId() == -1) {
+                institutes.put(division.id(), division.title());
+            } else {
+                departments.add(division);
+            }
+        }
+        List<String[]> groups = new ArrayList<>(); // {группа, институт, департамент, курс}
+        for (FakeUrfuServer.Division department : departments) {
+            for (int course = 1; course <= 4; course++) {
+                for (String group : urfu.groupTitles(department.id(), course)) {
+                    groups.add(new String[]{group, institutes.get(department.parentId()), department.title(),
+                            String.valueOf(course)});
+                }
+            }
+        }
+        List<User> result = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            String[] g = groups.get(i % groups.size());
+            result.add(new User(1_000_000L + i, "Студент " + i, g[0], g[1], g[2], g[3], DialogState.ASK_COURSE));
+        }
+        Collections.shuffle(result, new Random(7));
+        return result;
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)] / 1e6;
+    }
+}
@@ -0,0 +1,93 @@
+package bot.schedule;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор ответа УрФУ с парами: прежний путь (строка -> дерево JsonNode -> firstNonNullText) против ScheduleEventDecoder.
+ *
+ * Основа — записанная неделя группы (src/test/resources/urfu/schedule_week.json), для weeks > 1 события
+ * повторяются со сдвигом дат, как при загрузке нескольких недель или массовом обновлении групп.
+ * Скорость выделения памяти: mvn -Pbench test-compile exec:exec -Dbench.args="ScheduleEventDecoder -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScheduleEventDecoderBenchmark {
+
+    @Param({"1", "16"})
+    public int weeks;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private byte[] payload; // тело ответа, как оно приходит по сети
+
+    @Setup
+    public void setUp() throws Exception {
+        JsonNode week;
+        try (InputStream in = ScheduleEventDecoderBenchmark.class.getResourceAsStream("/urfu/schedule_week.json")) {
+            week = mapper.readTree(in);
+        }
+        ObjectNode root = week.deepCopy();
+        ArrayNode events = root.putArray("events");
+        for (int w = 0; w < weeks; w++) {
+            for (JsonNode event : week.get("events")) {
+                ObjectNode copy = event.deepCopy();
+                copy.put("date", LocalDate.parse(event.get("date").asText()).plusWeeks(w).toString());
+                events.add(copy);
+            }
+        }
+        payload = mapper.writeValueAsBytes(root);
+    }
+
+
+    @Benchmark
+    public void treeDecode(Blackhole bh) throws Exception {
+        String body = new String(payload, StandardCharsets.UTF_8); // прежде тело читалось в строку (resp.body().string())
+        JsonNode root = mapper.readTree(body);
+        JsonNode events = root.has("events") ? root.get("events") : root;
+        for (JsonNode event : events) {
+            String date = firstNonNullText(event, "date", "lesson_date", "lessonDate");
+            String begin = firstNonNullText(event, "timeBegin", "time_begin", "timeStart", "time_start");
+            String end = firstNonNullText(event, "timeEnd", "time_end");
+            String subject = firstNonNullText(event, "title", "discipline", "name");
+            String classroom = firstNonNullText(event, "auditoryTitle", "auditoryLocation", "auditorium");
+            if (date == null || subject == null) {
+                continue;
+            }
+            bh.consume(LocalDate.parse(date));
+            bh.consume(new Lesson(subject, LocalTime.parse(begin), LocalTime.parse(end), classroom == null ? "" : classroom));
+        }
+    }
+
+    @Benchmark
+    public void streamingDecode(Blackhole bh) throws Exception {
+        ScheduleEventDecoder.decode(new ByteArrayInputStream(payload), (date, lesson) -> {
+            bh.consume(date);
+            bh.consume(lesson);
+        });
+    }
+
+
+    private static String firstNonNullText(JsonNode node, String... keys) {
+        for (String key : keys) {
+            if (node.has(key) && !node.get(key).isNull()) {
+                return node.get(key).asText();
+            }
+        }
+        return null;
+    }
+}
@@ -8,6 +8,7 @@ import bot.schedule.Lesson;
 import bot.user.User;
 import bot.user.UserStorage;
 import bot.fsm.DialogState;
+import bot.session.UserContext;
 
 import java.time.DayOfWeek;
 import java.time.LocalDate;
@@ -38,6 +39,14 @@ public class AddHomeworkCommand implements Command {
         this.linkStorage = new HomeworkLinkStorage();
     }
 
+    public AddHomeworkCommand(UserStorage userStorage, SQLiteHomeworkStorage storage,
+                              ScheduleManager scheduleManager, HomeworkLinkStorage linkStorage) { // хранилища из StorageRegistry
+        this.userStorage = userStorage;
+        this.storage = storage;
+        this.scheduleManager = scheduleManager;
+        this.linkStorage = linkStorage;
+    }
+
     @Override
     public String getName() {
         return "/addhw";
@@ -53,9 +62,23 @@ public class AddHomeworkCommand implements Command {
         return "Использование: /addhw *описание домашнего задания*.";
     }
 
+    @Override
+    public SendMessage execute(UserContext ctx, String[] args) {
+        return start(ctx);
+    }
+
+
+    public SendMessage start(long chatId) { // старый вход: свой контекст на один вызов
+        UserContext ctx = newContext(chatId);
+        SendMessage reply = start(ctx);
+        ctx.flush();
+        return reply;
+    }
+
     // запуск интерактивного потока
-    public SendMessage start(long chatId) {
-        User user = userStorage.getUser(chatId);
+    public SendMessage start(UserContext ctx) {
+        long chatId = ctx.getChatId();
+        User user = ctx.getUser();
         if (user == null) {
             return new SendMessage(String.valueOf(chatId),
                     "❌ Профиль не найден. Введите /start.");
@@ -66,9 +89,9 @@ public class AddHomeworkCommand implements Command {
         pending.put(chatId, new Draft());
 
         user.setState(DialogState.ASK_HW_SUBJECT);
-        userStorage.updateUser(user);
+        ctx.markDirty();
 
-        Schedule schedule = scheduleManager.getScheduleForUser(chatId);
+        Schedule schedule = ctx.getSchedule();
         if (schedule == null) {
             return new SendMessage(String.valueOf(chatId),
                     "Шаг 1/4 — введите предмет (например: Математика).");
@@ -100,11 +123,19 @@ public class AddHomeworkCommand implements Command {
         );
     }
 
-    public SendMessage handleStateMessage(long chatId, String messageText) {
+    public SendMessage handleStateMessage(long chatId, String messageText) { // старый вход: свой контекст на один вызов
+        UserContext ctx = newContext(chatId);
+        SendMessage reply = handleStateMessage(ctx, messageText);
+        ctx.flush();
+        return reply;
+    }
+
+    public SendMessage handleStateMessage(UserContext ctx, String messageText) {
+        long chatId = ctx.getChatId();
         if (messageText == null) messageText = "";
         String txt = messageText.trim();
 
-        User user = userStorage.getUser(chatId);
+        User user = ctx.getUser();
         if (user == null) return createMessage(chatId, "❌ Профиль не найден. Введите /start.");
 
         Draft draft = pending.get(chatId);
@@ -116,33 +147,34 @@ public class AddHomeworkCommand implements Command {
         DialogState state = user.getState();
         if (state == null) {
             user.setState(DialogState.ASK_HW_SUBJECT);
-            userStorage.updateUser(user);
-            return start(chatId);
+            ctx.markDirty();
+            return start(ctx);
         }
 
         switch (state) {
             case ASK_HW_SUBJECT:
-                return handleSubject(chatId, user, draft, txt);
+                return handleSubject(ctx, user, draft, txt);
             case ASK_HW_TIME:
-                return handleTime(chatId, user, draft, txt);
+                return handleTime(ctx, user, draft, txt);
             case ASK_HW_DESCRIPTION:
-                return handleDescription(chatId, user, draft, txt);
+                return handleDescription(ctx, user, draft, txt);
             case ASK_HW_REMIND:
-                return handleRemind(chatId, user, draft, txt);
+                return handleRemind(ctx, user, draft, txt);
             default:
                 user.setState(DialogState.ASK_HW_SUBJECT);
-                userStorage.updateUser(user);
+                ctx.markDirty();
                 return createMessage(chatId, "Начнём заново. Введите предмет.");
         }
     }
 
     // Предмет
-    private SendMessage handleSubject(long chatId, User user, Draft draft, String txt) {
+    private SendMessage handleSubject(UserContext ctx, User user, Draft draft, String txt) {
+        long chatId = ctx.getChatId();
         if (txt.isEmpty()) {
             return createMessage(chatId, "Введите предмет.");
         }
 
-        Schedule schedule = scheduleManager.getScheduleForUser(chatId);
+        Schedule schedule = ctx.getSchedule();
         if (schedule != null) {
             final String subjectInput = txt;
             boolean found = schedule.getWeeklySchedule().values().stream()
@@ -158,7 +190,7 @@ public class AddHomeworkCommand implements Command {
             else {
                 draft.subject = txt;
                 user.setState(DialogState.ASK_HW_TIME);
-                userStorage.updateUser(user);
+                ctx.markDirty();
 
                 List<String> days = List.of(
                         "MONDAY", "TUESDAY", "WEDNESDAY",
@@ -175,7 +207,7 @@ public class AddHomeworkCommand implements Command {
             // Если расписание отсутствует — позволим ввести предмет и идти дальше
             draft.subject = txt;
             user.setState(DialogState.ASK_HW_TIME);
-            userStorage.updateUser(user);
+            ctx.markDirty();
 
             List<String> days = List.of(
                     "MONDAY", "TUESDAY", "WEDNESDAY",
@@ -191,7 +223,8 @@ public class AddHomeworkCommand implements Command {
     }
 
     // Время
-    private SendMessage handleTime(long chatId, User user, Draft draft, String txt) {
+    private SendMessage handleTime(UserContext ctx, User user, Draft draft, String txt) {
+        long chatId = ctx.getChatId();
         List<String> days = List.of(
                 "MONDAY", "TUESDAY", "WEDNESDAY",
                 "THURSDAY", "FRIDAY", "SATURDAY", "SUNDAY"
@@ -228,7 +261,7 @@ public class AddHomeworkCommand implements Command {
         draft.dueDate = date;
 
         // проверка: если расписание есть — убедиться, что предмет есть на этот день
-        Schedule s = scheduleManager.getScheduleForUser(chatId);
+        Schedule s = ctx.getSchedule();
         if (s != null && draft.subject != null) {
             String dayKey = date.getDayOfWeek().name();
             List<Lesson> lessons = getLessonsIgnoreCaseFromSchedule(s, dayKey);
@@ -248,23 +281,25 @@ public class AddHomeworkCommand implements Command {
         }
 
         user.setState(DialogState.ASK_HW_DESCRIPTION);
-        userStorage.updateUser(user);
+        ctx.markDirty();
         return createMessage(chatId, "Шаг 3/4 — введите текст задания (или /skip для пропуска описания).");
     }
 
     // Ожидаем описание
-    private SendMessage handleDescription(long chatId, User user, Draft draft, String txt) {
+    private SendMessage handleDescription(UserContext ctx, User user, Draft draft, String txt) {
+        long chatId = ctx.getChatId();
         if (txt.equalsIgnoreCase("/skip")) txt = ""; // /skip — пропустить описание
         draft.description = txt;
 
         // Переводим на шаг вопроса о напоминании
         user.setState(DialogState.ASK_HW_REMIND);
-        userStorage.updateUser(user);
+        ctx.markDirty();
         return createMessage(chatId, "Шаг 4/4 — За сколько дней до дедлайна напомнить? Введите целое число (например: 1). Введите /skip для значения по умолчанию (1).");
     }
 
     // Ожидаем remind-days
-    private SendMessage handleRemind(long chatId, User user, Draft draft, String txt) {
+    private SendMessage handleRemind(UserContext ctx, User user, Draft draft, String txt) {
+        long chatId = ctx.getChatId();
         final int DEFAULT = 1;
         int remindDays = DEFAULT;
         if (txt.equalsIgnoreCase("/skip") || txt.isEmpty()) {
@@ -298,7 +333,7 @@ public class AddHomeworkCommand implements Command {
 
         // Попытка привязать дз к паре/уроку
         try {
-            Schedule sched = scheduleManager.getScheduleForUser(chatId);
+            Schedule sched = ctx.getSchedule();
             if (sched != null && draft.subject != null && draft.dueDate != null) {
                 String dayKey = draft.dueDate.getDayOfWeek().name();
                 List<Lesson> lessons = sched.getWeeklySchedule().get(dayKey);
@@ -325,13 +360,18 @@ public class AddHomeworkCommand implements Command {
         // завершение
         pending.remove(chatId);
         user.setState(DialogState.REGISTERED);
-        userStorage.updateUser(user);
+        ctx.markDirty();
 
         return createMessage(chatId, "✅ Домашнее задание добавлено: " + (draft.subject == null ? "-" : draft.subject)
                 + " — " + (draft.description == null || draft.description.isEmpty() ? "-" : draft.description)
                 + " (до " + (draft.dueDate == null ? "-" : draft.dueDate.toString()) + "). Напомню за " + draft.remindBeforeDays + " дн.");
     }
 
+    private UserContext newContext(long chatId) {
+        // расписание через scheduleManager.getScheduleForUser(chatId), как и раньше у этого входа
+        return new UserContext(chatId, userStorage, user -> scheduleManager.getScheduleForUser(chatId));
+    }
+
     private static class Draft {
         String subject;
         String description;
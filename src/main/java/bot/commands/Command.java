@@ -1,9 +1,16 @@
 package bot.commands;
 
+import bot.session.UserContext;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+
 public interface Command {
 	
 	String getName();
 	String getInformation();
 	String realization(String[] args);
 
+	default SendMessage execute(UserContext ctx, String[] args) { // выполнить команду для пользователя апдейта (пользователь берётся из ctx)
+		return new SendMessage(String.valueOf(ctx.getChatId()), realization(args));
+	}
+
 }
@@ -3,6 +3,8 @@ package bot.commands;
 import bot.homework.SQLiteHomeworkStorage;
 import bot.homework.HomeworkItem;
 import bot.homework.HomeworkLinkStorage;
+import bot.session.UserContext;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 
 import java.util.List;
 import java.util.stream.Collectors;
@@ -18,6 +20,11 @@ public class DeleteHomeworkCommand implements Command {
         this.linkStorage = new HomeworkLinkStorage();
     }
 
+    public DeleteHomeworkCommand(SQLiteHomeworkStorage storage, HomeworkLinkStorage linkStorage) { // хранилища из StorageRegistry
+        this.storage = storage;
+        this.linkStorage = linkStorage;
+    }
+
     @Override
     public String getName() {
         return "/deletehw";
@@ -36,6 +43,11 @@ public class DeleteHomeworkCommand implements Command {
         return getInformation();
     }
 
+    @Override
+    public SendMessage execute(UserContext ctx, String[] args) {
+        return new SendMessage(String.valueOf(ctx.getChatId()), realizationWithChatId(ctx.getChatId(), args));
+    }
+
     public String realizationWithChatId(long chatId, String[] args) {
         try {
             List<HomeworkItem> all = storage.getHomeworkByUser(chatId);
@@ -3,6 +3,7 @@ package bot.commands;
 import bot.session.EditSessionManager;
 import java.time.DayOfWeek;
 import bot.session.Session;
+import bot.session.UserContext;
 import bot.fsm.DialogState;
 import bot.schedule.Lesson;
 import bot.schedule.Schedule;
@@ -47,8 +48,22 @@ public class EditScheduleCommand implements Command {
     }
 
 
-    public SendMessage processChange(long chatId, String[] args) { // редактирование домашки
-        User user = userStorage.getUser(chatId);
+    @Override
+    public SendMessage execute(UserContext ctx, String[] args) {
+        return processChange(ctx, args);
+    }
+
+
+    public SendMessage processChange(long chatId, String[] args) { // старый вход: свой контекст на один вызов
+        UserContext ctx = new UserContext(chatId, userStorage, scheduleManager);
+        SendMessage reply = processChange(ctx, args);
+        ctx.flush();
+        return reply;
+    }
+
+    public SendMessage processChange(UserContext ctx, String[] args) { // редактирование домашки
+        long chatId = ctx.getChatId();
+        User user = ctx.getUser();
         if (user == null) {
             return createMessage(chatId, "❌❌❌ Сначала зарегистрируйтесь командой /start");
         }
@@ -75,15 +90,17 @@ public class EditScheduleCommand implements Command {
         String dayLower = dayEnum.name().toLowerCase();
 
         user.setWaitingForButton(false); // Сбрасываем флаг ожидания кнопки, (чтобы StartCommand не перехватывал нажатия)
-        userStorage.updateUser(user);
+        ctx.markDirty();
 
         Session session = EditSessionManager.getSession(chatId); // Создаём/обновляем сессию редактирования
         session.setDay(dayLower); // временно сохраняем lower; позже заменим на найденный ключ 
 
 
-        if (!scheduleManager.customScheduleExists(chatId)) { // если у пользователя нет кастомного расписания - копируем общее
+        if (!user.getHasCustomSchedule()) { // если у пользователя нет кастомного расписания - включаем его (правки поверх общего)
             try {
-                scheduleManager.copyCommonToCustom(chatId);
+                scheduleManager.copyCommonToCustom(user); // флаг hasCustomSchedule ставится на user из контекста
+                ctx.markDirty();
+                ctx.invalidateSchedule();
             } catch (Exception e) {
                 // >>> ДОБАВЛЕНО: логирование (стек) и дружелюбный ответ пользователю
                 e.printStackTrace();
@@ -91,7 +108,7 @@ public class EditScheduleCommand implements Command {
             }
         }
 
-        Schedule schedule = scheduleManager.getScheduleForUser(chatId); // пытаемся получить расписание
+        Schedule schedule = ctx.getSchedule(); // пытаемся получить расписание
         if (schedule == null) {
             return createMessage(chatId, "❌ Ошибка: расписание не найдено. Попробуйте позже.");
         }
@@ -140,17 +157,25 @@ public class EditScheduleCommand implements Command {
         text.append("Выберите действие:");
 
         user.setState(DialogState.EDIT_CHOOSE_ACTION); // Устанавливаем состояние диалога на выбор действия
-        userStorage.updateUser(user);
+        ctx.markDirty();
 
         List<String> options = List.of("Добавить", "Удалить");
         return createMessageWithDynamicButtons(chatId, text.toString(), options);
     }
 
 
-    public SendMessage processEdit(long chatId, String rawMessageText) { // обработка шагов редактирования
+    public SendMessage processEdit(long chatId, String rawMessageText) { // старый вход: свой контекст на один вызов
+        UserContext ctx = new UserContext(chatId, userStorage, scheduleManager);
+        SendMessage reply = processEdit(ctx, rawMessageText);
+        ctx.flush();
+        return reply;
+    }
+
+    public SendMessage processEdit(UserContext ctx, String rawMessageText) { // обработка шагов редактирования
+        long chatId = ctx.getChatId();
         String messageText = rawMessageText == null ? "" : rawMessageText.trim();
 
-        User user = userStorage.getUser(chatId);
+        User user = ctx.getUser();
         if (user == null) {
             return createMessage(chatId, "❌ Ошибка: пользователь не найден. Введите /start для регистрации.");
         }
@@ -159,12 +184,12 @@ public class EditScheduleCommand implements Command {
         if (session == null || session.getDay() == null) {
             // Если сессия потеряна — попросим начать заново
             user.setState(DialogState.REGISTERED);
-            userStorage.updateUser(user);
+            ctx.markDirty();
             return createMessage(chatId, "❌ Сессия редактирования утрачена. Введите /editSchedule <день> чтобы начать заново.");
         }
 
         String day = session.getDay();
-        Schedule schedule = scheduleManager.getScheduleForUser(chatId);
+        Schedule schedule = ctx.getSchedule();
         if (schedule == null) {
             return createMessage(chatId, "❌ Ошибка: расписание не найдено. Попробуйте позже.");
         }
@@ -173,11 +198,11 @@ public class EditScheduleCommand implements Command {
             case EDIT_CHOOSE_ACTION:
                 if (messageText.equalsIgnoreCase("Добавить")) {
                     user.setState(DialogState.ASK_SUBJECT);
-                    userStorage.updateUser(user);
+                    ctx.markDirty();
                     return createMessage(chatId, "Введите название предмета:");
                 } else if (messageText.equalsIgnoreCase("Удалить")) {
                     user.setState(DialogState.ASK_LESSON_INDEX);
-                    userStorage.updateUser(user);
+                    ctx.markDirty();
                     return createMessage(chatId, "Введите номер пары для удаления:");
                 } else {
                     return createMessage(chatId, "❌❌❌ Пожалуйста, выберите действие с помощью кнопки: Добавить или Удалить");
@@ -189,7 +214,7 @@ public class EditScheduleCommand implements Command {
                 }
                 session.setSubject(messageText);
                 user.setState(DialogState.ASK_ROOM);
-                userStorage.updateUser(user);
+                ctx.markDirty();
                 return createMessage(chatId, "Введите номер аудитории:");
 
             case ASK_ROOM:
@@ -198,7 +223,7 @@ public class EditScheduleCommand implements Command {
                 }
                 session.setRoom(messageText);
                 user.setState(DialogState.ASK_TIME_BEGIN);
-                userStorage.updateUser(user);
+                ctx.markDirty();
                 return createMessage(chatId, "Введите время начала (например, 09:00):");
 
             case ASK_TIME_BEGIN:
@@ -207,7 +232,7 @@ public class EditScheduleCommand implements Command {
                 }
                 session.setTimeBegin(messageText);
                 user.setState(DialogState.ASK_TIME_END);
-                userStorage.updateUser(user);
+                ctx.markDirty();
                 return createMessage(chatId, "Введите время окончания (например, 10:30):");
 
             case ASK_TIME_END:
@@ -222,19 +247,19 @@ public class EditScheduleCommand implements Command {
                     LocalTime end = LocalTime.parse(session.getTimeEnd());
                     Lesson newLesson = new Lesson(session.getSubject(), begin, end, session.getRoom());
 
-                    // Используем session.getDay() как ключ 
-                    schedule.addLesson(session.getDay(), newLesson);
-                    scheduleManager.saveCustomSchedule(chatId, schedule);
+                    // Используем session.getDay() как ключ; сохраняется одна правка, а не вся неделя
+                    scheduleManager.addCustomLesson(user, session.getDay(), newLesson);
+                    ctx.invalidateSchedule();
 
                     user.setState(DialogState.REGISTERED);
-                    userStorage.updateUser(user);
+                    ctx.markDirty();
                     EditSessionManager.clearSession(chatId);
 
                     return createMessage(chatId, "✅ Пара успешно добавлена!");
                 } catch (DateTimeParseException e) {
                     // Оставляем состояние ASK_TIME_END, просим ввести корректно
                     user.setState(DialogState.ASK_TIME_END);
-                    userStorage.updateUser(user);
+                    ctx.markDirty();
                     return createMessage(chatId, "❌ Формат времени некорректен, повторите регистрацию пары. Введите время в формате HH:mm, например 09:00:");
                 } catch (Exception e) {
                     e.printStackTrace();
@@ -269,7 +294,7 @@ public class EditScheduleCommand implements Command {
 
                 if (lessons == null || lessons.isEmpty()) { // Нечего удалять
                     user.setState(DialogState.REGISTERED);
-                    userStorage.updateUser(user);
+                    ctx.markDirty();
                     EditSessionManager.clearSession(chatId);
                     return createMessage(chatId, "❌ Пары отсутствуют для удаления.");
                 }
@@ -278,13 +303,14 @@ public class EditScheduleCommand implements Command {
                     return createMessage(chatId, "❌ Пары с таким номером нет. Введите корректный номер:");
                 }
 
-                lessons.remove(index);
+                Lesson removed = lessons.get(index);
 
                 try {
-                    scheduleManager.saveCustomSchedule(chatId, schedule);
+                    scheduleManager.removeCustomLesson(user, day, removed); // одна правка, а не вся неделя
+                    ctx.invalidateSchedule();
 
                     user.setState(DialogState.REGISTERED);
-                    userStorage.updateUser(user);
+                    ctx.markDirty();
                     EditSessionManager.clearSession(chatId);
 
                     return createMessage(chatId, "✅ Пара успешно удалена!");
@@ -295,7 +321,7 @@ public class EditScheduleCommand implements Command {
 
             default: // Если попали сюда — попросим начать заново
                 user.setState(DialogState.REGISTERED);
-                userStorage.updateUser(user);
+                ctx.markDirty();
                 EditSessionManager.clearSession(chatId);
                 return createMessage(chatId, "❌❌❌ Неожиданное состояние. Введите /editSchedule <день> чтобы начать заново.");
         }
@@ -4,8 +4,8 @@ import bot.user.User;
 import bot.user.UserStorage;
 import bot.fsm.DialogState;
 import bot.schedule.Schedule;
-import bot.schedule.ScheduleFetcher;
 import bot.schedule.ScheduleManager;
+import bot.schedule.ScheduleProvider;
 
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 
@@ -20,9 +20,35 @@ public class InviteHandler {
 
     private final UserStorage userStorage;
     private final ObjectMapper mapper = new ObjectMapper();
+    private ScheduleManager scheduleManager; // общий менеджер расписаний (из StorageRegistry)
+    private ScheduleProvider scheduleProvider; // расписание группы: сначала из schedules.db (из StorageRegistry)
 
     public InviteHandler(UserStorage userStorage) {
+        this(userStorage, null);
+    }
+
+    public InviteHandler(UserStorage userStorage, ScheduleManager scheduleManager) {
+        this(userStorage, scheduleManager, null);
+    }
+
+    public InviteHandler(UserStorage userStorage, ScheduleManager scheduleManager, ScheduleProvider scheduleProvider) {
         this.userStorage = userStorage;
+        this.scheduleManager = scheduleManager;
+        this.scheduleProvider = scheduleProvider;
+    }
+
+    private synchronized ScheduleManager scheduleManager() { // старый конструктор: менеджер создаём один раз и при первом обращении
+        if (scheduleManager == null) {
+            scheduleManager = new ScheduleManager(userStorage);
+        }
+        return scheduleManager;
+    }
+
+    private synchronized ScheduleProvider scheduleProvider() {
+        if (scheduleProvider == null) {
+            scheduleProvider = new ScheduleProvider(scheduleManager());
+        }
+        return scheduleProvider;
     }
 
     public SendMessage tryProcessInvite(long chatId, String fullText) {
@@ -73,31 +99,27 @@ public class InviteHandler {
                 userStorage.updateUser(user);
 
                 try {
-                    // Попытка загрузить расписание для подставленной группы (используем fetcher как раньше)
-                    ScheduleFetcher fetcher = new ScheduleFetcher();
-                    Schedule schedule = fetcher.fetchForUser(user);
+                    // Расписание подставленной группы: обычно оно уже в базе — у пригласившего та же группа
+                    Schedule schedule = scheduleProvider().scheduleFor(user);
 
-                    ScheduleManager sm = new ScheduleManager(userStorage);
+                    ScheduleManager sm = scheduleManager();
                     if (schedule != null) {
-                        // Сохраняем общее расписание (как раньше)
-                        sm.saveCommonSchedule(schedule);
-
                         // Если у пользователя был кастом — сбросим, чтобы новое общее вступило в силу
                         if (sm.customScheduleExists(chatId)) {
                             sm.resetToOriginalSchedule(chatId);
                         }
-                        sm.close();
 
                         return msg(chatId,
                                 "Вы перешли по приглашению! 🎉\n\n" +
                                         "Ваша группа и сопутствующие данные обновлены автоматически.\n" +
-                                        "Расписание было успешно загружено и заменено на расписание приглашённой группы.\n\n" +
+                                        "Расписание было успешно загружено и заменено на расписание приглашённой группы.\n" +
+                                        (schedule.isStale() ? "⚠️ Сайт УрФУ сейчас недоступен, расписание может быть устаревшим.\n" : "") +
+                                        "\n" +
                                         "Группа: " + user.getGroup() + "\n" +
                                         "Институт: " + user.getUniversity() + "\n" +
                                         "Департамент: " + user.getDepartment() + "\n" +
                                         "Курс: " + user.getCourse());
                     } else {
-                        sm.close();
                         return msg(chatId,
                                 "Вы перешли по приглашению! 🎉\n\n" +
                                         "Данные группы обновлены, но не удалось загрузить расписание для этой группы.\n" +
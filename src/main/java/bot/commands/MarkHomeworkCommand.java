@@ -2,6 +2,8 @@ package bot.commands;
 
 import bot.homework.SQLiteHomeworkStorage;
 import bot.homework.HomeworkItem;
+import bot.session.UserContext;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import java.util.List;
 
 public class MarkHomeworkCommand implements Command {
@@ -15,6 +17,11 @@ public class MarkHomeworkCommand implements Command {
         this.markAsDone = markAsDone;
     }
 
+    public MarkHomeworkCommand(SQLiteHomeworkStorage storage, boolean markAsDone) { // хранилище из StorageRegistry
+        this.storage = storage;
+        this.markAsDone = markAsDone;
+    }
+
     @Override
     public String getName() {
         return markAsDone ? "/markhw" : "/unmarkhw";
@@ -31,6 +38,11 @@ public class MarkHomeworkCommand implements Command {
         return "Использование: " + (markAsDone ? "/markhw <id>" : "/unmarkhw <id>");
     }
 
+    @Override
+    public SendMessage execute(UserContext ctx, String[] args) {
+        return new SendMessage(String.valueOf(ctx.getChatId()), realizationWithChatId(ctx.getChatId(), args));
+    }
+
     public String realizationWithChatId(long chatId, String[] args) { //передаём id чата и команду, полученную от пользователя, с аргументами
         if (args == null || args.length < 2 || args[1].trim().isEmpty()) {
             return realization(args);
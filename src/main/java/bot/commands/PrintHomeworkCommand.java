@@ -2,6 +2,8 @@ package bot.commands;
 
 import bot.homework.SQLiteHomeworkStorage;
 import bot.homework.HomeworkItem;
+import bot.session.UserContext;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 
 import java.time.DayOfWeek;
 import java.time.LocalDate;
@@ -18,6 +20,10 @@ public class PrintHomeworkCommand implements Command {
         this.storage.initialize();
     }
 
+    public PrintHomeworkCommand(SQLiteHomeworkStorage storage) { // хранилище из StorageRegistry
+        this.storage = storage;
+    }
+
     @Override
     public String getName() {
         return "/homework";
@@ -41,6 +47,11 @@ public class PrintHomeworkCommand implements Command {
                 "/homework *название предмета* — задания по конректному предмету";
     }
 
+    @Override
+    public SendMessage execute(UserContext ctx, String[] args) {
+        return new SendMessage(String.valueOf(ctx.getChatId()), realizationWithChatId(ctx.getChatId(), args));
+    }
+
     public String realizationWithChatId(long chatId, String[] args) {
         try {
             List<HomeworkItem> all = storage.getHomeworkByUser(chatId);
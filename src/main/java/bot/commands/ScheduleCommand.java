@@ -2,6 +2,7 @@ package bot.commands;
 
 import bot.schedule.Schedule;
 import bot.schedule.ScheduleManager; 
+import bot.session.UserContext;
 import bot.user.User;
 import bot.user.UserStorage;
 
@@ -9,12 +10,20 @@ import java.time.DayOfWeek;
 import java.util.List;
 import java.util.Map;
 
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+
 public class ScheduleCommand implements Command {
 
     private final UserStorage userStorage;
+    private ScheduleManager scheduleManager; // общий менеджер расписаний (из StorageRegistry)
 
     public ScheduleCommand(UserStorage userStorage) {
+        this(userStorage, null);
+    }
+
+    public ScheduleCommand(UserStorage userStorage, ScheduleManager scheduleManager) {
         this.userStorage = userStorage;
+        this.scheduleManager = scheduleManager;
     }
 
     @Override
@@ -33,16 +42,23 @@ public class ScheduleCommand implements Command {
     }
 
 
-    public String realizationWithChatId(long chatId, String[] args) {
+    @Override
+    public SendMessage execute(UserContext ctx, String[] args) {
+        return new SendMessage(String.valueOf(ctx.getChatId()), realizationWithChatId(ctx, args));
+    }
+
+    public String realizationWithChatId(long chatId, String[] args) { // старый вход: свой контекст на один вызов
+        return realizationWithChatId(new UserContext(chatId, userStorage, user -> scheduleManager().getScheduleForUser(user)), args);
+    }
+
+    public String realizationWithChatId(UserContext ctx, String[] args) {
         try {
-            User user = userStorage.getUser(chatId);
+            User user = ctx.getUser();
             if (user == null) {
                 return "Вы не зарегистрированы. Введите /start, чтобы зарегистрироваться.";
             }
 
-            ScheduleManager manager = new ScheduleManager(userStorage); // расписание берем через менеджре, на случай, если есть кастомное
-            Schedule sched = manager.getScheduleForUser(chatId);
-            manager.close();
+            Schedule sched = ctx.getSchedule(); // расписание берем через менеджре, на случай, если есть кастомное
 
             if (sched == null) {
                 return "Расписание для вашей группы не найдено. Оно либо ещё не было загружено, " +
@@ -79,6 +95,14 @@ public class ScheduleCommand implements Command {
     }
 
 
+    private synchronized ScheduleManager scheduleManager() { // старый конструктор: менеджер создаём один раз и при первом обращении
+        if (scheduleManager == null) {
+            scheduleManager = new ScheduleManager(userStorage);
+        }
+        return scheduleManager;
+    }
+
+
     private String formatScheduleForDay(Schedule sched, DayOfWeek day, String group) {
         StringBuilder sb = new StringBuilder();
 
@@ -1,7 +1,9 @@
 package bot.commands;
 
+import bot.session.UserContext;
 import bot.user.User;
 import bot.user.UserStorage;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
@@ -30,9 +32,17 @@ public class ShareGroupCommand implements Command {
         return "Использование: /sharegroup — создать приглашение (действует " + expiryDays + " дней)";
     }
 
+    @Override
+    public SendMessage execute(UserContext ctx, String[] args) {
+        return new SendMessage(String.valueOf(ctx.getChatId()), start(ctx.getChatId(), ctx.getUser()));
+    }
+
     // Вызывается из Homeworkbot при получении /sharegroup
     public String start(long chatId) {
-        User user = userStorage.getUser(chatId);
+        return start(chatId, userStorage.getUser(chatId));
+    }
+
+    private String start(long chatId, User user) {
         if (user == null) return "❌ Вы не зарегистрированы. Введите /start чтобы зарегистрироваться.";
         String group = user.getGroup();
         if (group == null || group.trim().isEmpty()) return "❌ У вас не указана группа в профиле.";
@@ -3,6 +3,7 @@ package bot.commands;
 import bot.schedule.*;
 import bot.user.*;
 import bot.fsm.DialogState;
+import bot.session.UserContext;
 
 
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
@@ -15,6 +16,9 @@ import java.util.*; //чтобы использовать Map, List
 
 public class StartCommand implements Command {
     private final UserStorage userStorage; // объявляем ссылку на объект, который реализует интерфейс хранилища
+    private ScheduleManager scheduleManager; // общий менеджер расписаний (из StorageRegistry)
+    private ScheduleProvider scheduleProvider; // расписание при регистрации (из StorageRegistry)
+    private final RegistrationPrefetcher prefetcher; // загрузка заранее по ходу диалога (null — грузим на ASK_COURSE, как раньше)
 
     private static final Map<String, List<String>> INSTITUTE_DEPARTMENTS = new HashMap<>();
 
@@ -36,7 +40,52 @@ public class StartCommand implements Command {
     }
 
     public StartCommand(UserStorage userStorage) { // конструктор класса 
+        this(userStorage, null);
+    }
+
+    public StartCommand(UserStorage userStorage, ScheduleManager scheduleManager) {
+        this(userStorage, scheduleManager, null);
+    }
+
+    public StartCommand(UserStorage userStorage, ScheduleManager scheduleManager, ScheduleProvider scheduleProvider) {
+        this(userStorage, scheduleManager, scheduleProvider, null);
+    }
+
+    public StartCommand(UserStorage userStorage, ScheduleManager scheduleManager, ScheduleProvider scheduleProvider,
+                        RegistrationPrefetcher prefetcher) {
         this.userStorage = userStorage;
+        this.scheduleManager = scheduleManager;
+        this.scheduleProvider = scheduleProvider;
+        this.prefetcher = prefetcher;
+    }
+
+
+    private synchronized ScheduleManager scheduleManager() { // старый конструктор: менеджер создаём один раз и при первом обращении
+        if (scheduleManager == null) {
+            scheduleManager = new ScheduleManager(userStorage);
+        }
+        return scheduleManager;
+    }
+
+    private synchronized ScheduleProvider scheduleProvider() {
+        if (scheduleProvider == null) {
+            scheduleProvider = new ScheduleProvider(scheduleManager());
+        }
+        return scheduleProvider;
+    }
+
+    private Schedule registrationSchedule(User user) throws bot.user.exception.ScheduleFetchException {
+        if (prefetcher != null) {
+            return prefetcher.scheduleFor(user); // загрузка уже идёт с шага департамента, если курс угадан
+        }
+        return scheduleProvider().scheduleFor(user);
+    }
+
+    private static String scheduleLoaded(Schedule schedule) { // строка о расписании в сообщении о регистрации
+        if (schedule.isStale()) { // УрФУ недоступен — отдана сохранённая копия
+            return "⚠️ Сайт УрФУ сейчас недоступен: загружено сохранённое расписание, оно может быть устаревшим.\n";
+        }
+        return "Расписание успешно загружено!\n";
     }
 
     
@@ -58,21 +107,34 @@ public class StartCommand implements Command {
     }
 
    
-    public SendMessage processStart(long chatId) { // метод обработки команд
+    @Override
+    public SendMessage execute(UserContext ctx, String[] args) {
+        return processStart(ctx);
+    }
+
+
+    public SendMessage processStart(long chatId) { // старый вход: свой контекст на один вызов
+        UserContext ctx = newContext(chatId);
+        return flush(ctx, processStart(ctx));
+    }
+
+    public SendMessage processStart(UserContext ctx) { // метод обработки команд
+        long chatId = ctx.getChatId();
         try {
-            User user = userStorage.getUser(chatId); // пытаемся получить пользователя из бд
+            User user = ctx.getUser(); // пользователь из контекста апдейта
             
             // Если пользователь уже есть и у него было кастомное расписание — сбрасываем его
-            ScheduleManager sm = new ScheduleManager(userStorage); // создаем менеджер расписаний
-            if (sm.customScheduleExists(chatId)) { // проверяем, есть ли кастомное расписание
-                sm.resetToOriginalSchedule(chatId); // сбрасываем (удаляем кастом и возвращаем общее)
+            ScheduleManager sm = scheduleManager(); // общий менеджер расписаний
+            if (user != null && sm.customScheduleExists(chatId)) { // проверяем, есть ли кастомное расписание
+                sm.resetToOriginalSchedule(user); // сбрасываем (удаляем кастом и возвращаем общее)
+                ctx.markDirty();
+                ctx.invalidateSchedule();
                 System.out.println("Кастомное расписание удалено при запуске /start для пользователя " + chatId);
             }
-            sm.close(); // закрываем соединение с базами
             
             if (user == null) {
                 user = new User(chatId);
-                userStorage.saveUser(user);
+                ctx.setNewUser(user); // сохранится при flush
                 return createMessage(chatId, 
                     "Привет-привет! ✨\n Я твой новый друг-бот, который поможет не пропустить ни одной пары и ни одного дедлайна! \n\n" +
                     "📋 Пожалуйста, представься: введите ваше имя");
@@ -89,7 +151,7 @@ public class StartCommand implements Command {
                                  "Хотите изменить данные профиля?";
                 
                 user.setWaitingForButton(true);
-                userStorage.updateUser(user);
+                ctx.markDirty();
                 
                 return createMessageWithDynamicButtons(chatId, userInfo, List.of("ДА", "НЕТ")); // возвращаем сообщение с кнопками
             } else { // пользователь в процессе регистрации
@@ -103,27 +165,33 @@ public class StartCommand implements Command {
     }
 
  
-    public SendMessage processButtonResponse(long chatId, String messageText) { // обрабатывает ответы на кнопки да нет
+    public SendMessage processButtonResponse(long chatId, String messageText) { // старый вход: свой контекст на один вызов
+        UserContext ctx = newContext(chatId);
+        return flush(ctx, processButtonResponse(ctx, messageText));
+    }
+
+    public SendMessage processButtonResponse(UserContext ctx, String messageText) { // обрабатывает ответы на кнопки да нет
+        long chatId = ctx.getChatId();
         try {
-            User user = userStorage.getUser(chatId);
+            User user = ctx.getUser();
 
             user.setWaitingForButton(false); // сбрасываем флаг после обработки
             
             if (messageText.equalsIgnoreCase("ДА")) {
                 user.setState(DialogState.ASK_NAME);
-                userStorage.updateUser(user); // обновили состояние в хранилище
+                ctx.markDirty(); // обновили состояние в хранилище
                 return createMessage(chatId, 
                     "Начинаем обновление данных!\n\n" +
                     "Пожалуйста, введите ваше новое имя:");
             } else if (messageText.equalsIgnoreCase("НЕТ")) {
-                userStorage.updateUser(user); 
+                ctx.markDirty(); 
                 return createMessage(chatId, 
                     "Отлично! Данные сохранены.\n\n" +
                     "Вы можете продолжить использование бота.\n" +
                     "Введите /help для просмотра команд.");
             } 
             
-            return processRegistration(chatId, messageText);
+            return processRegistration(ctx, messageText);
             
         } catch (Exception e) {
             e.printStackTrace();
@@ -145,9 +213,15 @@ public class StartCommand implements Command {
     }
 
 
-    public SendMessage processRegistration(long chatId, String messageText) { // Метод для обработки обычных сообщений в процессе регистрации
+    public SendMessage processRegistration(long chatId, String messageText) { // старый вход: свой контекст на один вызов
+        UserContext ctx = newContext(chatId);
+        return flush(ctx, processRegistration(ctx, messageText));
+    }
+
+    public SendMessage processRegistration(UserContext ctx, String messageText) { // Метод для обработки обычных сообщений в процессе регистрации
+        long chatId = ctx.getChatId();
         try {
-            User user = userStorage.getUser(chatId); // возвращаем пользователя
+            User user = ctx.getUser(); // возвращаем пользователя
             
             switch (user.getState()) {
             case ASK_NAME:
@@ -156,7 +230,10 @@ public class StartCommand implements Command {
                 }
                 user.setName(messageText.trim()); 
                 user.setState(DialogState.ASK_GROUP); 
-                userStorage.updateUser(user); 
+                ctx.markDirty(); 
+                if (prefetcher != null) {
+                    prefetcher.onGroupAsked(); // справочник подразделений прогреется, пока вводят группу
+                }
                 return createMessage(chatId, 
                     "Отлично, " + messageText.trim() + "!\n\n" +
                     "Теперь введите вашу группу (например, МЕН-241001):");
@@ -167,16 +244,12 @@ public class StartCommand implements Command {
                 }
                 user.setName(messageText.trim()); 
                 user.setState(DialogState.REGISTERED); // Завершаем регистрацию сразу
-                userStorage.updateUser(user);
+                ctx.markDirty();
                 
                 // Попробуем получить расписание и сохранить в локальную БД
                 try {
-                    ScheduleFetcher fetcher = new ScheduleFetcher();
-                    Schedule schedule = fetcher.fetchForUser(user);
+                    Schedule schedule = scheduleProvider().scheduleFor(user); // из базы, если одногруппники уже загрузили
                     if (schedule != null) {
-                        ScheduleManager sm = new ScheduleManager(userStorage);
-                        sm.saveCommonSchedule(schedule);
-                        sm.close();
                         return createMessage(chatId,
                             "🎓 Регистрация завершена!\n\n" +
                             "Ваши данные:\n" +
@@ -185,7 +258,7 @@ public class StartCommand implements Command {
                             "Университет: " + user.getUniversity() + "\n" +
                             "Департамент: " + user.getDepartment() + "\n" +
                             "Курс: " + user.getCourse() + "\n\n" +
-                            "Расписание успешно загружено!\n" +
+                            scheduleLoaded(schedule) +
                             "Введите /help для просмотра доступных команд.");
                     }
                 } catch (Exception e) {
@@ -209,7 +282,7 @@ public class StartCommand implements Command {
                 }
                 user.setGroup(messageText.trim());
                 user.setState(DialogState.ASK_UNIVERSITY);
-                userStorage.updateUser(user);
+                ctx.markDirty();
                 return createMessageWithDynamicButtons(chatId, // сообщение с кнопками 
                     "Выберите ваш институт из списка или введите вручную:",
                     new ArrayList<>(INSTITUTE_DEPARTMENTS.keySet())); // keyset возвращает набор ключей (все названия институтов)
@@ -222,7 +295,7 @@ public class StartCommand implements Command {
                 String universityInput = messageText.trim();
                 user.setUniversity(universityInput);
                 user.setState(DialogState.ASK_DEPARTMENT);
-                userStorage.updateUser(user);
+                ctx.markDirty();
 
                 if (INSTITUTE_DEPARTMENTS.containsKey(universityInput)) { // выводим только департаменты, относящиеся к институту
                     List<String> deps = INSTITUTE_DEPARTMENTS.get(universityInput);
@@ -243,7 +316,10 @@ public class StartCommand implements Command {
                 
                 user.setDepartment(messageText.trim());
                 user.setState(DialogState.ASK_COURSE);
-                userStorage.updateUser(user);
+                ctx.markDirty();
+                if (prefetcher != null) {
+                    prefetcher.onDepartmentChosen(user); // пока выбирают курс, расписание уже грузится
+                }
                 
                 List<String> courses = List.of("1", "2", "3", "4", "5", "6");
                 
@@ -255,19 +331,14 @@ public class StartCommand implements Command {
                 }
 
                 user.setCourse(messageText.trim());
-                userStorage.updateUser(user);
+                ctx.markDirty();
 
                 try {
-                    ScheduleFetcher fetcher = new ScheduleFetcher();
-                    Schedule schedule = fetcher.fetchForUser(user);
+                    Schedule schedule = registrationSchedule(user); // из базы, если одногруппники уже загрузили
 
                     if (schedule != null) {
-                        ScheduleManager sm = new ScheduleManager(userStorage);
-                        sm.saveCommonSchedule(schedule);
-                        sm.close();
-
                         user.setState(DialogState.REGISTERED);
-                        userStorage.updateUser(user);
+                        ctx.markDirty();
 
                         return createMessage(chatId,
                             "🎓 Регистрация завершена!\n\n" +
@@ -277,11 +348,11 @@ public class StartCommand implements Command {
                             "Университет: " + user.getUniversity() + "\n" +
                             "Департамент: " + user.getDepartment() + "\n" +
                             "Курс: " + user.getCourse() + "\n\n" +
-                            "Расписание успешно загружено!\n" +
+                            scheduleLoaded(schedule) +
                             "Введите /help для просмотра доступных команд.");
                     } else {
                         user.setState(DialogState.REGISTERED);
-                        userStorage.updateUser(user);
+                        ctx.markDirty();
 
                         return createMessage(chatId,
                             "🎓 Регистрация завершена!\n\n" +
@@ -312,7 +383,7 @@ public class StartCommand implements Command {
                     }
 
                     user.setState(DialogState.REGISTERED);
-                    userStorage.updateUser(user);
+                    ctx.markDirty();
 
                     return createMessage(chatId,
                         "🎓 Регистрация завершена!\n\n" +
@@ -328,7 +399,7 @@ public class StartCommand implements Command {
 
                     e.printStackTrace();
                     user.setState(DialogState.REGISTERED);
-                    userStorage.updateUser(user);
+                    ctx.markDirty();
 
                     return createMessage(chatId,
                         "🎓 Регистрация завершена!\n\n" +
@@ -371,6 +442,20 @@ public class StartCommand implements Command {
         return message;
     }
 
+    private UserContext newContext(long chatId) {
+        return new UserContext(chatId, userStorage, user -> scheduleManager().getScheduleForUser(user));
+    }
+
+    private SendMessage flush(UserContext ctx, SendMessage reply) { // записываем пользователя одной операцией в конце
+        try {
+            ctx.flush();
+            return reply;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return createMessage(ctx.getChatId(), "❌❌❌ Ошибка при обработке");
+        }
+    }
+
     private SendMessage createMessage(long chatId, String text) { // создание сообщения
         SendMessage message = new SendMessage();
         message.setChatId(String.valueOf(chatId)); // переводим Id в число
@@ -396,7 +481,10 @@ public class StartCommand implements Command {
 
 
     public boolean isUserInRegistration(long chatId) { // проверка, находится ли пользователь в состояние регистрации
-        User user = userStorage.getUser(chatId);
+        return isUserInRegistration(userStorage.getUser(chatId));
+    }
+
+    public boolean isUserInRegistration(User user) {
         if (user == null) return false;
         DialogState s = user.getState();
         return s == DialogState.ASK_NAME  // Явно перечисляем только регистрационные состояния:
@@ -1,7 +1,9 @@
 package bot.commands;
 
+import bot.session.UserContext;
 import bot.user.User;
 import bot.user.UserStorage;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 
 public class SubscriptionCommand implements Command {
     
@@ -32,8 +34,20 @@ public class SubscriptionCommand implements Command {
                "/subscription status - статус подписки";
     }
     
-    public String realizationWithChatId(long chatId, String[] args) {
-        User user = userStorage.getUser(chatId);
+    @Override
+    public SendMessage execute(UserContext ctx, String[] args) {
+        return new SendMessage(String.valueOf(ctx.getChatId()), realizationWithChatId(ctx, args));
+    }
+
+    public String realizationWithChatId(long chatId, String[] args) { // старый вход: свой контекст на один вызов
+        UserContext ctx = new UserContext(chatId, userStorage, (User u) -> null);
+        String reply = realizationWithChatId(ctx, args);
+        ctx.flush();
+        return reply;
+    }
+
+    public String realizationWithChatId(UserContext ctx, String[] args) {
+        User user = ctx.getUser();
         if (user == null) {
             return "❌ Вы не зарегистрированы. Введите /start для регистрации.";
         }
@@ -49,14 +63,14 @@ public class SubscriptionCommand implements Command {
             case "вкл":
             case "включить":
                 user.setSubscriptionEnabled(true);
-                userStorage.updateUser(user);
+                ctx.markDirty();
                 return "✅ Ежедневные уведомления включены! Вы будете получать напоминания о ДЗ.";
                 
             case "off":
             case "выкл":
             case "выключить":
                 user.setSubscriptionEnabled(false);
-                userStorage.updateUser(user);
+                ctx.markDirty();
                 return "🔕 Ежедневные уведомления выключены.\n Вы больше не будете получать напоминания.\n" +
                        "Чтобы включить снова, используйте /subscription on";
                 
@@ -0,0 +1,166 @@
+package bot.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ограниченный потокобезопасный пул соединений к одному файлу SQLite.
+ *
+ * getConnection() отдаёт обёртку над настоящим соединением: её close() не закрывает соединение,
+ * а возвращает его в пул. Поэтому хранилища просто пишут try (Connection c = db.getConnection()) { ... }
+ * и каждый поток работает со своим соединением, а не делит одно на всех.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private final String url;
+    private final Properties properties;
+    private final Semaphore permits; // сколько соединений можно выдать одновременно
+    private final BlockingQueue<Connection> idle; // открытые, но свободные соединения
+    private final List<Connection> opened = new ArrayList<>(); // все открытые соединения (чтобы закрыть в close)
+    private final long acquireTimeoutMillis;
+    private volatile boolean closed;
+
+
+    public ConnectionPool(String url, Properties properties, int maxSize, long acquireTimeoutMillis) {
+        this.url = url;
+        this.properties = properties;
+        this.permits = new Semaphore(maxSize, true);
+        this.idle = new ArrayBlockingQueue<>(maxSize);
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+    }
+
+
+    public Connection getConnection() throws SQLException { // взять соединение (ждём, если все заняты)
+        if (closed) {
+            throw new SQLException("Пул соединений закрыт: " + url);
+        }
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Не дождались свободного соединения к " + url);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Ожидание соединения прервано", e);
+        }
+
+        try {
+            Connection physical = idle.poll();
+            if (physical == null || physical.isClosed()) {
+                physical = open(); // свободных нет — открываем новое (не больше maxSize всего)
+            }
+            return wrap(physical);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+
+    private Connection open() throws SQLException {
+        Connection connection = DriverManager.getConnection(url, properties);
+        synchronized (opened) {
+            opened.add(connection);
+        }
+        return connection;
+    }
+
+
+    private void release(Connection physical) { // вернуть соединение в пул
+        try {
+            if (closed || physical.isClosed()) {
+                discard(physical);
+            } else {
+                if (!physical.getAutoCommit()) { // кто-то забыл закончить транзакцию — откатываем
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+                idle.offer(physical);
+            }
+        } catch (SQLException e) {
+            discard(physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+
+    private void discard(Connection physical) { // сломанное соединение закрываем и забываем
+        synchronized (opened) {
+            opened.remove(physical);
+        }
+        try { physical.close(); } catch (SQLException ignored) {}
+    }
+
+
+    private Connection wrap(Connection physical) { // обёртка, у которой close() возвращает соединение в пул
+        InvocationHandler handler = new InvocationHandler() {
+            private boolean returned;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close":
+                        if (!returned) {
+                            returned = true;
+                            release(physical);
+                        }
+                        return null;
+                    case "isClosed":
+                        return returned || physical.isClosed();
+                    case "unwrap":
+                        if (args != null && args.length == 1 && args[0] == Connection.class) {
+                            return physical;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+                if (returned) {
+                    throw new SQLException("Соединение уже возвращено в пул");
+                }
+                try {
+                    return method.invoke(physical, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, handler);
+    }
+
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getOpenedCount() {
+        synchronized (opened) {
+            return opened.size();
+        }
+    }
+
+
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (opened) {
+            for (Connection connection : opened) {
+                try { connection.close(); } catch (SQLException ignored) {}
+            }
+            opened.clear();
+        }
+        idle.clear();
+    }
+}
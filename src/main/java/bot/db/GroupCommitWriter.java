@@ -0,0 +1,244 @@
+package bot.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Единственный писатель в файл SQLite с групповым коммитом.
+ *
+ * Изменения складываются в очередь, отдельный поток забирает их пачкой
+ * (сколько накопилось за maxDelayMillis, но не больше maxBatch) и выполняет
+ * в одной транзакции: один COMMIT и один fsync на всю пачку вместо одного на каждый запрос.
+ * Каждое изменение выполняется внутри своей точки сохранения, поэтому ошибка одного
+ * не откатывает остальные. Future вызывающего завершается только после COMMIT.
+ * Любая ошибка изменения (в том числе Error) завершает только его future — поток писателя живёт дальше.
+ */
+public class GroupCommitWriter implements AutoCloseable {
+
+    @FunctionalInterface
+    public interface SqlWork<T> { // одно изменение (выполняется в потоке писателя)
+        T apply(Connection connection) throws SQLException;
+    }
+
+    @FunctionalInterface
+    interface ConnectionFactory {
+        Connection open() throws SQLException;
+    }
+
+    private final ConnectionFactory connectionFactory;
+    private final int maxBatch; // сколько изменений максимум в одной транзакции
+    private final long maxDelayMillis; // сколько ждём, пока пачка наберётся
+    private final BlockingQueue<PendingWrite<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean closed;
+
+    // метрики
+    private final AtomicLong committedWrites = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong maxBatchSeen = new AtomicLong();
+
+
+    GroupCommitWriter(String name, ConnectionFactory connectionFactory, int maxBatch, long maxDelayMillis) {
+        this.connectionFactory = connectionFactory;
+        this.maxBatch = maxBatch;
+        this.maxDelayMillis = maxDelayMillis;
+        this.thread = new Thread(this::run, "sqlite-writer-" + name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+
+    public <T> CompletableFuture<T> submit(SqlWork<T> work) { // поставить изменение в очередь
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new SQLException("Писатель БД остановлен"));
+            return future;
+        }
+        queue.add(new PendingWrite<>(work, future));
+        if (closed && !thread.isAlive()) { // успели положить уже после остановки потока
+            future.completeExceptionally(new SQLException("Писатель БД остановлен"));
+        }
+        return future;
+    }
+
+
+    private void run() {
+        Connection connection = null;
+        List<PendingWrite<?>> batch = new ArrayList<>(maxBatch);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                PendingWrite<?> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                collect(batch);
+
+                if (connection == null || connection.isClosed()) {
+                    connection = connectionFactory.open();
+                }
+                commitBatch(connection, batch);
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Throwable e) { // не смогли открыть соединение (или упало что-то ещё) — вся пачка с ошибкой
+                if (!(e instanceof SQLException)) {
+                    System.out.println("GroupCommitWriter: ошибка пачки: " + e);
+                }
+                fail(batch, e);
+                closeQuietly(connection); // состояние соединения неизвестно — откроем новое
+                connection = null;
+            } finally {
+                batch.clear();
+            }
+        }
+        for (PendingWrite<?> left : queue) { // остановлены прерыванием — не оставляем вызывающих ждать вечно
+            left.future.completeExceptionally(new SQLException("Писатель БД остановлен"));
+        }
+        closeQuietly(connection);
+    }
+
+
+    private void collect(List<PendingWrite<?>> batch) throws InterruptedException { // добираем пачку
+        queue.drainTo(batch, maxBatch - batch.size());
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        while (batch.size() < maxBatch && !closed) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            PendingWrite<?> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+            queue.drainTo(batch, maxBatch - batch.size());
+        }
+    }
+
+
+    private void commitBatch(Connection connection, List<PendingWrite<?>> batch) {
+        Object[] results = new Object[batch.size()];
+        Throwable[] errors = new Throwable[batch.size()];
+        try {
+            connection.setAutoCommit(false); // BEGIN
+
+            for (int i = 0; i < batch.size(); i++) {
+                Savepoint savepoint = connection.setSavepoint();
+                try {
+                    results[i] = batch.get(i).work.apply(connection);
+                    connection.releaseSavepoint(savepoint);
+                } catch (Throwable e) { // и Error тоже: иначе он убил бы единственный поток писателя
+                    connection.rollback(savepoint); // откатываем только это изменение
+                    connection.releaseSavepoint(savepoint);
+                    errors[i] = e;
+                }
+            }
+
+            connection.commit(); // один fsync на всю пачку
+            connection.setAutoCommit(true);
+        } catch (SQLException e) { // упал сам COMMIT — ни одно изменение не сохранилось
+            try {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            } catch (SQLException ignored) {}
+            fail(batch, e);
+            return;
+        }
+
+        batches.incrementAndGet();
+        maxBatchSeen.accumulateAndGet(batch.size(), Math::max);
+        for (int i = 0; i < batch.size(); i++) { // отвечаем вызывающим только после COMMIT
+            if (errors[i] != null) {
+                failedWrites.incrementAndGet();
+                batch.get(i).future.completeExceptionally(errors[i]);
+            } else {
+                committedWrites.incrementAndGet();
+                batch.get(i).complete(results[i]);
+            }
+        }
+    }
+
+
+    private void fail(List<PendingWrite<?>> batch, Throwable error) {
+        for (PendingWrite<?> write : batch) {
+            if (write.future.completeExceptionally(error)) { // уже отвеченные после COMMIT не трогаем
+                failedWrites.incrementAndGet();
+            }
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection != null) {
+            try { connection.close(); } catch (SQLException ignored) {}
+        }
+    }
+
+
+    // --- метрики ---
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getCommittedWrites() {
+        return committedWrites.get();
+    }
+
+    public long getFailedWrites() {
+        return failedWrites.get();
+    }
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    public long getMaxBatchSize() {
+        return maxBatchSeen.get();
+    }
+
+    public double getAverageBatchSize() {
+        long count = batches.get();
+        return count == 0 ? 0.0 : (double) (committedWrites.get() + failedWrites.get()) / count;
+    }
+
+
+    @Override
+    public void close() { // дописываем всё, что уже в очереди, и останавливаемся
+        closed = true;
+        try {
+            thread.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            thread.interrupt();
+        }
+    }
+
+
+    private static final class PendingWrite<T> {
+        private final SqlWork<T> work;
+        private final CompletableFuture<T> future;
+
+        PendingWrite(SqlWork<T> work, CompletableFuture<T> future) {
+            this.work = work;
+            this.future = future;
+        }
+
+        @SuppressWarnings("unchecked")
+        void complete(Object result) {
+            future.complete((T) result);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package bot.db;
+
+import org.sqlite.SQLiteConfig;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Один файл SQLite и пул соединений к нему.
+ * Хранилища получают соединение на время одной операции и возвращают его через close().
+ *
+ * Горячие изменения идут через write(): их выполняет единственный поток-писатель
+ * пачками в общей транзакции (см. GroupCommitWriter), а чтения — через отдельные
+ * read-only соединения getReadConnection(). В режиме WAL читатели не ждут писателя.
+ */
+public class SQLiteDatabase implements AutoCloseable {
+
+    public static final int DEFAULT_POOL_SIZE = 4;
+    private static final int BUSY_TIMEOUT_MILLIS = 5_000; // сколько SQLite ждёт снятия блокировки другим соединением
+    private static final long ACQUIRE_TIMEOUT_MILLIS = 30_000;
+    private static final int WRITE_BATCH_SIZE = 128; // максимум изменений в одной групповой транзакции
+    private static final long WRITE_BATCH_DELAY_MILLIS = 2; // сколько писатель ждёт, пока пачка наберётся
+
+    private final String fileName;
+    private final String url;
+    private final boolean walMode;
+    private final Properties writeProperties;
+    private final Properties writerProperties; // соединение GroupCommitWriter
+    private final ConnectionPool pool;
+    private final ConnectionPool readPool; // только чтение
+    private volatile GroupCommitWriter writer; // создаётся при первой записи
+    private volatile boolean closed;
+
+
+    public SQLiteDatabase(String fileName) {
+        this(fileName, DEFAULT_POOL_SIZE);
+    }
+
+    public SQLiteDatabase(String fileName, int poolSize) {
+        this(fileName, poolSize, false);
+    }
+
+    public SQLiteDatabase(String fileName, int poolSize, boolean walMode) {
+        this.fileName = fileName;
+        this.url = "jdbc:sqlite:" + fileName;
+        this.walMode = walMode;
+
+        SQLiteConfig config = new SQLiteConfig();
+        config.setBusyTimeout(BUSY_TIMEOUT_MILLIS);
+        if (walMode) {
+            config.setJournalMode(SQLiteConfig.JournalMode.WAL); // режим хранится в самом файле
+        }
+        this.writeProperties = config.toProperties();
+        // писатель сначала читает (проверки существования), потом пишет: в DEFERRED-транзакции переход от чтения
+        // к записи при занятом файле сразу даёт SQLITE_BUSY без busy timeout, а BEGIN IMMEDIATE ждёт блокировку
+        config.setTransactionMode(SQLiteConfig.TransactionMode.IMMEDIATE);
+        this.writerProperties = config.toProperties();
+        this.pool = new ConnectionPool(url, writeProperties, poolSize, ACQUIRE_TIMEOUT_MILLIS);
+
+        SQLiteConfig readConfig = new SQLiteConfig();
+        readConfig.setBusyTimeout(BUSY_TIMEOUT_MILLIS);
+        readConfig.setReadOnly(true);
+        this.readPool = new ConnectionPool(url, readConfig.toProperties(), poolSize, ACQUIRE_TIMEOUT_MILLIS);
+
+        if (walMode) {
+            try (Connection connection = pool.getConnection()) { // переводим файл в WAL до первого читателя
+            } catch (SQLException e) {
+                System.out.println("SQLiteDatabase: не удалось включить WAL для " + fileName + ": " + e.getMessage());
+            }
+        }
+    }
+
+
+    public Connection getConnection() throws SQLException { // соединение из пула (закрыть после использования!)
+        return pool.getConnection();
+    }
+
+    public Connection getReadConnection() throws SQLException { // read-only соединение для запросов
+        return readPool.getConnection();
+    }
+
+
+    public <T> CompletableFuture<T> write(GroupCommitWriter.SqlWork<T> work) { // изменение через общего писателя
+        return writer().submit(work); // future завершится после COMMIT пачки
+    }
+
+    public <T> T writeAndWait(GroupCommitWriter.SqlWork<T> work) throws SQLException { // то же, но синхронно
+        try {
+            return write(work).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SQLException(cause);
+        }
+    }
+
+    private GroupCommitWriter writer() {
+        GroupCommitWriter current = writer;
+        if (current == null) {
+            synchronized (this) {
+                current = writer;
+                if (current == null) {
+                    current = new GroupCommitWriter(fileName,
+                            () -> DriverManager.getConnection(url, writerProperties),
+                            WRITE_BATCH_SIZE, WRITE_BATCH_DELAY_MILLIS);
+                    if (!closed) {
+                        writer = current;
+                    } else {
+                        current.close(); // база уже закрыта — submit вернёт ошибку
+                    }
+                }
+            }
+        }
+        return current;
+    }
+
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public boolean isWalMode() {
+        return walMode;
+    }
+
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+    public GroupCommitWriter getWriter() { // для метрик (null, если записей ещё не было)
+        return writer;
+    }
+
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (writer != null) {
+            writer.close(); // сначала дописываем очередь
+        }
+        readPool.close();
+        pool.close();
+    }
+}
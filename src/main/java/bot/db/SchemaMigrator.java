@@ -0,0 +1,70 @@
+package bot.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Версионные миграции схемы SQLite.
+ *
+ * У каждого хранилища свой список шагов (component) — в одном файле их бывает несколько
+ * (homework + homework_link, custom-расписания + правки), поэтому версия хранится не в
+ * PRAGMA user_version, а в таблице schema_version по имени компонента. Шаг с индексом i
+ * переводит схему на версию i + 1; уже применённые шаги при следующем старте пропускаются.
+ * Новые шаги добавляются только в конец списка.
+ */
+public final class SchemaMigrator {
+
+    private SchemaMigrator() {
+    }
+
+
+    public static int migrate(Connection connection, String component, List<String> steps) throws SQLException { // вернёт итоговую версию
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS schema_version (" +
+                              "component TEXT PRIMARY KEY," +
+                              "version INTEGER NOT NULL" +
+                              ")");
+        }
+
+        int current = currentVersion(connection, component);
+        if (current >= steps.size()) {
+            return current;
+        }
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            for (int version = current + 1; version <= steps.size(); version++) {
+                statement.execute(steps.get(version - 1));
+            }
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT OR REPLACE INTO schema_version (component, version) VALUES (?, ?)")) {
+                ps.setString(1, component);
+                ps.setInt(2, steps.size());
+                ps.executeUpdate();
+            }
+            connection.commit(); // все шаги и новая версия — одной транзакцией
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+
+        System.out.println("Схема " + component + ": версия " + current + " -> " + steps.size());
+        return steps.size();
+    }
+
+    public static int currentVersion(Connection connection, String component) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT version FROM schema_version WHERE component = ?")) {
+            ps.setString(1, component);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+}
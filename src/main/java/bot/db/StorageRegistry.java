@@ -0,0 +1,148 @@
+package bot.db;
+
+import bot.homework.HomeworkLinkStorage;
+import bot.homework.SQLiteHomeworkStorage;
+import bot.schedule.CachingScheduleStorage;
+import bot.schedule.SQLiteScheduleStorage;
+import bot.schedule.ScheduleOverlayStorage;
+import bot.schedule.ScheduleManager;
+import bot.schedule.RegistrationPrefetcher;
+import bot.schedule.ScheduleProvider;
+import bot.scheduler.NotificationOutbox;
+import bot.user.CachingUserStorage;
+import bot.user.SQLiteUserStorage;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Общий реестр хранилищ бота.
+ *
+ * На каждый файл SQLite создаётся ровно один SQLiteDatabase (пул соединений),
+ * а хранилища, команды и DailyNotifier получают готовые экземпляры отсюда,
+ * вместо того чтобы открывать свои соединения на каждое сообщение.
+ * Реестр инициализируется один раз при старте и закрывается в shutdown hook.
+ */
+public class StorageRegistry implements AutoCloseable {
+
+    public static final String USERS_DB = "users.db";
+    public static final String HOMEWORK_DB = "homework.db";
+    public static final String SCHEDULES_DB = "schedules.db";
+    public static final String CUSTOM_SCHEDULES_DB = "custom_schedules.db";
+
+    private static final int MAPPING_MAX_AGE_DAYS = 200; // как и раньше в ScheduleManager
+    private static final int USER_CACHE_SIZE = 10_000; // сколько пользователей держим в памяти
+    private static final Duration USER_CACHE_TTL = Duration.ofMinutes(10);
+    private static final int COMMON_SCHEDULE_CACHE_SIZE = 2_000; // групп
+    private static final int CUSTOM_SCHEDULE_CACHE_SIZE = 10_000; // пользователей (в т.ч. "кастомного нет")
+    private static final Duration SCHEDULE_CACHE_TTL = Duration.ofHours(6);
+
+    private final Map<String, SQLiteDatabase> databases = new ConcurrentHashMap<>(); // файл -> пул
+    private final int poolSize;
+
+    private final SQLiteUserStorage sqliteUserStorage;
+    private final CachingUserStorage userStorage; // все, кроме DailyNotifier, ходят к пользователям через кэш
+    private final SQLiteHomeworkStorage homeworkStorage;
+    private final HomeworkLinkStorage linkStorage;
+    private final CachingScheduleStorage commonScheduleStorage; // расписания тоже читаются через кэш снимков
+    private final CachingScheduleStorage customScheduleStorage;
+    private final ScheduleOverlayStorage overlayStorage; // правки кастомных расписаний
+    private final ScheduleManager scheduleManager;
+    private final ScheduleProvider scheduleProvider; // расписание при регистрации: сначала из schedules.db
+    private final RegistrationPrefetcher registrationPrefetcher; // загрузка расписания по ходу диалога регистрации
+    private final NotificationOutbox notificationOutbox; // очередь вечерних рассылок (users.db)
+
+
+    public StorageRegistry() {
+        this(SQLiteDatabase.DEFAULT_POOL_SIZE);
+    }
+
+    public StorageRegistry(int poolSize) {
+        this.poolSize = poolSize;
+
+        sqliteUserStorage = new SQLiteUserStorage(database(USERS_DB));
+        sqliteUserStorage.initialize();
+        userStorage = new CachingUserStorage(sqliteUserStorage, USER_CACHE_SIZE, USER_CACHE_TTL);
+        notificationOutbox = new NotificationOutbox(database(USERS_DB)); // тот же пул и писатель, что и у пользователей
+        notificationOutbox.initialize();
+
+        homeworkStorage = new SQLiteHomeworkStorage(database(HOMEWORK_DB));
+        homeworkStorage.initialize();
+        linkStorage = new HomeworkLinkStorage(database(HOMEWORK_DB)); // тот же пул, что и у homeworkStorage
+
+        commonScheduleStorage = new CachingScheduleStorage(new SQLiteScheduleStorage(database(SCHEDULES_DB)),
+                COMMON_SCHEDULE_CACHE_SIZE, SCHEDULE_CACHE_TTL);
+        commonScheduleStorage.initialize();
+        customScheduleStorage = new CachingScheduleStorage(new SQLiteScheduleStorage(database(CUSTOM_SCHEDULES_DB)),
+                CUSTOM_SCHEDULE_CACHE_SIZE, SCHEDULE_CACHE_TTL);
+        customScheduleStorage.initialize();
+        overlayStorage = new ScheduleOverlayStorage(database(CUSTOM_SCHEDULES_DB)); // тот же файл, что и у кастомных расписаний
+        overlayStorage.initialize();
+        commonScheduleStorage.technicalMaintenance(MAPPING_MAX_AGE_DAYS); // раньше выполнялось при каждом new ScheduleManager
+
+        scheduleManager = new ScheduleManager(userStorage, commonScheduleStorage, customScheduleStorage, overlayStorage);
+        scheduleProvider = new ScheduleProvider(scheduleManager);
+        registrationPrefetcher = new RegistrationPrefetcher(scheduleProvider);
+    }
+
+
+    public SQLiteDatabase database(String fileName) { // один пул на файл
+        return databases.computeIfAbsent(fileName, name -> new SQLiteDatabase(name, poolSize, true)); // WAL: читатели не ждут писателя
+    }
+
+    public CachingUserStorage getUserStorage() {
+        return userStorage;
+    }
+
+    public SQLiteUserStorage getSQLiteUserStorage() { // без кэша (нужен DailyNotifier для getRegisteredUsers)
+        return sqliteUserStorage;
+    }
+
+    public SQLiteHomeworkStorage getHomeworkStorage() {
+        return homeworkStorage;
+    }
+
+    public HomeworkLinkStorage getLinkStorage() {
+        return linkStorage;
+    }
+
+    public CachingScheduleStorage getCommonScheduleStorage() {
+        return commonScheduleStorage;
+    }
+
+    public CachingScheduleStorage getCustomScheduleStorage() {
+        return customScheduleStorage;
+    }
+
+    public ScheduleOverlayStorage getOverlayStorage() {
+        return overlayStorage;
+    }
+
+    public ScheduleManager getScheduleManager() {
+        return scheduleManager;
+    }
+
+    public ScheduleProvider getScheduleProvider() {
+        return scheduleProvider;
+    }
+
+    public RegistrationPrefetcher getRegistrationPrefetcher() {
+        return registrationPrefetcher;
+    }
+
+    public NotificationOutbox getNotificationOutbox() {
+        return notificationOutbox;
+    }
+
+
+    @Override
+    public void close() { // закрываем все пулы (хранилища поверх них свои соединения не держат)
+        for (SQLiteDatabase database : databases.values()) {
+            try {
+                database.close();
+            } catch (Exception ignored) {}
+        }
+        databases.clear();
+    }
+}
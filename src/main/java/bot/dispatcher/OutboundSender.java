@@ -0,0 +1,315 @@
+package bot.dispatcher;
+
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * OutboundSender — очередь исходящих сообщений в Telegram с ограничением скорости.
+ *
+ *  - общее ведро (около 30 сообщений в секунду на бота) и ведро на каждый чат (около 1 в секунду);
+ *  - две полосы: ответы пользователям (INTERACTIVE) всегда уходят раньше рассылок (BULK);
+ *  - сообщения одного чата идут по порядку: следующее не уходит, пока предыдущее не отправлено
+ *    (или не вернулось в очередь после 429), но занятый чат не держит остальных;
+ *  - ответ 429 с retry_after ставит вёдра на паузу, а сообщение возвращается в начало своей полосы.
+ * Выбор следующего сообщения делает один поток, сами HTTP-запросы идут на виртуальных потоках.
+ */
+public class OutboundSender {
+
+    public enum Priority { INTERACTIVE, BULK }
+
+    @FunctionalInterface
+    public interface Transport { // собственно отправка (Homeworkbot::execute)
+        void send(SendMessage message) throws TelegramApiException;
+    }
+
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int MAX_THROTTLE_RETRIES = 5; // сколько раз возвращаем сообщение в очередь после 429
+    private static final int SCAN_LIMIT = 256; // сколько сообщений полосы просматриваем в поисках свободного чата
+    private static final int MAX_IDLE_BUCKETS = 10_000; // после этого простаивающие вёдра чатов выбрасываются
+
+    private final Transport transport;
+    private final LongSupplier clock; // System::nanoTime (в тестах — свои часы)
+    private final double chatBurst;
+    private final double chatRate;
+
+    private final Object lock = new Object();
+    private final TokenBucket global;
+    private final Map<Long, TokenBucket> chatBuckets = new HashMap<>();
+    private final EnumMap<Priority, ArrayDeque<Pending>> lanes = new EnumMap<>(Priority.class);
+    private final Set<Long> inFlight = new HashSet<>(); // чаты, чьё сообщение сейчас отправляется (под lock)
+    private final Thread pump;
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+    private volatile boolean closed;
+
+    // метрики
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong(); // сколько раз Telegram ответил 429
+    private final AtomicLong totalLagNanos = new AtomicLong(); // от постановки в очередь до начала отправки
+    private final AtomicLong maxLagNanos = new AtomicLong();
+    private final AtomicLong started = new AtomicLong();
+
+
+    public OutboundSender(Transport transport, double globalPerSecond, double chatPerSecond) {
+        this(transport, globalPerSecond, chatPerSecond, System::nanoTime);
+    }
+
+    public OutboundSender(Transport transport, double globalPerSecond, double chatPerSecond, LongSupplier clock) {
+        this.transport = transport;
+        this.clock = clock;
+        this.chatBurst = Math.max(1, chatPerSecond);
+        this.chatRate = chatPerSecond;
+        this.global = new TokenBucket(Math.max(1, globalPerSecond), globalPerSecond, clock.getAsLong());
+        for (Priority priority : Priority.values()) {
+            lanes.put(priority, new ArrayDeque<>());
+        }
+        this.pump = new Thread(this::run, "telegram-outbound");
+        this.pump.setDaemon(true);
+        this.pump.start();
+    }
+
+
+    public CompletableFuture<Void> submit(SendMessage message, Priority priority) { // завершится после ответа Telegram
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new TelegramApiException("Отправка сообщений остановлена"));
+            return future;
+        }
+        synchronized (lock) {
+            lanes.get(priority).addLast(new Pending(message, chatIdOf(message), priority, clock.getAsLong(), future));
+            lock.notifyAll();
+        }
+        return future;
+    }
+
+
+    private void run() {
+        while (!closed || !isEmpty()) {
+            Pending next;
+            synchronized (lock) {
+                long now = clock.getAsLong();
+                next = pick(now);
+                if (next == null) {
+                    long waitNanos = nextWakeup(now);
+                    try {
+                        if (waitNanos <= 0) {
+                            lock.wait(100); // очереди пусты — проверяем closed раз в 100 мс
+                        } else {
+                            lock.wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos)));
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    continue;
+                }
+            }
+
+            long lag = clock.getAsLong() - next.enqueuedAt;
+            started.incrementAndGet();
+            totalLagNanos.addAndGet(lag);
+            maxLagNanos.accumulateAndGet(lag, Math::max);
+            Pending pending = next;
+            senders.execute(() -> deliver(pending));
+        }
+    }
+
+    private Pending pick(long now) { // первое сообщение, для которого есть маркеры (под lock)
+        if (global.nanosUntilAvailable(now) > 0) {
+            return null;
+        }
+        if (chatBuckets.size() > MAX_IDLE_BUCKETS) {
+            chatBuckets.values().removeIf(bucket -> bucket.isIdle(now));
+        }
+
+        for (Priority priority : Priority.values()) {
+            Set<Long> busyChats = new HashSet<>(); // чат, чьё сообщение пропустили, дальше не смотрим — сохраняем порядок
+            Iterator<Pending> it = lanes.get(priority).iterator();
+            for (int scanned = 0; it.hasNext() && scanned < SCAN_LIMIT; scanned++) {
+                Pending p = it.next();
+                if (busyChats.contains(p.chatId)) {
+                    continue;
+                }
+                if (!inFlight.contains(p.chatId) && chatBucket(p.chatId, now).tryAcquire(now)) {
+                    global.tryAcquire(now);
+                    it.remove();
+                    inFlight.add(p.chatId);
+                    return p;
+                }
+                busyChats.add(p.chatId);
+            }
+        }
+        return null;
+    }
+
+    private long nextWakeup(long now) { // когда имеет смысл снова пробовать (0 — очереди пусты или ждут только занятые чаты)
+        if (isEmpty()) {
+            return 0;
+        }
+        long wait = global.nanosUntilAvailable(now);
+        if (wait > 0) {
+            return wait;
+        }
+        long min = Long.MAX_VALUE;
+        for (ArrayDeque<Pending> lane : lanes.values()) {
+            int scanned = 0;
+            for (Pending p : lane) {
+                if (scanned++ >= SCAN_LIMIT) {
+                    break;
+                }
+                if (!inFlight.contains(p.chatId)) { // занятый чат разбудит deliver
+                    min = Math.min(min, chatBucket(p.chatId, now).nanosUntilAvailable(now));
+                }
+            }
+        }
+        return min == Long.MAX_VALUE ? 0 : Math.max(1, min);
+    }
+
+    private void deliver(Pending p) {
+        try {
+            transport.send(p.message);
+            sent.incrementAndGet();
+            p.future.complete(null);
+        } catch (TelegramApiRequestException e) {
+            Integer retryAfter = e.getParameters() == null ? null : e.getParameters().getRetryAfter();
+            if (Integer.valueOf(TOO_MANY_REQUESTS).equals(e.getErrorCode()) && retryAfter != null && p.attempts < MAX_THROTTLE_RETRIES) {
+                throttled.incrementAndGet();
+                requeueAfter(p, retryAfter);
+                return;
+            }
+            failed.incrementAndGet();
+            p.future.completeExceptionally(e);
+        } catch (Throwable e) {
+            failed.incrementAndGet();
+            p.future.completeExceptionally(e);
+        } finally {
+            synchronized (lock) { // после 429 сообщение уже снова в начале полосы — чат можно отпускать
+                inFlight.remove(p.chatId);
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void requeueAfter(Pending p, int retryAfterSeconds) {
+        synchronized (lock) {
+            // Telegram не говорит, какой лимит превышен, поэтому паузу получают и чат, и бот целиком
+            long until = clock.getAsLong() + TimeUnit.SECONDS.toNanos(retryAfterSeconds);
+            long now = clock.getAsLong();
+            chatBucket(p.chatId, now).pauseUntil(until);
+            global.pauseUntil(until);
+            lanes.get(p.priority).addFirst(p.retry());
+            lock.notifyAll();
+        }
+        System.out.println("OutboundSender: 429 для чата " + p.chatId + ", пауза " + retryAfterSeconds + " c");
+    }
+
+    private TokenBucket chatBucket(long chatId, long now) {
+        return chatBuckets.computeIfAbsent(chatId, id -> new TokenBucket(chatBurst, chatRate, now));
+    }
+
+    private boolean isEmpty() {
+        synchronized (lock) {
+            for (ArrayDeque<Pending> lane : lanes.values()) {
+                if (!lane.isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static long chatIdOf(SendMessage message) {
+        try {
+            return Long.parseLong(message.getChatId());
+        } catch (NumberFormatException | NullPointerException e) {
+            return 0L; // @username каналов и прочее — общий "чат"
+        }
+    }
+
+
+    public void shutdown(long timeoutSeconds) { // дослать уже принятые сообщения и остановиться
+        closed = true;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        try {
+            pump.join(TimeUnit.SECONDS.toMillis(timeoutSeconds));
+            senders.shutdown();
+            if (!senders.awaitTermination(timeoutSeconds, TimeUnit.SECONDS)) {
+                senders.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            senders.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        pump.interrupt();
+        synchronized (lock) { // что не успели — завершаем ошибкой, чтобы никто не ждал вечно
+            for (ArrayDeque<Pending> lane : lanes.values()) {
+                for (Pending p : lane) {
+                    p.future.completeExceptionally(new TelegramApiException("Отправка сообщений остановлена"));
+                }
+                lane.clear();
+            }
+        }
+    }
+
+
+    // --- метрики ---
+
+    public int getQueueDepth(Priority priority) {
+        synchronized (lock) {
+            return lanes.get(priority).size();
+        }
+    }
+
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getThrottledCount() {
+        return throttled.get();
+    }
+
+    public double getAverageLagMillis() { // среднее время от постановки в очередь до начала отправки
+        long count = started.get();
+        if (count == 0) {
+            return 0.0;
+        }
+        return totalLagNanos.get() / 1_000_000.0 / count;
+    }
+
+    public double getMaxLagMillis() {
+        return maxLagNanos.get() / 1_000_000.0;
+    }
+
+    public String metricsSummary() {
+        return String.format("interactive=%d, bulk=%d, sent=%d, failed=%d, throttled=%d, avgLag=%.1fms, maxLag=%.1fms",
+                getQueueDepth(Priority.INTERACTIVE), getQueueDepth(Priority.BULK), getSentCount(), getFailedCount(),
+                getThrottledCount(), getAverageLagMillis(), getMaxLagMillis());
+    }
+
+
+    private record Pending(SendMessage message, long chatId, Priority priority, long enqueuedAt,
+                           CompletableFuture<Void> future, int attempts) {
+
+        Pending(SendMessage message, long chatId, Priority priority, long enqueuedAt, CompletableFuture<Void> future) {
+            this(message, chatId, priority, enqueuedAt, future, 0);
+        }
+
+        Pending retry() {
+            return new Pending(message, chatId, priority, enqueuedAt, future, attempts + 1);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package bot.dispatcher;
+
+/**
+ * Маркерное ведро: не больше capacity сообщений подряд, дальше — tokensPerSecond в секунду.
+ *
+ * Время передаётся снаружи (System.nanoTime() или тестовые часы). Класс не потокобезопасен —
+ * OutboundSender обращается к вёдрам только под своим замком.
+ */
+public class TokenBucket {
+
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long lastRefill;
+    private long pausedUntil; // после 429 ведро молчит до этого момента
+
+    public TokenBucket(double capacity, double tokensPerSecond, long now) {
+        if (capacity < 1 || tokensPerSecond <= 0) {
+            throw new IllegalArgumentException("Некорректные параметры ведра: " + capacity + ", " + tokensPerSecond);
+        }
+        this.capacity = capacity;
+        this.tokensPerNano = tokensPerSecond / 1_000_000_000.0;
+        this.tokens = capacity;
+        this.lastRefill = now;
+        this.pausedUntil = now;
+    }
+
+
+    public boolean tryAcquire(long now) { // взять один маркер, если он есть
+        refill(now);
+        if (now - pausedUntil < 0 || tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    public long nanosUntilAvailable(long now) { // через сколько появится маркер (0 — уже есть)
+        refill(now);
+        long untilResume = Math.max(0, pausedUntil - now);
+        long untilToken = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+        return Math.max(untilResume, untilToken);
+    }
+
+    public void pauseUntil(long until) { // Telegram попросил подождать (retry_after): копить маркеры на паузе не даём
+        if (until - pausedUntil > 0) {
+            pausedUntil = until;
+        }
+        tokens = 0;
+        lastRefill = Math.max(lastRefill, until);
+    }
+
+    public boolean isIdle(long now) { // ведро полное и без паузы — его можно выбросить и создать заново без потерь
+        refill(now);
+        return tokens >= capacity && now - pausedUntil >= 0;
+    }
+
+
+    private void refill(long now) {
+        long elapsed = now - lastRefill;
+        if (elapsed > 0) {
+            tokens = Math.min(capacity, tokens + elapsed * tokensPerNano);
+            lastRefill = now;
+        }
+    }
+}
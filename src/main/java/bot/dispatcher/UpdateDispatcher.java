@@ -0,0 +1,209 @@
+package bot.dispatcher;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * UpdateDispatcher — ступень между long polling и обработкой сообщений.
+ *
+ * Каждый входящий Update кладётся в очередь своего чата (по chatId):
+ *  - сообщения одного чата обрабатываются строго по порядку, по одному;
+ *  - разные чаты обрабатываются параллельно, каждый на своём виртуальном потоке;
+ *  - длина очереди одного чата и общее число ожидающих апдейтов ограничены,
+ *    лишние апдейты отбрасываются (и учитываются в метриках).
+ *
+ * Очередь чата живёт только пока в ней есть работа — после опустошения она удаляется из мапы,
+ * поэтому память не растёт вместе с числом пользователей.
+ */
+public class UpdateDispatcher {
+
+    private final Consumer<Update> handler; // что делать с апдейтом (Homeworkbot::handleUpdate)
+    private final int maxQueuePerChat; // сколько апдейтов может ждать в одном чате
+    private final int maxQueuedTotal; // сколько апдейтов может ждать всего
+
+    private final ConcurrentHashMap<Long, ChatQueue> queues = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // метрики
+    private final AtomicInteger queuedTotal = new AtomicInteger(); // текущая глубина всех очередей
+    private final AtomicInteger maxObservedDepth = new AtomicInteger(); // максимальная глубина очереди одного чата
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong(); // суммарное время ожидания в очереди
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+
+    public UpdateDispatcher(Consumer<Update> handler, int maxQueuePerChat, int maxQueuedTotal) {
+        if (maxQueuePerChat <= 0 || maxQueuedTotal <= 0) {
+            throw new IllegalArgumentException("Границы очередей должны быть положительными");
+        }
+        this.handler = handler;
+        this.maxQueuePerChat = maxQueuePerChat;
+        this.maxQueuedTotal = maxQueuedTotal;
+    }
+
+
+    public boolean submit(Update update) { // поставить апдейт в очередь своего чата (false — если очередь переполнена)
+        if (update == null) {
+            return false;
+        }
+        long chatId = chatIdOf(update);
+
+        while (true) {
+            ChatQueue queue = queues.computeIfAbsent(chatId, ChatQueue::new);
+            synchronized (queue) {
+                if (queue.retired) { // очередь только что опустела и удалилась из мапы — берём новую
+                    continue;
+                }
+
+                if (queue.tasks.size() >= maxQueuePerChat || queuedTotal.get() >= maxQueuedTotal) {
+                    rejected.incrementAndGet();
+                    System.out.println("UpdateDispatcher: очередь переполнена, апдейт для чата " + chatId + " отброшен");
+                    return false;
+                }
+
+                queue.tasks.add(new Task(update, System.nanoTime()));
+                queuedTotal.incrementAndGet();
+                maxObservedDepth.accumulateAndGet(queue.tasks.size(), Math::max);
+
+                if (!queue.running) { // для чата ещё никто не работает — запускаем обработчик
+                    queue.running = true;
+                    executor.execute(() -> drain(queue));
+                }
+                return true;
+            }
+        }
+    }
+
+
+    private void drain(ChatQueue queue) { // обрабатывает очередь одного чата, пока в ней есть апдейты
+        while (true) {
+            Task task;
+            synchronized (queue) {
+                task = queue.tasks.poll();
+                if (task == null) {
+                    queue.running = false;
+                    queue.retired = true;
+                    queues.remove(queue.chatId, queue);
+                    return;
+                }
+            }
+            queuedTotal.decrementAndGet();
+
+            long waited = System.nanoTime() - task.enqueuedAt;
+            totalWaitNanos.addAndGet(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+            try {
+                handler.accept(task.update);
+            } catch (Throwable e) {
+                failed.incrementAndGet();
+                System.out.println("UpdateDispatcher: ошибка обработки апдейта для чата " + queue.chatId + ": " + e.getMessage());
+            } finally {
+                processed.incrementAndGet();
+            }
+        }
+    }
+
+
+    private static long chatIdOf(Update update) { // определяем, к какому чату относится апдейт
+        if (update.hasMessage() && update.getMessage().getChatId() != null) {
+            return update.getMessage().getChatId();
+        }
+        if (update.hasCallbackQuery() && update.getCallbackQuery().getMessage() != null) {
+            return update.getCallbackQuery().getMessage().getChatId();
+        }
+        return 0L; // апдейты без чата обрабатываются последовательно в общей очереди
+    }
+
+
+    public void shutdown(long timeoutSeconds) { // дождаться обработки уже принятых апдейтов и остановиться
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutSeconds, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    // --- метрики ---
+
+    public int getQueueDepth() { // сколько апдейтов сейчас ждёт во всех очередях
+        return queuedTotal.get();
+    }
+
+    public int getQueueDepth(long chatId) { // сколько апдейтов ждёт в очереди конкретного чата
+        ChatQueue queue = queues.get(chatId);
+        if (queue == null) {
+            return 0;
+        }
+        synchronized (queue) {
+            return queue.tasks.size();
+        }
+    }
+
+    public int getActiveChats() { // у скольких чатов сейчас есть очередь
+        return queues.size();
+    }
+
+    public int getMaxObservedDepth() {
+        return maxObservedDepth.get();
+    }
+
+    public long getProcessedCount() {
+        return processed.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public double getAverageWaitMillis() { // среднее время ожидания апдейта в очереди
+        long count = processed.get();
+        if (count == 0) {
+            return 0.0;
+        }
+        return totalWaitNanos.get() / 1_000_000.0 / count;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    public String metricsSummary() {
+        return String.format("depth=%d, activeChats=%d, maxDepth=%d, processed=%d, rejected=%d, failed=%d, avgWait=%.1fms, maxWait=%.1fms",
+                getQueueDepth(), getActiveChats(), getMaxObservedDepth(), getProcessedCount(),
+                getRejectedCount(), getFailedCount(), getAverageWaitMillis(), getMaxWaitMillis());
+    }
+
+
+    private static final class ChatQueue { // очередь одного чата
+        private final long chatId;
+        private final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        private boolean running; // есть ли поток, который сейчас разбирает очередь
+        private boolean retired; // очередь опустела и удалена из мапы — в неё больше нельзя класть
+
+        ChatQueue(long chatId) {
+            this.chatId = chatId;
+        }
+    }
+
+    private record Task(Update update, long enqueuedAt) {}
+}
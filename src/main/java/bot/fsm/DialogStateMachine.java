@@ -4,6 +4,7 @@ import bot.commands.AddHomeworkCommand;
 import bot.commands.StartCommand;
 import bot.commands.EditScheduleCommand;
 import bot.commands.InviteHandler; 
+import bot.session.UserContext;
 import bot.user.User;
 import bot.user.UserStorage;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
@@ -28,42 +29,44 @@ public class DialogStateMachine {
     }
     
 
-    public SendMessage handleInput(long chatId, String messageText) {
+    public SendMessage handleInput(UserContext ctx, String messageText) { // пользователь берётся из контекста апдейта, запись — в ctx.flush()
+        long chatId = ctx.getChatId();
         // --- обработка deep-link (invite) для любого пользователя (нового или уже зарегистрированного) ---
         if (messageText != null && messageText.startsWith("/start ")) {
             SendMessage reply = inviteHandler.tryProcessInvite(chatId, messageText);
             if (reply != null) {
+                ctx.reload(); // InviteHandler пишет пользователя сам
                 return reply; // инвайт обработан — выходим
             }
         }
 
-        User user = userStorage.getUser(chatId);
+        User user = ctx.getUser();
 
         // Команда /start всегда обрабатываем в приоритете
         if (messageText != null && messageText.equalsIgnoreCase("/start")) {
-            return startCommand.processStart(chatId);
+            return startCommand.processStart(ctx);
         }
 
 
         if (user.getWaitingForButton() && messageText != null) {
-            return startCommand.processButtonResponse(chatId, messageText);
+            return startCommand.processButtonResponse(ctx, messageText);
         }
         
         
         if (user.getState() == bot.fsm.DialogState.ASK_NAME_INVITE) {
-            return startCommand.processRegistration(chatId, messageText);
+            return startCommand.processRegistration(ctx, messageText);
         }
         
 
         // Если пользователь в процессе регистрации (state != REGISTERED) — направляем все сообщения в StartCommand.processRegistration
-        if (startCommand.isUserInRegistration(chatId)) {
-            return startCommand.processRegistration(chatId, messageText);
+        if (startCommand.isUserInRegistration(user)) {
+            return startCommand.processRegistration(ctx, messageText);
         }
 
         // Команда /editschedule (начало редактирования)
         if (messageText != null && messageText.toLowerCase().startsWith("/editschedule")) {
             String[] args = messageText.split("\\s+");
-            return editScheduleCommand.processChange(chatId, args);
+            return editScheduleCommand.processChange(ctx, args);
         }
 
         // Если пользователь находится в состоянии редактирования — направляем в EditScheduleCommand.processEdit
@@ -74,7 +77,7 @@ public class DialogStateMachine {
             case ASK_TIME_BEGIN:
             case ASK_TIME_END:
             case ASK_LESSON_INDEX:
-                return editScheduleCommand.processEdit(chatId, messageText);
+                return editScheduleCommand.processEdit(ctx, messageText);
 
             case ASK_HW_SUBJECT:
             case ASK_HW_TIME:
@@ -88,7 +91,7 @@ public class DialogStateMachine {
                         || user.getState() == DialogState.ASK_HW_REMIND)) {
                     return sendSimple(chatId, "❌ Для добавления домашнего задания вы должны быть зарегистрированы. Введите /start.");
                 }
-                SendMessage reply = addHomeworkCommand.handleStateMessage(chatId, messageText);
+                SendMessage reply = addHomeworkCommand.handleStateMessage(ctx, messageText);
                 return reply;
             }
             case REGISTERED:
@@ -52,6 +52,10 @@ public class HomeworkItem {
     public int getRemindBeforeDays() { 
     	return remindBeforeDays; 
     	} 
+    public LocalDate getRemindOn() { // в какой день напомнить
+        // как REMIND_OFFSET в SQLiteHomeworkStorage: отрицательное значение — напоминание в день дедлайна
+        return dueDate == null ? null : dueDate.minusDays(Math.max(remindBeforeDays, 0));
+    }
 
     public void setSubject(String subject) {
     	this.subject = subject;
@@ -1,13 +1,26 @@
 package bot.homework;
 
+import bot.db.SQLiteDatabase;
+
 import java.sql.*;
 import java.time.LocalDate;
+import java.util.List;
 
 public class HomeworkLinkStorage { // реализует связь
 
-    private static final String DB_URL = "jdbc:sqlite:homework.db";
+    private static final String DB_FILE = "homework.db";
+    private final SQLiteDatabase database; // тот же файл, что и у SQLiteHomeworkStorage
+
+    static final String UPSERT = "INSERT OR REPLACE INTO homework_link(homework_id, schedule_day, lesson_index) VALUES (?, ?, ?)";
+    static final String DELETE = "DELETE FROM homework_link WHERE homework_id = ?";
+    public static final List<String> QUERIES = List.of(UPSERT, DELETE); // для QueryPlanTest (поиск ДЗ — в SQLiteHomeworkStorage)
+
+    public HomeworkLinkStorage() { // самостоятельное хранилище со своим пулом
+        this(new SQLiteDatabase(DB_FILE));
+    }
 
-    public HomeworkLinkStorage() {
+    public HomeworkLinkStorage(SQLiteDatabase database) { // хранилище поверх общего пула из StorageRegistry
+        this.database = database;
         init();
     }
 
@@ -16,7 +29,7 @@ public class HomeworkLinkStorage { // реализует связь
                 "homework_id INTEGER PRIMARY KEY, " +
                 "schedule_day TEXT, " +
                 "lesson_index INTEGER)";
-        try (Connection c = DriverManager.getConnection(DB_URL); Statement st = c.createStatement()) {
+        try (Connection c = database.getConnection(); Statement st = c.createStatement()) {
             st.execute(sql);
         } catch (SQLException e) {
             throw new RuntimeException(e);
@@ -25,33 +38,35 @@ public class HomeworkLinkStorage { // реализует связь
 
     public void linkLatestHomeworkByUserSubjectDate(long userId, String subject, LocalDate dueDate,
             String scheduleDay, Integer lessonIndex) throws SQLException {
-    	String find = "SELECT id FROM homework WHERE chatId = ? AND subject = ? AND dueDate = ? ORDER BY id DESC LIMIT 1"; //поиск дз
-        try (Connection connection = DriverManager.getConnection(DB_URL);
-             PreparedStatement ps = connection.prepareStatement(find)) { //делаем соединение и создаём запрос
-            ps.setLong(1, userId);
-            ps.setString(2, subject);
-            ps.setString(3, dueDate != null ? dueDate.toString() : null);
-            try (ResultSet result = ps.executeQuery()) { //осуществляем связь между дз и расписанием, здесь получаем её ID
-                if (result.next()) { //если дз было создано
+        database.writeAndWait(connection -> { // поиск и вставка — одна работа общего писателя
+            try (PreparedStatement ps = connection.prepareStatement(SQLiteHomeworkStorage.SELECT_LAST_ADDED)) { //поиск дз
+                ps.setLong(1, userId);
+                ps.setString(2, subject);
+                ps.setString(3, dueDate != null ? dueDate.toString() : null);
+                try (ResultSet result = ps.executeQuery()) { //осуществляем связь между дз и расписанием, здесь получаем её ID
+                    if (!result.next()) { //дз не найдено
+                        return 0;
+                    }
                     long hwId = result.getLong("id");
-                    String upsert = "INSERT OR REPLACE INTO homework_link(homework_id, schedule_day, lesson_index) VALUES (?, ?, ?)"; //вставка или замена таблицы
-                    try (PreparedStatement ps2 = connection.prepareStatement(upsert)) { //обновляем таблицу
+                    try (PreparedStatement ps2 = connection.prepareStatement(UPSERT)) { //вставка или замена, обновляем таблицу
                         ps2.setLong(1, hwId);
                         ps2.setString(2, scheduleDay);
                         if (lessonIndex == null) ps2.setNull(3, Types.INTEGER);
                         else ps2.setInt(3, lessonIndex);
-                        ps2.executeUpdate();
+                        return ps2.executeUpdate();
                     }
                 }
             }
-        }
+        });
     }
     public void unlinkHomework(long homeworkId) {
-        String sql = "DELETE FROM homework_link WHERE homework_id = ?";
-        try (Connection connection = DriverManager.getConnection(DB_URL);
-             PreparedStatement ps = connection.prepareStatement(sql)) {
-            ps.setLong(1, homeworkId);
-            ps.executeUpdate();
+        try {
+            database.writeAndWait(connection -> {
+                try (PreparedStatement ps = connection.prepareStatement(DELETE)) {
+                    ps.setLong(1, homeworkId);
+                    return ps.executeUpdate();
+                }
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Ошибка при удалении связи homework_link", e);
         }
@@ -1,7 +1,9 @@
 package bot.homework;
 
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 
 public interface HomeworkStorage {
@@ -28,4 +30,8 @@ public interface HomeworkStorage {
     
     List<HomeworkItem> getHomeworkWithCustomDeadline(long chatId, List<String> excludedSubjects, LocalDate date); // для вечерней рассылки (собирает дз, дедалйн которого пользователь сам установил)
 
+    Map<Long, List<HomeworkItem>> getActiveHomeworkForUsers(Collection<Long> chatIds, LocalDate from); // невыполненные дз с дедлайном от from сразу для многих пользователей (вечерняя рассылка)
+
+    Map<Long, List<HomeworkItem>> getRemindersDue(LocalDate from, LocalDate to); // невыполненные дз, у которых день напоминания (dueDate - remindBeforeDays) в [from, to]
+
 }
@@ -3,20 +3,91 @@ package bot.homework;
 import java.sql.*;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import bot.db.SQLiteDatabase;
+import bot.db.SchemaMigrator;
 import bot.user.exception.ScheduleStorageException; 
 
 public class SQLiteHomeworkStorage implements HomeworkStorage {
 
-	private final String dbUrl = "jdbc:sqlite:homework.db"; // Путь к файлу базы данных
-    private Connection connection;
+	private static final String DB_FILE = "homework.db"; // Путь к файлу базы данных
+    private final SQLiteDatabase database; // пул соединений к homework.db
+    private final boolean ownsDatabase;
+    private static final int IN_BATCH = 500; // сколько chatId подставляем в один IN (...) (лимит параметров SQLite — 999)
+
+    // Запросы к homework; %s — плейсхолдеры IN (...). Те же строки проверяет QueryPlanTest (через QUERIES).
+    static final String REMIND_OFFSET = "'-' || MAX(COALESCE(remindBeforeDays, 1), 0) || ' days'"; // для date(dueDate, ...); '--2 days' дал бы NULL
+    static final String INSERT = "INSERT INTO homework (chatId, subject, description, dueDate, completed, remindBeforeDays, remindOn) " +
+                                 "VALUES (?, ?, ?, ?, 0, ?, ?)";
+    static final String SELECT_BY_USER = "SELECT * FROM homework WHERE chatId = ? ORDER BY dueDate";
+    static final String SELECT_BY_SUBJECT = "SELECT * FROM homework WHERE chatId = ? AND subject = ? ORDER BY dueDate";
+    static final String SELECT_ACTIVE_BY_SUBJECTS = "SELECT * FROM homework WHERE chatId = ? AND subject IN (%s) " +
+                                                    "AND completed = 0 AND dueDate >= ?";
+    static final String SELECT_DUE_ON = "SELECT * FROM homework WHERE chatId = ? AND completed = 0 AND dueDate = ?";
+    static final String EXCLUDE_SUBJECTS = " AND subject NOT IN (%s)"; // дописывается к SELECT_DUE_ON
+    static final String SELECT_ACTIVE_FOR_USERS = "SELECT * FROM homework WHERE chatId IN (%s) " +
+                                                  "AND completed = 0 AND dueDate >= ? ORDER BY dueDate";
+    static final String SELECT_REMINDERS_DUE = "SELECT * FROM homework WHERE completed = 0 AND remindOn >= ? AND remindOn <= ?";
+    static final String SELECT_LAST_ADDED = // только что добавленное ДЗ (HomeworkService, HomeworkLinkStorage)
+            "SELECT id FROM homework WHERE chatId = ? AND subject = ? AND dueDate = ? ORDER BY id DESC LIMIT 1";
+    static final String UPDATE = "UPDATE homework SET subject = ?, description = ?, dueDate = ?, " +
+                                 "remindOn = date(?, " + REMIND_OFFSET + ") WHERE id = ?";
+    static final String UPDATE_COMPLETED = "UPDATE homework SET completed = ? WHERE id = ?";
+    static final String DELETE = "DELETE FROM homework WHERE id = ?";
+    static final String DELETE_OLD = "DELETE FROM homework WHERE dueDate < ?";
+    static final String DELETE_FOR_USER = "DELETE FROM homework WHERE chatId = ?";
+
+    public static final List<String> QUERIES = List.of( // все запросы к homework, IN (...) — на два значения
+            INSERT, SELECT_BY_USER, SELECT_BY_SUBJECT, String.format(SELECT_ACTIVE_BY_SUBJECTS, "?, ?"),
+            SELECT_DUE_ON, SELECT_DUE_ON + String.format(EXCLUDE_SUBJECTS, "?, ?"),
+            String.format(SELECT_ACTIVE_FOR_USERS, "?, ?"), SELECT_REMINDERS_DUE, SELECT_LAST_ADDED,
+            UPDATE, UPDATE_COMPLETED, DELETE, DELETE_OLD, DELETE_FOR_USER);
+
+    // Шаги миграции схемы (только добавлять в конец). Индексы покрывают все запросы хранилища,
+    // HomeworkService и HomeworkLinkStorage — без них вечерняя рассылка сканирует всю таблицу.
+    private static final List<String> MIGRATIONS = List.of(
+            // getActiveHomeworkBySubjects, getHomeworkWithCustomDeadline, getHomeworkByUser, deleteAllHomeworkForUser
+            "CREATE INDEX IF NOT EXISTS idx_homework_chat_completed_due ON homework(chatId, completed, dueDate)",
+            // getHomeworkBySubject, поиск только что добавленного ДЗ (HomeworkService, HomeworkLinkStorage)
+            "CREATE INDEX IF NOT EXISTS idx_homework_chat_subject_due ON homework(chatId, subject, dueDate)",
+            // deleteOldHomework
+            "CREATE INDEX IF NOT EXISTS idx_homework_due ON homework(dueDate)",
+            // день напоминания = dueDate - remindBeforeDays; поддерживается при add/update, заполняется один раз здесь
+            "ALTER TABLE homework ADD COLUMN remindOn TEXT",
+            "UPDATE homework SET remindOn = date(dueDate, " + REMIND_OFFSET + ")",
+            // getRemindersDue: выполненные ДЗ в индекс не попадают, markAsCompleted убирает их оттуда сам
+            "CREATE INDEX IF NOT EXISTS idx_homework_remind ON homework(remindOn) WHERE completed = 0",
+            // строки с отрицательным remindBeforeDays получили remindOn = NULL и выпали из напоминаний
+            "UPDATE homework SET remindOn = date(dueDate, " + REMIND_OFFSET + ") WHERE remindOn IS NULL"
+    );
+
+
+    public SQLiteHomeworkStorage() { // самостоятельное хранилище со своим пулом
+        this(new SQLiteDatabase(DB_FILE), true);
+    }
+
+    public SQLiteHomeworkStorage(SQLiteDatabase database) { // хранилище поверх общего пула из StorageRegistry
+        this(database, false);
+    }
+
+    private SQLiteHomeworkStorage(SQLiteDatabase database, boolean ownsDatabase) {
+        this.database = database;
+        this.ownsDatabase = ownsDatabase;
+    }
+
+
+    public SQLiteDatabase getDatabase() { // пул нужен связанным хранилищам (homework_link в том же файле)
+        return database;
+    }
     
     
     @Override
     public void initialize() {
-        try {
-            connection = DriverManager.getConnection(dbUrl);
+        try (Connection connection = database.getConnection()) {
 
             // SQL для создания таблицы домашних заданий
             String sql = "CREATE TABLE IF NOT EXISTS homework (" +
@@ -27,12 +98,14 @@ public class SQLiteHomeworkStorage implements HomeworkStorage {
                          "dueDate TEXT NOT NULL, " +  // дата дедлайна в формате YYYY-MM-DD
                          "completed INTEGER DEFAULT 0, " +  // статус выполнения 
                          "remindBeforeDays INTEGER DEFAULT 1" + // за сколько дней напоминать (по умолчанию 1)
-                         ")";
+                         ")"; // колонка remindOn добавляется миграцией (см. MIGRATIONS)
             
             Statement statement = connection.createStatement();
             statement.execute(sql);
             statement.close();
 
+            SchemaMigrator.migrate(connection, "homework", MIGRATIONS);
+
         } catch (SQLException e) {
             throw new ScheduleStorageException("Ошибка инициализации БД домашних заданий", e);
         }
@@ -41,17 +114,19 @@ public class SQLiteHomeworkStorage implements HomeworkStorage {
 
     @Override
     public void addHomework(long chatId, String subject, String description, LocalDate dueDate, int remindBeforeDays) {
+        int daysBefore = Math.max(remindBeforeDays, 0); // «за -2 дня» — напоминаем в день дедлайна
         try {
-            String sql = "INSERT INTO homework (chatId, subject, description, dueDate, completed, remindBeforeDays) " +
-                         "VALUES (?, ?, ?, ?, 0, ?)";
-            PreparedStatement pstatment = connection.prepareStatement(sql);
-            pstatment.setLong(1, chatId);
-            pstatment.setString(2, subject);
-            pstatment.setString(3, description);
-            pstatment.setString(4, dueDate.toString());
-            pstatment.setInt(5, remindBeforeDays);
-            pstatment.executeUpdate();
-            pstatment.close();
+            database.writeAndWait(connection -> { // через общего писателя; вернёмся после COMMIT
+                try (PreparedStatement pstatment = connection.prepareStatement(INSERT)) {
+                    pstatment.setLong(1, chatId);
+                    pstatment.setString(2, subject);
+                    pstatment.setString(3, description);
+                    pstatment.setString(4, dueDate.toString());
+                    pstatment.setInt(5, daysBefore);
+                    pstatment.setString(6, dueDate.minusDays(daysBefore).toString()); // когда напомнить
+                    return pstatment.executeUpdate();
+                }
+            });
         } catch (SQLException e) {
             throw new ScheduleStorageException("Ошибка добавления домашнего задания", e);
         }
@@ -61,9 +136,8 @@ public class SQLiteHomeworkStorage implements HomeworkStorage {
     @Override
     public List<HomeworkItem> getHomeworkByUser(long chatId) {
         List<HomeworkItem> homeworkList = new ArrayList<>();
-        try {
-            String sql = "SELECT * FROM homework WHERE chatId = ? ORDER BY dueDate";
-            PreparedStatement pstatment = connection.prepareStatement(sql);
+        try (Connection connection = database.getReadConnection()) {
+            PreparedStatement pstatment = connection.prepareStatement(SELECT_BY_USER);
             pstatment.setLong(1, chatId);
             ResultSet result = pstatment.executeQuery();
 
@@ -84,9 +158,8 @@ public class SQLiteHomeworkStorage implements HomeworkStorage {
     @Override
     public List<HomeworkItem> getHomeworkBySubject(long chatId, String subject) { // получение домашних заданий по конкретному предмету.
         List<HomeworkItem> homeworkList = new ArrayList<>();
-        try {
-            String sql = "SELECT * FROM homework WHERE chatId = ? AND subject = ? ORDER BY dueDate";
-            PreparedStatement pstatment = connection.prepareStatement(sql);
+        try (Connection connection = database.getReadConnection()) {
+            PreparedStatement pstatment = connection.prepareStatement(SELECT_BY_SUBJECT);
             pstatment.setLong(1, chatId);
             pstatment.setString(2, subject);
             ResultSet result = pstatment.executeQuery();
@@ -111,12 +184,9 @@ public class SQLiteHomeworkStorage implements HomeworkStorage {
         	return homeworkList;
         }
 
-        try {
+        try (Connection connection = database.getReadConnection()) {
             String placeholders = String.join(",", subjects.stream().map(s -> "?").toList());
-            String sql = "SELECT * FROM homework WHERE chatId = ? AND subject IN (" + placeholders + ") " +
-                         "AND completed = 0 AND dueDate >= ?";
-
-            PreparedStatement pstatement = connection.prepareStatement(sql);
+            PreparedStatement pstatement = connection.prepareStatement(String.format(SELECT_ACTIVE_BY_SUBJECTS, placeholders));
             pstatement.setLong(1, chatId);
 
             int index = 2;
@@ -146,13 +216,13 @@ public class SQLiteHomeworkStorage implements HomeworkStorage {
     	// excludedSubjects — список предметов, которые нужно исключить (расписание на завтра)
         List<HomeworkItem> homeworkList = new ArrayList<>();
 
-        try {
-            StringBuilder sql = new StringBuilder("SELECT * FROM homework WHERE chatId = ? AND completed = 0 AND dueDate = ?");
+        try (Connection connection = database.getReadConnection()) {
+            StringBuilder sql = new StringBuilder(SELECT_DUE_ON);
             
             if (excludedSubjects != null && !excludedSubjects.isEmpty()) {
             	// s -> "?" — это лямбда-выражение, для каждого s вернуть вопросик
                 String placeholders = String.join(",", excludedSubjects.stream().map(s -> "?").toList()); // Создаём строку вида "?, ?, ?, ?" — по числу предметов
-                sql.append(" AND subject NOT IN (").append(placeholders).append(")"); // Добавляем в SQL условие: AND subject NOT IN (?, ?, ?)
+                sql.append(String.format(EXCLUDE_SUBJECTS, placeholders)); // Добавляем в SQL условие: AND subject NOT IN (?, ?, ?)
             }
 
             PreparedStatement pstatement = connection.prepareStatement(sql.toString());
@@ -182,17 +252,78 @@ public class SQLiteHomeworkStorage implements HomeworkStorage {
 
 
 
+    @Override
+    public Map<Long, List<HomeworkItem>> getActiveHomeworkForUsers(Collection<Long> chatIds, LocalDate from) {
+        Map<Long, List<HomeworkItem>> byUser = new HashMap<>();
+        List<Long> ids = new ArrayList<>(chatIds);
+
+        try (Connection connection = database.getReadConnection()) {
+            for (int start = 0; start < ids.size(); start += IN_BATCH) { // пачками, чтобы не упереться в лимит параметров
+                List<Long> batch = ids.subList(start, Math.min(ids.size(), start + IN_BATCH));
+                String placeholders = String.join(",", batch.stream().map(id -> "?").toList());
+                PreparedStatement pstatement = connection.prepareStatement(String.format(SELECT_ACTIVE_FOR_USERS, placeholders));
+                int index = 1;
+                for (Long id : batch) {
+                    pstatement.setLong(index++, id);
+                }
+                pstatement.setString(index, from.toString());
+
+                ResultSet result = pstatement.executeQuery();
+                while (result.next()) {
+                    HomeworkItem item = mapToHomeworkItem(result);
+                    byUser.computeIfAbsent(item.getChatId(), id -> new ArrayList<>()).add(item);
+                }
+                result.close();
+                pstatement.close();
+            }
+        } catch (SQLException e) {
+            throw new ScheduleStorageException("Ошибка получения активных домашних заданий пользователей", e);
+        }
+
+        return byUser;
+    }
+
+
+
+    @Override
+    public Map<Long, List<HomeworkItem>> getRemindersDue(LocalDate from, LocalDate to) {
+        Map<Long, List<HomeworkItem>> byUser = new HashMap<>();
+        try (Connection connection = database.getReadConnection()) {
+            // диапазон по частичному индексу idx_homework_remind: читаем только строки, чей день напоминания настал
+            PreparedStatement pstatement = connection.prepareStatement(SELECT_REMINDERS_DUE);
+            pstatement.setString(1, from.toString());
+            pstatement.setString(2, to.toString());
+
+            ResultSet result = pstatement.executeQuery();
+            while (result.next()) {
+                HomeworkItem item = mapToHomeworkItem(result);
+                byUser.computeIfAbsent(item.getChatId(), id -> new ArrayList<>()).add(item);
+            }
+            result.close();
+            pstatement.close();
+        } catch (SQLException e) {
+            throw new ScheduleStorageException("Ошибка получения напоминаний о домашних заданиях", e);
+        }
+
+        return byUser;
+    }
+
+
+
     @Override
     public void updateHomework(long id, String newSubject, String newDescription, LocalDate newDueDate) { // обновление записи дз
         try {
-            String sql = "UPDATE homework SET subject = ?, description = ?, dueDate = ? WHERE id = ?";
-            PreparedStatement pstatement = connection.prepareStatement(sql);
-            pstatement.setString(1, newSubject);
-            pstatement.setString(2, newDescription);
-            pstatement.setString(3, newDueDate.toString());
-            pstatement.setLong(4, id);
-            pstatement.executeUpdate();
-            pstatement.close();
+            database.writeAndWait(connection -> {
+                // день напоминания сдвигается вместе с дедлайном (remindBeforeDays берём из той же строки)
+                try (PreparedStatement pstatement = connection.prepareStatement(UPDATE)) {
+                    pstatement.setString(1, newSubject);
+                    pstatement.setString(2, newDescription);
+                    pstatement.setString(3, newDueDate.toString());
+                    pstatement.setString(4, newDueDate.toString());
+                    pstatement.setLong(5, id);
+                    return pstatement.executeUpdate();
+                }
+            });
         } catch (SQLException e) {
             throw new ScheduleStorageException("Ошибка обновления домашнего задания", e);
         }
@@ -203,12 +334,13 @@ public class SQLiteHomeworkStorage implements HomeworkStorage {
     @Override
     public void markAsCompleted(long id, boolean completed) { // пометить задание, как выполненное (и наоборот тоже можно)
         try {
-            String sql = "UPDATE homework SET completed = ? WHERE id = ?";
-            PreparedStatement pstatement = connection.prepareStatement(sql);
-            pstatement.setInt(1, completed ? 1 : 0); // если передали тру, записали 1, если фолс, записали 0
-            pstatement.setLong(2, id);
-            pstatement.executeUpdate();
-            pstatement.close();
+            database.writeAndWait(connection -> {
+                try (PreparedStatement pstatement = connection.prepareStatement(UPDATE_COMPLETED)) {
+                    pstatement.setInt(1, completed ? 1 : 0); // если передали тру, записали 1, если фолс, записали 0
+                    pstatement.setLong(2, id);
+                    return pstatement.executeUpdate();
+                }
+            });
         } catch (SQLException e) {
             throw new ScheduleStorageException("Ошибка отметки статуса выполнения ДЗ", e);
         }
@@ -219,11 +351,12 @@ public class SQLiteHomeworkStorage implements HomeworkStorage {
     @Override
     public void deleteHomework(long id) { // удалить конкретную запись дз 
         try {
-            String sql = "DELETE FROM homework WHERE id = ?";
-            PreparedStatement pstatement = connection.prepareStatement(sql);
-            pstatement.setLong(1, id);
-            pstatement.executeUpdate();
-            pstatement.close();
+            database.writeAndWait(connection -> {
+                try (PreparedStatement pstatement = connection.prepareStatement(DELETE)) {
+                    pstatement.setLong(1, id);
+                    return pstatement.executeUpdate();
+                }
+            });
         } catch (SQLException e) {
             throw new ScheduleStorageException("Ошибка удаления домашнего задания", e);
         }
@@ -233,11 +366,12 @@ public class SQLiteHomeworkStorage implements HomeworkStorage {
     @Override
     public void deleteOldHomework(LocalDate date) { // удалить дз, у которых дедлайн прошел
         try {
-            String sql = "DELETE FROM homework WHERE dueDate < ?";
-            PreparedStatement pstatement = connection.prepareStatement(sql);
-            pstatement.setString(1, date.toString());
-            pstatement.executeUpdate();
-            pstatement.close();
+            database.writeAndWait(connection -> {
+                try (PreparedStatement pstatement = connection.prepareStatement(DELETE_OLD)) {
+                    pstatement.setString(1, date.toString());
+                    return pstatement.executeUpdate();
+                }
+            });
         } catch (SQLException e) {
             throw new ScheduleStorageException("Ошибка удаления старых домашних заданий", e);
         }
@@ -247,11 +381,12 @@ public class SQLiteHomeworkStorage implements HomeworkStorage {
     @Override
     public void deleteAllHomeworkForUser(long chatId) { // удалить все дз пользователя
         try {
-            String sql = "DELETE FROM homework WHERE chatId = ?";
-            PreparedStatement pstatement = connection.prepareStatement(sql);
-            pstatement.setLong(1, chatId);
-            pstatement.executeUpdate();
-            pstatement.close();
+            database.writeAndWait(connection -> {
+                try (PreparedStatement pstatement = connection.prepareStatement(DELETE_FOR_USER)) {
+                    pstatement.setLong(1, chatId);
+                    return pstatement.executeUpdate();
+                }
+            });
         } catch (SQLException e) {
             throw new ScheduleStorageException("Ошибка удаления всех домашних заданий пользователя", e);
         }
@@ -259,9 +394,9 @@ public class SQLiteHomeworkStorage implements HomeworkStorage {
 
 
     public void close() {
-        try {
-            if (connection != null) connection.close();
-        } catch (SQLException ignored) {}
+        if (ownsDatabase) { // общий пул закрывает StorageRegistry
+            database.close();
+        }
     }
 
 
@@ -0,0 +1,272 @@
+package bot.schedule;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэширующая обёртка над ScheduleStorage.
+ *
+ * Расписания хранятся в памяти неизменяемыми снимками (Schedule.snapshot()) по groupId,
+ * поэтому все студенты одной группы получают один и тот же объект, а не перечитывают
+ * schedule_lessons и не парсят время пар на каждое /schedule, шаг /addhw или рассылку.
+ * Отдельно кэшируется соответствие "имя группы -> groupId" из group_mapping.
+ * Отсутствие расписания тоже запоминается — так scheduleExists для кастомных расписаний
+ * (у большинства пользователей их нет) не ходит в БД.
+ *
+ * saveSchedule, updateSchedule, deleteSchedule и saveGroupMapping пишут в базу и сразу
+ * сбрасывают затронутые записи. Размер ограничен (LRU), записи живут не дольше ttl —
+ * в т.ч. чтобы getGroupIdByName периодически доходил до БД и обновлял lastUpdated у mapping,
+ * иначе technicalMaintenance удалил бы используемые группы.
+ */
+public class CachingScheduleStorage implements ScheduleStorage {
+
+    private final ScheduleStorage delegate;
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    private final LinkedHashMap<String, CacheEntry<Schedule>> schedules; // groupId -> снимок (null — расписания нет)
+    private final LinkedHashMap<String, CacheEntry<String>> groupIds; // имя группы -> groupId (null — mapping нет)
+    private final AtomicLong writeEpoch = new AtomicLong(); // растёт при каждой записи (см. CachingUserStorage)
+
+    // метрики
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+
+    public CachingScheduleStorage(ScheduleStorage delegate, int maxEntries, Duration ttl) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Размер кэша должен быть положительным");
+        }
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.schedules = lruMap();
+        this.groupIds = lruMap();
+    }
+
+    private <V> LinkedHashMap<String, CacheEntry<V>> lruMap() {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry<V>> eldest) {
+                if (size() > maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+
+    @Override
+    public Schedule getScheduleByGroupId(String groupId) {
+        CacheEntry<Schedule> entry = lookup(schedules, groupId);
+        if (entry != null) {
+            return entry.value;
+        }
+
+        long epoch = writeEpoch.get();
+        Schedule loaded = delegate.getScheduleByGroupId(groupId);
+        Schedule snapshot = loaded == null ? null : loaded.snapshot(); // парсим один раз, дальше отдаём общий снимок
+        store(schedules, groupId, snapshot, epoch);
+        return snapshot;
+    }
+
+    @Override
+    public Schedule getScheduleByGroupName(String groupName) {
+        String groupId = getGroupIdByName(groupName);
+        if (groupId == null) {
+            return null;
+        }
+        return getScheduleByGroupId(groupId);
+    }
+
+    @Override
+    public String getGroupIdByName(String groupName) {
+        CacheEntry<String> entry = lookup(groupIds, groupName);
+        if (entry != null) {
+            return entry.value;
+        }
+
+        long epoch = writeEpoch.get();
+        String groupId = delegate.getGroupIdByName(groupName); // заодно обновляет lastUpdated у mapping
+        store(groupIds, groupName, groupId, epoch);
+        return groupId;
+    }
+
+    @Override
+    public boolean scheduleExists(String groupId) { // отвечаем через кэш расписаний
+        return getScheduleByGroupId(groupId) != null;
+    }
+
+    @Override
+    public Map<String, List<String>> getKnownGroups() { // не кэшируем: нужно только ночной сверке
+        return delegate.getKnownGroups();
+    }
+
+    @Override
+    public long getLastSynced(String groupId) { // не кэшируем: нужно только при регистрации, это один запрос по ключу
+        return delegate.getLastSynced(groupId);
+    }
+
+    @Override
+    public boolean groupMappingExists(String groupName) {
+        return getGroupIdByName(groupName) != null;
+    }
+
+
+    @Override
+    public void saveSchedule(Schedule schedule) {
+        try {
+            delegate.saveSchedule(schedule);
+        } finally {
+            invalidate(schedule.getGroupId(), schedule.getGroupName()); // в т.ч. негативные записи
+        }
+    }
+
+    @Override
+    public int updateSchedule(Schedule schedule) {
+        int changed = -1; // -1 — обновление не завершилось
+        try {
+            changed = delegate.updateSchedule(schedule);
+            return changed;
+        } finally {
+            if (changed != 0) { // расписание не изменилось — снимок остаётся актуальным
+                invalidate(schedule.getGroupId(), schedule.getGroupName());
+            }
+        }
+    }
+
+    @Override
+    public void deleteSchedule(String groupId) {
+        try {
+            delegate.deleteSchedule(groupId);
+        } finally {
+            invalidate(groupId, null);
+        }
+    }
+
+    @Override
+    public void saveGroupMapping(String groupName, String groupId) {
+        try {
+            delegate.saveGroupMapping(groupName, groupId);
+        } finally {
+            invalidate(null, groupName);
+        }
+    }
+
+    @Override
+    public void updateMappingTimestamp(String groupName) {
+        delegate.updateMappingTimestamp(groupName);
+    }
+
+    @Override
+    public void technicalMaintenance(int daysOld) {
+        try {
+            delegate.technicalMaintenance(daysOld);
+        } finally {
+            synchronized (this) { // часть mapping могла удалиться
+                writeEpoch.incrementAndGet();
+                groupIds.clear();
+            }
+        }
+    }
+
+    @Override
+    public void initialize() {
+        delegate.initialize();
+    }
+
+    @Override
+    public void close() {
+        invalidateAll();
+        delegate.close();
+    }
+
+
+    public synchronized void invalidate(String groupId, String groupName) {
+        writeEpoch.incrementAndGet();
+        if (groupId != null) {
+            schedules.remove(groupId);
+            groupIds.values().removeIf(e -> groupId.equals(e.value)); // имена, которые указывали на эту группу
+        }
+        if (groupName != null) {
+            groupIds.remove(groupName);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        writeEpoch.incrementAndGet();
+        schedules.clear();
+        groupIds.clear();
+    }
+
+    public ScheduleStorage getDelegate() {
+        return delegate;
+    }
+
+
+    private synchronized <V> CacheEntry<V> lookup(LinkedHashMap<String, CacheEntry<V>> map, String key) {
+        CacheEntry<V> entry = map.get(key);
+        if (entry != null) {
+            if (System.nanoTime() - entry.loadedAt < ttlNanos) {
+                hits.incrementAndGet();
+                return entry;
+            }
+            map.remove(key); // устарела
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    private synchronized <V> void store(LinkedHashMap<String, CacheEntry<V>> map, String key, V value, long epoch) {
+        // если пока мы читали кто-то успел записать — не кладём, возможно прочитали старое
+        if (writeEpoch.get() == epoch) {
+            map.put(key, new CacheEntry<>(value, System.nanoTime()));
+        }
+    }
+
+
+    // --- метрики ---
+
+    public synchronized int getSize() { // сколько расписаний в памяти
+        return schedules.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public double getHitRatio() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0.0 : (double) hits.get() / total;
+    }
+
+    public String metricsSummary() {
+        return String.format("size=%d, hits=%d, misses=%d, evictions=%d, hitRatio=%.2f",
+                getSize(), getHitCount(), getMissCount(), getEvictionCount(), getHitRatio());
+    }
+
+
+    private static final class CacheEntry<V> {
+        private final V value; // null — в базе ничего нет (негативная запись)
+        private final long loadedAt;
+
+        CacheEntry(V value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package bot.schedule;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Кэш справочников УрФУ (список подразделений и групп подразделения) в памяти и на диске.
+ *
+ * Справочники меняются раз в семестр, поэтому:
+ *  - пока ответ моложе ttl, он отдаётся без запроса к УрФУ;
+ *  - устаревший ответ отдаётся сразу, а в фоне идёт условный запрос (If-None-Match / If-Modified-Since),
+ *    на 304 тело не скачивается заново (stale-while-revalidate);
+ *  - совсем старый ответ (старше maxStale) перепроверяется синхронно, но при ошибке УрФУ всё равно отдаётся;
+ *  - одновременные синхронные загрузки одного URL схлопываются в одну (SingleFlight).
+ * Записи хранятся по файлу на URL, поэтому переживают перезапуск бота.
+ */
+public class CatalogueCache {
+
+    public static final Duration DEFAULT_TTL = Duration.ofHours(24);
+    public static final Duration DEFAULT_MAX_STALE = Duration.ofDays(30);
+    private static final String DEFAULT_DIR = "catalogue_cache";
+
+    @FunctionalInterface
+    public interface ConditionalFetcher { // условный GET: null в ответе — 304 Not Modified
+        Response fetch(String url, String etag, String lastModified) throws IOException;
+    }
+
+    public record Response(String body, String etag, String lastModified) {}
+
+    private record Entry(String body, String etag, String lastModified, long fetchedAt, long bytes) {
+        Entry(String body, String etag, String lastModified, long fetchedAt) {
+            this(body, etag, lastModified, fetchedAt, size(body)); // размер тела считается один раз, а не на каждое попадание
+        }
+    }
+
+    private static volatile CatalogueCache shared;
+
+    private final Path dir;
+    private final long ttlMillis;
+    private final long maxStaleMillis;
+    private final LongSupplier clock; // System::currentTimeMillis (в тестах — свои часы)
+    private final Executor revalidator;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<String> revalidating = ConcurrentHashMap.newKeySet(); // не больше одной фоновой проверки на URL
+    private final SingleFlight<String, Entry> flights = new SingleFlight<>(); // не больше одной синхронной загрузки на URL
+
+    // метрики
+    private final AtomicLong hits = new AtomicLong(); // ответ из кэша без обращения к УрФУ
+    private final AtomicLong staleHits = new AtomicLong(); // устаревший ответ отдан, проверка ушла в фон
+    private final AtomicLong misses = new AtomicLong(); // пришлось ждать УрФУ
+    private final AtomicLong notModified = new AtomicLong(); // УрФУ ответил 304
+    private final AtomicLong errorsServedStale = new AtomicLong(); // УрФУ недоступен, отдали старое
+    private final AtomicLong bytesSaved = new AtomicLong(); // сколько байт тела не пришлось скачивать
+
+
+    public CatalogueCache(Path dir, Duration ttl, Duration maxStale, LongSupplier clock, Executor revalidator) {
+        this.dir = dir;
+        this.ttlMillis = ttl.toMillis();
+        this.maxStaleMillis = maxStale.toMillis();
+        this.clock = clock;
+        this.revalidator = revalidator;
+    }
+
+    public static CatalogueCache shared() { // один кэш на процесс (ScheduleFetcher создаётся на каждую регистрацию)
+        CatalogueCache current = shared;
+        if (current == null) {
+            synchronized (CatalogueCache.class) {
+                current = shared;
+                if (current == null) {
+                    String dirName = System.getenv("CATALOGUE_CACHE_DIR");
+                    Executor background = Executors.newSingleThreadExecutor(r -> {
+                        Thread t = new Thread(r, "catalogue-revalidate");
+                        t.setDaemon(true);
+                        return t;
+                    });
+                    current = new CatalogueCache(Paths.get(dirName == null || dirName.isBlank() ? DEFAULT_DIR : dirName),
+                            DEFAULT_TTL, DEFAULT_MAX_STALE, System::currentTimeMillis, background);
+                    shared = current;
+                }
+            }
+        }
+        return current;
+    }
+
+
+    public String get(String url, ConditionalFetcher fetcher) throws IOException {
+        Entry entry = entries.computeIfAbsent(url, this::readFromDisk);
+        if (entry == null) { // ни в памяти, ни на диске — ждём УрФУ
+            misses.incrementAndGet();
+            return await(flights.run(url, () -> {
+                Entry loaded = entries.get(url); // ведущий прошлой загрузки мог закончить, пока мы читали диск
+                return loaded != null ? loaded : revalidate(url, null, fetcher);
+            })).body();
+        }
+
+        long age = clock.getAsLong() - entry.fetchedAt();
+        if (age < ttlMillis) {
+            hits.incrementAndGet();
+            bytesSaved.addAndGet(entry.bytes());
+            return entry.body();
+        }
+
+        if (age < maxStaleMillis) {
+            staleHits.incrementAndGet(); // сэкономленные байты посчитает revalidate, если придёт 304
+            if (revalidating.add(url)) {
+                revalidator.execute(() -> {
+                    try {
+                        revalidate(url, entry, fetcher);
+                    } catch (IOException e) {
+                        System.out.println("CatalogueCache: фоновая проверка " + url + " не удалась: " + e.getMessage());
+                    } finally {
+                        revalidating.remove(url);
+                    }
+                });
+            }
+            return entry.body();
+        }
+
+        try {
+            misses.incrementAndGet();
+            return await(flights.run(url, () -> revalidate(url, entry, fetcher))).body();
+        } catch (IOException e) {
+            errorsServedStale.incrementAndGet();
+            System.out.println("CatalogueCache: УрФУ недоступен, отдаём сохранённый " + url);
+            return entry.body();
+        }
+    }
+
+
+    private Entry revalidate(String url, Entry current, ConditionalFetcher fetcher) throws IOException {
+        Response response = fetcher.fetch(url,
+                current == null ? null : current.etag(),
+                current == null ? null : current.lastModified());
+        long now = clock.getAsLong();
+        Entry updated;
+        if (response == null) { // 304: тело прежнее, продлеваем свежесть
+            if (current == null) {
+                throw new IOException("304 без сохранённого ответа: " + url);
+            }
+            notModified.incrementAndGet();
+            bytesSaved.addAndGet(current.bytes());
+            updated = new Entry(current.body(), current.etag(), current.lastModified(), now, current.bytes());
+        } else {
+            updated = new Entry(response.body(), response.etag(), response.lastModified(), now);
+        }
+        entries.put(url, updated);
+        writeToDisk(url, updated);
+        return updated;
+    }
+
+    private static Entry await(CompletableFuture<Entry> flight) throws IOException {
+        try {
+            return flight.get(); // ведущий ограничен таймаутами UrfuApiClient
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Загрузка справочника прервана", e);
+        }
+    }
+
+    private Entry readFromDisk(String url) {
+        Path file = fileFor(url);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            ObjectNode node = (ObjectNode) mapper.readTree(file.toFile());
+            if (!url.equals(node.path("url").asText())) {
+                return null;
+            }
+            return new Entry(node.path("body").asText(),
+                    node.hasNonNull("etag") ? node.get("etag").asText() : null,
+                    node.hasNonNull("lastModified") ? node.get("lastModified").asText() : null,
+                    node.path("fetchedAt").asLong(0));
+        } catch (Exception e) {
+            System.out.println("CatalogueCache: не удалось прочитать " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeToDisk(String url, Entry entry) {
+        try {
+            Files.createDirectories(dir);
+            ObjectNode node = mapper.createObjectNode();
+            node.put("url", url);
+            node.put("etag", entry.etag());
+            node.put("lastModified", entry.lastModified());
+            node.put("fetchedAt", entry.fetchedAt());
+            node.put("body", entry.body());
+            Path file = fileFor(url);
+            Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp"); // свой файл у каждого писателя
+            try {
+                mapper.writeValue(tmp.toFile(), node);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE); // без полузаписанных файлов
+            } finally {
+                Files.deleteIfExists(tmp); // после удачного move файла уже нет
+            }
+        } catch (IOException e) {
+            System.out.println("CatalogueCache: не удалось сохранить " + url + ": " + e.getMessage()); // кэш в памяти всё равно работает
+        }
+    }
+
+    private Path fileFor(String url) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
+            return dir.resolve(HexFormat.of().formatHex(hash, 0, 16) + ".json");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long size(String body) {
+        return body == null ? 0 : body.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+
+    // --- метрики ---
+
+    public double getHitRate() { // доля запросов, обслуженных без ожидания УрФУ
+        long served = hits.get() + staleHits.get();
+        long total = served + misses.get();
+        return total == 0 ? 0.0 : (double) served / total;
+    }
+
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    public long getNotModifiedCount() {
+        return notModified.get();
+    }
+
+    public long getCoalescedCount() { // промахи, дождавшиеся чужой загрузки того же URL
+        return flights.getCoalescedCount();
+    }
+
+    public String metricsSummary() {
+        return String.format("entries=%d, hits=%d, staleHits=%d, misses=%d, coalesced=%d, notModified=%d, staleOnError=%d, hitRate=%.2f, bytesSaved=%d",
+                entries.size(), hits.get(), staleHits.get(), misses.get(), getCoalescedCount(), notModified.get(),
+                errorsServedStale.get(), getHitRate(), getBytesSaved());
+    }
+}
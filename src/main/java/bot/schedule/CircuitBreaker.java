@@ -0,0 +1,124 @@
+package bot.schedule;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Автомат «предохранитель» для одного вида запросов к УрФУ (circuit breaker).
+ *
+ *  - CLOSED: запросы идут как обычно; после failureThreshold неудач подряд — OPEN;
+ *  - OPEN: запросы сразу отклоняются (без ожидания таймаутов), через openFor — HALF_OPEN;
+ *  - HALF_OPEN: пропускается один пробный запрос: удачный закрывает автомат, неудачный снова открывает.
+ * Считаются переходы в каждое состояние, отклонённые запросы и суммарное время в OPEN — по ним видно простои УрФУ.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openForNanos;
+    private final LongSupplier nanoClock; // System::nanoTime (в тестах — свои часы)
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInFlight; // в HALF_OPEN пробный запрос уже выпущен
+
+    // метрики
+    private final Map<State, AtomicLong> transitions = new EnumMap<>(State.class); // сколько раз входили в состояние
+    private final AtomicLong rejected = new AtomicLong(); // отклонены без запроса к УрФУ
+    private long openNanos; // суммарно в OPEN (без текущего периода)
+
+
+    public CircuitBreaker(String name, int failureThreshold, long openForNanos, LongSupplier nanoClock) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openForNanos = openForNanos;
+        this.nanoClock = nanoClock;
+        for (State s : State.values()) {
+            transitions.put(s, new AtomicLong());
+        }
+    }
+
+
+    public synchronized boolean tryAcquire() { // false — запрос выполнять не нужно
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (nanoClock.getAsLong() - openedAt < openForNanos) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+                moveTo(State.HALF_OPEN);
+                probeInFlight = true;
+                return true;
+            default: // HALF_OPEN
+                if (probeInFlight) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        if (state != State.CLOSED) {
+            moveTo(State.CLOSED);
+        }
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            moveTo(State.OPEN);
+        } else if (state == State.CLOSED && ++consecutiveFailures >= failureThreshold) {
+            moveTo(State.OPEN);
+        }
+    }
+
+    private void moveTo(State next) {
+        long now = nanoClock.getAsLong();
+        if (state == State.OPEN) {
+            openNanos += now - openedAt;
+        }
+        if (next == State.OPEN) {
+            openedAt = now;
+        }
+        System.out.println("CircuitBreaker[" + name + "]: " + state + " -> " + next);
+        state = next;
+        consecutiveFailures = 0;
+        probeInFlight = false;
+        transitions.get(next).incrementAndGet();
+    }
+
+
+    // --- метрики ---
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public long getTransitionCount(State to) {
+        return transitions.get(to).get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public synchronized long getOpenMillis() { // суммарно в OPEN, включая текущий период
+        long total = openNanos + (state == State.OPEN ? nanoClock.getAsLong() - openedAt : 0);
+        return total / 1_000_000;
+    }
+
+    public String metricsSummary() {
+        return String.format("state=%s, opened=%d, halfOpened=%d, closed=%d, rejected=%d, open=%.1fs",
+                getState(), getTransitionCount(State.OPEN), getTransitionCount(State.HALF_OPEN),
+                getTransitionCount(State.CLOSED), getRejectedCount(), getOpenMillis() / 1000.0);
+    }
+}
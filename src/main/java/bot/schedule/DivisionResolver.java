@@ -0,0 +1,229 @@
+package bot.schedule;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Индекс справочника УрФУ (подразделения или группы подразделения) для поиска по названию, которое ввёл пользователь.
+ *
+ * Строится один раз на версию справочника: названия нормализуются заранее, и поиск не прогоняет
+ * регулярные выражения по каждому узлу. Порядок поиска:
+ *  1) точное совпадение нормализованного названия или ключа без дефисов и пробелов — HashMap;
+ *  2) совпадение с началом любого слова названия — бинарный поиск по отсортированным ключам;
+ *  3) вхождение в середину слова — проход по уже нормализованным строкам.
+ * Если подходят несколько узлов, выбирается первый в порядке справочника, а сколько их было — видно в Match.
+ */
+public class DivisionResolver {
+
+    private static final int MAX_CANDIDATES = 5; // сколько названий неоднозначного совпадения показываем в логе
+
+    public record Match(long id, int matches, List<String> candidates) { // candidates — первые названия в порядке справочника
+
+        static final Match NONE = new Match(-1L, 0, List.of());
+
+        public boolean found() {
+            return matches > 0;
+        }
+
+        public boolean isAmbiguous() {
+            return matches > 1;
+        }
+    }
+
+    private record Entry(int order, long id, long parentId, String title, String normalized, String compact) {}
+
+    private static final Comparator<Entry> BY_ORDER = Comparator.comparingInt(Entry::order); // порядок справочника
+
+    private final TitleIndex all;
+    private final Map<Long, List<Entry>> children = new HashMap<>(); // parentId -> подразделения в порядке справочника
+    private final Map<Long, TitleIndex> childIndexes = new ConcurrentHashMap<>(); // строятся при первом поиске внутри института
+
+    private DivisionResolver(List<Entry> entries) {
+        this.all = new TitleIndex(entries);
+        for (Entry entry : entries) {
+            if (entry.parentId() != -1L) {
+                children.computeIfAbsent(entry.parentId(), id -> new ArrayList<>()).add(entry);
+            }
+        }
+    }
+
+    public static DivisionResolver of(JsonNode array) { // массив узлов {id, parentId?, title|name}
+        List<Entry> entries = new ArrayList<>();
+        if (array != null && array.isArray()) {
+            for (JsonNode node : array) {
+                String title = titleOf(node);
+                if (title == null) {
+                    continue;
+                }
+                entries.add(new Entry(entries.size(), node.path("id").asLong(-1), node.path("parentId").asLong(-1),
+                        title, normalize(title), compact(title)));
+            }
+        }
+        return new DivisionResolver(entries);
+    }
+
+
+    public Match findInstitute(String instituteName) {
+        return all.find(instituteName);
+    }
+
+    public Match findDepartment(String instituteName, String departmentName) { // ищем среди детей института, если он найден
+        if (normalize(departmentName).isEmpty()) { // по пустой строке не ищем — иначе совпадёт что угодно
+            return Match.NONE;
+        }
+        Match institute = findInstitute(instituteName);
+        if (!institute.found()) {
+            return all.find(departmentName);
+        }
+        return childIndexes.computeIfAbsent(institute.id(),
+                id -> new TitleIndex(children.getOrDefault(id, List.of()))).find(departmentName);
+    }
+
+    public Match findGroup(String groupName) { // "МЕН-241001", "мен241001" и "МЕН 241001" — одна и та же группа
+        return all.find(groupName);
+    }
+
+    public int size() {
+        return all.entries.size();
+    }
+
+
+    static String normalize(String s) { // нижний регистр, всё кроме букв и цифр — один пробел (буквы любого алфавита)
+        if (s == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        boolean gap = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = Character.toLowerCase(s.charAt(i));
+            if (Character.isLetterOrDigit(c)) {
+                if (gap && sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(c);
+                gap = false;
+            } else {
+                gap = true;
+            }
+        }
+        return sb.toString();
+    }
+
+    static String compact(String s) { // ключ без дефисов и пробелов
+        return normalize(s).replace(" ", "");
+    }
+
+    private static String titleOf(JsonNode node) {
+        for (String key : new String[]{"title", "name"}) {
+            if (node.has(key) && !node.get(key).isNull()) {
+                return node.get(key).asText();
+            }
+        }
+        return null;
+    }
+
+
+    private static class TitleIndex { // индекс по набору узлов (весь справочник или дети одного института)
+
+        private final List<Entry> entries;
+        private final Map<String, List<Entry>> exact = new HashMap<>();
+        private final String[] prefixKeys; // отсортированы: хвосты названий с начала каждого слова и компактные ключи
+        private final Entry[] prefixOwners; // узел, которому принадлежит ключ с тем же номером
+
+        TitleIndex(List<Entry> entries) {
+            this.entries = entries;
+            List<Map.Entry<String, Entry>> keys = new ArrayList<>();
+            for (Entry entry : entries) {
+                String normalized = entry.normalized();
+                exact.computeIfAbsent(normalized, k -> new ArrayList<>()).add(entry);
+                for (int i = 0; i < normalized.length(); i++) {
+                    if (i == 0 || normalized.charAt(i - 1) == ' ') {
+                        keys.add(Map.entry(normalized.substring(i), entry));
+                    }
+                }
+                if (!entry.compact().equals(normalized)) {
+                    exact.computeIfAbsent(entry.compact(), k -> new ArrayList<>()).add(entry);
+                    keys.add(Map.entry(entry.compact(), entry));
+                }
+            }
+            keys.sort(Map.Entry.comparingByKey());
+            prefixKeys = new String[keys.size()];
+            prefixOwners = new Entry[keys.size()];
+            for (int i = 0; i < keys.size(); i++) {
+                prefixKeys[i] = keys.get(i).getKey();
+                prefixOwners[i] = keys.get(i).getValue();
+            }
+        }
+
+        Match find(String query) {
+            String normalized = normalize(query);
+            if (normalized.isEmpty()) {
+                return Match.NONE;
+            }
+            String compact = normalized.replace(" ", "");
+
+            Match match = exact(normalized);
+            if (!match.found()) {
+                match = exact(compact);
+            }
+            if (!match.found()) {
+                match = prefix(normalized);
+            }
+            if (!match.found() && !compact.equals(normalized)) {
+                match = prefix(compact);
+            }
+            if (!match.found()) {
+                match = scan(normalized, compact);
+            }
+            return match;
+        }
+
+        private Match exact(String key) {
+            List<Entry> found = exact.get(key);
+            if (found == null) {
+                return Match.NONE;
+            }
+            SortedSet<Entry> ordered = new TreeSet<>(BY_ORDER);
+            ordered.addAll(found);
+            return toMatch(ordered);
+        }
+
+        private Match prefix(String key) {
+            int i = Arrays.binarySearch(prefixKeys, key);
+            if (i < 0) {
+                i = -i - 1; // первый ключ, который не меньше key
+            }
+            SortedSet<Entry> found = new TreeSet<>(BY_ORDER);
+            for (; i < prefixKeys.length && prefixKeys[i].startsWith(key); i++) {
+                found.add(prefixOwners[i]);
+            }
+            return toMatch(found);
+        }
+
+        private Match scan(String normalized, String compact) { // запасной путь: вхождение в середину слова
+            SortedSet<Entry> found = new TreeSet<>(BY_ORDER);
+            for (Entry entry : entries) {
+                if (entry.normalized().contains(normalized) || entry.compact().contains(compact)) {
+                    found.add(entry);
+                }
+            }
+            return toMatch(found);
+        }
+
+        private static Match toMatch(SortedSet<Entry> found) {
+            if (found.isEmpty()) {
+                return Match.NONE;
+            }
+            List<String> titles = new ArrayList<>();
+            for (Entry entry : found) {
+                if (titles.size() == MAX_CANDIDATES) {
+                    break;
+                }
+                titles.add(entry.title());
+            }
+            return new Match(found.first().id(), found.size(), titles);
+        }
+    }
+}
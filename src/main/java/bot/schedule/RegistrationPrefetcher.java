@@ -0,0 +1,228 @@
+package bot.schedule;
+
+import bot.user.User;
+import bot.user.exception.ScheduleFetchException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Загрузка расписания заранее, пока пользователь проходит диалог регистрации.
+ *
+ * Раньше все запросы к УрФУ шли на шаге ASK_COURSE, и поток обновлений ждал их несколько секунд. Теперь:
+ *  - на шаге ASK_GROUP в фоне прогревается список подразделений (справочник и его индекс);
+ *  - после выбора департамента курс угадывается по году набора в названии группы (МЕН-241001 — набор 2024),
+ *    и в фоне запускается ScheduleProvider.scheduleFor;
+ *  - на ASK_COURSE, если курс угадан, остаётся только дождаться уже идущей загрузки, иначе — обычная загрузка.
+ * Загрузки идут на виртуальных потоках и не стоят в очереди друг за другом. Если загрузка так и не началась,
+ * она отменяется и расписание грузится сразу; дольше WAIT_TIMEOUT её тоже не ждём — грузим напрямую
+ * (ScheduleProvider присоединит нас к той же загрузке группы, если она ещё идёт).
+ * Незаконченные загрузки брошенных диалогов забываются через STALE_AFTER.
+ */
+public class RegistrationPrefetcher {
+
+    private static final Duration STALE_AFTER = Duration.ofMinutes(15);
+    private static final Duration WAIT_TIMEOUT = Duration.ofSeconds(5); // сколько ASK_COURSE ждёт фоновую загрузку
+    private static final Pattern GROUP_CODE = Pattern.compile("^\\p{L}+\\s*-?\\s*(\\d{2})\\d{4}"); // МЕН-241001
+
+    // taken: кто первым взял работу — фоновый поток или ASK_COURSE (тогда фоновая загрузка не запускается)
+    private record Prefetch(String profile, CompletableFuture<Schedule> schedule, AtomicBoolean taken, long startedAt) {}
+
+    private final ScheduleProvider scheduleProvider;
+    private final Supplier<ScheduleFetcher> fetchers; // ScheduleFetcher::new (в тестах — заглушка)
+    private final LongSupplier clock; // System::currentTimeMillis (в тестах — свои часы)
+    private final Executor executor;
+    private final long waitTimeoutMillis;
+    private final Map<Long, Prefetch> pending = new ConcurrentHashMap<>(); // chatId -> загрузка по ожидаемому профилю
+
+    // метрики
+    private final AtomicLong warmups = new AtomicLong(); // прогревы справочника
+    private final AtomicLong started = new AtomicLong(); // запущенные заранее загрузки расписания
+    private final AtomicLong used = new AtomicLong(); // пригодились на ASK_COURSE
+    private final AtomicLong missed = new AtomicLong(); // профиль не совпал (курс не угадан, данные изменены)
+    private final AtomicLong cancelled = new AtomicLong(); // к ASK_COURSE загрузка ещё не началась — грузили сами
+    private final AtomicLong timedOut = new AtomicLong(); // не дождались за WAIT_TIMEOUT — грузили напрямую
+    private final AtomicLong waitedMillis = new AtomicLong(); // сколько всего ждали на ASK_COURSE
+
+
+    public RegistrationPrefetcher(ScheduleProvider scheduleProvider) {
+        this(scheduleProvider, ScheduleFetcher::new, System::currentTimeMillis,
+                Executors.newVirtualThreadPerTaskExecutor()); // пачка регистраций не выстраивается в очередь
+    }
+
+    public RegistrationPrefetcher(ScheduleProvider scheduleProvider, Supplier<ScheduleFetcher> fetchers,
+                                  LongSupplier clock, Executor executor) {
+        this(scheduleProvider, fetchers, clock, executor, WAIT_TIMEOUT);
+    }
+
+    public RegistrationPrefetcher(ScheduleProvider scheduleProvider, Supplier<ScheduleFetcher> fetchers,
+                                  LongSupplier clock, Executor executor, Duration waitTimeout) {
+        this.scheduleProvider = scheduleProvider;
+        this.fetchers = fetchers;
+        this.clock = clock;
+        this.executor = executor;
+        this.waitTimeoutMillis = waitTimeout.toMillis();
+    }
+
+
+    public void onGroupAsked() { // шаг ASK_GROUP: справочник подразделений понадобится в любом случае
+        try {
+            executor.execute(() -> {
+                try {
+                    fetchers.get().warmDivisions();
+                    warmups.incrementAndGet();
+                } catch (Exception e) {
+                    System.out.println("RegistrationPrefetcher: не удалось прогреть справочник: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException ignored) {
+        }
+    }
+
+    public void onDepartmentChosen(User user) { // шаг ASK_DEPARTMENT пройден: группа, институт и департамент известны
+        forgetStale();
+        LocalDate today = Instant.ofEpochMilli(clock.getAsLong()).atZone(ZoneId.of("Asia/Yekaterinburg")).toLocalDate();
+        String course = guessCourse(user.getGroup(), today);
+        if (course == null) {
+            pending.remove(user.getChatId());
+            return;
+        }
+        // копия: диалог продолжает менять объект пользователя
+        User expected = new User(user.getChatId(), user.getName(), user.getGroup(), user.getUniversity(),
+                user.getDepartment(), course, user.getState());
+        AtomicBoolean taken = new AtomicBoolean();
+        CompletableFuture<Schedule> schedule;
+        try {
+            schedule = CompletableFuture.supplyAsync(() -> {
+                if (!taken.compareAndSet(false, true)) {
+                    return null; // ASK_COURSE уже грузит сам
+                }
+                try {
+                    return scheduleProvider.scheduleFor(expected);
+                } catch (ScheduleFetchException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            return;
+        }
+        started.incrementAndGet();
+        pending.put(user.getChatId(), new Prefetch(profileOf(expected), schedule, taken, clock.getAsLong()));
+    }
+
+    public Schedule scheduleFor(User user) throws ScheduleFetchException { // шаг ASK_COURSE: то же, что ScheduleProvider.scheduleFor
+        Prefetch prefetch = pending.remove(user.getChatId());
+        if (prefetch == null || !prefetch.profile().equals(profileOf(user))) {
+            if (prefetch != null) {
+                missed.incrementAndGet();
+            }
+            return scheduleProvider.scheduleFor(user);
+        }
+        if (prefetch.taken().compareAndSet(false, true)) { // загрузка ещё ждёт потока — не ждём её, грузим сами
+            cancelled.incrementAndGet();
+            return scheduleProvider.scheduleFor(user);
+        }
+
+        used.incrementAndGet();
+        long start = clock.getAsLong();
+        try {
+            return prefetch.schedule().get(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timedOut.incrementAndGet();
+            System.out.println("RegistrationPrefetcher: загрузка для " + user.getChatId() + " не успела за "
+                    + waitTimeoutMillis + " мс — грузим напрямую");
+            return scheduleProvider.scheduleFor(user);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ScheduleFetchException sfe) {
+                throw sfe;
+            }
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new ScheduleFetchException("Ошибка при загрузке расписания.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ScheduleFetchException("Ошибка при загрузке расписания.");
+        } finally {
+            waitedMillis.addAndGet(Math.max(0, clock.getAsLong() - start));
+        }
+    }
+
+
+    public static String guessCourse(String groupName, LocalDate today) { // null — по названию не понять
+        if (groupName == null) {
+            return null;
+        }
+        Matcher m = GROUP_CODE.matcher(groupName.trim());
+        if (!m.find()) {
+            return null;
+        }
+        int admitted = 2000 + Integer.parseInt(m.group(1));
+        int academicYear = today.getMonthValue() >= 9 ? today.getYear() : today.getYear() - 1; // учебный год с сентября
+        int course = academicYear - admitted + 1;
+        return course >= 1 && course <= 6 ? String.valueOf(course) : null;
+    }
+
+    private static String profileOf(User user) { // всё, от чего зависит загрузка расписания
+        return String.join("|", Objects.toString(trim(user.getGroup())), Objects.toString(trim(user.getUniversity())),
+                Objects.toString(trim(user.getDepartment())), Objects.toString(trim(user.getCourse())));
+    }
+
+    private static String trim(String s) {
+        return s == null ? null : s.trim();
+    }
+
+    private void forgetStale() {
+        long now = clock.getAsLong();
+        pending.values().removeIf(p -> now - p.startedAt() > STALE_AFTER.toMillis());
+    }
+
+
+    // --- метрики ---
+
+    public long getStartedCount() {
+        return started.get();
+    }
+
+    public long getUsedCount() {
+        return used.get();
+    }
+
+    public long getMissedCount() {
+        return missed.get();
+    }
+
+    public long getCancelledCount() {
+        return cancelled.get();
+    }
+
+    public long getTimedOutCount() {
+        return timedOut.get();
+    }
+
+    public String metricsSummary() {
+        long hits = used.get();
+        return String.format("warmups=%d, started=%d, used=%d, missed=%d, cancelled=%d, timedOut=%d, avgWait=%.1fms",
+                warmups.get(), getStartedCount(), hits, getMissedCount(), getCancelledCount(), getTimedOutCount(),
+                hits == 0 ? 0.0 : (double) waitedMillis.get() / hits);
+    }
+}
@@ -0,0 +1,58 @@
+package bot.schedule;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Общий на все запросы к УрФУ бюджет повторов.
+ *
+ * Каждый обычный запрос добавляет ratio жетона (но не больше maxTokens), каждый повтор тратит целый жетон.
+ * Пока УрФУ отвечает, бюджет полон и единичные сбои повторяются; при массовых сбоях повторы
+ * ограничены долей ratio от потока запросов и не умножают нагрузку на лежащий сервер.
+ */
+public class RetryBudget {
+
+    private final double ratio;
+    private final double maxTokens;
+    private double tokens;
+
+    // метрики
+    private final AtomicLong retries = new AtomicLong(); // разрешённые повторы
+    private final AtomicLong exhausted = new AtomicLong(); // повторы, на которые жетонов не хватило
+
+
+    public RetryBudget(double ratio, double maxTokens) {
+        this.ratio = ratio;
+        this.maxTokens = maxTokens;
+        this.tokens = maxTokens;
+    }
+
+
+    public synchronized void onRequest() {
+        tokens = Math.min(maxTokens, tokens + ratio);
+    }
+
+    public synchronized boolean tryRetry() {
+        if (tokens < 1.0) {
+            exhausted.incrementAndGet();
+            return false;
+        }
+        tokens -= 1.0;
+        retries.incrementAndGet();
+        return true;
+    }
+
+
+    // --- метрики ---
+
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    public long getExhaustedCount() {
+        return exhausted.get();
+    }
+
+    public synchronized String metricsSummary() {
+        return String.format("retries=%d, budgetExhausted=%d, tokens=%.1f", getRetryCount(), getExhaustedCount(), tokens);
+    }
+}
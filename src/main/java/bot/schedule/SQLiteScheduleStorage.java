@@ -1,24 +1,102 @@
 package bot.schedule;
 
 import java.sql.*;
+import java.time.LocalDate;
 import java.time.LocalTime;
 import java.util.*;
 
+import bot.db.SQLiteDatabase;
+import bot.db.SchemaMigrator;
 import bot.user.exception.ScheduleStorageException;
 
 public class SQLiteScheduleStorage implements ScheduleStorage {
-    private final String dbUrl;
-    private Connection connection;
+    private final SQLiteDatabase database; // пул соединений к файлу расписаний
+    private final boolean ownsDatabase;
+
+    private static final List<String> MIGRATIONS = List.of( // шаги миграции схемы (только добавлять в конец)
+            // пары группы: поиск по groupId + ORDER BY dayOfWeek, startTime без временной сортировки
+            "CREATE INDEX IF NOT EXISTS idx_schedule_lessons_group_day_time ON schedule_lessons(groupId, dayOfWeek, startTime)",
+            // technicalMaintenance
+            "CREATE INDEX IF NOT EXISTS idx_group_mapping_last_updated ON group_mapping(lastUpdated)",
+            // когда расписание группы последний раз сверялось с УрФУ (epoch millis, NULL — неизвестно)
+            "ALTER TABLE groups ADD COLUMN lastSynced INTEGER",
+            // пары по датам (горизонт в несколько недель) и диапазон дат, за который они полные
+            "CREATE TABLE IF NOT EXISTS schedule_occurrences (" +
+                    "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "groupId TEXT NOT NULL," +
+                    "lessonDate TEXT NOT NULL," +
+                    "subject TEXT NOT NULL," +
+                    "startTime TEXT," +
+                    "endTime TEXT," +
+                    "classroom TEXT" +
+                    ")",
+            "CREATE INDEX IF NOT EXISTS idx_schedule_occurrences_group_date ON schedule_occurrences(groupId, lessonDate, startTime)",
+            "ALTER TABLE groups ADD COLUMN coveredFrom TEXT",
+            "ALTER TABLE groups ADD COLUMN coveredTo TEXT"
+    );
+
+    private static final int KEEP_PAST_DAYS = 7; // сколько прошедших дней пар по датам храним (вчерашняя рассылка, правки)
+
+    // Запросы хранилища. Те же строки проверяет QueryPlanTest (через QUERIES).
+    static final String SELECT_GROUP_ID = "SELECT groupId FROM group_mapping WHERE groupName = ?";
+    static final String UPSERT_MAPPING = "INSERT OR REPLACE INTO group_mapping (groupName, groupId) VALUES (?, ?)";
+    static final String MAPPING_EXISTS = "SELECT 1 FROM group_mapping WHERE groupName = ?";
+    static final String TOUCH_MAPPING = "UPDATE group_mapping SET lastUpdated = CURRENT_TIMESTAMP WHERE groupName = ?";
+    static final String DELETE_OLD_MAPPINGS = "DELETE FROM group_mapping WHERE lastUpdated < datetime('now', ?)";
+    static final String SELECT_KNOWN_GROUPS = // все группы сразу (ночная сверка) — полный обход по смыслу, в QUERIES не входит
+            "SELECT m.groupId, m.groupName FROM group_mapping m LEFT JOIN groups g ON g.groupId = m.groupId " +
+            "ORDER BY COALESCE(g.lastSynced, 0), m.groupId, m.groupName";
+    static final String GROUP_EXISTS = "SELECT 1 FROM groups WHERE groupId = ?";
+    static final String SELECT_GROUP = "SELECT groupName, coveredFrom, coveredTo FROM groups WHERE groupId = ?";
+    static final String SELECT_LAST_SYNCED = "SELECT lastSynced FROM groups WHERE groupId = ?";
+    static final String SELECT_COVERAGE = "SELECT coveredFrom, coveredTo FROM groups WHERE groupId = ?";
+    static final String INSERT_GROUP = "INSERT INTO groups (groupId, groupName, lastSynced) VALUES (?, ?, ?)";
+    static final String UPDATE_GROUP_NAME = "UPDATE groups SET groupName = ? WHERE groupId = ? AND groupName <> ?";
+    static final String TOUCH_LAST_SYNCED = "UPDATE groups SET lastSynced = ? WHERE groupId = ?";
+    static final String UPDATE_COVERAGE = "UPDATE groups SET coveredFrom = ?, coveredTo = ? " +
+                                          "WHERE groupId = ? AND (coveredFrom IS NOT ? OR coveredTo IS NOT ?)";
+    static final String DELETE_GROUP = "DELETE FROM groups WHERE groupId = ?";
+    static final String SELECT_LESSONS = "SELECT dayOfWeek, subject, startTime, endTime, classroom " +
+                                         "FROM schedule_lessons WHERE groupId = ? ORDER BY dayOfWeek, startTime";
+    static final String SELECT_LESSON_ROWS = "SELECT id, dayOfWeek, subject, startTime, endTime, classroom " +
+                                             "FROM schedule_lessons WHERE groupId = ? ORDER BY id";
+    static final String INSERT_LESSON = "INSERT INTO schedule_lessons (groupId, dayOfWeek, subject, startTime, endTime, classroom) " +
+                                        "VALUES (?, ?, ?, ?, ?, ?)";
+    static final String UPDATE_LESSON = "UPDATE schedule_lessons SET subject = ?, startTime = ?, endTime = ?, classroom = ? WHERE id = ?";
+    static final String DELETE_LESSON = "DELETE FROM schedule_lessons WHERE id = ?";
+    static final String DELETE_LESSONS = "DELETE FROM schedule_lessons WHERE groupId = ?";
+    static final String SELECT_OCCURRENCES = "SELECT id, lessonDate, subject, startTime, endTime, classroom FROM schedule_occurrences " +
+                                             "WHERE groupId = ? AND lessonDate BETWEEN ? AND ? ORDER BY lessonDate, startTime, id";
+    static final String INSERT_OCCURRENCE = "INSERT INTO schedule_occurrences (groupId, lessonDate, subject, startTime, endTime, classroom) " +
+                                            "VALUES (?, ?, ?, ?, ?, ?)";
+    static final String DELETE_OCCURRENCES_ON = "DELETE FROM schedule_occurrences WHERE groupId = ? AND lessonDate = ?";
+    static final String TRIM_OCCURRENCES = "DELETE FROM schedule_occurrences WHERE groupId = ? AND lessonDate < ?";
+    static final String DELETE_OCCURRENCES = "DELETE FROM schedule_occurrences WHERE groupId = ?";
+
+    public static final List<String> QUERIES = List.of(
+            SELECT_GROUP_ID, UPSERT_MAPPING, MAPPING_EXISTS, TOUCH_MAPPING, DELETE_OLD_MAPPINGS,
+            GROUP_EXISTS, SELECT_GROUP, SELECT_LAST_SYNCED, SELECT_COVERAGE, INSERT_GROUP, UPDATE_GROUP_NAME,
+            TOUCH_LAST_SYNCED, UPDATE_COVERAGE, DELETE_GROUP,
+            SELECT_LESSONS, SELECT_LESSON_ROWS, INSERT_LESSON, UPDATE_LESSON, DELETE_LESSON, DELETE_LESSONS,
+            SELECT_OCCURRENCES, INSERT_OCCURRENCE, DELETE_OCCURRENCES_ON, TRIM_OCCURRENCES, DELETE_OCCURRENCES);
 
     public SQLiteScheduleStorage(String dbFileName) { // Конструктор с путем к БД (потому что нам нужно 2 бд)
-        this.dbUrl = "jdbc:sqlite:" + dbFileName;
+        this(new SQLiteDatabase(dbFileName), true);
+    }
+
+    public SQLiteScheduleStorage(SQLiteDatabase database) { // хранилище поверх общего пула из StorageRegistry
+        this(database, false);
+    }
+
+    private SQLiteScheduleStorage(SQLiteDatabase database, boolean ownsDatabase) {
+        this.database = database;
+        this.ownsDatabase = ownsDatabase;
     }
 
     
     @Override
     public void initialize() {
-        try {
-            connection = DriverManager.getConnection(dbUrl); // устанавливаем соединения с бд
+        try (Connection connection = database.getConnection()) { // берём соединение из пула
             
             // Таблица mapping (группа -> groupId)
             String mappingSql = "CREATE TABLE IF NOT EXISTS group_mapping (" +
@@ -50,6 +128,8 @@ public class SQLiteScheduleStorage implements ScheduleStorage {
             statement.execute(groupsSql);
             statement.execute(scheduleSql);
             statement.close();
+
+            SchemaMigrator.migrate(connection, "schedules", MIGRATIONS);
             
         } catch (SQLException e) {
             throw new ScheduleStorageException("Ошибка инициализации БД расписания: ", e);
@@ -59,92 +139,119 @@ public class SQLiteScheduleStorage implements ScheduleStorage {
     
     @Override
     public String getGroupIdByName(String groupName) {
-        try {
-            String sql = "SELECT groupId FROM group_mapping WHERE groupName = ?";
-            PreparedStatement pstatment = connection.prepareStatement(sql);
-            pstatment.setString(1, groupName);
-            
-            ResultSet result =  pstatment.executeQuery(); // оно вернет курсор на начало строки
-            if (result.next()) { // если нашли результат 
-                String groupId = result.getString("groupId");
-                result.close();
-                pstatment.close();
-                
-                updateMappingTimestamp(groupName);
-                
-                return groupId;
+        try (Connection connection = database.getReadConnection()) {
+            String groupId = getGroupIdByName(connection, groupName);
+            if (groupId != null) {
+                touchMappingLater(groupName);
             }
-            result.close();
-            pstatment.close();
-            return null;
-            
+            return groupId;
         } catch (SQLException e) {
             throw new ScheduleStorageException("Ошибка получения groupId по имени группы: ", e);
         }
     }
+
+    private String getGroupIdByName(Connection connection, String groupName) throws SQLException {
+        PreparedStatement pstatment = connection.prepareStatement(SELECT_GROUP_ID);
+        pstatment.setString(1, groupName);
+        
+        ResultSet result =  pstatment.executeQuery(); // оно вернет курсор на начало строки
+        if (result.next()) { // если нашли результат 
+            String groupId = result.getString("groupId");
+            result.close();
+            pstatment.close();
+            return groupId;
+        }
+        result.close();
+        pstatment.close();
+        return null;
+    }
     
     
     @Override
-    public void saveGroupMapping(String groupName, String groupId) {
+    public void saveGroupMapping(String groupName, String groupId) { // все записи — через писателя, иначе SQLITE_BUSY у его пачки
         try {
-            String sql = "INSERT OR REPLACE INTO group_mapping (groupName, groupId) VALUES (?, ?)";
-            PreparedStatement pstatment = connection.prepareStatement(sql);
-            pstatment.setString(1, groupName);
-            pstatment.setString(2, groupId);
-            pstatment.executeUpdate();
-            pstatment.close();
-            
-            updateMappingTimestamp(groupName);
-            
+            database.writeAndWait(connection -> {
+                saveGroupMapping(connection, groupName, groupId);
+                return null;
+            });
         } catch (SQLException e) {
             throw new ScheduleStorageException("Ошибка сохранения mapping группы: ", e);
         }
     }
 
+    private void saveGroupMapping(Connection connection, String groupName, String groupId) throws SQLException {
+        PreparedStatement pstatment = connection.prepareStatement(UPSERT_MAPPING);
+        pstatment.setString(1, groupName);
+        pstatment.setString(2, groupId);
+        pstatment.executeUpdate();
+        pstatment.close();
+        
+        updateMappingTimestamp(connection, groupName);
+    }
+
     
     @Override
     public boolean groupMappingExists(String groupName) {
-        try {
-            String sql = "SELECT 1 FROM group_mapping WHERE groupName = ?"; // возвращает 1, если строка с заданным именем группы найдена в бд
-            PreparedStatement pstatment = connection.prepareStatement(sql);
-            pstatment.setString(1, groupName);
-            
-            ResultSet result = pstatment.executeQuery();
-            boolean exists = result.next();
-            
-            result.close();
-            pstatment.close();
-            return exists;
-            
+        try (Connection connection = database.getReadConnection()) {
+            return groupMappingExists(connection, groupName);
         } catch (SQLException e) {
             throw new ScheduleStorageException("Ошибка проверки mapping группы: ", e);
         }
     }
+
+    private boolean groupMappingExists(Connection connection, String groupName) throws SQLException {
+        PreparedStatement pstatment = connection.prepareStatement(MAPPING_EXISTS); // возвращает 1, если строка с заданным именем группы найдена в бд
+        pstatment.setString(1, groupName);
+        
+        ResultSet result = pstatment.executeQuery();
+        boolean exists = result.next();
+        
+        result.close();
+        pstatment.close();
+        return exists;
+    }
     
     
     @Override
     public void updateMappingTimestamp(String groupName) {
         try {
-            String sql = "UPDATE group_mapping SET lastUpdated = CURRENT_TIMESTAMP WHERE groupName = ?";
-            PreparedStatement pstatment = connection.prepareStatement(sql);
-            pstatment.setString(1, groupName);
-            pstatment.executeUpdate();
-            pstatment.close();
+            database.writeAndWait(connection -> {
+                updateMappingTimestamp(connection, groupName);
+                return null;
+            });
         } catch (SQLException e) {
             throw new ScheduleStorageException("Ошибка обновления времени mapping", e);
         }
     }
+
+    private void touchMappingLater(String groupName) { // отметка использования mapping: читатель писателя не ждёт
+        database.write(connection -> {
+            updateMappingTimestamp(connection, groupName);
+            return null;
+        }).exceptionally(e -> {
+            System.out.println("Не удалось обновить время mapping для " + groupName + ": " + e.getMessage());
+            return null;
+        });
+    }
+
+    private void updateMappingTimestamp(Connection connection, String groupName) throws SQLException {
+        PreparedStatement pstatment = connection.prepareStatement(TOUCH_MAPPING);
+        pstatment.setString(1, groupName);
+        pstatment.executeUpdate();
+        pstatment.close();
+    }
     
     
     @Override
     public void technicalMaintenance(int daysOld) {
         try {
-            String sql = "DELETE FROM group_mapping WHERE lastUpdated < datetime('now', ?)";
-            PreparedStatement pstatment = connection.prepareStatement(sql);
-            pstatment.setString(1, "-" + daysOld + " days");
-            
-            int deletedCount = pstatment.executeUpdate();
-            pstatment.close();
+            int deletedCount = database.writeAndWait(connection -> {
+                PreparedStatement pstatment = connection.prepareStatement(DELETE_OLD_MAPPINGS);
+                pstatment.setString(1, "-" + daysOld + " days");
+                int deleted = pstatment.executeUpdate();
+                pstatment.close();
+                return deleted;
+            });
             
             System.out.println("Удалено устаревших mapping: " + deletedCount);
             
@@ -155,63 +262,112 @@ public class SQLiteScheduleStorage implements ScheduleStorage {
 
 
     @Override
-    public Schedule getScheduleByGroupId(String groupId) {
-        try {
-            String groupSql = "SELECT groupName FROM groups WHERE groupId = ?"; // вернет имя группы, если найдена строка с заданным айди
-            PreparedStatement pstatment = connection.prepareStatement(groupSql);
-            pstatment.setString(1, groupId);
-            
+    public Map<String, List<String>> getKnownGroups() {
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        try (Connection connection = database.getReadConnection()) {
+            PreparedStatement pstatment = connection.prepareStatement(SELECT_KNOWN_GROUPS);
             ResultSet result = pstatment.executeQuery();
-            if (!result.next()) { // если строка не найдена
-            	result.close();
-            	pstatment.close();
-                return null;
+            while (result.next()) {
+                groups.computeIfAbsent(result.getString("groupId"), id -> new ArrayList<>()).add(result.getString("groupName"));
             }
-            
-            String groupName = result.getString("groupName");
             result.close();
             pstatment.close();
+        } catch (SQLException e) {
+            throw new ScheduleStorageException("Ошибка чтения списка групп: ", e);
+        }
+        return groups;
+    }
 
-            String lessonsSql = "SELECT dayOfWeek, subject, startTime, endTime, classroom " +
-                               "FROM schedule_lessons WHERE groupId = ? ORDER BY dayOfWeek, startTime"; // ORDER BY dayOfWeek, startTime сортирует по дню недели и времени начала
-            
-            PreparedStatement lessonsStmt = connection.prepareStatement(lessonsSql);
-            lessonsStmt.setString(1, groupId);
-            
-            ResultSet lessonsResult = lessonsStmt.executeQuery();
-            
-            Schedule schedule = new Schedule(groupId, groupName);
-            
-            while (lessonsResult.next()) {
-                String dayOfWeek = lessonsResult.getString("dayOfWeek");
-                String subject = lessonsResult.getString("subject");
-                LocalTime startTime = LocalTime.parse(lessonsResult.getString("startTime")); // извлекаем как строку и парсим в LocalTime объект
-                LocalTime endTime = LocalTime.parse(lessonsResult.getString("endTime"));
-                String classroom = lessonsResult.getString("classroom");
-                
-                Lesson lesson = new Lesson(subject, startTime, endTime, classroom);
-                schedule.addLesson(dayOfWeek, lesson); // добавляет пару в расписание под нужным днем
-            }
-            
-            lessonsResult.close();
-            lessonsStmt.close();
-            return schedule;
-            
+
+    @Override
+    public Schedule getScheduleByGroupId(String groupId) {
+        try (Connection connection = database.getReadConnection()) {
+            return getScheduleByGroupId(connection, groupId);
         } catch (SQLException e) {
             throw new ScheduleStorageException("Ошибка получения расписания по ID группы: ", e);
         }
     }
 
+    private Schedule getScheduleByGroupId(Connection connection, String groupId) throws SQLException {
+        PreparedStatement pstatment = connection.prepareStatement(SELECT_GROUP); // вернет имя группы, если найдена строка с заданным айди
+        pstatment.setString(1, groupId);
+        
+        ResultSet result = pstatment.executeQuery();
+        if (!result.next()) { // если строка не найдена
+        	result.close();
+        	pstatment.close();
+            return null;
+        }
+        
+        String groupName = result.getString("groupName");
+        String coveredFrom = result.getString("coveredFrom");
+        String coveredTo = result.getString("coveredTo");
+        result.close();
+        pstatment.close();
+
+        PreparedStatement lessonsStmt = connection.prepareStatement(SELECT_LESSONS); // ORDER BY dayOfWeek, startTime сортирует по дню недели и времени начала
+        lessonsStmt.setString(1, groupId);
+        
+        ResultSet lessonsResult = lessonsStmt.executeQuery();
+        
+        Schedule schedule = new Schedule(groupId, groupName);
+        
+        while (lessonsResult.next()) {
+            String dayOfWeek = lessonsResult.getString("dayOfWeek");
+            String subject = lessonsResult.getString("subject");
+            LocalTime startTime = LocalTime.parse(lessonsResult.getString("startTime")); // извлекаем как строку и парсим в LocalTime объект
+            LocalTime endTime = LocalTime.parse(lessonsResult.getString("endTime"));
+            String classroom = lessonsResult.getString("classroom");
+            
+            Lesson lesson = new Lesson(subject, startTime, endTime, classroom);
+            schedule.addLesson(dayOfWeek, lesson); // добавляет пару в расписание под нужным днем
+        }
+        
+        lessonsResult.close();
+        lessonsStmt.close();
+
+        if (coveredFrom != null && coveredTo != null) { // пары по датам: по индексу (groupId, lessonDate)
+            readOccurrences(connection, groupId, coveredFrom, coveredTo).forEach((date, rows) ->
+                    rows.forEach(row -> schedule.addOccurrence(date, row.lesson)));
+            schedule.setCoverage(LocalDate.parse(coveredFrom), LocalDate.parse(coveredTo));
+        }
+        return schedule;
+    }
+
+    private Map<LocalDate, List<StoredLesson>> readOccurrences(Connection connection, String groupId, String from, String to)
+            throws SQLException {
+        Map<LocalDate, List<StoredLesson>> occurrences = new TreeMap<>();
+        PreparedStatement pstatment = connection.prepareStatement(SELECT_OCCURRENCES);
+        pstatment.setString(1, groupId);
+        pstatment.setString(2, from);
+        pstatment.setString(3, to);
+        ResultSet result = pstatment.executeQuery();
+        while (result.next()) {
+            Lesson lesson = new Lesson(result.getString("subject"), parseTime(result.getString("startTime")),
+                    parseTime(result.getString("endTime")), result.getString("classroom"));
+            occurrences.computeIfAbsent(LocalDate.parse(result.getString("lessonDate")), d -> new ArrayList<>())
+                       .add(new StoredLesson(result.getLong("id"), lesson));
+        }
+        result.close();
+        pstatment.close();
+        return occurrences;
+    }
+
+    private static LocalTime parseTime(String text) {
+        return text == null ? null : LocalTime.parse(text);
+    }
+
     
     @Override
     public Schedule getScheduleByGroupName(String groupName) {
-        try {
-            String groupId = getGroupIdByName(groupName); // Находим groupId через mapping
+        try (Connection connection = database.getReadConnection()) { // одно соединение на оба запроса
+            String groupId = getGroupIdByName(connection, groupName); // Находим groupId через mapping
             if (groupId == null) {
                 return null;  // если группа не найдена
             }
+            touchMappingLater(groupName);
             
-            return getScheduleByGroupId(groupId);
+            return getScheduleByGroupId(connection, groupId);
             
         } catch (Exception e) {
             throw new ScheduleStorageException("Ошибка получения расписания по имени группы: ", e);
@@ -219,113 +375,354 @@ public class SQLiteScheduleStorage implements ScheduleStorage {
     }
 
     @Override
-    public void saveSchedule(Schedule schedule) {
-        if (scheduleExists(schedule.getGroupId())) {
+    public void saveSchedule(Schedule schedule) { // через писателя: группа, пары и даты — одной транзакцией
+        try {
+            database.writeAndWait(connection -> {
+                saveSchedule(connection, schedule);
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new ScheduleStorageException("Ошибка сохранения расписания для группы", e);
+        }
+    }
+
+    private void saveSchedule(Connection connection, Schedule schedule) throws SQLException {
+        if (scheduleExists(connection, schedule.getGroupId())) {
             throw new ScheduleStorageException("Расписание для этой группы уже существует");
         }
         
-        try {
-            if (!groupMappingExists(schedule.getGroupName())) { // Сохраняем mapping (если его еще нет)
-                saveGroupMapping(schedule.getGroupName(), schedule.getGroupId());
-            } else {
-                updateMappingTimestamp(schedule.getGroupName()); // Обновляем время если mapping уже существует
+        if (!groupMappingExists(connection, schedule.getGroupName())) { // Сохраняем mapping (если его еще нет)
+            saveGroupMapping(connection, schedule.getGroupName(), schedule.getGroupId());
+        } else {
+            updateMappingTimestamp(connection, schedule.getGroupName()); // Обновляем время если mapping уже существует
+        }
+
+        // Сохраняем в групс
+        PreparedStatement groupStmt = connection.prepareStatement(INSERT_GROUP);
+        groupStmt.setString(1, schedule.getGroupId());
+        groupStmt.setString(2, schedule.getGroupName());
+        groupStmt.setLong(3, System.currentTimeMillis());
+        groupStmt.executeUpdate();
+        groupStmt.close();
+
+        // Сохраняем пары
+        PreparedStatement lessonStmt = connection.prepareStatement(INSERT_LESSON);
+        
+        for (Map.Entry<String, List<Lesson>> entry : schedule.getWeeklySchedule().entrySet()) {
+            String day = entry.getKey();
+            for (Lesson lesson : entry.getValue()) {
+                lessonStmt.setString(1, schedule.getGroupId());
+                lessonStmt.setString(2, day);
+                lessonStmt.setString(3, lesson.getSubject());
+                lessonStmt.setString(4, lesson.getStartTime().toString());
+                lessonStmt.setString(5, lesson.getEndTime().toString());
+                lessonStmt.setString(6, lesson.getClassroom());
+                lessonStmt.addBatch(); // добавляем в пачку, но пока не выполняем
             }
+        }
+        lessonStmt.executeBatch(); // выполняем все запросы за раз
+        lessonStmt.close();
 
-            // Сохраняем в групс
-            String groupSql = "INSERT INTO groups (groupId, groupName) VALUES (?, ?)";
-            PreparedStatement groupStmt = connection.prepareStatement(groupSql);
-            groupStmt.setString(1, schedule.getGroupId());
-            groupStmt.setString(2, schedule.getGroupName());
-            groupStmt.executeUpdate();
-            groupStmt.close();
-
-            // Сохраняем пары
-            String lessonSql = "INSERT INTO schedule_lessons (groupId, dayOfWeek, subject, startTime, endTime, classroom) VALUES (?, ?, ?, ?, ?, ?)";
-            PreparedStatement lessonStmt = connection.prepareStatement(lessonSql);
-            
-            for (Map.Entry<String, List<Lesson>> entry : schedule.getWeeklySchedule().entrySet()) {
-                String day = entry.getKey();
-                for (Lesson lesson : entry.getValue()) {
-                    lessonStmt.setString(1, schedule.getGroupId());
-                    lessonStmt.setString(2, day);
-                    lessonStmt.setString(3, lesson.getSubject());
-                    lessonStmt.setString(4, lesson.getStartTime().toString());
-                    lessonStmt.setString(5, lesson.getEndTime().toString());
-                    lessonStmt.setString(6, lesson.getClassroom());
-                    lessonStmt.addBatch(); // добавляем в пачку, но пока не выполняем
+        syncOccurrences(connection, schedule);
+    }
+
+    @Override
+    public int updateSchedule(Schedule schedule) { // меняем только отличающиеся строки, всё в одной транзакции
+        // через единственного писателя: чтение и запись в одной его транзакции, без SQLITE_BUSY между ними
+        try {
+            return database.writeAndWait(connection -> {
+                if (!scheduleExists(connection, schedule.getGroupId())) {
+                    throw new ScheduleStorageException("Расписание для этой группы не существует");
                 }
-            }
-            lessonStmt.executeBatch(); // выполняем все запросы за раз
-            lessonStmt.close();
-            
+
+                int changed = updateGroupName(connection, schedule);
+                changed += applyLessonDiff(connection, schedule);
+                changed += syncOccurrences(connection, schedule);
+                touchLastSynced(connection, schedule.getGroupId()); // сверили с УрФУ, даже если ничего не поменялось
+                return changed; // читатели видят либо старое, либо новое расписание целиком
+            });
         } catch (SQLException e) {
-            throw new ScheduleStorageException("Ошибка сохранения расписания для группы", e);
+            throw new ScheduleStorageException("Ошибка обновления расписания для группы", e);
+        }
+    }
+
+    private int updateGroupName(Connection connection, Schedule schedule) throws SQLException {
+        if (!groupMappingExists(connection, schedule.getGroupName())) { // как в saveSchedule: mapping на новое имя
+            saveGroupMapping(connection, schedule.getGroupName(), schedule.getGroupId());
+        } else {
+            updateMappingTimestamp(connection, schedule.getGroupName());
         }
+
+        PreparedStatement pstatment = connection.prepareStatement(UPDATE_GROUP_NAME);
+        pstatment.setString(1, schedule.getGroupName());
+        pstatment.setString(2, schedule.getGroupId());
+        pstatment.setString(3, schedule.getGroupName());
+        int updated = pstatment.executeUpdate();
+        pstatment.close();
+        return updated;
+    }
+
+    private void touchLastSynced(Connection connection, String groupId) throws SQLException {
+        PreparedStatement pstatment = connection.prepareStatement(TOUCH_LAST_SYNCED);
+        pstatment.setLong(1, System.currentTimeMillis());
+        pstatment.setString(2, groupId);
+        pstatment.executeUpdate();
+        pstatment.close();
     }
 
     @Override
-    public void updateSchedule(Schedule schedule) {
-        if (!scheduleExists(schedule.getGroupId())) {
-            throw new ScheduleStorageException("Расписание для этой группы не существует");
+    public long getLastSynced(String groupId) {
+        try (Connection connection = database.getReadConnection()) {
+            PreparedStatement pstatment = connection.prepareStatement(SELECT_LAST_SYNCED);
+            pstatment.setString(1, groupId);
+            ResultSet result = pstatment.executeQuery();
+            long lastSynced = result.next() ? result.getLong("lastSynced") : 0L; // NULL тоже превращается в 0
+            result.close();
+            pstatment.close();
+            return lastSynced;
+        } catch (SQLException e) {
+            throw new ScheduleStorageException("Ошибка получения времени синхронизации расписания: ", e);
+        }
+    }
+
+    private int applyLessonDiff(Connection connection, Schedule schedule) throws SQLException {
+        // Сохранённые пары: день -> строки (id + пара), в порядке вставки
+        Map<String, List<StoredLesson>> stored = new HashMap<>();
+        PreparedStatement select = connection.prepareStatement(SELECT_LESSON_ROWS);
+        select.setString(1, schedule.getGroupId());
+        ResultSet result = select.executeQuery();
+        while (result.next()) {
+            Lesson lesson = new Lesson(result.getString("subject"), LocalTime.parse(result.getString("startTime")),
+                    LocalTime.parse(result.getString("endTime")), result.getString("classroom"));
+            stored.computeIfAbsent(result.getString("dayOfWeek"), d -> new ArrayList<>())
+                  .add(new StoredLesson(result.getLong("id"), lesson));
+        }
+        result.close();
+        select.close();
+
+        PreparedStatement insert = connection.prepareStatement(INSERT_LESSON);
+        PreparedStatement update = connection.prepareStatement(UPDATE_LESSON);
+        PreparedStatement delete = connection.prepareStatement(DELETE_LESSON);
+        int changed = 0;
+
+        Set<String> days = new HashSet<>(stored.keySet());
+        days.addAll(schedule.getWeeklySchedule().keySet());
+        for (String day : days) {
+            List<StoredLesson> oldRows = new ArrayList<>(stored.getOrDefault(day, Collections.emptyList()));
+            List<Lesson> newLessons = new ArrayList<>(schedule.getWeeklySchedule().getOrDefault(day, Collections.emptyList()));
+
+            // 1. совпадающие пары не трогаем
+            Iterator<Lesson> it = newLessons.iterator();
+            while (it.hasNext()) {
+                Lesson lesson = it.next();
+                for (int i = 0; i < oldRows.size(); i++) {
+                    if (ScheduleOverlay.sameLesson(oldRows.get(i).lesson, lesson)) {
+                        oldRows.remove(i);
+                        it.remove();
+                        break;
+                    }
+                }
+            }
+
+            // 2. изменившиеся пары обновляем на месте (id сохраняется), 3. лишние удаляем, 4. новые вставляем
+            int paired = Math.min(oldRows.size(), newLessons.size());
+            for (int i = 0; i < paired; i++) {
+                Lesson lesson = newLessons.get(i);
+                update.setString(1, lesson.getSubject());
+                update.setString(2, lesson.getStartTime().toString());
+                update.setString(3, lesson.getEndTime().toString());
+                update.setString(4, lesson.getClassroom());
+                update.setLong(5, oldRows.get(i).id);
+                changed += update.executeUpdate();
+            }
+            for (int i = paired; i < oldRows.size(); i++) {
+                delete.setLong(1, oldRows.get(i).id);
+                changed += delete.executeUpdate();
+            }
+            for (int i = paired; i < newLessons.size(); i++) {
+                Lesson lesson = newLessons.get(i);
+                insert.setString(1, schedule.getGroupId());
+                insert.setString(2, day);
+                insert.setString(3, lesson.getSubject());
+                insert.setString(4, lesson.getStartTime().toString());
+                insert.setString(5, lesson.getEndTime().toString());
+                insert.setString(6, lesson.getClassroom());
+                changed += insert.executeUpdate();
+            }
+        }
+
+        insert.close();
+        update.close();
+        delete.close();
+        return changed;
+    }
+
+    // пары по датам: переписываются только даты, где что-то изменилось (вернёт число изменённых строк, включая покрытие)
+    private int syncOccurrences(Connection connection, Schedule schedule) throws SQLException {
+        LocalDate from = schedule.getCoveredFrom();
+        LocalDate to = schedule.getCoveredTo();
+        if (from == null || to == null) { // загружено без дат (старый формат) — сохранённые даты не трогаем
+            return 0;
+        }
+        String groupId = schedule.getGroupId();
+        Map<LocalDate, List<StoredLesson>> stored = readOccurrences(connection, groupId, from.toString(), to.toString());
+
+        PreparedStatement delete = connection.prepareStatement(DELETE_OCCURRENCES_ON);
+        PreparedStatement insert = connection.prepareStatement(INSERT_OCCURRENCE);
+        int changed = 0;
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            List<StoredLesson> oldRows = stored.getOrDefault(date, Collections.emptyList());
+            List<Lesson> newLessons = schedule.getOccurrences().getOrDefault(date, Collections.emptyList());
+            if (sameLessons(oldRows, newLessons)) {
+                continue;
+            }
+            delete.setString(1, groupId);
+            delete.setString(2, date.toString());
+            changed += delete.executeUpdate();
+            for (Lesson lesson : newLessons) {
+                insert.setString(1, groupId);
+                insert.setString(2, date.toString());
+                insert.setString(3, lesson.getSubject());
+                insert.setString(4, lesson.getStartTime() == null ? null : lesson.getStartTime().toString());
+                insert.setString(5, lesson.getEndTime() == null ? null : lesson.getEndTime().toString());
+                insert.setString(6, lesson.getClassroom());
+                insert.addBatch();
+            }
+            for (int inserted : insert.executeBatch()) {
+                changed += Math.max(inserted, 0);
+            }
+        }
+        delete.close();
+        insert.close();
+
+        // прошедшие дни старше KEEP_PAST_DAYS больше не нужны
+        LocalDate keepFrom = from.minusDays(KEEP_PAST_DAYS);
+        PreparedStatement trim = connection.prepareStatement(TRIM_OCCURRENCES);
+        trim.setString(1, groupId);
+        trim.setString(2, keepFrom.toString());
+        changed += trim.executeUpdate();
+        trim.close();
+
+        // покрытие: объединяем с прежним, если диапазоны стыкуются (короткая загрузка не отменяет известные даты дальше)
+        LocalDate coveredFrom = from;
+        LocalDate coveredTo = to;
+        PreparedStatement select = connection.prepareStatement(SELECT_COVERAGE);
+        select.setString(1, groupId);
+        ResultSet result = select.executeQuery();
+        if (result.next() && result.getString("coveredFrom") != null && result.getString("coveredTo") != null) {
+            LocalDate oldFrom = LocalDate.parse(result.getString("coveredFrom"));
+            LocalDate oldTo = LocalDate.parse(result.getString("coveredTo"));
+            if (!oldTo.isBefore(from.minusDays(1)) && !oldFrom.isAfter(to.plusDays(1))) {
+                coveredFrom = oldFrom.isBefore(from) ? (oldFrom.isBefore(keepFrom) ? keepFrom : oldFrom) : from;
+                coveredTo = oldTo.isAfter(to) ? oldTo : to;
+            }
+        }
+        result.close();
+        select.close();
+
+        // покрытие сдвинулось (например, новая неделя каникул без пар) — это тоже изменение: снимок в кэше устарел
+        PreparedStatement coverage = connection.prepareStatement(UPDATE_COVERAGE);
+        coverage.setString(1, coveredFrom.toString());
+        coverage.setString(2, coveredTo.toString());
+        coverage.setString(3, groupId);
+        coverage.setString(4, coveredFrom.toString());
+        coverage.setString(5, coveredTo.toString());
+        changed += coverage.executeUpdate();
+        coverage.close();
+        return changed;
+    }
+
+    private static boolean sameLessons(List<StoredLesson> oldRows, List<Lesson> newLessons) { // без учёта порядка
+        if (oldRows.size() != newLessons.size()) {
+            return false;
+        }
+        List<Lesson> remaining = new ArrayList<>(newLessons);
+        for (StoredLesson row : oldRows) {
+            boolean found = false;
+            for (int i = 0; i < remaining.size(); i++) {
+                if (ScheduleOverlay.sameLesson(row.lesson, remaining.get(i))) {
+                    remaining.remove(i);
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class StoredLesson { // строка schedule_lessons или schedule_occurrences
+        private final long id;
+        private final Lesson lesson;
+
+        StoredLesson(long id, Lesson lesson) {
+            this.id = id;
+            this.lesson = lesson;
         }
-        
-        deleteSchedule(schedule.getGroupId());
-        
-        saveSchedule(schedule);
     }
     
     
     @Override
-    public void deleteSchedule(String groupId) {
+    public void deleteSchedule(String groupId) { // пары, даты и группа — одной транзакцией писателя
         try {
-            // Удаляем пары
-            String lessonsSql = "DELETE FROM schedule_lessons WHERE groupId = ?";
-            PreparedStatement lessonsStmt = connection.prepareStatement(lessonsSql);
-            lessonsStmt.setString(1, groupId);
-            lessonsStmt.executeUpdate();
-            lessonsStmt.close();
-
-            // Удаляем группу
-            String groupSql = "DELETE FROM groups WHERE groupId = ?";
-            PreparedStatement groupStmt = connection.prepareStatement(groupSql);
-            groupStmt.setString(1, groupId);
-            groupStmt.executeUpdate();
-            groupStmt.close();
-            
+            database.writeAndWait(connection -> {
+                deleteSchedule(connection, groupId);
+                return null;
+            });
         } catch (SQLException e) {
             throw new ScheduleStorageException("Ошибка удаления расписания для группы: ", e);
         }
     }
+
+    private void deleteSchedule(Connection connection, String groupId) throws SQLException {
+        // Удаляем пары
+        PreparedStatement lessonsStmt = connection.prepareStatement(DELETE_LESSONS);
+        lessonsStmt.setString(1, groupId);
+        lessonsStmt.executeUpdate();
+        lessonsStmt.close();
+
+        PreparedStatement occurrencesStmt = connection.prepareStatement(DELETE_OCCURRENCES);
+        occurrencesStmt.setString(1, groupId);
+        occurrencesStmt.executeUpdate();
+        occurrencesStmt.close();
+
+        // Удаляем группу
+        PreparedStatement groupStmt = connection.prepareStatement(DELETE_GROUP);
+        groupStmt.setString(1, groupId);
+        groupStmt.executeUpdate();
+        groupStmt.close();
+    }
     
 
     @Override
     public boolean scheduleExists(String groupId) {
-        try {
-            String sql = "SELECT 1 FROM groups WHERE groupId = ?";
-            PreparedStatement pstatment = connection.prepareStatement(sql);
-            pstatment.setString(1, groupId);
-            
-            ResultSet result = pstatment.executeQuery();
-            boolean exists = result.next();
-            
-            result.close();
-            pstatment.close();
-            
-            return exists;
-            
+        try (Connection connection = database.getReadConnection()) {
+            return scheduleExists(connection, groupId);
         } catch (SQLException e) {
             throw new ScheduleStorageException("Ошибка проверки существования расписания для группы: ", e);
         }
     }
+
+    private boolean scheduleExists(Connection connection, String groupId) throws SQLException {
+        PreparedStatement pstatment = connection.prepareStatement(GROUP_EXISTS);
+        pstatment.setString(1, groupId);
+        
+        ResultSet result = pstatment.executeQuery();
+        boolean exists = result.next();
+        
+        result.close();
+        pstatment.close();
+        
+        return exists;
+    }
     
     
     @Override
     public void close() {
-        try {
-            if (connection != null) {
-                connection.close();
-            }
-        } catch (SQLException e) {
+        if (ownsDatabase) { // общий пул закрывает StorageRegistry
+            database.close();
         }
     }
 }
\ No newline at end of file
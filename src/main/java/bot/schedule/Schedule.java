@@ -1,11 +1,22 @@
 package bot.schedule;
 
+import java.time.LocalDate;
 import java.util.*;
 
+/**
+ * Расписание группы: шаблон недели (день недели -> пары) и, если расписание загружено из УрФУ по датам,
+ * пары по конкретным датам за диапазон coveredFrom..coveredTo. Внутри диапазона getLessonsOn отвечает по дате
+ * (чётные/нечётные недели, праздники, разовые пары), вне его — по шаблону недели, как раньше.
+ */
 public class Schedule {
     private String groupId; // айди группы
     private String groupName;
     private Map<String, List<Lesson>> weeklySchedule; // день недели -> список пар
+    private NavigableMap<LocalDate, List<Lesson>> occurrences = new TreeMap<>(); // дата -> пары этого дня
+    private LocalDate coveredFrom; // диапазон дат, за который occurrences полные (null — дат нет, только шаблон)
+    private LocalDate coveredTo;
+    private boolean frozen; // снимок из кэша: общий для всех пользователей группы, менять нельзя
+    private boolean stale; // сохранённая копия, отданная вместо загрузки: УрФУ был недоступен
 
     public Schedule(String groupId, String groupName) { // конструктор (делаем новый объект расписания с пустой мапой)
         this.groupId = groupId;
@@ -14,6 +25,7 @@ public class Schedule {
     }
 
     public void addLesson(String dayOfWeek, Lesson lesson) {
+        checkNotFrozen();
         if (!weeklySchedule.containsKey(dayOfWeek)) { // проверка, что списка еще нет
             List<Lesson> lessonsForDay = new ArrayList<>(); // создаем новый пустой список для этого дня
             weeklySchedule.put(dayOfWeek, lessonsForDay); // добавляем пару ключ значение
@@ -28,6 +40,46 @@ public class Schedule {
         return weeklySchedule.getOrDefault(dayOfWeek, new ArrayList<>());
     }
 
+    public void addOccurrence(LocalDate date, Lesson lesson) { // пара в конкретную дату
+        checkNotFrozen();
+        occurrences.computeIfAbsent(date, d -> new ArrayList<>()).add(lesson);
+    }
+
+    public void setCoverage(LocalDate from, LocalDate to) { // за эти даты occurrences полные: нет записи — нет пар
+        checkNotFrozen();
+        this.coveredFrom = from;
+        this.coveredTo = to;
+    }
+
+    public boolean covers(LocalDate date) {
+        return coveredFrom != null && coveredTo != null && !date.isBefore(coveredFrom) && !date.isAfter(coveredTo);
+    }
+
+    public List<Lesson> getLessonsOn(LocalDate date) { // пары в дату: по датам, если они известны, иначе по шаблону недели
+        if (covers(date)) {
+            return occurrences.getOrDefault(date, Collections.emptyList());
+        }
+        String dayKey = date.getDayOfWeek().name();
+        for (Map.Entry<String, List<Lesson>> entry : weeklySchedule.entrySet()) { // ключ дня без учёта регистра
+            if (entry.getKey() != null && entry.getKey().equalsIgnoreCase(dayKey) && entry.getValue() != null) {
+                return entry.getValue();
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    public NavigableMap<LocalDate, List<Lesson>> getOccurrences() {
+        return occurrences;
+    }
+
+    public LocalDate getCoveredFrom() {
+        return coveredFrom;
+    }
+
+    public LocalDate getCoveredTo() {
+        return coveredTo;
+    }
+
 
     public String getGroupId() { 
     	return groupId; 
@@ -43,19 +95,77 @@ public class Schedule {
 
 
     public void setGroupId(String groupId) { 
+    	checkNotFrozen();
     	this.groupId = groupId; 
     	}
     
     public void setGroupName(String groupName) { 
+    	checkNotFrozen();
     	this.groupName = groupName;
     	}
     
     public void setWeeklySchedule(Map<String, List<Lesson>> weeklySchedule) { 
+    	checkNotFrozen();
     	this.weeklySchedule = weeklySchedule; 
     	}
-    
-    
-    
-    
-    
+
+
+    public Schedule copy() { // изменяемая копия (новые списки и новые объекты Lesson)
+        Schedule copy = new Schedule(groupId, groupName);
+        for (Map.Entry<String, List<Lesson>> entry : weeklySchedule.entrySet()) {
+            for (Lesson l : entry.getValue()) {
+                copy.addLesson(entry.getKey(), new Lesson(l.getSubject(), l.getStartTime(), l.getEndTime(), l.getClassroom()));
+            }
+        }
+        for (Map.Entry<LocalDate, List<Lesson>> entry : occurrences.entrySet()) {
+            for (Lesson l : entry.getValue()) {
+                copy.addOccurrence(entry.getKey(), new Lesson(l.getSubject(), l.getStartTime(), l.getEndTime(), l.getClassroom()));
+            }
+        }
+        copy.setCoverage(coveredFrom, coveredTo);
+        copy.stale = stale;
+        return copy;
+    }
+
+    public Schedule markedStale() { // та же копия, но с пометкой «может быть устаревшим»
+        if (stale) {
+            return this;
+        }
+        Schedule marked = copy();
+        marked.stale = true;
+        return frozen ? marked.snapshot() : marked;
+    }
+
+    public Schedule snapshot() { // неизменяемая копия для кэша; её можно отдавать сразу многим пользователям
+        if (frozen) {
+            return this;
+        }
+        Schedule snapshot = copy();
+        Map<String, List<Lesson>> days = new HashMap<>();
+        for (Map.Entry<String, List<Lesson>> entry : snapshot.weeklySchedule.entrySet()) {
+            days.put(entry.getKey(), Collections.unmodifiableList(entry.getValue()));
+        }
+        snapshot.weeklySchedule = Collections.unmodifiableMap(days);
+        NavigableMap<LocalDate, List<Lesson>> dated = new TreeMap<>();
+        for (Map.Entry<LocalDate, List<Lesson>> entry : snapshot.occurrences.entrySet()) {
+            dated.put(entry.getKey(), Collections.unmodifiableList(entry.getValue()));
+        }
+        snapshot.occurrences = Collections.unmodifiableNavigableMap(dated);
+        snapshot.frozen = true;
+        return snapshot;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    public boolean isStale() {
+        return stale;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new UnsupportedOperationException("Расписание из кэша менять нельзя — используйте copy()");
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,169 @@
+package bot.schedule;
+
+import bot.user.exception.ScheduleFetchException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Потоковый разбор ответа УрФУ с парами (groups/{id}/schedule) без построения дерева JsonNode.
+ *
+ * Ответ — либо {"events": [...]}, либо сразу массив событий. Поля события читаются за один проход:
+ * у каждого поля есть несколько вариантов названия (как раньше в firstNonNullText), и из найденных
+ * берётся вариант с наименьшим номером в списке, не равный null. Неизвестные поля и вложенные объекты пропускаются.
+ */
+public final class ScheduleEventDecoder {
+
+    @FunctionalInterface
+    public interface Sink {
+        void lesson(LocalDate date, Lesson lesson);
+    }
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private static final int DATE = 0;
+    private static final int TIME_BEGIN = 1;
+    private static final int TIME_END = 2;
+    private static final int SUBJECT = 3;
+    private static final int CLASSROOM = 4;
+    private static final int FIELDS = 5;
+
+    private static final Map<String, Integer> ALIASES = new HashMap<>(); // название поля -> поле * FIELDS + приоритет
+
+    static {
+        alias(DATE, "date", "lesson_date", "lessonDate");
+        alias(TIME_BEGIN, "timeBegin", "time_begin", "timeStart", "time_start");
+        alias(TIME_END, "timeEnd", "time_end");
+        alias(SUBJECT, "title", "discipline", "name");
+        alias(CLASSROOM, "auditoryTitle", "auditoryLocation", "auditorium");
+    }
+
+    private static void alias(int field, String... names) {
+        for (int priority = 0; priority < names.length; priority++) {
+            ALIASES.put(names[priority], field * FIELDS + priority);
+        }
+    }
+
+    private ScheduleEventDecoder() {
+    }
+
+
+    public static Schedule decodeSchedule(InputStream in, String groupId, String groupName)
+            throws IOException, ScheduleFetchException { // пары по датам + шаблон недели
+        Schedule schedule = new Schedule(groupId, groupName);
+        decode(in, schedule::addOccurrence);
+
+        // шаблон недели — первая встреченная дата каждого дня недели (ответ может охватывать несколько недель)
+        Set<DayOfWeek> filled = EnumSet.noneOf(DayOfWeek.class);
+        for (Map.Entry<LocalDate, List<Lesson>> day : schedule.getOccurrences().entrySet()) {
+            if (filled.add(day.getKey().getDayOfWeek())) {
+                for (Lesson l : day.getValue()) { // отдельные объекты: шаблон и даты правятся независимо
+                    schedule.addLesson(day.getKey().getDayOfWeek().toString(),
+                            new Lesson(l.getSubject(), l.getStartTime(), l.getEndTime(), l.getClassroom()));
+                }
+            }
+        }
+        return schedule;
+    }
+
+    public static int decode(InputStream in, Sink sink) throws IOException, ScheduleFetchException { // вернёт число пар
+        try (JsonParser parser = FACTORY.createParser(in)) {
+            if (!seekEvents(parser)) {
+                throw new ScheduleFetchException("Ошибка формата данных расписания.");
+            }
+            int count = 0;
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token == null) {
+                    throw new ScheduleFetchException("Ошибка формата данных расписания."); // ответ оборвался
+                }
+                if (token != JsonToken.START_OBJECT) { // не объект — пропускаем, как раньше
+                    parser.skipChildren();
+                    continue;
+                }
+                if (readEvent(parser, sink)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+
+    private static boolean seekEvents(JsonParser parser) throws IOException { // встать на начало массива событий
+        JsonToken first = parser.nextToken();
+        if (first == JsonToken.START_ARRAY) {
+            return true;
+        }
+        if (first != JsonToken.START_OBJECT) {
+            return false;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("events".equals(name)) {
+                return value == JsonToken.START_ARRAY;
+            }
+            parser.skipChildren();
+        }
+        return false; // поля events нет, а сам объект — не массив
+    }
+
+    private static boolean readEvent(JsonParser parser, Sink sink) throws IOException {
+        String[] values = new String[FIELDS];
+        int[] priorities = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE};
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            Integer code = ALIASES.get(parser.currentName());
+            JsonToken value = parser.nextToken();
+            if (code == null || value == JsonToken.VALUE_NULL) {
+                parser.skipChildren();
+                continue;
+            }
+            int field = code / FIELDS;
+            int priority = code % FIELDS;
+            String text;
+            if (value.isStructStart()) { // вложенный объект или массив: asText() дерева давал ""
+                parser.skipChildren();
+                text = "";
+            } else {
+                text = parser.getText();
+            }
+            if (priority < priorities[field]) {
+                priorities[field] = priority;
+                values[field] = text;
+            }
+        }
+
+        if (values[DATE] == null || values[SUBJECT] == null) { // если нет даты или названия предмета - скип
+            return false;
+        }
+        LocalDate date = LocalDate.parse(values[DATE]);
+        Lesson lesson = new Lesson(values[SUBJECT], parseTimeOrNull(values[TIME_BEGIN]), parseTimeOrNull(values[TIME_END]),
+                values[CLASSROOM] == null ? "" : values[CLASSROOM]);
+        sink.lesson(date, lesson);
+        return true;
+    }
+
+    private static LocalTime parseTimeOrNull(String text) {
+        if (text == null || text.isEmpty()) {
+            return null;
+        }
+        try {
+            return LocalTime.parse(text.trim());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -2,34 +2,65 @@ package bot.schedule;
 
 import bot.user.exception.ScheduleFetchException;
 import bot.user.User;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.time.DayOfWeek;
 import java.time.LocalDate; // для вычисления даты
-import java.time.LocalTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class ScheduleFetcher {
 
-    private static final String DIVISIONS_URL = "https://urfu.ru/api/v2/schedule/divisions"; // адрес первого запроса
     private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ISO_LOCAL_DATE; // для форматирования и парсинга дат
+    public static final int HORIZON_WEEKS = 4; // на сколько недель вперёд храним пары по датам (текущая + 3)
+
+    // индексы справочников: пока CatalogueCache отдаёт тот же ответ, JSON заново не разбираем и индекс не строим
+    private static final Map<String, IndexedCatalogue> INDEXED = new ConcurrentHashMap<>();
 
     private final UrfuApiClient httpClient;
     private final ObjectMapper jsonMapper; // Jackson-объект для чтения JSON
+    private final String baseUrl; // адрес API УрФУ (или локального стенда)
+
+    private record IndexedCatalogue(String body, DivisionResolver resolver) {}
 
     public ScheduleFetcher() { // конструтор 
-        this.httpClient = new UrfuApiClient(); // клиент для http запросов
+        this(new UrfuApiClient()); // клиент для http запросов
+    }
+
+    public ScheduleFetcher(UrfuApiClient httpClient) {
+        this.httpClient = httpClient;
         this.jsonMapper = new ObjectMapper(); // парсер json
+        this.baseUrl = httpClient.getBaseUrl();
     }
 
     
     
     public Schedule fetchForUser(User user) throws ScheduleFetchException { // Загружает расписание для пользователя.
+        long groupId = resolveGroupId(user);
+        return fetchWeek(groupId, nullSafeTrim(user.getGroup()), currentWeek());
+    }
+
+
+    public static LocalDate currentWeek() { // понедельник текущей недели по Екатеринбургу
+        LocalDate today = LocalDate.now(ZoneId.of("Asia/Yekaterinburg"));
+        return today.with(DayOfWeek.MONDAY); // находим понедельник текущей недели
+    }
+
+
+    public void warmDivisions() throws ScheduleFetchException { // заранее загрузить и проиндексировать список подразделений
+        try {
+            resolverFor(baseUrl + "/divisions");
+        } catch (IOException e) {
+            throw new ScheduleFetchException("Ошибка при загрузке расписания.");
+        }
+    }
+
+
+    public long resolveGroupId(User user) throws ScheduleFetchException { // groupId УрФУ по данным пользователя (справочники из кэша)
         try {
             String instituteName = nullSafeTrim(user.getUniversity());
             String departmentName = nullSafeTrim(user.getDepartment());
@@ -37,86 +68,33 @@ public class ScheduleFetcher {
             int courseNumber = parseCourse(user.getCourse());
             
             // 1) делаем массив json объектов
-            String divisionsJson = httpClient.get(DIVISIONS_URL); // возвращает строку - тело ответа на http запрос
-            JsonNode divisionsArray = jsonMapper.readTree(divisionsJson); // джексон парсит в json объекты подразделений
+            DivisionResolver divisions = resolverFor(baseUrl + "/divisions"); // индекс подразделений (из кэша справочников)
 
             // 2) Находим департамент
-            long departmentId = findDepartmentId(divisionsArray, instituteName, departmentName);
-            if (departmentId == -1L) {
-                long instituteId = findInstituteId(divisionsArray, instituteName);
-                if (instituteId != -1L) {
+            DivisionResolver.Match department = divisions.findDepartment(instituteName, departmentName);
+            long departmentId;
+            if (department.found()) {
+                reportAmbiguity(departmentName, department);
+                departmentId = department.id();
+            } else {
+                DivisionResolver.Match institute = divisions.findInstitute(instituteName);
+                if (institute.found()) {
                     // если департамента нет, используем сам институт
-                    departmentId = instituteId;
+                    reportAmbiguity(instituteName, institute);
+                    departmentId = institute.id();
                 } else {
                     throw new ScheduleFetchException("Не удалось найти департамент или институт.");
                 }
             }
 
             // 3) Получаем группы департамента
-            String groupsUrl = String.format("https://urfu.ru/api/v2/schedule/divisions/%d/groups?course=%d", departmentId, courseNumber);
-            String groupsJson = httpClient.get(groupsUrl);
-            JsonNode groupsArray = jsonMapper.readTree(groupsJson);
-
-            long groupId = findGroupId(groupsArray, groupName);
-            if (groupId == -1L) {
+            String groupsUrl = String.format("%s/divisions/%d/groups?course=%d", baseUrl, departmentId, courseNumber);
+            DivisionResolver.Match group = resolverFor(groupsUrl).findGroup(groupName);
+            if (!group.found()) {
                 throw new ScheduleFetchException("Не удалось найти группу.");
             }
-
-            // 4) Определяем текущую неделю
-            LocalDate today = LocalDate.now(ZoneId.of("Asia/Yekaterinburg"));
-            LocalDate monday = today.with(DayOfWeek.MONDAY); // находим понедельник текущей недели
-            LocalDate sunday = monday.plusDays(6); // добавляем 6 дней, получается воскресенье
-
-            // 5) Загружаем расписание
-            String scheduleUrl = String.format(
-                    "https://urfu.ru/api/v2/schedule/groups/%d/schedule?date_gte=%s&date_lte=%s",
-                    groupId,
-                    monday.format(DATE_FORMAT),
-                    sunday.format(DATE_FORMAT)
-            );
-
-            String scheduleJson = httpClient.get(scheduleUrl);
-            JsonNode scheduleRoot = jsonMapper.readTree(scheduleJson);
-            
-            JsonNode eventsNode;
-            if (scheduleRoot.has("events")) { // если в JSON есть поле events — берём именно его
-                eventsNode = scheduleRoot.get("events");
-            } else {
-                eventsNode = scheduleRoot; // если поля events нет — значит, сам корень уже является массивом занятий
-            }
-            
-            
-            if (eventsNode == null || !eventsNode.isArray()) {
-                throw new ScheduleFetchException("Ошибка формата данных расписания.");
-            }
-
-            // 6) Формируем результат
-            Schedule resultSchedule = new Schedule(String.valueOf(groupId), groupName);
-
-            for (JsonNode eventNode : eventsNode) {
-                String dateText = firstNonNullText(eventNode, "date", "lesson_date", "lessonDate");
-                String timeBeginText = firstNonNullText(eventNode, "timeBegin", "time_begin", "timeStart", "time_start");
-                String timeEndText = firstNonNullText(eventNode, "timeEnd", "time_end");
-                String subjectText = firstNonNullText(eventNode, "title", "discipline", "name");
-                String classroomText = firstNonNullText(eventNode, "auditoryTitle", "auditoryLocation", "auditorium");
-
-                if (dateText == null || subjectText == null) { // если нет даты или названия предмета - скип
-                	continue;
-                }
-
-                LocalTime startTime = parseTimeOrNull(timeBeginText);
-                LocalTime endTime = parseTimeOrNull(timeEndText);
-                LocalDate lessonDate = LocalDate.parse(dateText, DATE_FORMAT);
-
-                if (classroomText == null) {
-                    classroomText = "";
-                }
-                
-                Lesson lesson = new Lesson(subjectText, startTime, endTime, classroomText);
-                resultSchedule.addLesson(lessonDate.getDayOfWeek().toString(), lesson);
-            }
-
-            return resultSchedule;
+            reportAmbiguity(groupName, group);
+            return group.id();
 
         } catch (ScheduleFetchException e) {
             throw e;
@@ -125,155 +103,56 @@ public class ScheduleFetcher {
         }
     }
 
-    
-    private long findInstituteId(JsonNode divisionsArray, String instituteName) {
-        if (instituteName == null || instituteName.isEmpty()) {
-            return -1L;
-        }
-
-        String normalizedInstitute = normalize(instituteName);
-
-        // по прямому совпадению
-        for (JsonNode node : divisionsArray) {
-            String title = firstNonNullText(node, "title", "name");
-            if (title != null && title.toLowerCase().contains(instituteName.toLowerCase())) {
-                return node.path("id").asLong(-1);
-            }
-        }
-
-        // по нормализованной форме
-        for (JsonNode node : divisionsArray) {
-            String title = firstNonNullText(node, "title", "name");
-            if (title != null && normalize(title).contains(normalizedInstitute)) {
-                return node.path("id").asLong(-1);
-            }
-        }
-
-        return -1L;
-    }
-
-    
-
-    private long findDepartmentId(JsonNode divisionsArray, String instituteName, String departmentName) {
-        String normalizedInstitute = normalize(instituteName); // нормализуем строки 
-        String normalizedDepartment = normalize(departmentName);
-
-        Long instituteId = null;
-        if (instituteName != null && !instituteName.isEmpty()) { // чтобы не искать по пустой строке
-            for (JsonNode node : divisionsArray) {
-                String title = firstNonNullText(node, "title", "name");
-                if (title != null && title.toLowerCase().contains(instituteName.toLowerCase())) {
-                    instituteId = node.path("id").asLong(-1);
-                    break;
-                }
-            }
-            // дополнительная попытка — по нормализованному названию, если прямое совпадение не найдено
-            if (instituteId == null || instituteId == -1) {
-                for (JsonNode node : divisionsArray) {
-                    String title = firstNonNullText(node, "title", "name");
-                    if (title != null && normalize(title).contains(normalizedInstitute)) {
-                        instituteId = node.path("id").asLong(-1);
-                        break;
-                    }
-                }
-            }
-        }
 
-        List<JsonNode> searchArea = new ArrayList<>(); // список из json node в которых искать департамент будем
-        if (instituteId != null && instituteId != -1) {
-            for (JsonNode node : divisionsArray) {
-                if (node.path("parentId").asLong(-1) == instituteId) { // берем узлы, где parentId совпадает с айди института
-                    searchArea.add(node);
-                }
-            }
-        } else {
-            // Если институт не задан или не найден — ищем среди всех элементов массива
-            for (JsonNode node : divisionsArray) { 
-                searchArea.add(node);
-            }
-        }
+    // пары группы начиная с недели monday: по датам на HORIZON_WEEKS недель вперёд, шаблон недели — по первым датам
+    public Schedule fetchWeek(long groupId, String groupName, LocalDate monday) throws ScheduleFetchException {
+        try {
+            LocalDate last = monday.plusWeeks(HORIZON_WEEKS).minusDays(1); // воскресенье последней недели горизонта
 
-        // Если departmentName не задан — не искать по пустой строке (иначе совпадет с любым title)
-        if (departmentName == null || departmentName.isEmpty()) {
-            return -1L;
-        }
+            // 5) Загружаем расписание одним запросом на весь горизонт
+            String scheduleUrl = String.format(
+                    "%s/groups/%d/schedule?date_gte=%s&date_lte=%s",
+                    baseUrl,
+                    groupId,
+                    monday.format(DATE_FORMAT),
+                    last.format(DATE_FORMAT)
+            );
 
-        // Сначала ищем по прямому вхождению
-        for (JsonNode node : searchArea) {
-            String title = firstNonNullText(node, "title", "name");
-            if (title != null && title.toLowerCase().contains(departmentName.toLowerCase())) {
-                return node.path("id").asLong(-1); // вернем айди нужного департамента
+            // 6) Разбираем ответ потоком прямо из тела ответа и формируем результат
+            Schedule schedule = httpClient.getStream(scheduleUrl,
+                    body -> ScheduleEventDecoder.decodeSchedule(body, String.valueOf(groupId), groupName));
+            if (schedule != null) {
+                schedule.setCoverage(monday, last); // дат без пар в ответе — значит, пар в эти дни нет
             }
-        }
+            return schedule;
 
-        // Потом по нормализованной форме
-        for (JsonNode node : searchArea) {
-            String title = firstNonNullText(node, "title", "name");
-            if (title != null && normalize(title).contains(normalizedDepartment)) {
-                return node.path("id").asLong(-1); // вернем айди нужного департамента
-            }
+        } catch (ScheduleFetchException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ScheduleFetchException("Ошибка при загрузке расписания.");
         }
-
-        return -1L;
     }
 
 
-    
-    private long findGroupId(JsonNode groupsArray, String groupName) {
-        if (groupName == null || groupName.isEmpty()) {
-        	return -1L;
-        }
-        String normalizedGroup = normalize(groupName);
-        for (JsonNode node : groupsArray) {
-            String title = firstNonNullText(node, "title", "name");
-            if (title != null && title.toLowerCase().contains(groupName.toLowerCase())) {
-                return node.path("id").asLong(-1);
-            }
-        }
-        for (JsonNode node : groupsArray) {
-            String title = firstNonNullText(node, "title", "name");
-            if (title != null && normalize(title).contains(normalizedGroup)) {
-                return node.path("id").asLong(-1);
-            }
-        }
-
-        String groupWithoutHyphen = groupName.replace("-", "").toLowerCase();
-        for (JsonNode node : groupsArray) {
-            String title = firstNonNullText(node, "title", "name");
-            if (title != null && title.toLowerCase().replace("-", "").contains(groupWithoutHyphen)) {
-                return node.path("id").asLong(-1);
-            }
+    private DivisionResolver resolverFor(String url) throws IOException { // справочник УрФУ как готовый индекс
+        String body = httpClient.get(url);
+        IndexedCatalogue indexed = INDEXED.get(url);
+        if (indexed != null && indexed.body() == body) { // сравнение ссылок: тот же объект строки из кэша — тот же ответ
+            return indexed.resolver();
         }
-        return -1L;
+        DivisionResolver resolver = DivisionResolver.of(jsonMapper.readTree(body)); // джексон парсит в json объекты
+        INDEXED.put(url, new IndexedCatalogue(body, resolver));
+        return resolver;
     }
 
-
-    
-    private static String firstNonNullText(JsonNode node, String... keys) { // принимает json node и список возможных названий ключей
-        if (node == null) {
-        	return null;
+    private static void reportAmbiguity(String query, DivisionResolver.Match match) { // выбор всегда первый по справочнику
+        if (match.isAmbiguous()) {
+            System.out.println("ScheduleFetcher: по запросу \"" + query + "\" подходит " + match.matches()
+                    + " вариантов " + match.candidates() + ", выбран id " + match.id());
         }
-        for (String key : keys) {
-            if (node.has(key) && !node.get(key).isNull()) { // проверка, что в json node есть поле с данным ключом и оно не пустое
-                return node.get(key).asText(); // возвращаем значение (asText превращаем его в строку)
-            }
-        }
-        return null;
     }
 
-    
-    private static LocalTime parseTimeOrNull(String text) {
-        if (text == null || text.isEmpty()) { // ничего не передали или передали пустую строку
-        	return null;
-        }
-        try {
-            return LocalTime.parse(text.trim()); // метод из пакета java.time, который превращает строку в объект времени
-        } catch (Exception e) {
-            return null;
-        }
-    }
 
-    
     private static int parseCourse(String courseText) { // возвращает номер курса в виде инт 
         if (courseText == null) {
         	return 0;
@@ -301,17 +180,6 @@ public class ScheduleFetcher {
     }
 
     
-    private static String normalize(String s) { // нормализация строк для сравнения
-        if (s == null) {
-        	return "";
-        }
-        return s.toLowerCase() // приводит к нижнему регистру
-                .replaceAll("[^\\p{Alnum}\\s]", " ") // заменяет всё, что не является буквами, цифрами или пробелом, на пробел
-                .replaceAll("\\s+", " ") // сжимает все идущие подряд пробелы в один
-                .trim(); // убирает пробелы с начала и конца строки
-    }
-    
-    
     private static String removeSpaces(String s) { // метод для обработки пустого департамента
         if (s == null) {
             return null;
@@ -1,44 +1,74 @@
 package bot.schedule;
 
+import bot.user.exception.ScheduleStorageException;
 import bot.user.exception.UserNotFoundException;
 import bot.user.User;
 import bot.user.UserStorage;
 
-import java.util.Map;
 import java.util.List;
+import java.util.Map;
 
 public class ScheduleManager {
     private final ScheduleStorage commonStorage;    // для schedules.db 
-    private final ScheduleStorage customStorage;    // для custom_schedules.db 
+    private final ScheduleStorage customStorage;    // для custom_schedules.db (старые полные копии, переносятся в правки при первом обращении)
+    private final ScheduleOverlayStorage overlayStorage; // правки пользователей поверх общего расписания (тоже custom_schedules.db)
     private final UserStorage userStorage;
+    private final boolean ownsStorages; // закрывать ли хранилища в close() (общие закрывает StorageRegistry)
 
     public ScheduleManager(UserStorage userStorage) { // конструтор (делаем две бд и инициализирцем их)
-        this.commonStorage = new SQLiteScheduleStorage("schedules.db");
-        this.customStorage = new SQLiteScheduleStorage("custom_schedules.db");
-        this.userStorage = userStorage;
+        this(userStorage, new SQLiteScheduleStorage("schedules.db"), new SQLiteScheduleStorage("custom_schedules.db"),
+                new ScheduleOverlayStorage("custom_schedules.db"), true);
 
         this.commonStorage.initialize();
         this.customStorage.initialize();
+        this.overlayStorage.initialize();
 
         this.commonStorage.technicalMaintenance(200);
     }
 
+    public ScheduleManager(UserStorage userStorage, ScheduleStorage commonStorage, ScheduleStorage customStorage,
+                           ScheduleOverlayStorage overlayStorage) { // уже инициализированные общие хранилища
+        this(userStorage, commonStorage, customStorage, overlayStorage, false);
+    }
+
+    private ScheduleManager(UserStorage userStorage, ScheduleStorage commonStorage, ScheduleStorage customStorage,
+                            ScheduleOverlayStorage overlayStorage, boolean ownsStorages) {
+        this.commonStorage = commonStorage;
+        this.customStorage = customStorage;
+        this.overlayStorage = overlayStorage;
+        this.userStorage = userStorage;
+        this.ownsStorages = ownsStorages;
+    }
+
 
     public Schedule getScheduleForUser(long userId) { // получить расписание для пользователя
         User user = userStorage.getUser(userId);
         if (user == null) {
             throw new UserNotFoundException(userId);
         }
+        return getScheduleForUser(user);
+    }
 
-        String customGroupId = String.valueOf(userId);
+    public Schedule getScheduleForUser(User user) { // то же по уже загруженному пользователю (без повторного чтения из БД)
+        Schedule common = commonStorage.getScheduleByGroupName(user.getGroup());
+        String customGroupId = String.valueOf(user.getChatId());
 
-        // если кастомное расписание существует в customStorage — отдаём его.
-        if (customStorage.scheduleExists(customGroupId)) {
-            return customStorage.getScheduleByGroupId(customGroupId);
+        // правки читаем только у тех, кто редактировал расписание; остальным сразу отдаём общий снимок
+        boolean flagged = user.getHasCustomSchedule();
+        boolean legacy = customStorage.scheduleExists(customGroupId);
+        if (!flagged && !legacy) {
+            return common;
+        }
+        if (legacy && migrateLegacyCustom(user, common) && !flagged) {
+            userStorage.updateUser(user); // флаг hasCustomSchedule был потерян — без него правки не будут читаться
         }
 
-        // иначе возвращаем общее по имени группы 
-        return commonStorage.getScheduleByGroupName(user.getGroup());
+        List<ScheduleOverride> overrides = overlayStorage.getOverrides(user.getChatId());
+        if (overrides.isEmpty()) {
+            return common;
+        }
+        Schedule base = common != null ? common : new Schedule(customGroupId, user.getGroup());
+        return ScheduleOverlay.apply(base, overrides, customGroupId).snapshot();
     }
 
 
@@ -47,22 +77,58 @@ public class ScheduleManager {
         if (user == null) {
             throw new UserNotFoundException(userId);
         }
+        saveCustomSchedule(user, schedule);
+        userStorage.updateUser(user);
+    }
 
-        schedule.setGroupId(String.valueOf(userId));
+    // Версии ниже меняют флаг hasCustomSchedule только у переданного объекта user — записать его должен вызывающий
+    // (UserContext.flush). Так флаг не перетирается более старой копией пользователя, которую команда сохранит следом.
 
+    public void saveCustomSchedule(User user, Schedule schedule) { // целиком: сохраняем разницу с общим расписанием
+        Schedule common = commonStorage.getScheduleByGroupName(user.getGroup());
+        List<ScheduleOverride> overrides = ScheduleOverlay.diff(common, schedule);
 
-        if (customStorage.scheduleExists(String.valueOf(userId))) {
-            customStorage.updateSchedule(schedule);
-        } else {
-            customStorage.saveSchedule(schedule);
+        overlayStorage.replaceOverrides(user.getChatId(), overrides);
+        customStorage.deleteSchedule(String.valueOf(user.getChatId())); // старая полная копия больше не нужна
+        user.setHasCustomSchedule(true);
+    }
+
+    public void addCustomLesson(User user, String dayOfWeek, Lesson lesson) { // одна строка в schedule_overrides
+        prepareCustom(user);
+        overlayStorage.addOverride(user.getChatId(), ScheduleOverride.add(dayOfWeek, lesson));
+    }
+
+    public void removeCustomLesson(User user, String dayOfWeek, Lesson lesson) { // lesson — пара из getScheduleForUser
+        prepareCustom(user);
+        for (ScheduleOverride o : overlayStorage.getOverrides(user.getChatId())) {
+            if (!ScheduleOverlay.sameDay(o.getDayOfWeek(), dayOfWeek) || o.getLesson() == null
+                    || !ScheduleOverlay.sameLesson(o.getLesson(), lesson)) {
+                continue;
+            }
+            if (o.getOp() == ScheduleOverride.Op.ADD) { // пару добавлял сам пользователь — просто убираем правку
+                overlayStorage.deleteOverride(o.getId());
+            } else { // REPLACE -> скрываем исходную пару общего расписания
+                overlayStorage.updateOverride(o.getId(), ScheduleOverride.remove(o.getDayOfWeek(), o.getTarget()));
+            }
+            return;
         }
+        overlayStorage.addOverride(user.getChatId(), ScheduleOverride.remove(dayOfWeek, lesson));
+    }
 
-        // Перечитываем пользователя и обновляем флаг (на случай, если объект user в памяти устарел)
-        User fresh = userStorage.getUser(userId);
-        if (fresh != null) {
-            fresh.setHasCustomSchedule(true);
-            userStorage.updateUser(fresh);
-        } 
+    public void replaceCustomLesson(User user, String dayOfWeek, Lesson oldLesson, Lesson newLesson) {
+        prepareCustom(user);
+        for (ScheduleOverride o : overlayStorage.getOverrides(user.getChatId())) {
+            if (!ScheduleOverlay.sameDay(o.getDayOfWeek(), dayOfWeek) || o.getLesson() == null
+                    || !ScheduleOverlay.sameLesson(o.getLesson(), oldLesson)) {
+                continue;
+            }
+            ScheduleOverride updated = o.getOp() == ScheduleOverride.Op.ADD
+                    ? ScheduleOverride.add(o.getDayOfWeek(), newLesson)
+                    : ScheduleOverride.replace(o.getDayOfWeek(), o.getTarget(), newLesson);
+            overlayStorage.updateOverride(o.getId(), updated);
+            return;
+        }
+        overlayStorage.addOverride(user.getChatId(), ScheduleOverride.replace(dayOfWeek, oldLesson, newLesson));
     }
 
 
@@ -71,76 +137,108 @@ public class ScheduleManager {
         if (user == null) {
             throw new UserNotFoundException(userId);
         }
+        resetToOriginalSchedule(user);
+        userStorage.updateUser(user);
+    }
 
-        customStorage.deleteSchedule(String.valueOf(userId)); // удаляем кастомное расписание
-
+    public void resetToOriginalSchedule(User user) {
+        overlayStorage.deleteOverrides(user.getChatId()); // удаляем правки
+        customStorage.deleteSchedule(String.valueOf(user.getChatId())); // и старую полную копию, если была
         user.setHasCustomSchedule(false); // Сбрасываем флаг
-        userStorage.updateUser(user);
     }
 
 
-    public void copyCommonToCustom(long userId) { // скопировать из общего расписания в кастомное
+    public void copyCommonToCustom(long userId) { // включить кастомное расписание (пока без правок)
         User user = userStorage.getUser(userId);
 
         if (user == null) {
             throw new UserNotFoundException(userId);
         }
+        copyCommonToCustom(user);
+        userStorage.updateUser(user);
+    }
 
-        // Получаем оригинальное (общее) расписание по имени группы
+    public void copyCommonToCustom(User user) { // копия больше не нужна: кастомное = общее + правки, правок пока нет
         Schedule original = commonStorage.getScheduleByGroupName(user.getGroup());
         if (original == null) {
             // Если общего расписания нет — ничего не делаем 
             throw new IllegalStateException("Общее расписание для группы '" + user.getGroup() + "' не найдено");
         }
+        prepareCustom(user);
+    }
 
-        // Создаём новый объект Schedule для кастомной БД (не мутируем original)
-        Schedule copy = new Schedule(String.valueOf(userId), original.getGroupName());
-        // Копируем пары 
-        for (Map.Entry<String, List<Lesson>> entry : original.getWeeklySchedule().entrySet()) {
-            String day = entry.getKey(); // текущий день недели
-            for (Lesson l : entry.getValue()) { // перебираем все уроки
-                // Создаём новый объект Lesson, чтобы не ссылаться на те же объекты
-                Lesson lessonCopy = new Lesson(l.getSubject(), l.getStartTime(), l.getEndTime(), l.getClassroom());
-                copy.addLesson(day, lessonCopy);
-            }
-        }
-
-        String uniqueGroupNameForStorage = original.getGroupName() + "_user_" + userId;
-        copy.setGroupName(uniqueGroupNameForStorage);
 
-        String customGroupId = String.valueOf(userId);
-        
-        // Сохраняем или обновляем в customStorage 
-        if (customStorage.scheduleExists(customGroupId)) {
-            customStorage.updateSchedule(copy);
-        } else {
-            customStorage.saveSchedule(copy);
+    private void prepareCustom(User user) { // перед правкой: переносим старую полную копию и ставим флаг
+        if (customStorage.scheduleExists(String.valueOf(user.getChatId()))) {
+            migrateLegacyCustom(user, commonStorage.getScheduleByGroupName(user.getGroup()));
         }
-        
+        user.setHasCustomSchedule(true);
+    }
 
-        // Обновляем флаг у пользователя (перечитываем перед записью на всякий случай)
-        User fresh = userStorage.getUser(userId);
-        if (fresh != null) {
-            fresh.setHasCustomSchedule(true);
-            userStorage.updateUser(fresh);
+    private boolean migrateLegacyCustom(User user, Schedule common) { // полная копия -> правки (один раз на пользователя)
+        String customGroupId = String.valueOf(user.getChatId());
+        Schedule legacy = customStorage.getScheduleByGroupId(customGroupId);
+        if (legacy == null) {
+            return false;
         }
+
+        List<ScheduleOverride> overrides = ScheduleOverlay.diff(common, legacy);
+        overlayStorage.replaceOverrides(user.getChatId(), overrides); // идемпотентно: при сбое перенесём заново
+        customStorage.deleteSchedule(customGroupId);
+        user.setHasCustomSchedule(true);
+
+        System.out.println("Кастомное расписание " + customGroupId + " перенесено в правки: " + overrides.size());
+        return true;
+    }
+
+
+    public Schedule getCommonSchedule(String groupName) { // общее расписание группы без правок (null — группы нет в базе)
+        return commonStorage.getScheduleByGroupName(groupName);
+    }
+
+    public Schedule getCommonScheduleById(String groupId) {
+        return commonStorage.getScheduleByGroupId(groupId);
+    }
+
+    public Map<String, List<String>> getKnownCommonGroups() { // groupId -> имена, под которыми группу вводили пользователи
+        return commonStorage.getKnownGroups();
+    }
+
+    public long getCommonLastSynced(String groupId) { // когда общее расписание сверялось с УрФУ (0 — неизвестно)
+        return commonStorage.getLastSynced(groupId);
     }
 
+    public void saveCommonMapping(String groupName, String groupId) { // ещё одно имя для уже сохранённой группы
+        if (!commonStorage.groupMappingExists(groupName)) {
+            commonStorage.saveGroupMapping(groupName, groupId);
+        }
+    }
 
     public void saveCommonSchedule(Schedule schedule) { // сохранить общее расписание
         if (commonStorage.scheduleExists(schedule.getGroupId())) {
             commonStorage.updateSchedule(schedule);
-        } else {
+            return;
+        }
+        try {
             commonStorage.saveSchedule(schedule);
+        } catch (ScheduleStorageException e) {
+            if (!commonStorage.scheduleExists(schedule.getGroupId())) {
+                throw e;
+            }
+            commonStorage.updateSchedule(schedule); // группу только что сохранил другой поток — обновляем поверх
         }
     }
     
     public boolean customScheduleExists(long userId) { // проверка есть ли кастомное расписание у пользователя
-        return customStorage.scheduleExists(String.valueOf(userId));
+        return overlayStorage.hasOverrides(userId) || customStorage.scheduleExists(String.valueOf(userId));
     }
 
     public void close() {
+        if (!ownsStorages) {
+            return;
+        }
         commonStorage.close();
         customStorage.close();
+        overlayStorage.close();
     }
 }
\ No newline at end of file
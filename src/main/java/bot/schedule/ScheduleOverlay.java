@@ -0,0 +1,166 @@
+package bot.schedule;
+
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Наложение правок пользователя (ScheduleOverride) на общее расписание группы и обратная операция —
+ * вычисление правок по готовому кастомному расписанию.
+ *
+ * Пары сравниваются по всем полям (предмет, время, аудитория), дни — без учёта регистра.
+ * Если общее расписание обновилось и пара, на которую ссылается REMOVE или REPLACE, изменилась,
+ * правка просто перестаёт действовать и пользователь видит новую версию пары.
+ */
+public final class ScheduleOverlay {
+
+    private ScheduleOverlay() {
+    }
+
+
+    public static Schedule apply(Schedule base, List<ScheduleOverride> overrides, String groupId) { // общее + правки = новое расписание
+        Schedule result = base.copy();
+        result.setGroupId(groupId);
+
+        for (ScheduleOverride o : overrides) {
+            String day = findDayKey(result, o.getDayOfWeek());
+            if (o.getOp() == ScheduleOverride.Op.ADD && !result.getWeeklySchedule().containsKey(day)) {
+                result.addLesson(day, copyOf(o.getLesson()));
+            } else {
+                applyTo(result.getWeeklySchedule().get(day), o);
+            }
+        }
+
+        // правки недельные: действуют и на каждую дату с тем же днём недели
+        for (Map.Entry<LocalDate, List<Lesson>> dated : result.getOccurrences().entrySet()) {
+            for (ScheduleOverride o : overrides) {
+                if (sameDay(o.getDayOfWeek(), dated.getKey().getDayOfWeek().name())) {
+                    applyTo(dated.getValue(), o);
+                }
+            }
+        }
+        if (result.getCoveredFrom() != null) { // ADD на день, где по датам пар нет вовсе
+            for (LocalDate date = result.getCoveredFrom(); !date.isAfter(result.getCoveredTo()); date = date.plusDays(1)) {
+                if (result.getOccurrences().containsKey(date)) {
+                    continue;
+                }
+                for (ScheduleOverride o : overrides) {
+                    if (o.getOp() == ScheduleOverride.Op.ADD && sameDay(o.getDayOfWeek(), date.getDayOfWeek().name())) {
+                        result.addOccurrence(date, copyOf(o.getLesson()));
+                    }
+                }
+            }
+        }
+
+        for (List<Lesson> lessons : result.getWeeklySchedule().values()) { // порядок как у SQLiteScheduleStorage
+            lessons.sort(Comparator.comparing(Lesson::getStartTime, Comparator.nullsLast(Comparator.naturalOrder()))); // пары без времени — в конце дня
+        }
+        for (List<Lesson> lessons : result.getOccurrences().values()) {
+            lessons.sort(Comparator.comparing(Lesson::getStartTime, Comparator.nullsLast(Comparator.naturalOrder())));
+        }
+        return result;
+    }
+
+    private static void applyTo(List<Lesson> lessons, ScheduleOverride o) { // одна правка к парам одного дня
+        if (lessons == null) {
+            return;
+        }
+        switch (o.getOp()) {
+            case ADD:
+                lessons.add(copyOf(o.getLesson()));
+                break;
+            case REMOVE:
+                removeFirst(lessons, o.getTarget());
+                break;
+            case REPLACE:
+                int index = indexOf(lessons, o.getTarget());
+                if (index >= 0) {
+                    lessons.set(index, copyOf(o.getLesson()));
+                }
+                break;
+        }
+    }
+
+
+    public static List<ScheduleOverride> diff(Schedule base, Schedule target) { // какие правки превращают base в target
+        List<ScheduleOverride> overrides = new ArrayList<>();
+        Set<String> seenDays = new HashSet<>();
+
+        for (Map.Entry<String, List<Lesson>> entry : target.getWeeklySchedule().entrySet()) {
+            String day = entry.getKey();
+            seenDays.add(day.toLowerCase());
+            List<Lesson> remaining = new ArrayList<>(lessonsIgnoreCase(base, day)); // пары base, которым ещё не нашли пару в target
+
+            for (Lesson lesson : entry.getValue()) {
+                if (!removeFirst(remaining, lesson)) {
+                    overrides.add(ScheduleOverride.add(day, copyOf(lesson)));
+                }
+            }
+            for (Lesson gone : remaining) {
+                overrides.add(ScheduleOverride.remove(day, copyOf(gone)));
+            }
+        }
+
+        if (base != null) { // дни, которые в target пропали целиком
+            for (Map.Entry<String, List<Lesson>> entry : base.getWeeklySchedule().entrySet()) {
+                if (seenDays.add(entry.getKey().toLowerCase())) {
+                    for (Lesson gone : entry.getValue()) {
+                        overrides.add(ScheduleOverride.remove(entry.getKey(), copyOf(gone)));
+                    }
+                }
+            }
+        }
+        return overrides;
+    }
+
+
+    public static boolean sameLesson(Lesson a, Lesson b) {
+        return Objects.equals(a.getSubject(), b.getSubject())
+                && Objects.equals(a.getStartTime(), b.getStartTime())
+                && Objects.equals(a.getEndTime(), b.getEndTime())
+                && Objects.equals(a.getClassroom(), b.getClassroom());
+    }
+
+    public static boolean sameDay(String a, String b) {
+        return a != null && a.equalsIgnoreCase(b);
+    }
+
+
+    private static String findDayKey(Schedule schedule, String day) { // ключ дня в расписании (регистр в базе бывает разный)
+        for (String key : schedule.getWeeklySchedule().keySet()) {
+            if (key.equalsIgnoreCase(day)) {
+                return key;
+            }
+        }
+        return day;
+    }
+
+    private static List<Lesson> lessonsIgnoreCase(Schedule schedule, String day) {
+        if (schedule == null) {
+            return Collections.emptyList();
+        }
+        List<Lesson> lessons = schedule.getWeeklySchedule().get(findDayKey(schedule, day));
+        return lessons == null ? Collections.emptyList() : lessons;
+    }
+
+    private static int indexOf(List<Lesson> lessons, Lesson lesson) {
+        for (int i = 0; i < lessons.size(); i++) {
+            if (sameLesson(lessons.get(i), lesson)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean removeFirst(List<Lesson> lessons, Lesson lesson) {
+        int index = indexOf(lessons, lesson);
+        if (index < 0) {
+            return false;
+        }
+        lessons.remove(index);
+        return true;
+    }
+
+    private static Lesson copyOf(Lesson l) {
+        return new Lesson(l.getSubject(), l.getStartTime(), l.getEndTime(), l.getClassroom());
+    }
+}
@@ -0,0 +1,216 @@
+package bot.schedule;
+
+import bot.db.SQLiteDatabase;
+import bot.db.SchemaMigrator;
+import bot.user.exception.ScheduleStorageException;
+
+import java.sql.*;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Хранилище правок кастомных расписаний (таблица schedule_overrides в custom_schedules.db).
+ *
+ * Вместо полной копии недели на пользователя храним только его правки: одна правка — одна строка.
+ * Изменения идут через общего писателя базы (database.writeAndWait), чтения — через read-only соединения.
+ */
+public class ScheduleOverlayStorage {
+
+    private final SQLiteDatabase database;
+    private final boolean ownsDatabase;
+
+    private static final List<String> MIGRATIONS = List.of( // шаги миграции схемы (только добавлять в конец)
+            "CREATE INDEX IF NOT EXISTS idx_schedule_overrides_chat ON schedule_overrides(chatId)"
+    );
+
+    // Запросы хранилища. Те же строки проверяет QueryPlanTest (через QUERIES).
+    static final String SELECT_BY_CHAT = "SELECT * FROM schedule_overrides WHERE chatId = ? ORDER BY id";
+    static final String EXISTS_FOR_CHAT = "SELECT 1 FROM schedule_overrides WHERE chatId = ? LIMIT 1";
+    static final String INSERT = "INSERT INTO schedule_overrides (chatId, op, dayOfWeek, targetSubject, targetStartTime, targetEndTime, " +
+                                 "targetClassroom, subject, startTime, endTime, classroom) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    static final String UPDATE = "UPDATE schedule_overrides SET op = ?, dayOfWeek = ?, targetSubject = ?, targetStartTime = ?, " +
+                                 "targetEndTime = ?, targetClassroom = ?, subject = ?, startTime = ?, endTime = ?, classroom = ? WHERE id = ?";
+    static final String DELETE = "DELETE FROM schedule_overrides WHERE id = ?";
+    static final String DELETE_FOR_CHAT = "DELETE FROM schedule_overrides WHERE chatId = ?";
+
+    public static final List<String> QUERIES = List.of(SELECT_BY_CHAT, EXISTS_FOR_CHAT, INSERT, UPDATE, DELETE, DELETE_FOR_CHAT);
+
+    public ScheduleOverlayStorage(String dbFileName) { // самостоятельное хранилище со своим пулом
+        this(new SQLiteDatabase(dbFileName), true);
+    }
+
+    public ScheduleOverlayStorage(SQLiteDatabase database) { // хранилище поверх общего пула из StorageRegistry
+        this(database, false);
+    }
+
+    private ScheduleOverlayStorage(SQLiteDatabase database, boolean ownsDatabase) {
+        this.database = database;
+        this.ownsDatabase = ownsDatabase;
+    }
+
+
+    public void initialize() {
+        String sql = "CREATE TABLE IF NOT EXISTS schedule_overrides (" +
+                     "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                     "chatId INTEGER NOT NULL," +
+                     "dayOfWeek TEXT NOT NULL," +
+                     "op TEXT NOT NULL," + // ADD / REMOVE / REPLACE
+                     "targetSubject TEXT," + // пара общего расписания (для REMOVE и REPLACE)
+                     "targetStartTime TEXT," +
+                     "targetEndTime TEXT," +
+                     "targetClassroom TEXT," +
+                     "subject TEXT," + // новая пара (для ADD и REPLACE)
+                     "startTime TEXT," +
+                     "endTime TEXT," +
+                     "classroom TEXT" +
+                     ")";
+        try (Connection connection = database.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+            SchemaMigrator.migrate(connection, "schedule_overrides", MIGRATIONS);
+        } catch (SQLException e) {
+            throw new ScheduleStorageException("Ошибка инициализации таблицы правок расписания: ", e);
+        }
+    }
+
+
+    public List<ScheduleOverride> getOverrides(long chatId) { // в порядке добавления
+        List<ScheduleOverride> overrides = new ArrayList<>();
+        try (Connection connection = database.getReadConnection();
+             PreparedStatement ps = connection.prepareStatement(SELECT_BY_CHAT)) {
+            ps.setLong(1, chatId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    overrides.add(new ScheduleOverride(
+                            rs.getLong("id"),
+                            ScheduleOverride.Op.valueOf(rs.getString("op")),
+                            rs.getString("dayOfWeek"),
+                            readLesson(rs, "targetSubject", "targetStartTime", "targetEndTime", "targetClassroom"),
+                            readLesson(rs, "subject", "startTime", "endTime", "classroom")));
+                }
+            }
+            return overrides;
+        } catch (SQLException e) {
+            throw new ScheduleStorageException("Ошибка получения правок расписания: ", e);
+        }
+    }
+
+    public boolean hasOverrides(long chatId) {
+        try (Connection connection = database.getReadConnection();
+             PreparedStatement ps = connection.prepareStatement(EXISTS_FOR_CHAT)) {
+            ps.setLong(1, chatId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        } catch (SQLException e) {
+            throw new ScheduleStorageException("Ошибка проверки правок расписания: ", e);
+        }
+    }
+
+
+    public long addOverride(long chatId, ScheduleOverride override) { // одна правка — одна строка
+        try {
+            return database.writeAndWait(connection -> insert(connection, chatId, override));
+        } catch (SQLException e) {
+            throw new ScheduleStorageException("Ошибка сохранения правки расписания: ", e);
+        }
+    }
+
+    public void updateOverride(long id, ScheduleOverride override) { // заменить правку на месте (та же строка)
+        try {
+            database.writeAndWait(connection -> {
+                try (PreparedStatement ps = connection.prepareStatement(UPDATE)) {
+                    ps.setString(1, override.getOp().name());
+                    ps.setString(2, override.getDayOfWeek());
+                    bindLesson(ps, 3, override.getTarget());
+                    bindLesson(ps, 7, override.getLesson());
+                    ps.setLong(11, id);
+                    return ps.executeUpdate();
+                }
+            });
+        } catch (SQLException e) {
+            throw new ScheduleStorageException("Ошибка обновления правки расписания: ", e);
+        }
+    }
+
+    public void deleteOverride(long id) {
+        try {
+            database.writeAndWait(connection -> {
+                try (PreparedStatement ps = connection.prepareStatement(DELETE)) {
+                    ps.setLong(1, id);
+                    return ps.executeUpdate();
+                }
+            });
+        } catch (SQLException e) {
+            throw new ScheduleStorageException("Ошибка удаления правки расписания: ", e);
+        }
+    }
+
+    public int deleteOverrides(long chatId) { // сброс к общему расписанию
+        try {
+            return database.writeAndWait(connection -> {
+                try (PreparedStatement ps = connection.prepareStatement(DELETE_FOR_CHAT)) {
+                    ps.setLong(1, chatId);
+                    return ps.executeUpdate();
+                }
+            });
+        } catch (SQLException e) {
+            throw new ScheduleStorageException("Ошибка удаления правок расписания: ", e);
+        }
+    }
+
+    public void replaceOverrides(long chatId, List<ScheduleOverride> overrides) { // заменить все правки пользователя одной транзакцией
+        try {
+            database.writeAndWait(connection -> { // одна работа писателя: при ошибке откатится вся замена
+                try (PreparedStatement ps = connection.prepareStatement(DELETE_FOR_CHAT)) {
+                    ps.setLong(1, chatId);
+                    ps.executeUpdate();
+                }
+                for (ScheduleOverride override : overrides) {
+                    insert(connection, chatId, override);
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new ScheduleStorageException("Ошибка сохранения правок расписания: ", e);
+        }
+    }
+
+
+    public void close() {
+        if (ownsDatabase) {
+            database.close();
+        }
+    }
+
+
+    private long insert(Connection connection, long chatId, ScheduleOverride override) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(INSERT, Statement.RETURN_GENERATED_KEYS)) {
+            ps.setLong(1, chatId);
+            ps.setString(2, override.getOp().name());
+            ps.setString(3, override.getDayOfWeek());
+            bindLesson(ps, 4, override.getTarget());
+            bindLesson(ps, 8, override.getLesson());
+            ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                return keys.next() ? keys.getLong(1) : 0;
+            }
+        }
+    }
+
+    private static void bindLesson(PreparedStatement ps, int from, Lesson lesson) throws SQLException { // 4 колонки начиная с from
+        ps.setString(from, lesson == null ? null : lesson.getSubject());
+        ps.setString(from + 1, lesson == null ? null : lesson.getStartTime().toString());
+        ps.setString(from + 2, lesson == null ? null : lesson.getEndTime().toString());
+        ps.setString(from + 3, lesson == null ? null : lesson.getClassroom());
+    }
+
+    private static Lesson readLesson(ResultSet rs, String subject, String start, String end, String classroom) throws SQLException {
+        String startTime = rs.getString(start);
+        if (startTime == null) {
+            return null;
+        }
+        return new Lesson(rs.getString(subject), LocalTime.parse(startTime), LocalTime.parse(rs.getString(end)), rs.getString(classroom));
+    }
+}
@@ -0,0 +1,60 @@
+package bot.schedule;
+
+/**
+ * Одна правка пользователя поверх общего расписания группы.
+ *
+ * ADD — добавить пару lesson в день dayOfWeek;
+ * REMOVE — скрыть пару target общего расписания;
+ * REPLACE — показать lesson вместо пары target.
+ */
+public class ScheduleOverride {
+
+    public enum Op { ADD, REMOVE, REPLACE }
+
+    private final long id; // id строки в schedule_overrides (0 — ещё не сохранена)
+    private final Op op;
+    private final String dayOfWeek;
+    private final Lesson target; // какую пару общего расписания правим (REMOVE, REPLACE)
+    private final Lesson lesson; // что показываем (ADD, REPLACE)
+
+    public ScheduleOverride(long id, Op op, String dayOfWeek, Lesson target, Lesson lesson) {
+        this.id = id;
+        this.op = op;
+        this.dayOfWeek = dayOfWeek;
+        this.target = target;
+        this.lesson = lesson;
+    }
+
+    public static ScheduleOverride add(String dayOfWeek, Lesson lesson) {
+        return new ScheduleOverride(0, Op.ADD, dayOfWeek, null, lesson);
+    }
+
+    public static ScheduleOverride remove(String dayOfWeek, Lesson target) {
+        return new ScheduleOverride(0, Op.REMOVE, dayOfWeek, target, null);
+    }
+
+    public static ScheduleOverride replace(String dayOfWeek, Lesson target, Lesson lesson) {
+        return new ScheduleOverride(0, Op.REPLACE, dayOfWeek, target, lesson);
+    }
+
+
+    public long getId() {
+        return id;
+    }
+
+    public Op getOp() {
+        return op;
+    }
+
+    public String getDayOfWeek() {
+        return dayOfWeek;
+    }
+
+    public Lesson getTarget() {
+        return target;
+    }
+
+    public Lesson getLesson() {
+        return lesson;
+    }
+}
@@ -0,0 +1,210 @@
+package bot.schedule;
+
+import bot.user.User;
+import bot.user.exception.ScheduleFetchException;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Общее расписание группы для регистрации: сначала из schedules.db, к УрФУ — только если своего нет или оно старое.
+ *
+ * Обычно кто-то из одногруппников уже зарегистрирован, и группа есть в group_mapping вместе с парами:
+ *  - снимок сверялся с УрФУ недавно (моложе freshFor) — отдаём как есть, без сети;
+ *  - старше, но моложе maxAge (или время сверки неизвестно) — отдаём сразу и обновляем в фоне, одно обновление на группу;
+ *  - своего нет или оно совсем старое — загружаем синхронно, а если УрФУ недоступен, отдаём то, что есть,
+ *    с пометкой Schedule.isStale() (при открытом предохранителе UrfuApiClient это происходит сразу, без таймаутов).
+ * Загруженное расписание сохраняется через ScheduleManager.saveCommonSchedule, как и раньше в командах.
+ * Одновременные загрузки одной группы за одну неделю (например, полкласса перешло по ссылке /sharegroup)
+ * схлопываются в одну: остальные ждут её результат, и расписание сохраняется один раз.
+ */
+public class ScheduleProvider {
+
+    public static final Duration DEFAULT_FRESH_FOR = Duration.ofDays(1);
+    public static final Duration DEFAULT_MAX_AGE = Duration.ofDays(14);
+    private static final int REFRESH_THREADS = 2;
+
+    private final ScheduleManager scheduleManager;
+    private final Supplier<ScheduleFetcher> fetchers; // ScheduleFetcher::new (в тестах — заглушка)
+    private final long freshForMillis;
+    private final long maxAgeMillis;
+    private final LongSupplier clock; // System::currentTimeMillis (в тестах — свои часы)
+    private final Executor refresher;
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet(); // группы, которые уже обновляются в фоне
+    private final SingleFlight<String, Schedule> flights = new SingleFlight<>(); // "groupId@понедельник" -> загрузка
+
+    // метрики
+    private final AtomicLong localHits = new AtomicLong(); // свежее расписание из базы
+    private final AtomicLong staleHits = new AtomicLong(); // из базы + обновление в фоне
+    private final AtomicLong fetches = new AtomicLong(); // синхронные загрузки с УрФУ
+    private final AtomicLong refreshes = new AtomicLong(); // успешные фоновые обновления
+    private final AtomicLong failures = new AtomicLong(); // неудачные загрузки (в т.ч. фоновые)
+    private final AtomicLong staleServed = new AtomicLong(); // УрФУ недоступен — отдана сохранённая копия
+
+
+    public ScheduleProvider(ScheduleManager scheduleManager) {
+        this(scheduleManager, ScheduleFetcher::new, DEFAULT_FRESH_FOR, DEFAULT_MAX_AGE, System::currentTimeMillis,
+                Executors.newFixedThreadPool(REFRESH_THREADS, r -> {
+                    Thread t = new Thread(r, "schedule-refresh");
+                    t.setDaemon(true);
+                    return t;
+                }));
+    }
+
+    public ScheduleProvider(ScheduleManager scheduleManager, Supplier<ScheduleFetcher> fetchers, Duration freshFor,
+                            Duration maxAge, LongSupplier clock, Executor refresher) {
+        this.scheduleManager = scheduleManager;
+        this.fetchers = fetchers;
+        this.freshForMillis = freshFor.toMillis();
+        this.maxAgeMillis = maxAge.toMillis();
+        this.clock = clock;
+        this.refresher = refresher;
+    }
+
+
+    public Schedule scheduleFor(User user) throws ScheduleFetchException { // null — УрФУ ничего не вернул
+        String groupName = user.getGroup() == null ? "" : user.getGroup().trim();
+        Schedule local = groupName.isEmpty() ? null : scheduleManager.getCommonSchedule(groupName);
+
+        if (local != null) {
+            long lastSynced = scheduleManager.getCommonLastSynced(local.getGroupId());
+            long age = clock.getAsLong() - lastSynced;
+            if (lastSynced > 0 && age < freshForMillis) {
+                localHits.incrementAndGet();
+                return local;
+            }
+            if (lastSynced <= 0 || age < maxAgeMillis) {
+                staleHits.incrementAndGet();
+                refreshAsync(groupName, user);
+                return local;
+            }
+        }
+
+        try {
+            fetches.incrementAndGet();
+            return fetchAndSave(user);
+        } catch (ScheduleFetchException e) {
+            failures.incrementAndGet();
+            if (local == null) {
+                throw e;
+            }
+            staleServed.incrementAndGet();
+            System.out.println("ScheduleProvider: УрФУ недоступен, отдаём сохранённое расписание " + groupName);
+            return local.markedStale();
+        }
+    }
+
+
+    private Schedule fetchAndSave(User user) throws ScheduleFetchException {
+        ScheduleFetcher fetcher = fetchers.get();
+        long groupId = fetcher.resolveGroupId(user); // справочники из CatalogueCache — без сети
+        String groupName = user.getGroup().trim();
+
+        Schedule schedule = fetchGroup(fetcher, groupId, groupName, ScheduleFetcher.currentWeek());
+        if (schedule != null && !groupName.equals(schedule.getGroupName())) {
+            scheduleManager.saveCommonMapping(groupName, schedule.getGroupId()); // ждавший мог написать группу иначе
+        }
+        return schedule;
+    }
+
+    // загрузка недели группы с УрФУ и сохранение — через те же полёты, что и регистрация: ночная сверка
+    // (ScheduleResyncJob), регистрация и фоновое обновление одной группы не загружают и не сохраняют её дважды
+    public Schedule fetchGroup(long groupId, String groupName, LocalDate week) throws ScheduleFetchException {
+        return fetchGroup(fetchers.get(), groupId, groupName, week);
+    }
+
+    private Schedule fetchGroup(ScheduleFetcher fetcher, long groupId, String groupName, LocalDate week)
+            throws ScheduleFetchException {
+        return await(flights.run(groupId + "@" + week, () -> {
+            Schedule loaded = fetcher.fetchWeek(groupId, groupName, week);
+            if (loaded != null) {
+                scheduleManager.saveCommonSchedule(loaded); // один раз на загрузку, а не на каждого ждавшего
+            }
+            return loaded;
+        }));
+    }
+
+    private static Schedule await(CompletableFuture<Schedule> flight) throws ScheduleFetchException {
+        try {
+            return flight.get(); // ведущий ограничен таймаутами UrfuApiClient
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ScheduleFetchException sfe) {
+                throw sfe;
+            }
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new ScheduleFetchException("Ошибка при загрузке расписания.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ScheduleFetchException("Ошибка при загрузке расписания.");
+        }
+    }
+
+    private void refreshAsync(String groupName, User user) {
+        if (!refreshing.add(groupName)) {
+            return;
+        }
+        // копия: диалог регистрации продолжает менять объект пользователя
+        User snapshot = new User(user.getChatId(), user.getName(), user.getGroup(), user.getUniversity(),
+                user.getDepartment(), user.getCourse(), user.getState());
+        try {
+            refresher.execute(() -> {
+                try {
+                    fetchAndSave(snapshot);
+                    refreshes.incrementAndGet();
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                    System.out.println("ScheduleProvider: фоновое обновление " + groupName + " не удалось: " + e.getMessage());
+                } finally {
+                    refreshing.remove(groupName);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(groupName);
+        }
+    }
+
+
+    // --- метрики ---
+
+    public long getLocalHitCount() {
+        return localHits.get();
+    }
+
+    public long getStaleHitCount() {
+        return staleHits.get();
+    }
+
+    public long getFetchCount() {
+        return fetches.get();
+    }
+
+    public long getRefreshCount() {
+        return refreshes.get();
+    }
+
+    public long getStaleServedCount() {
+        return staleServed.get();
+    }
+
+    public long getCoalescedCount() { // загрузки, которые дождались чужой вместо своей
+        return flights.getCoalescedCount();
+    }
+
+    public String metricsSummary() {
+        return String.format("localHits=%d, staleHits=%d, fetches=%d, refreshes=%d, coalesced=%d, failures=%d, staleServed=%d",
+                getLocalHitCount(), getStaleHitCount(), getFetchCount(), getRefreshCount(), getCoalescedCount(),
+                failures.get(), getStaleServedCount());
+    }
+}
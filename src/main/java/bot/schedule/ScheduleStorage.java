@@ -1,5 +1,8 @@
 package bot.schedule;
 
+import java.util.List;
+import java.util.Map;
+
 public interface ScheduleStorage {
     
     void initialize();
@@ -10,11 +13,13 @@ public interface ScheduleStorage {
     
     void saveSchedule(Schedule schedule); // сохранить новое расписание 
     
-    void updateSchedule(Schedule schedule); // обновить расписание
+    int updateSchedule(Schedule schedule); // обновить расписание (вернёт число изменённых строк)
     
     void deleteSchedule(String groupId); // удалить расписание по группе
     
     boolean scheduleExists(String groupId); // проверка есть ли расписание 
+
+    long getLastSynced(String groupId); // когда расписание последний раз сверялось с УрФУ (epoch millis, 0 — неизвестно)
     
     void close();
     
@@ -29,4 +34,6 @@ public interface ScheduleStorage {
     void updateMappingTimestamp(String groupName);
     
     void technicalMaintenance(int daysOld);
+
+    Map<String, List<String>> getKnownGroups(); // groupId -> все имена из group_mapping (сначала давно не сверявшиеся)
 }
\ No newline at end of file
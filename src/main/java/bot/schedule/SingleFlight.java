@@ -0,0 +1,55 @@
+package bot.schedule;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Схлопывание одновременных одинаковых загрузок (single-flight).
+ *
+ * Первый вызов с ключом становится ведущим и выполняет загрузку в своём потоке, остальные,
+ * пришедшие до её окончания, получают тот же CompletableFuture. Результат не кэшируется:
+ * после завершения следующий вызов с тем же ключом снова пойдёт за данными.
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    // метрики
+    private final AtomicLong executions = new AtomicLong(); // сколько загрузок реально выполнено
+    private final AtomicLong coalesced = new AtomicLong(); // сколько вызовов присоединилось к чужой загрузке
+
+
+    public CompletableFuture<V> run(K key, Callable<V> loader) {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return existing;
+        }
+
+        executions.incrementAndGet();
+        try {
+            mine.complete(loader.call());
+        } catch (Throwable e) {
+            mine.completeExceptionally(e);
+        } finally {
+            inFlight.remove(key, mine);
+        }
+        return mine;
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    public long getExecutionCount() {
+        return executions.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+}
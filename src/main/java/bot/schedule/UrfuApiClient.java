@@ -1,43 +1,382 @@
 package bot.schedule;
 
-import okhttp3.OkHttpClient; // из библиотеки OkHttp для HTTP запросов
-import okhttp3.Request;
-import okhttp3.Response;
+import okhttp3.*; // из библиотеки OkHttp для HTTP запросов
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.time.Duration; // для работы с временными интервалами
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * HTTP-клиент к API расписания УрФУ.
+ *
+ * Адрес API — DEFAULT_BASE_URL, либо переменная окружения URFU_API_BASE_URL, либо аргумент конструктора.
+ * Все экземпляры (ScheduleFetcher создаётся на каждую регистрацию) работают через один OkHttpClient:
+ * общий пул keep-alive соединений и общий диспетчер, поэтому TLS-рукопожатие и потоки не создаются заново.
+ * OkHttp сам договаривается о HTTP/2 и gzip; ответы с заголовками кэширования хранятся в дисковом кэше.
+ * По каждому виду запроса (divisions, groups, schedule) считаются вызовы, ошибки и задержка.
+ *
+ * Устойчивость к простоям УрФУ (перехватчик resilient):
+ *  - на каждый вид запроса к каждому хосту — свой CircuitBreaker: после серии неудач запросы сразу
+ *    отклоняются CircuitOpenException, а не ждут таймаутов;
+ *  - сетевые ошибки и ответы 408/429/5xx повторяются до MAX_RETRIES раз со случайной экспоненциальной паузой,
+ *    но только пока хватает общего на хост RetryBudget;
+ *  - ответ не 2xx превращается в HttpStatusException с кодом ответа.
+ */
 public class UrfuApiClient {
-	
-    private final OkHttpClient client; // объявление поля - клиент 
-
-    public UrfuApiClient() { // конструктор 
-        client = new OkHttpClient.Builder() 
-                .connectTimeout(Duration.ofSeconds(20)) // таймаут на подключение (если не может 20 сек подключиться - то бросаем исключение)
-                .readTimeout(Duration.ofSeconds(30)) // время на чтение
-                .callTimeout(Duration.ofSeconds(60)) // общий таймер на запрос
+
+    // адрес API; URFU_API_BASE_URL подменяет его на локальный стенд (например, FakeUrfuServer в тестах)
+    public static final String DEFAULT_BASE_URL = "https://urfu.ru/api/v2/schedule";
+    private static final long HTTP_CACHE_BYTES = 20L * 1024 * 1024;
+
+    // устойчивость к простоям
+    private static final int FAILURE_THRESHOLD = 5; // неудач подряд до открытия предохранителя
+    private static final Duration OPEN_FOR = Duration.ofSeconds(30); // сколько не ходить к УрФУ после открытия
+    private static final int MAX_RETRIES = 2;
+    private static final long BACKOFF_BASE_MILLIS = 200; // пауза перед повтором: случайная в [1, 200 * 2^попытка] мс
+    private static final double RETRY_RATIO = 0.1; // повторов не больше 10% от потока запросов
+    private static final double RETRY_BURST = 10; // и не больше 10 подряд при полном бюджете
+
+    @FunctionalInterface
+    public interface BodyReader<T, E extends Exception> { // разбор тела ответа прямо из потока
+        T read(InputStream body) throws IOException, E;
+    }
+
+    public static class HttpStatusException extends IOException { // ответ не 2xx
+        private final int code;
+
+        public HttpStatusException(int code) {
+            super("HTTP " + code);
+            this.code = code;
+        }
+
+        public int getCode() {
+            return code;
+        }
+    }
+
+    public static class CircuitOpenException extends IOException { // запрос не выполнялся: предохранитель открыт
+        public CircuitOpenException(String breaker) {
+            super("УрФУ недоступен (" + breaker + "), запрос не выполнялся");
+        }
+    }
+
+    private static final Map<String, EndpointStats> STATS = new ConcurrentHashMap<>(); // вид запроса -> счётчики
+    private static final Map<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>(); // "хост/вид запроса" -> автомат
+    private static final Map<String, RetryBudget> BUDGETS = new ConcurrentHashMap<>(); // хост -> бюджет повторов
+    private static final OkHttpClient SHARED = buildClient();
+
+    private final OkHttpClient client; // объявление поля - клиент
+    private final CatalogueCache catalogue;
+    private final String baseUrl; // без завершающего "/"
+    private final String cataloguePrefix; // справочники (подразделения и их группы) меняются раз в семестр — идут через CatalogueCache
+
+    public UrfuApiClient() { // конструктор
+        this(configuredBaseUrl());
+    }
+
+    public UrfuApiClient(String baseUrl) {
+        this(baseUrl, CatalogueCache.shared());
+    }
+
+    public UrfuApiClient(String baseUrl, CatalogueCache catalogue) { // свой кэш справочников — для стенда и тестов
+        client = SHARED; // один клиент на процесс: пул соединений и потоки общие
+        this.catalogue = catalogue;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        cataloguePrefix = this.baseUrl + "/divisions";
+    }
+
+    private static String configuredBaseUrl() {
+        String url = System.getenv("URFU_API_BASE_URL");
+        return url == null || url.isBlank() ? DEFAULT_BASE_URL : url.trim();
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+
+    private static OkHttpClient buildClient() {
+        String cacheDir = System.getenv("URFU_HTTP_CACHE_DIR");
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(64);
+        dispatcher.setMaxRequestsPerHost(16); // все запросы идут на urfu.ru
+        return new OkHttpClient.Builder()
+                .connectTimeout(Duration.ofSeconds(5)) // таймаут на подключение (если не может 5 сек подключиться - то бросаем исключение)
+                .readTimeout(Duration.ofSeconds(15)) // время на чтение
+                .callTimeout(Duration.ofSeconds(30)) // общий таймер на запрос, вместе с повторами
+                .connectionPool(new ConnectionPool(16, 5, TimeUnit.MINUTES)) // держим до 16 соединений 5 минут
+                .dispatcher(dispatcher)
+                .protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .cache(new Cache(new File(cacheDir == null || cacheDir.isBlank() ? "http_cache" : cacheDir), HTTP_CACHE_BYTES))
+                .retryOnConnectionFailure(true)
+                .addInterceptor(UrfuApiClient::measure) // снаружи: один логический вызов — одна запись
+                .addInterceptor(UrfuApiClient::resilient)
                 .build(); // завершение настройки и создание объекта
     }
 
-    
+
     public String get(String url) throws IOException {
-        Request req = new Request.Builder() // билдер для http запроса
+        if (url.startsWith(cataloguePrefix)) {
+            return catalogue.get(url, this::conditionalGet);
+        }
+        // создает вызов и выполняет запрос (response сам закроется, тк try-with-resources)
+        // newCall создает объект Call для выполнения запроса
+        try (Response resp = client.newCall(request(url)).execute()) {
+            return bodyOf(resp);
+        }
+    }
+
+    public <T, E extends Exception> T getStream(String url, BodyReader<T, E> reader) throws IOException, E { // без промежуточной строки
+        try (Response resp = client.newCall(request(url)).execute()) {
+            if (!resp.isSuccessful()) {
+                throw new HttpStatusException(resp.code());
+            }
+            ResponseBody body = resp.body();
+            return reader.read(body == null ? InputStream.nullInputStream() : body.byteStream());
+        }
+    }
+
+    public CompletableFuture<String> getAsync(String url) { // то же, что get, но без блокировки вызывающего потока
+        if (url.startsWith(cataloguePrefix)) { // справочники идут через CatalogueCache — выполняем на потоках диспетчера
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return get(url);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, client.dispatcher().executorService());
+        }
+
+        CompletableFuture<String> future = new CompletableFuture<>();
+        Call call = client.newCall(request(url));
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call c, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call c, Response resp) {
+                try (resp) {
+                    future.complete(bodyOf(resp));
+                } catch (IOException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        future.whenComplete((body, error) -> { // отмена future отменяет и HTTP-запрос
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        return future;
+    }
+
+
+    private static Request request(String url) {
+        return new Request.Builder() // билдер для http запроса
                 .url(url)
                 .header("Accept", "application/json") // заголовок (говорит серверу, что мы ждем json в ответ)
                 .build();
-        
-        // создает вызов и выполняет запрос (response сам закроется, тк try-with-resources)
-        // newCall создает объект Call для выполнения запроса
-        try (Response resp = client.newCall(req).execute()) { 
-            if (!resp.isSuccessful()) { // проверка успешности ответа
-                throw new IOException();
-            }
-            
-            if(resp.body() == null) {
-            	return "";
-            	
+    }
+
+    private static String bodyOf(Response resp) throws IOException {
+        if (!resp.isSuccessful()) { // проверка успешности ответа
+            throw new HttpStatusException(resp.code());
+        }
+        if (resp.body() == null) {
+            return "";
+        }
+        return resp.body().string(); // возвращаем тело ответа как строку
+    }
+
+    private CatalogueCache.Response conditionalGet(String url, String etag, String lastModified) throws IOException { // null — 304
+        Request.Builder builder = new Request.Builder()
+                .url(url)
+                .header("Accept", "application/json");
+        if (etag != null) {
+            builder.header("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            builder.header("If-Modified-Since", lastModified);
+        }
+
+        try (Response resp = client.newCall(builder.build()).execute()) {
+            if (resp.code() == 304) {
+                return null;
+            }
+            if (!resp.isSuccessful()) {
+                throw new HttpStatusException(resp.code());
+            }
+            String body = resp.body() == null ? "" : resp.body().string();
+            return new CatalogueCache.Response(body, resp.header("ETag"), resp.header("Last-Modified"));
+        }
+    }
+
+
+    // --- устойчивость ---
+
+    private static Response resilient(Interceptor.Chain chain) throws IOException { // предохранитель и повторы
+        HttpUrl url = chain.request().url();
+        String host = hostOf(url);
+        CircuitBreaker breaker = BREAKERS.computeIfAbsent(host + "/" + endpointOf(url),
+                k -> new CircuitBreaker(k, FAILURE_THRESHOLD, OPEN_FOR.toNanos(), System::nanoTime));
+        if (!breaker.tryAcquire()) {
+            throw new CircuitOpenException(host + "/" + endpointOf(url));
+        }
+        RetryBudget budget = BUDGETS.computeIfAbsent(host, k -> new RetryBudget(RETRY_RATIO, RETRY_BURST));
+        budget.onRequest();
+
+        boolean healthy = false;
+        try {
+            for (int attempt = 0; ; attempt++) {
+                Response response = null;
+                IOException error = null;
+                try {
+                    response = chain.proceed(chain.request());
+                } catch (IOException e) {
+                    error = e;
+                }
+                if (error == null && !isOutage(response.code())) {
+                    healthy = true; // в т.ч. 4xx: УрФУ отвечает, просто такой группы нет
+                    return response;
+                }
+                if (attempt >= MAX_RETRIES || chain.call().isCanceled() || !budget.tryRetry()) {
+                    if (error != null) {
+                        throw error;
+                    }
+                    return response; // ответ с ошибкой отдаём как есть — в HttpStatusException его превратит вызывающий
+                }
+                if (response != null) {
+                    response.close();
+                }
+                backoff(attempt);
+            }
+        } finally {
+            if (healthy) {
+                breaker.onSuccess();
             } else {
-            	return resp.body().string(); // возвращаем тело ответа как строку
+                breaker.onFailure();
             }
         }
     }
+
+    private static boolean isOutage(int code) { // УрФУ перегружен или лежит — имеет смысл повторить
+        return code == 408 || code == 429 || code >= 500;
+    }
+
+    private static void backoff(int attempt) throws InterruptedIOException { // «полный джиттер»: повторы не идут волной
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(1, (BACKOFF_BASE_MILLIS << attempt) + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("прервано во время паузы перед повтором");
+        }
+    }
+
+    private static String hostOf(HttpUrl url) { // urfu.ru, а для нестандартного порта — host:port
+        return url.port() == HttpUrl.defaultPort(url.scheme()) ? url.host() : url.host() + ":" + url.port();
+    }
+
+
+    // --- метрики ---
+
+    private static Response measure(Interceptor.Chain chain) throws IOException { // задержка и ошибки по видам запросов
+        EndpointStats stats = STATS.computeIfAbsent(endpointOf(chain.request().url()), k -> new EndpointStats());
+        long start = System.nanoTime();
+        try {
+            Response response = chain.proceed(chain.request());
+            stats.record(System.nanoTime() - start, !response.isSuccessful() && response.code() != 304);
+            return response;
+        } catch (IOException e) {
+            stats.record(System.nanoTime() - start, true);
+            throw e;
+        }
+    }
+
+    static String endpointOf(HttpUrl url) { // /divisions, /divisions/{id}/groups, /groups/{id}/schedule
+        List<String> path = url.pathSegments();
+        String last = path.isEmpty() ? "" : path.get(path.size() - 1);
+        if (last.equals("divisions") || last.equals("groups") || last.equals("schedule")) {
+            return last;
+        }
+        return "other";
+    }
+
+    public static Map<String, EndpointStats> getEndpointStats() {
+        return new TreeMap<>(STATS);
+    }
+
+    public static Map<String, CircuitBreaker> getCircuitBreakers() { // "хост/вид запроса" -> автомат
+        return new TreeMap<>(BREAKERS);
+    }
+
+    public static Map<String, RetryBudget> getRetryBudgets() { // хост -> бюджет повторов
+        return new TreeMap<>(BUDGETS);
+    }
+
+    public static String metricsSummary() {
+        StringBuilder sb = new StringBuilder();
+        getEndpointStats().forEach((endpoint, stats) -> sb.append(sb.length() == 0 ? "" : "; ")
+                .append(endpoint).append(": ").append(stats));
+        getCircuitBreakers().forEach((name, breaker) -> sb.append(sb.length() == 0 ? "" : "; ")
+                .append("breaker ").append(name).append(": ").append(breaker.metricsSummary()));
+        getRetryBudgets().forEach((host, budget) -> sb.append(sb.length() == 0 ? "" : "; ")
+                .append("retry ").append(host).append(": ").append(budget.metricsSummary()));
+        ConnectionPool pool = SHARED.connectionPool();
+        Cache cache = SHARED.cache();
+        sb.append(sb.length() == 0 ? "" : "; ").append(String.format("connections=%d (idle %d), httpCacheHits=%d/%d",
+                pool.connectionCount(), pool.idleConnectionCount(),
+                cache == null ? 0 : cache.hitCount(), cache == null ? 0 : cache.requestCount()));
+        return sb.toString();
+    }
+
+    public static class EndpointStats {
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong(); // исключения и ответы не 2xx/304
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos, boolean error) {
+            calls.incrementAndGet();
+            if (error) {
+                errors.incrementAndGet();
+            }
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        public long getCalls() {
+            return calls.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+
+        public double getAverageMillis() {
+            long count = calls.get();
+            return count == 0 ? 0.0 : totalNanos.get() / 1_000_000.0 / count;
+        }
+
+        public double getMaxMillis() {
+            return maxNanos.get() / 1_000_000.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("calls=%d, errors=%d, avg=%.1fms, max=%.1fms",
+                    getCalls(), getErrors(), getAverageMillis(), getMaxMillis());
+        }
+    }
 }
@@ -1,20 +1,21 @@
 package bot.scheduler;
 
+import bot.db.StorageRegistry;
+import bot.dispatcher.OutboundSender;
 import bot.homework.HomeworkItem;
 import bot.homework.SQLiteHomeworkStorage;
-import bot.schedule.Lesson;
-import bot.schedule.Schedule;
 import bot.schedule.ScheduleManager;
 import bot.start.Homeworkbot;
 import bot.user.User;
 import bot.user.SQLiteUserStorage;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
-import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 
 import java.time.*;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
 
 
 /**
@@ -22,17 +23,19 @@ import java.util.concurrent.*;
  * вечерние уведомления о предметах следующего дня и домашних заданиях.
  *
  * Как он работает (вкратце):
- *  - При старте (startAll()) берёт всех зарегистрированных пользователей из SQLiteUserStorage.
- *  - Для каждого пользователя планирует задачу отправки:
- *      - вычисляет время окончания последней пары на текущий день (если есть) и ставит отправку на +1.5 часа,
- *      - или (если пар нет) ставит отправку на фиксированное время (20:00) текущего дня.
- *  - В момент исполнения задачи формируется сообщение:
- *      - список предметов на следующий день (через ScheduleManager),
- *      - активные домашние задания, связанные с предметами следующего дня
- *        (SQLiteHomeworkStorage.getActiveHomeworkBySubjects),
- *      - задания с кастомным дедлайном на следующий день (getHomeworkWithCustomDeadline),
- *      - сообщение отправляется через Homeworkbot.execute(SendMessage).
- *
+ *  - Раз в сутки (при старте startAll() и затем в SWEEP_TIME) выполняется общий проход:
+ *      - одним DELETE удаляются просроченные домашние задания,
+ *      - одним запросом берутся все зарегистрированные пользователи,
+ *      - для каждого вычисляется время отправки (+1 час после последней пары сегодня или 15:00),
+ *        и пользователь кладётся в минутную корзину TimingWheel;
+ *      - если его минута сегодня уже прошла (рестарт поперёк неё), рассылка собирается сразу.
+ *  - Колесо двигается одной задачей раз в минуту. Корзина сработавшей минуты уходит в пул workers пачками:
+ *      - пользователи пачки перечитываются одним запросом (getRegisteredUsers(ids) — учитываем отписку),
+ *      - DigestPlanner собирает готовые сообщения для всего слота (одно чтение homework на слот),
+ *      - готовые сообщения кладутся в NotificationOutbox (одна строка на пользователя и дату).
+ *  - Отправитель забирает из outbox строки, чей срок подошёл, шлёт через полосу BULK OutboundSender
+ *    и отмечает результат: при ошибке — повтор с экспоненциальной отсрочкой, после MAX_ATTEMPTS — DEAD.
+ *    Очередь переживает рестарт: недоставленное досылается, доставленное повторно не уходит.
  */
 public class DailyNotifier {
 
@@ -40,353 +43,340 @@ public class DailyNotifier {
     private final SQLiteUserStorage userStorage;
     private final SQLiteHomeworkStorage hwStorage;
     private final ScheduleManager scheduleManager;
-    private final ScheduledExecutorService scheduler; // планировщик задач (Позволяет запускать задачи с задержкой)
+    private final ScheduledExecutorService scheduler; // тики колеса, ежедневный проход и повторы отправки
+    private final ExecutorService workers; // сборка и отправка сработавших корзин
     private final ZoneId zone; // временная зона для вычислений (совместно с ScheduleFetcher)
-    // --- NEW: поля для предотвращения дублирующих задач и дублирующей отправки ---
-    private final Map<Long, ScheduledFuture<?>> scheduledTasks = new ConcurrentHashMap<>();
-    private final Map<Long, LocalDate> lastSentDate = new ConcurrentHashMap<>();
-    private final ConcurrentMap<Long, Object> userLocks = new ConcurrentHashMap<>();
-    private static final long ALLOWED_WINDOW_MINUTES = 10; // допустимое окно в минутах вокруг ожидаемого времени
-    // --- end NEW ---
-
+    private final LongSupplier clock; // System::currentTimeMillis (в тестах — свои часы)
+    private final TimingWheel<Long> wheel; // chatId -> минута отправки
+    private final NotificationOutbox outbox; // постоянная очередь готовых рассылок
+    private final boolean ownsOutbox;
+    private final AtomicBoolean draining = new AtomicBoolean(); // отправитель уже работает
+    private final AtomicReference<LocalDate> lastSweepDate = new AtomicReference<>(); // дата последнего общего прохода
+    private volatile Map<Long, List<HomeworkItem>> dueReminders = Collections.emptyMap(); // напоминания, чей день настал
+    private static final LocalTime SWEEP_TIME = LocalTime.of(0, 5); // ежедневный проход — сразу после полуночи
+    private static final int SEND_BATCH = 500; // сколько пользователей корзины обрабатывает один worker (как IN_BATCH хранилищ)
+    private static final int CLAIM_BATCH = 100; // сколько строк outbox отправитель берёт за раз
+    private static final long DRAIN_INTERVAL_SECONDS = 15; // как часто отправитель заглядывает в outbox сам
+    private static final int MAX_ATTEMPTS = 6; // после стольких ошибок строка уходит в DEAD
+    private static final long MAX_RETRY_DELAY_SECONDS = 60 * 60;
+    private static final int OUTBOX_KEEP_DAYS = 14; // сколько дней храним отправленные и DEAD строки
 
 
-    private final long retryDelaySeconds = 60; // Повторная попытка отправки при ошибке (секунды)
+    private final long retryDelaySeconds = 60; // Первая повторная попытка отправки при ошибке (секунды), дальше — вдвое дольше
 
 
     public DailyNotifier(Homeworkbot bot,
                          SQLiteUserStorage userStorage,
                          SQLiteHomeworkStorage hwStorage) {
-        this.bot = bot;
-        this.userStorage = userStorage;
-        this.hwStorage = hwStorage;
-        this.scheduleManager = new ScheduleManager(userStorage);
-        this.scheduler = Executors.newScheduledThreadPool(4); // пул для параллельной отправки
-        this.zone = ZoneId.of("Asia/Yekaterinburg");
+        this(bot, userStorage, hwStorage, new ScheduleManager(userStorage));
     }
 
+    public DailyNotifier(Homeworkbot bot,
+                         SQLiteUserStorage userStorage,
+                         SQLiteHomeworkStorage hwStorage,
+                         ScheduleManager scheduleManager) {
+        this(bot, userStorage, hwStorage, scheduleManager, new NotificationOutbox(StorageRegistry.USERS_DB), true);
+    }
 
-    public void startAll() { // Запускает планирование для всех зарегистрированных пользователей
-        List<User> users;
-        try {
-            users = userStorage.getRegisteredUsers(); // возвращает только state = REGISTERED
-        } catch (Exception e) {
-            System.out.println("DailyNotifier: не удалось получить пользователей: " + e.getMessage());
-            return;
-        }
+    public DailyNotifier(Homeworkbot bot,
+                         SQLiteUserStorage userStorage,
+                         SQLiteHomeworkStorage hwStorage,
+                         ScheduleManager scheduleManager,
+                         NotificationOutbox outbox) { // менеджер расписаний и очередь из StorageRegistry
+        this(bot, userStorage, hwStorage, scheduleManager, outbox, System::currentTimeMillis);
+    }
 
-        for (User u : users) {
-            scheduleForUser(u);
-        }
+    public DailyNotifier(Homeworkbot bot,
+                         SQLiteUserStorage userStorage,
+                         SQLiteHomeworkStorage hwStorage,
+                         ScheduleManager scheduleManager,
+                         NotificationOutbox outbox,
+                         LongSupplier clock) {
+        this(bot, userStorage, hwStorage, scheduleManager, outbox, false, clock);
     }
 
+    private DailyNotifier(Homeworkbot bot,
+                          SQLiteUserStorage userStorage,
+                          SQLiteHomeworkStorage hwStorage,
+                          ScheduleManager scheduleManager,
+                          NotificationOutbox outbox,
+                          boolean ownsOutbox) {
+        this(bot, userStorage, hwStorage, scheduleManager, outbox, ownsOutbox, System::currentTimeMillis);
+    }
 
-    public void scheduleForUser(User user) { // Планирует отправку уведомления для конкретного пользователя.
-        LocalDate today = LocalDate.now(zone);
+    private DailyNotifier(Homeworkbot bot,
+                          SQLiteUserStorage userStorage,
+                          SQLiteHomeworkStorage hwStorage,
+                          ScheduleManager scheduleManager,
+                          NotificationOutbox outbox,
+                          boolean ownsOutbox,
+                          LongSupplier clock) {
+        this.bot = bot;
+        this.userStorage = userStorage;
+        this.hwStorage = hwStorage;
+        this.scheduleManager = scheduleManager;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        this.workers = Executors.newFixedThreadPool(4); // пул для параллельной отправки
+        this.zone = ZoneId.of("Asia/Yekaterinburg");
+        this.clock = clock;
+        this.wheel = new TimingWheel<>(currentMinute(), this::onBucketFired);
+        this.outbox = outbox;
+        this.ownsOutbox = ownsOutbox;
+    }
 
-        // Вычисляем время окончания последней пары сегодня (если есть)
-        Optional<LocalDateTime> lastEnd = getLastLessonEndForUserOn(user, today);
-        // Optional<T> — это контейнер, который либо содержит значение типа T, либо пуст
 
-        LocalDateTime sendAt;
-        if (lastEnd.isPresent()) { // если optional не пустой
-            sendAt = lastEnd.get().plusMinutes(60); // +1 час
-        } else {
-            sendAt = LocalDateTime.of(today, LocalTime.of(15, 00)); // фиксированное 15:00
+    public void startAll() { // Первый общий проход сразу, дальше — раз в сутки; колесо тикает раз в минуту
+        if (ownsOutbox) {
+            outbox.initialize();
         }
-
-        if (sendAt.isBefore(LocalDateTime.now(zone))) {
-            sendAt = sendAt.plusDays(1);
+        int recovered = outbox.recoverInFlight(clock.getAsLong()); // прерванные рестартом отправки
+        if (recovered > 0) {
+            System.out.println("DailyNotifier: возвращено в очередь после рестарта: " + recovered);
         }
 
-        long delayMillis = Duration.between(LocalDateTime.now(zone), sendAt).toMillis();
-        if (delayMillis < 0) delayMillis = 0;
+        runDailySweep();
+        long untilNextMinute = 60_000 - clock.getAsLong() % 60_000;
+        scheduler.scheduleAtFixedRate(this::tick, untilNextMinute, 60_000, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::requestDrain, 0, DRAIN_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
 
-        long chatId = user.getChatId();
 
-        // CHANGED: отменяем старую задачу, если она есть
-        ScheduledFuture<?> prev = scheduledTasks.get(chatId);
-        if (prev != null && !prev.isDone()) {
-            prev.cancel(false);
-            System.out.println("DailyNotifier: cancelled previous scheduled task for " + chatId);
+    private void tick() {
+        try {
+            wheel.advanceTo(currentMinute());
+        } catch (Exception e) {
+            e.printStackTrace();
         }
-
-        ScheduledFuture<?> future = scheduler.schedule(() -> runSendForUser(user), delayMillis, TimeUnit.MILLISECONDS);
-        scheduledTasks.put(chatId, future);
-        System.out.println("DailyNotifier: scheduled send for " + chatId + " at " + sendAt);
-
     }
 
+    private void onBucketFired(long minute, Collection<Long> chatIds) { // вызывается под замком колеса — только раздаём работу
+        List<Long> ids = new ArrayList<>(chatIds);
+        for (int from = 0; from < ids.size(); from += SEND_BATCH) {
+            List<Long> batch = ids.subList(from, Math.min(ids.size(), from + SEND_BATCH));
+            workers.execute(() -> runBatch(batch));
+        }
+    }
 
-    private void runSendForUser(User user) {
 
+    private void runDailySweep() {
         try {
-
-            if (!user.getSubscriptionEnabled()) {
-                System.out.println("Пользователь " + user.getChatId() + " отключил рассылку - пропускаем");
-                // отменим имеющуюся задачу, если вдруг осталась
-                ScheduledFuture<?> prev = scheduledTasks.remove(user.getChatId());
-                if (prev != null && !prev.isDone()) prev.cancel(false);
-                return;
+            LocalDate today = today();
+            LocalDate prev = lastSweepDate.get();
+            if ((prev == null || prev.isBefore(today)) && lastSweepDate.compareAndSet(prev, today)) {
+                sweep(prev == null ? today : prev.plusDays(1), today);
             }
-
-            try { // перед рассылкой удаляем старые дз
-                hwStorage.deleteOldHomework(LocalDate.now(zone));
-            } catch (Exception e) {
-                System.out.println("Ошибка при очистке старых ДЗ: " + e.getMessage());
-            }
-
-            LocalDate today = LocalDate.now(zone);
-            LocalDate nextDay = today.plusDays(1);
-            long chatId = user.getChatId();
-
-            // Получаем расписание пользователя (может быть null)
-            Schedule schedule = null;
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            LocalDateTime next = LocalDateTime.of(today().plusDays(1), SWEEP_TIME);
+            long delayMillis = Math.max(0, Duration.between(now(), next).toMillis());
             try {
-                schedule = scheduleManager.getScheduleForUser(chatId);
-            } catch (Exception e) {
-                System.out.println("DailyNotifier: не удалось получить расписание для пользователя " + chatId + ": " + e.getMessage());
-            }
-
-            // Получаем пары на следующий день
-            List<Lesson> lessonsNextDay;
-            if (schedule != null) {
-                lessonsNextDay = getLessonsIgnoreCase(schedule, nextDay.getDayOfWeek().name());
-            } else {
-                lessonsNextDay = Collections.emptyList();
+                scheduler.schedule(this::runDailySweep, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ignored) {
+                // планировщик уже остановлен (stop())
             }
+        }
+    }
 
-            // Собираем список названий предметов для запроса домашних заданий
-            List<String> subjectNames = new ArrayList<>();
-            for (Lesson l : lessonsNextDay) {
-                if (l != null && l.getSubject() != null && !l.getSubject().trim().isEmpty()) {
-                    subjectNames.add(l.getSubject().trim());
-                }
-            }
+    private void sweep(LocalDate from, LocalDate today) { // from — первый день, за который проход ещё не выполнялся
+        try { // недоставленные планы на прошедшие дни — в DEAD, старые завершённые строки — удаляем
+            long now = clock.getAsLong();
+            outbox.expireBefore(today, now);
+            outbox.purgeBefore(today.minusDays(OUTBOX_KEEP_DAYS));
+        } catch (Exception e) {
+            System.out.println("DailyNotifier: ошибка обслуживания очереди рассылок: " + e.getMessage());
+        }
 
-            // 1) Домашние задания, связанные с предметами следующего дня
-            List<HomeworkItem> hwForNextDay = Collections.emptyList();
-            try {
-                hwForNextDay = hwStorage.getActiveHomeworkBySubjects(chatId, subjectNames);
-            } catch (Exception e) {
-                System.out.println("DailyNotifier: ошибка получения hwForNextDay for user " + chatId + ": " + e.getMessage());
-            }
+        try { // просроченные дз — один DELETE на весь день, а не на каждого пользователя
+            hwStorage.deleteOldHomework(today);
+        } catch (Exception e) {
+            System.out.println("Ошибка при очистке старых ДЗ: " + e.getMessage());
+        }
 
-            // 2) Задания с кастомным дедлайном на nextDay
-            List<HomeworkItem> hwCustom = Collections.emptyList();
-            try {
-                hwCustom = hwStorage.getHomeworkWithCustomDeadline(chatId, subjectNames, nextDay);
-            } catch (Exception e) {
-                System.out.println("DailyNotifier: ошибка получения hwCustom for user " + chatId + ": " + e.getMessage());
-            }
+        try { // один диапазонный запрос по индексу дня напоминания (в т.ч. за пропущенные дни)
+            dueReminders = hwStorage.getRemindersDue(from, today);
+        } catch (Exception e) {
+            System.out.println("DailyNotifier: ошибка получения напоминаний: " + e.getMessage());
+            dueReminders = Collections.emptyMap();
+        }
 
-            // Формируем текст сообщения
-            String message = buildMessage(user, nextDay, lessonsNextDay, hwForNextDay, hwCustom);
-
-            // -----------------------
-            // IDENTITY GUARD (idempotency)
-            // -----------------------
-            // 1) Быстрая проверка — не отправляли ли уже сегодня
-            LocalDate already = lastSentDate.get(chatId);
-            if (already != null && already.equals(today)) {
-                System.out.println("DailyNotifier: уже отправлено сегодня пользователю " + chatId + ", пропускаем.");
-                return;
-            }
+        List<User> users;
+        try {
+            users = userStorage.getRegisteredUsers(); // возвращает только state = REGISTERED
+        } catch (Exception e) {
+            System.out.println("DailyNotifier: не удалось получить пользователей: " + e.getMessage());
+            return;
+        }
 
-            // 2) Опциональная проверка соответствия текущего времени ожидаемому (уменьшает ложные срабатывания)
-            try {
-                Optional<LocalDateTime> expectedLastEnd = getLastLessonEndForUserOn(user, today);
-                if (expectedLastEnd.isPresent()) {
-                    LocalDateTime expectedSendAt = expectedLastEnd.get().plusMinutes(60);
-                    long minutesDiff = Math.abs(Duration.between(LocalDateTime.now(zone), expectedSendAt).toMinutes());
-                    if (minutesDiff > ALLOWED_WINDOW_MINUTES) {
-                        System.out.println("DailyNotifier: вызов вне допустимого окна для " + chatId + " (diff=" + minutesDiff + " мин). Пропускаем.");
-                        return;
-                    }
-                }
-            } catch (Exception ex) {
-                // noop
+        List<User> subscribed = new ArrayList<>();
+        for (User u : users) {
+            if (u.getSubscriptionEnabled()) {
+                subscribed.add(u);
             }
+        }
 
-            // 3) Атомарная пометка и отправка: per-user lock
-            boolean willSend = false;
-            Object lock = getLockForUser(chatId);
-            synchronized (lock) {
-                LocalDate cur = lastSentDate.get(chatId);
-                if (cur == null || !cur.equals(today)) {
-                    lastSentDate.put(chatId, today); // помечаем заранее, чтобы конкуренты не отправили дубль
-                    willSend = true;
-                } else {
-                    System.out.println("DailyNotifier: конкурентная задача обнаружила уже-отправлено для " + chatId);
-                }
+        Map<Long, LocalDateTime> sendTimes = planner().sendTimes(subscribed, today);
+        LocalDateTime now = now();
+        List<Long> overdue = new ArrayList<>(); // минута уже прошла (рестарт поперёк неё) — шлём сейчас, а не завтра
+        for (Map.Entry<Long, LocalDateTime> e : sendTimes.entrySet()) {
+            if (e.getValue().isBefore(now)) {
+                overdue.add(e.getKey());
+            } else {
+                wheel.schedule(e.getKey(), toMinute(e.getValue()));
             }
+        }
+        if (!overdue.isEmpty()) { // уже отправленное до рестарта outbox не продублирует: (chatId, дата) ставится один раз
+            onBucketFired(currentMinute(), overdue);
+        }
+        System.out.println("DailyNotifier: проход за " + today + " — запланировано " + (sendTimes.size() - overdue.size())
+                + " пользователей, досылается сейчас " + overdue.size());
+    }
 
-            if (!willSend) {
-                return;
-            }
 
-            // 4) Отправка сообщения
-            SendMessage sm = new SendMessage(String.valueOf(chatId), message);
-            try {
-                bot.execute(sm);
-                System.out.println("DailyNotifier: сообщение отправлено пользователю " + chatId);
-
-                // 5) После успешной отправки — планируем следующую рассылку на следующий релевантный день (как в scheduleForUser)
-                Optional<LocalDateTime> nextLastEnd = getLastLessonEndForUserOn(user, nextDay);
-                LocalDateTime nextSendAt;
-                if (nextLastEnd.isPresent()) {
-                    nextSendAt = nextLastEnd.get().plusMinutes(60);
-                } else {
-                    nextSendAt = LocalDateTime.of(nextDay, LocalTime.of(15, 00));
-                }
+    public void scheduleForUser(User user) { // Планирует отправку уведомления для конкретного пользователя.
+        if (!user.getSubscriptionEnabled()) {
+            wheel.cancel(user.getChatId());
+            return;
+        }
 
-                long delayMillis = Duration.between(LocalDateTime.now(zone), nextSendAt).toMillis();
-                if (delayMillis < 0) delayMillis = 0;
+        LocalDate today = today();
+        LocalDateTime sendAt = planner().sendTimes(List.of(user), today).get(user.getChatId());
+        if (sendAt.isBefore(now())) {
+            // сегодня уже поздно — завтрашний общий проход поставит пользователя сам
+            wheel.cancel(user.getChatId());
+            return;
+        }
+        wheel.schedule(user.getChatId(), toMinute(sendAt));
+        System.out.println("DailyNotifier: scheduled send for " + user.getChatId() + " at " + sendAt);
+    }
 
-                // Обновляем scheduledTasks: отменяем старую задачу (на всякий случай), ставим новую и сохраняем
-                ScheduledFuture<?> prevFuture = scheduledTasks.get(chatId);
-                if (prevFuture != null && !prevFuture.isDone()) prevFuture.cancel(false);
 
-                ScheduledFuture<?> future = scheduler.schedule(() -> runSendForUser(user), delayMillis, TimeUnit.MILLISECONDS);
-                scheduledTasks.put(chatId, future);
-                System.out.println("DailyNotifier: следующая отправка для " + chatId + " запланирована на " + nextSendAt);
+    private void runBatch(List<Long> chatIds) {
+        try {
+            LocalDate today = today();
 
-            } catch (TelegramApiException e) {
-                // при ошибке отправки — откатим пометку, чтобы retry/другая задача могла отправить
-                lastSentDate.remove(chatId);
-                System.out.println("DailyNotifier: ошибка отправки сообщения пользователю " + chatId + ": " + e.getMessage());
-                // retry
-                scheduler.schedule(() -> runSendForUser(user), retryDelaySeconds, TimeUnit.SECONDS);
-                return;
+            // один запрос на пачку: свежие данные пользователей (отписка, смена группы)
+            List<User> users = new ArrayList<>();
+            for (User u : userStorage.getRegisteredUsers(chatIds)) {
+                if (u.getSubscriptionEnabled()) {
+                    users.add(u);
+                } else {
+                    System.out.println("Пользователь " + u.getChatId() + " отключил рассылку - пропускаем");
+                }
             }
 
+            // сообщения для всей пачки собираются заранее и одной транзакцией кладутся в outbox;
+            // строки, уже известные за эту дату (отправленные до рестарта), не дублируются
+            Map<Long, Digest> digests = planner().plan(users, today, dueReminders);
+            outbox.enqueue(digests.values(), clock.getAsLong());
         } catch (Exception e) {
             e.printStackTrace();
         }
-        // IMPORTANT: убираем finally() перепланирование на 1 минуту! (оно раньше вызывало зацикливание)
+        requestDrain();
     }
 
 
+    private void requestDrain() { // запустить отправителя, если он ещё не работает
+        if (draining.compareAndSet(false, true)) {
+            try {
+                workers.execute(this::drainOutbox);
+            } catch (RejectedExecutionException e) {
+                draining.set(false); // пул уже остановлен (stop())
+            }
+        }
+    }
 
+    private void drainOutbox() {
+        try {
+            List<NotificationOutbox.Entry> entries;
+            while (!(entries = outbox.claim(CLAIM_BATCH, clock.getAsLong())).isEmpty()) {
+                // вся пачка уходит в полосу BULK ограничителя; ждём её целиком, прежде чем брать следующую
+                List<CompletableFuture<Boolean>> sends = new ArrayList<>();
+                for (NotificationOutbox.Entry entry : entries) {
+                    sends.add(deliver(entry));
+                }
+                CompletableFuture.allOf(sends.toArray(new CompletableFuture[0])).join();
 
-    private String buildMessage(User user,
-                                LocalDate date,
-                                List<Lesson> lessonsNextDay,
-                                List<HomeworkItem> hwForNextDay,
-                                List<HomeworkItem> hwCustom) {
-
-        DateTimeFormatter df = DateTimeFormatter.ofPattern("dd.MM.yyyy"); // форматировщик дат из Java Time API
-        StringBuilder sb = new StringBuilder();
-        sb.append("Привет");
-        if (user.getName() != null && !user.getName().isEmpty()) {
-            sb.append(", ").append(user.getName());
-        }
-        sb.append("!\n\n");
-        sb.append("План на ").append(date.format(df)).append(":\n\n");
-
-        if (lessonsNextDay == null || lessonsNextDay.isEmpty()) {
-            sb.append("— Завтра нет пар, можно отдохнуть!.\n\n");
-        } else {
-            sb.append("Предметы:\n");
-            for (Lesson l : lessonsNextDay) {
-                sb.append("- ").append(l.getSubject() == null ? "-" : l.getSubject());
-                if (l.getStartTime() != null && l.getEndTime() != null) {
-                    sb.append(" (").append(l.getStartTime()).append(" - ").append(l.getEndTime()).append(")");
+                List<NotificationOutbox.Entry> unmarked = new ArrayList<>();
+                for (int i = 0; i < entries.size(); i++) {
+                    if (!sends.get(i).join()) {
+                        unmarked.add(entries.get(i));
+                    }
                 }
-                if (l.getClassroom() != null && !l.getClassroom().isEmpty()) {
-                    sb.append(" ").append(l.getClassroom());
+                if (!unmarked.isEmpty()) { // иначе строки остались бы в SENDING до рестарта
+                    long now = clock.getAsLong();
+                    outbox.release(unmarked, now + retryDelaySeconds * 1000, now);
+                    System.out.println("DailyNotifier: возвращено в очередь без отметки о доставке: " + unmarked.size());
                 }
-                sb.append("\n");
             }
-            sb.append("\n");
+        } catch (Exception e) {
+            e.printStackTrace(); // не удалось даже вернуть строки — их вернёт recoverInFlight при старте
+        } finally {
+            draining.set(false);
         }
+    }
 
-        sb.append("Домашние задания на завтра:\n");
-        if (hwForNextDay == null || hwForNextDay.isEmpty()) {
-            sb.append("— нет\n\n");
-        } else {
-            for (HomeworkItem h : hwForNextDay) {
-                sb.append(formatHomeworkItem(h)).append("\n");
+    private CompletableFuture<Boolean> deliver(NotificationOutbox.Entry entry) { // false — статус строки отметить не удалось
+        long chatId = entry.getChatId();
+        SendMessage sm = new SendMessage(String.valueOf(chatId), entry.getMessage());
+        return bot.getOutbound().submit(sm, OutboundSender.Priority.BULK).handle((ok, error) -> {
+            try {
+                markDelivery(entry, error);
+                return true;
+            } catch (RuntimeException e) { // ошибка одной строки не должна обрывать пачку
+                System.out.println("DailyNotifier: не удалось отметить рассылку для " + chatId + ": " + e.getMessage());
+                return false;
             }
-            sb.append("\n");
-        }
+        });
+    }
 
-        sb.append("Задания с кастомным дедлайном на ").append(date.format(df)).append(":\n");
-        if (hwCustom == null || hwCustom.isEmpty()) {
-            sb.append("— нет\n");
-        } else {
-            for (HomeworkItem h : hwCustom) {
-                sb.append(formatHomeworkItem(h)).append("\n");
-            }
+    private void markDelivery(NotificationOutbox.Entry entry, Throwable error) {
+        long chatId = entry.getChatId();
+        long now = clock.getAsLong();
+        if (error == null) {
+            outbox.markSent(entry, now);
+            System.out.println("DailyNotifier: сообщение отправлено пользователю " + chatId);
+            return;
         }
-
-        sb.append("\nДля управления задачами используйте /homework или добавьте новое /addhw.");
-        return sb.toString();
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (entry.getAttempts() + 1 >= MAX_ATTEMPTS) {
+            outbox.markDead(entry, cause.getMessage(), now);
+            System.out.println("DailyNotifier: рассылка для " + chatId + " не доставлена после " + MAX_ATTEMPTS + " попыток: " + cause.getMessage());
+            return;
+        }
+        long delaySeconds = Math.min(retryDelaySeconds << entry.getAttempts(), MAX_RETRY_DELAY_SECONDS); // 1, 2, 4... мин
+        outbox.markFailed(entry, now + delaySeconds * 1000, cause.getMessage(), now);
+        System.out.println("DailyNotifier: ошибка отправки сообщения пользователю " + chatId + ": " + cause.getMessage()
+                + " (повтор через " + delaySeconds + " c)");
     }
 
 
-    private String formatHomeworkItem(HomeworkItem h) { // форматтер для одного домашнего задания
-        StringBuilder sb = new StringBuilder();
-        sb.append("ID: ").append(h.getId()).append(" | ");
-        sb.append(h.getSubject() == null ? "-" : h.getSubject()).append(" — ");
-        sb.append(h.getDescription() == null || h.getDescription().isEmpty() ? "-" : h.getDescription());
-        sb.append(" (до ").append(h.getDueDate()).append(") ");
-        sb.append(h.isCompleted() ? "✅" : "⏳");
-        return sb.toString();
+    private long currentMinute() {
+        return Math.floorDiv(clock.getAsLong(), 60_000);
     }
 
-    // Находит время окончания последней пары пользователя на указанную дату
-    private Optional<LocalDateTime> getLastLessonEndForUserOn(User user, LocalDate date) {
-        try {
-            Schedule schedule = scheduleManager.getScheduleForUser(user.getChatId());
-            if (schedule == null) {
-                return Optional.empty();
-            }
-
-            List<Lesson> lessons = getLessonsIgnoreCase(schedule, date.getDayOfWeek().name());
-            LocalTime latest = null;
-            for (Lesson l : lessons) {
-                if (l != null && l.getEndTime() != null) {
-                    if (latest == null || l.getEndTime().isAfter(latest)) {
-                        // isAfter(latest) возвращает true если у текущей пары время окончания позже чем latest
-                        latest = l.getEndTime();
-                    }
-                }
-            }
-            if (latest == null) {
-                return Optional.empty();
-            }
-            return Optional.of(LocalDateTime.of(date, latest));
-        } catch (Exception e) {
-            // если что-то пошло не так - возвращаем empty
-            return Optional.empty();
-        }
+    private LocalDateTime now() {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(clock.getAsLong()), zone);
     }
 
+    private LocalDate today() {
+        return now().toLocalDate();
+    }
 
-    private List<Lesson> getLessonsIgnoreCase(Schedule sched, String dayKey) { // Возвращает список уроков из Schedule по ключу дня
-        if (sched == null || sched.getWeeklySchedule() == null) {
-            return Collections.emptyList();
-        }
+    private long toMinute(LocalDateTime at) {
+        return Math.floorDiv(at.atZone(zone).toEpochSecond(), 60);
+    }
 
-        Map<String, List<Lesson>> map = sched.getWeeklySchedule();
 
-        if (map.containsKey(dayKey) && map.get(dayKey) != null) {
-            return map.get(dayKey);
-        }
-
-        for (String k : map.keySet()) {
-            if (k != null && k.equalsIgnoreCase(dayKey)) {
-                return map.get(k);
-            }
-        }
-        return Collections.emptyList();
+    private DigestPlanner planner() { // дешёвый объект без состояния — берём текущие хранилища
+        return new DigestPlanner(hwStorage, scheduleManager);
     }
 
 
-    public void stop() { // Остановить планировщик и закрыть ресурсы
+    public void stop() { // Остановить планировщик и закрыть ресурсы (общие хранилища из StorageRegistry при этом не закрываются)
         try {
             scheduler.shutdownNow();
+            workers.shutdownNow();
         } finally {
             try {
                 scheduleManager.close();
@@ -394,17 +384,9 @@ public class DailyNotifier {
             try {
                 hwStorage.close();
             } catch (Exception ignored) {}
+            try {
+                outbox.close();
+            } catch (Exception ignored) {}
         }
     }
-    // per-user lock helper
-    private Object getLockForUser(long chatId) {
-        Object lock = userLocks.get(chatId);
-        if (lock == null) {
-            Object newLock = new Object();
-            Object prev = userLocks.putIfAbsent(chatId, newLock);
-            lock = prev == null ? newLock : prev;
-        }
-        return lock;
-    }
-
-}
\ No newline at end of file
+}
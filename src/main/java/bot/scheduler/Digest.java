@@ -0,0 +1,39 @@
+package bot.scheduler;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Готовая вечерняя рассылка для одного пользователя: текст уже собран DigestPlanner'ом,
+ * отправителю остаётся только передать его в Telegram.
+ */
+public class Digest {
+
+    private final long chatId;
+    private final LocalDate date; // на какой день план (завтра относительно дня отправки)
+    private final String message;
+    private final LocalDateTime nextSendAt; // когда слать следующую рассылку (после последней пары в день date)
+
+    public Digest(long chatId, LocalDate date, String message, LocalDateTime nextSendAt) {
+        this.chatId = chatId;
+        this.date = date;
+        this.message = message;
+        this.nextSendAt = nextSendAt;
+    }
+
+    public long getChatId() {
+        return chatId;
+    }
+
+    public LocalDate getDate() {
+        return date;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public LocalDateTime getNextSendAt() {
+        return nextSendAt;
+    }
+}
@@ -0,0 +1,224 @@
+package bot.scheduler;
+
+import bot.homework.HomeworkItem;
+import bot.homework.HomeworkStorage;
+import bot.schedule.Lesson;
+import bot.schedule.Schedule;
+import bot.schedule.ScheduleManager;
+import bot.user.User;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/**
+ * DigestPlanner — собирает вечерние рассылки сразу для пачки пользователей.
+ *
+ * Вместо нескольких запросов на каждого пользователя:
+ *  - расписания берутся через ScheduleManager (общие — из кэша снимков, по одному на группу),
+ *    пары на завтра — по дате (чётность недели, праздники), а если даты вне горизонта — по дню недели,
+ *  - все невыполненные домашние задания пачки читаются одним запросом getActiveHomeworkForUsers
+ *    и раскладываются по пользователям в памяти,
+ *  - напоминания (remindBeforeDays) берутся из того же списка: день напоминания настал сегодня
+ *    или ДЗ попало в дневную выборку getRemindersDue,
+ *  - из этого собираются готовые Digest'ы, и отправителю в БД ходить уже не нужно.
+ */
+public class DigestPlanner {
+
+    static final LocalTime DEFAULT_SEND_TIME = LocalTime.of(15, 0); // если в день нет пар
+    static final long MINUTES_AFTER_LAST_LESSON = 60;
+
+    private final HomeworkStorage hwStorage;
+    private final ScheduleManager scheduleManager;
+
+    public DigestPlanner(HomeworkStorage hwStorage, ScheduleManager scheduleManager) {
+        this.hwStorage = hwStorage;
+        this.scheduleManager = scheduleManager;
+    }
+
+
+    public Map<Long, Digest> plan(Collection<User> users, LocalDate today) { // рассылки на завтра для всех users
+        return plan(users, today, Collections.emptyMap());
+    }
+
+    public Map<Long, Digest> plan(Collection<User> users, LocalDate today,
+                                  Map<Long, List<HomeworkItem>> dueReminders) { // dueReminders — выборка getRemindersDue за день
+        LocalDate nextDay = today.plusDays(1);
+        Map<Long, Digest> digests = new LinkedHashMap<>();
+        if (users.isEmpty()) {
+            return digests;
+        }
+
+        Map<Long, Schedule> schedules = schedulesFor(users);
+
+        List<Long> chatIds = new ArrayList<>();
+        for (User u : users) {
+            chatIds.add(u.getChatId());
+        }
+        Map<Long, List<HomeworkItem>> homework;
+        try {
+            homework = hwStorage.getActiveHomeworkForUsers(chatIds, today); // один проход по homework на всю пачку
+        } catch (Exception e) {
+            System.out.println("DigestPlanner: ошибка получения домашних заданий: " + e.getMessage());
+            homework = Collections.emptyMap();
+        }
+
+        for (User user : users) {
+            List<Lesson> lessonsNextDay = lessonsOn(schedules.get(user.getChatId()), nextDay);
+
+            // названия предметов следующего дня (как раньше для запроса getActiveHomeworkBySubjects)
+            Set<String> subjectNames = new HashSet<>();
+            for (Lesson l : lessonsNextDay) {
+                if (l != null && l.getSubject() != null && !l.getSubject().trim().isEmpty()) {
+                    subjectNames.add(l.getSubject().trim());
+                }
+            }
+
+            List<HomeworkItem> hwForNextDay = new ArrayList<>(); // активные дз по предметам следующего дня
+            List<HomeworkItem> hwCustom = new ArrayList<>(); // дедлайн ровно завтра, но предмета завтра нет
+            for (HomeworkItem h : homework.getOrDefault(user.getChatId(), Collections.emptyList())) {
+                if (subjectNames.contains(h.getSubject())) {
+                    hwForNextDay.add(h);
+                } else if (nextDay.equals(h.getDueDate())) {
+                    hwCustom.add(h);
+                }
+            }
+
+            // напоминания: только ещё активные ДЗ (свежие данные из пачки), без уже показанных выше
+            Set<Long> remindIds = new HashSet<>();
+            for (HomeworkItem h : dueReminders.getOrDefault(user.getChatId(), Collections.emptyList())) {
+                remindIds.add(h.getId());
+            }
+            List<HomeworkItem> hwReminders = new ArrayList<>();
+            for (HomeworkItem h : homework.getOrDefault(user.getChatId(), Collections.emptyList())) {
+                boolean due = today.equals(h.getRemindOn()) || remindIds.contains(h.getId());
+                if (due && !hwForNextDay.contains(h) && !hwCustom.contains(h)) {
+                    hwReminders.add(h);
+                }
+            }
+
+            String message = buildMessage(user, nextDay, lessonsNextDay, hwForNextDay, hwCustom, hwReminders);
+            digests.put(user.getChatId(), new Digest(user.getChatId(), nextDay, message, sendTime(lessonsNextDay, nextDay)));
+        }
+        return digests;
+    }
+
+    public Map<Long, LocalDateTime> sendTimes(Collection<User> users, LocalDate day) { // когда слать рассылку в день day
+        Map<Long, Schedule> schedules = schedulesFor(users);
+        Map<Long, LocalDateTime> result = new HashMap<>();
+        for (User user : users) {
+            result.put(user.getChatId(), sendTime(lessonsOn(schedules.get(user.getChatId()), day), day));
+        }
+        return result;
+    }
+
+
+    private Map<Long, Schedule> schedulesFor(Collection<User> users) { // chatId -> расписание (null, если его нет)
+        Map<Long, Schedule> result = new HashMap<>();
+        for (User user : users) {
+            try {
+                result.put(user.getChatId(), scheduleManager.getScheduleForUser(user));
+            } catch (Exception e) {
+                System.out.println("DigestPlanner: не удалось получить расписание для пользователя " + user.getChatId() + ": " + e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    private static LocalDateTime sendTime(List<Lesson> lessons, LocalDate day) { // +1 час после последней пары или 15:00
+        LocalTime latest = null;
+        for (Lesson l : lessons) {
+            if (l != null && l.getEndTime() != null && (latest == null || l.getEndTime().isAfter(latest))) {
+                latest = l.getEndTime();
+            }
+        }
+        if (latest == null) {
+            return LocalDateTime.of(day, DEFAULT_SEND_TIME);
+        }
+        return LocalDateTime.of(day, latest).plusMinutes(MINUTES_AFTER_LAST_LESSON);
+    }
+
+    private static List<Lesson> lessonsOn(Schedule sched, LocalDate day) { // пары в дату (по датам, вне горизонта — по дню недели)
+        if (sched == null || sched.getWeeklySchedule() == null) {
+            return Collections.emptyList();
+        }
+        return sched.getLessonsOn(day);
+    }
+
+
+    private static String buildMessage(User user,
+                                       LocalDate date,
+                                       List<Lesson> lessonsNextDay,
+                                       List<HomeworkItem> hwForNextDay,
+                                       List<HomeworkItem> hwCustom,
+                                       List<HomeworkItem> hwReminders) {
+
+        DateTimeFormatter df = DateTimeFormatter.ofPattern("dd.MM.yyyy"); // форматировщик дат из Java Time API
+        StringBuilder sb = new StringBuilder();
+        sb.append("Привет");
+        if (user.getName() != null && !user.getName().isEmpty()) {
+            sb.append(", ").append(user.getName());
+        }
+        sb.append("!\n\n");
+        sb.append("План на ").append(date.format(df)).append(":\n\n");
+
+        if (lessonsNextDay == null || lessonsNextDay.isEmpty()) {
+            sb.append("— Завтра нет пар, можно отдохнуть!.\n\n");
+        } else {
+            sb.append("Предметы:\n");
+            for (Lesson l : lessonsNextDay) {
+                sb.append("- ").append(l.getSubject() == null ? "-" : l.getSubject());
+                if (l.getStartTime() != null && l.getEndTime() != null) {
+                    sb.append(" (").append(l.getStartTime()).append(" - ").append(l.getEndTime()).append(")");
+                }
+                if (l.getClassroom() != null && !l.getClassroom().isEmpty()) {
+                    sb.append(" ").append(l.getClassroom());
+                }
+                sb.append("\n");
+            }
+            sb.append("\n");
+        }
+
+        sb.append("Домашние задания на завтра:\n");
+        if (hwForNextDay == null || hwForNextDay.isEmpty()) {
+            sb.append("— нет\n\n");
+        } else {
+            for (HomeworkItem h : hwForNextDay) {
+                sb.append(formatHomeworkItem(h)).append("\n");
+            }
+            sb.append("\n");
+        }
+
+        sb.append("Задания с кастомным дедлайном на ").append(date.format(df)).append(":\n");
+        if (hwCustom == null || hwCustom.isEmpty()) {
+            sb.append("— нет\n");
+        } else {
+            for (HomeworkItem h : hwCustom) {
+                sb.append(formatHomeworkItem(h)).append("\n");
+            }
+        }
+
+        if (!hwReminders.isEmpty()) { // раздел появляется, только если пользователь сам просил напомнить
+            sb.append("\nНапоминания о дедлайнах:\n");
+            for (HomeworkItem h : hwReminders) {
+                sb.append(formatHomeworkItem(h)).append("\n");
+            }
+        }
+
+        sb.append("\nДля управления задачами используйте /homework или добавьте новое /addhw.");
+        return sb.toString();
+    }
+
+
+    private static String formatHomeworkItem(HomeworkItem h) { // форматтер для одного домашнего задания
+        StringBuilder sb = new StringBuilder();
+        sb.append("ID: ").append(h.getId()).append(" | ");
+        sb.append(h.getSubject() == null ? "-" : h.getSubject()).append(" — ");
+        sb.append(h.getDescription() == null || h.getDescription().isEmpty() ? "-" : h.getDescription());
+        sb.append(" (до ").append(h.getDueDate()).append(") ");
+        sb.append(h.isCompleted() ? "✅" : "⏳");
+        return sb.toString();
+    }
+}
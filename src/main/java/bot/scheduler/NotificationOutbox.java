@@ -0,0 +1,300 @@
+package bot.scheduler;
+
+import bot.db.SQLiteDatabase;
+import bot.db.SchemaMigrator;
+import bot.user.exception.UserStorageException;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Постоянная очередь вечерних рассылок (таблица notification_outbox в users.db).
+ *
+ * Одна строка на (chatId, digestDate): готовый текст, статус, число попыток и время следующей попытки.
+ *  - PENDING — ждёт отправки (в т.ч. повторной после ошибки),
+ *  - SENDING — взята отправителем; после рестарта возвращается в PENDING,
+ *  - SENT — доставлена, повторно не отправляется даже после перезапуска,
+ *  - DEAD — попытки кончились или рассылка устарела.
+ * Все изменения идут через общего писателя файла, поэтому claim не пересекается с другими записями.
+ */
+public class NotificationOutbox {
+
+    public enum Status { PENDING, SENDING, SENT, DEAD }
+
+    public static class Entry { // строка, взятая на отправку
+        private final long chatId;
+        private final LocalDate digestDate;
+        private final String message;
+        private final int attempts; // сколько попыток уже было до этой
+
+        Entry(long chatId, LocalDate digestDate, String message, int attempts) {
+            this.chatId = chatId;
+            this.digestDate = digestDate;
+            this.message = message;
+            this.attempts = attempts;
+        }
+
+        public long getChatId() {
+            return chatId;
+        }
+
+        public LocalDate getDigestDate() {
+            return digestDate;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+    }
+
+    private final SQLiteDatabase database;
+    private final boolean ownsDatabase;
+
+    private static final List<String> MIGRATIONS = List.of( // шаги миграции схемы (только добавлять в конец)
+            "CREATE INDEX IF NOT EXISTS idx_outbox_status_next ON notification_outbox(status, nextAttemptAt)"
+    );
+
+    // Запросы очереди. Те же строки проверяет QueryPlanTest (через QUERIES).
+    static final String INSERT = "INSERT OR IGNORE INTO notification_outbox (chatId, digestDate, message, status, attempts, nextAttemptAt, updatedAt) " +
+                                 "VALUES (?, ?, ?, ?, 0, ?, ?)";
+    static final String SELECT_DUE = "SELECT chatId, digestDate, message, attempts FROM notification_outbox " +
+                                     "WHERE status = ? AND nextAttemptAt <= ? ORDER BY nextAttemptAt LIMIT ?";
+    static final String MARK_CLAIMED = "UPDATE notification_outbox SET status = ?, updatedAt = ? WHERE chatId = ? AND digestDate = ?";
+    static final String SET_STATUS = "UPDATE notification_outbox SET status = ?, attempts = ?, nextAttemptAt = ?, lastError = ?, updatedAt = ? " +
+                                     "WHERE chatId = ? AND digestDate = ?";
+    static final String RELEASE = "UPDATE notification_outbox SET status = ?, nextAttemptAt = ?, updatedAt = ? " +
+                                  "WHERE chatId = ? AND digestDate = ? AND status = ?";
+    static final String RECOVER = "UPDATE notification_outbox SET status = ?, nextAttemptAt = ?, updatedAt = ? WHERE status = ?";
+    static final String EXPIRE = "UPDATE notification_outbox SET status = ?, lastError = 'expired', updatedAt = ? " +
+                                 "WHERE status IN (?, ?) AND digestDate < ?";
+    static final String PURGE = "DELETE FROM notification_outbox WHERE status IN (?, ?) AND digestDate < ?";
+    static final String SELECT_STATUS = "SELECT status FROM notification_outbox WHERE chatId = ? AND digestDate = ?";
+
+    public static final List<String> QUERIES = List.of(
+            INSERT, SELECT_DUE, MARK_CLAIMED, SET_STATUS, RELEASE, RECOVER, EXPIRE, PURGE, SELECT_STATUS);
+
+    public NotificationOutbox(String dbFileName) { // самостоятельное хранилище со своим пулом
+        this(new SQLiteDatabase(dbFileName), true);
+    }
+
+    public NotificationOutbox(SQLiteDatabase database) { // хранилище поверх общего пула из StorageRegistry
+        this(database, false);
+    }
+
+    private NotificationOutbox(SQLiteDatabase database, boolean ownsDatabase) {
+        this.database = database;
+        this.ownsDatabase = ownsDatabase;
+    }
+
+
+    public void initialize() {
+        String sql = "CREATE TABLE IF NOT EXISTS notification_outbox (" +
+                     "chatId INTEGER NOT NULL," +
+                     "digestDate TEXT NOT NULL," + // на какой день план
+                     "message TEXT NOT NULL," +
+                     "status TEXT NOT NULL," +
+                     "attempts INTEGER NOT NULL DEFAULT 0," +
+                     "nextAttemptAt INTEGER NOT NULL," + // epoch millis
+                     "lastError TEXT," +
+                     "updatedAt INTEGER NOT NULL," +
+                     "PRIMARY KEY (chatId, digestDate)" +
+                     ")";
+        try (Connection connection = database.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+            SchemaMigrator.migrate(connection, "notification_outbox", MIGRATIONS);
+        } catch (SQLException e) {
+            throw new UserStorageException("Ошибка инициализации очереди рассылок", e);
+        }
+    }
+
+
+    public int enqueue(Collection<Digest> digests, long now) { // вернёт число новых строк; уже известные (chatId, дата) не трогаем
+        if (digests.isEmpty()) {
+            return 0;
+        }
+        try {
+            return database.writeAndWait(connection -> {
+                try (PreparedStatement ps = connection.prepareStatement(INSERT)) {
+                    for (Digest digest : digests) {
+                        ps.setLong(1, digest.getChatId());
+                        ps.setString(2, digest.getDate().toString());
+                        ps.setString(3, digest.getMessage());
+                        ps.setString(4, Status.PENDING.name());
+                        ps.setLong(5, now);
+                        ps.setLong(6, now);
+                        ps.addBatch();
+                    }
+                    int inserted = 0;
+                    for (int count : ps.executeBatch()) {
+                        inserted += Math.max(count, 0);
+                    }
+                    return inserted;
+                }
+            });
+        } catch (SQLException e) {
+            throw new UserStorageException("Ошибка постановки рассылок в очередь", e);
+        }
+    }
+
+
+    public List<Entry> claim(int limit, long now) { // забрать до limit строк, чей срок подошёл (PENDING -> SENDING)
+        try {
+            return database.writeAndWait(connection -> {
+                List<Entry> claimed = new ArrayList<>();
+                try (PreparedStatement ps = connection.prepareStatement(SELECT_DUE)) {
+                    ps.setString(1, Status.PENDING.name());
+                    ps.setLong(2, now);
+                    ps.setInt(3, limit);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            claimed.add(new Entry(rs.getLong("chatId"), LocalDate.parse(rs.getString("digestDate")),
+                                    rs.getString("message"), rs.getInt("attempts")));
+                        }
+                    }
+                }
+                try (PreparedStatement ps = connection.prepareStatement(MARK_CLAIMED)) {
+                    for (Entry entry : claimed) {
+                        ps.setString(1, Status.SENDING.name());
+                        ps.setLong(2, now);
+                        ps.setLong(3, entry.getChatId());
+                        ps.setString(4, entry.getDigestDate().toString());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+                return claimed;
+            });
+        } catch (SQLException e) {
+            throw new UserStorageException("Ошибка получения рассылок из очереди", e);
+        }
+    }
+
+
+    public void markSent(Entry entry, long now) {
+        setStatus(entry, Status.SENT, entry.getAttempts() + 1, now, null, now);
+    }
+
+    public void markFailed(Entry entry, long nextAttemptAt, String error, long now) { // вернуть в очередь с отсрочкой
+        setStatus(entry, Status.PENDING, entry.getAttempts() + 1, nextAttemptAt, error, now);
+    }
+
+    public void markDead(Entry entry, String error, long now) {
+        setStatus(entry, Status.DEAD, entry.getAttempts() + 1, now, error, now);
+    }
+
+
+    public int release(Collection<Entry> entries, long nextAttemptAt, long now) { // вернуть взятые строки в PENDING, не считая попытку
+        try {
+            return database.writeAndWait(connection -> {
+                try (PreparedStatement ps = connection.prepareStatement(RELEASE)) {
+                    for (Entry entry : entries) {
+                        ps.setString(1, Status.PENDING.name());
+                        ps.setLong(2, nextAttemptAt);
+                        ps.setLong(3, now);
+                        ps.setLong(4, entry.getChatId());
+                        ps.setString(5, entry.getDigestDate().toString());
+                        ps.setString(6, Status.SENDING.name());
+                        ps.addBatch();
+                    }
+                    int released = 0;
+                    for (int count : ps.executeBatch()) {
+                        released += Math.max(count, 0);
+                    }
+                    return released;
+                }
+            });
+        } catch (SQLException e) {
+            throw new UserStorageException("Ошибка возврата рассылок в очередь", e);
+        }
+    }
+
+    public int recoverInFlight(long now) { // после рестарта: всё, что было взято, но не отмечено, — снова в очередь
+        return update(RECOVER,
+                ps -> {
+                    ps.setString(1, Status.PENDING.name());
+                    ps.setLong(2, now);
+                    ps.setLong(3, now);
+                    ps.setString(4, Status.SENDING.name());
+                });
+    }
+
+    public int expireBefore(LocalDate date, long now) { // неотправленные планы на прошедшие дни больше не нужны
+        return update(EXPIRE,
+                ps -> {
+                    ps.setString(1, Status.DEAD.name());
+                    ps.setLong(2, now);
+                    ps.setString(3, Status.PENDING.name());
+                    ps.setString(4, Status.SENDING.name());
+                    ps.setString(5, date.toString());
+                });
+    }
+
+    public int purgeBefore(LocalDate date) { // удалить завершённые строки старше date
+        return update(PURGE,
+                ps -> {
+                    ps.setString(1, Status.SENT.name());
+                    ps.setString(2, Status.DEAD.name());
+                    ps.setString(3, date.toString());
+                });
+    }
+
+    public Status getStatus(long chatId, LocalDate digestDate) { // null, если строки нет
+        try (Connection connection = database.getReadConnection();
+             PreparedStatement ps = connection.prepareStatement(SELECT_STATUS)) {
+            ps.setLong(1, chatId);
+            ps.setString(2, digestDate.toString());
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? Status.valueOf(rs.getString(1)) : null;
+            }
+        } catch (SQLException e) {
+            throw new UserStorageException("Ошибка чтения статуса рассылки", e);
+        }
+    }
+
+
+    public void close() {
+        if (ownsDatabase) {
+            database.close();
+        }
+    }
+
+
+    private void setStatus(Entry entry, Status status, int attempts, long nextAttemptAt, String error, long now) {
+        update(SET_STATUS,
+                ps -> {
+                    ps.setString(1, status.name());
+                    ps.setInt(2, attempts);
+                    ps.setLong(3, nextAttemptAt);
+                    ps.setString(4, error);
+                    ps.setLong(5, now);
+                    ps.setLong(6, entry.getChatId());
+                    ps.setString(7, entry.getDigestDate().toString());
+                });
+    }
+
+    @FunctionalInterface
+    private interface Binder {
+        void bind(PreparedStatement ps) throws SQLException;
+    }
+
+    private int update(String sql, Binder binder) {
+        try {
+            return database.writeAndWait(connection -> {
+                try (PreparedStatement ps = connection.prepareStatement(sql)) {
+                    binder.bind(ps);
+                    return ps.executeUpdate();
+                }
+            });
+        } catch (SQLException e) {
+            throw new UserStorageException("Ошибка изменения очереди рассылок", e);
+        }
+    }
+}
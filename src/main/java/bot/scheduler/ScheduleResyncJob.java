@@ -0,0 +1,314 @@
+package bot.scheduler;
+
+import bot.dispatcher.OutboundSender;
+import bot.dispatcher.TokenBucket;
+import bot.schedule.Lesson;
+import bot.schedule.Schedule;
+import bot.schedule.ScheduleFetcher;
+import bot.schedule.ScheduleManager;
+import bot.schedule.ScheduleOverlay;
+import bot.schedule.ScheduleOverride;
+import bot.schedule.ScheduleProvider;
+import bot.user.SQLiteUserStorage;
+import bot.user.User;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+
+import java.time.*;
+import java.time.format.TextStyle;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+import java.util.function.LongSupplier;
+
+
+/**
+ * ScheduleResyncJob — ночная сверка всех известных групп с УрФУ.
+ *
+ * Раньше расписание группы загружалось только при регистрации, и schedules.db устаревал за несколько дней.
+ * Раз в сутки (в RUN_TIME) задача:
+ *  - берёт все группы из group_mapping (сначала те, что дольше всего не сверялись);
+ *  - пропускает группы без зарегистрированных пользователей — их mapping со временем удалит technicalMaintenance;
+ *  - загружает текущую неделю каждой группы не больше чем в concurrency потоков и не чаще requestsPerSecond;
+ *  - загружает и сохраняет через ScheduleProvider.fetchGroup: одновременная регистрация или фоновое обновление
+ *    той же группы присоединяется к этой загрузке, а не идёт к УрФУ второй раз;
+ *  - сохраняет через updateSchedule, то есть меняет только отличающиеся строки;
+ *  - если расписание изменилось в пределах той же недели, пишет подписанным пользователям группы короткое сообщение
+ *    (смена недели — не изменение: пары другой недели просто сохраняются молча).
+ * Итоги каждого прохода (групп, изменилось, ошибок, длительность) — в getLastRun() и metricsSummary().
+ */
+public class ScheduleResyncJob {
+
+    public record RunStats(int groups, int changed, int failed, int skipped, int notified, long durationMillis) {}
+
+    private static final LocalTime RUN_TIME = LocalTime.of(3, 30); // ночью, когда к боту и к УрФУ почти никто не ходит
+    private static final int DEFAULT_CONCURRENCY = 4;
+    private static final double DEFAULT_REQUESTS_PER_SECOND = 2.0;
+    private static final Locale RU = Locale.forLanguageTag("ru");
+
+    private final ScheduleManager scheduleManager;
+    private final SQLiteUserStorage userStorage;
+    private final OutboundSender sender; // сообщения об изменениях — полосой BULK
+    private final ScheduleProvider scheduleProvider; // загрузка и сохранение — общими с регистрацией полётами
+    private final int concurrency;
+    private final TokenBucket pace; // не чаще requestsPerSecond запросов к УрФУ на весь проход
+    private final LongSupplier clock; // System::currentTimeMillis (в тестах — свои часы)
+    private final ZoneId zone = ZoneId.of("Asia/Yekaterinburg");
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong runs = new AtomicLong();
+    private volatile RunStats lastRun;
+
+
+    public ScheduleResyncJob(ScheduleManager scheduleManager, SQLiteUserStorage userStorage, OutboundSender sender,
+                             ScheduleProvider scheduleProvider) {
+        this(scheduleManager, userStorage, sender, scheduleProvider, DEFAULT_CONCURRENCY,
+                DEFAULT_REQUESTS_PER_SECOND, System::currentTimeMillis);
+    }
+
+    public ScheduleResyncJob(ScheduleManager scheduleManager, SQLiteUserStorage userStorage, OutboundSender sender,
+                             ScheduleProvider scheduleProvider, int concurrency, double requestsPerSecond,
+                             LongSupplier clock) {
+        this.scheduleManager = scheduleManager;
+        this.userStorage = userStorage;
+        this.sender = sender;
+        this.scheduleProvider = scheduleProvider;
+        this.concurrency = concurrency;
+        this.pace = new TokenBucket(1, requestsPerSecond, System.nanoTime());
+        this.clock = clock;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "schedule-resync");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+
+    public void start() { // первый проход — ближайшей ночью, дальше раз в сутки
+        scheduleNext();
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private void scheduleNext() {
+        LocalDateTime now = LocalDateTime.now(zone);
+        LocalDateTime next = LocalDateTime.of(now.toLocalDate(), RUN_TIME);
+        if (!next.isAfter(now)) {
+            next = next.plusDays(1);
+        }
+        try {
+            scheduler.schedule(() -> {
+                try {
+                    runOnce();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    scheduleNext();
+                }
+            }, Duration.between(now, next).toMillis(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ignored) {
+            // планировщик уже остановлен (stop())
+        }
+    }
+
+
+    public RunStats runOnce() {
+        long started = clock.getAsLong();
+        LocalDate monday = ScheduleFetcher.currentWeek();
+        long weekStart = monday.atStartOfDay(zone).toInstant().toEpochMilli();
+
+        Map<String, List<String>> groups = scheduleManager.getKnownCommonGroups();
+        Map<String, List<User>> usersByGroup = new HashMap<>(); // имя группы (как ввёл пользователь) -> пользователи
+        for (User user : userStorage.getRegisteredUsers()) {
+            if (user.getGroup() != null) {
+                usersByGroup.computeIfAbsent(groupKey(user.getGroup()), k -> new ArrayList<>()).add(user);
+            }
+        }
+
+        AtomicInteger changed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicInteger skipped = new AtomicInteger();
+        AtomicInteger notified = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (Map.Entry<String, List<String>> group : groups.entrySet()) {
+            tasks.add(() -> {
+                List<User> users = usersOf(group.getValue(), usersByGroup);
+                if (users.isEmpty()) {
+                    skipped.incrementAndGet();
+                    return null;
+                }
+                try {
+                    List<ScheduleOverride> diff = syncGroup(group.getKey(), group.getValue().get(0), monday, weekStart);
+                    if (diff != null && !diff.isEmpty()) {
+                        changed.incrementAndGet();
+                        notified.addAndGet(notifyUsers(users, group.getValue().get(0), diff));
+                    }
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    System.out.println("ScheduleResyncJob: группа " + group.getKey() + " не сверена: " + e.getMessage());
+                }
+                return null;
+            });
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, Math.min(concurrency, tasks.size())));
+        try {
+            workers.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            workers.shutdownNow();
+        }
+
+        RunStats stats = new RunStats(groups.size(), changed.get(), failed.get(), skipped.get(), notified.get(),
+                clock.getAsLong() - started);
+        lastRun = stats;
+        runs.incrementAndGet();
+        System.out.println("ScheduleResyncJob: " + format(stats));
+        return stats;
+    }
+
+
+    // null — сохранено молча (новая неделя или расписания ещё не было), иначе — изменения внутри недели
+    private List<ScheduleOverride> syncGroup(String groupId, String fallbackName, LocalDate monday, long weekStart)
+            throws Exception {
+        Schedule stored = scheduleManager.getCommonScheduleById(groupId);
+        long lastSynced = stored == null ? 0 : scheduleManager.getCommonLastSynced(groupId);
+        String groupName = stored != null ? stored.getGroupName() : fallbackName;
+
+        awaitPace();
+        // updateSchedule внутри: пишутся только отличающиеся строки, один раз на загрузку
+        Schedule fresh = scheduleProvider.fetchGroup(Long.parseLong(groupId), groupName, monday);
+        if (fresh == null) {
+            throw new IllegalStateException("УрФУ не вернул расписание");
+        }
+
+        if (stored == null || lastSynced < weekStart) {
+            return null;
+        }
+        return ScheduleOverlay.diff(stored, fresh);
+    }
+
+    private void awaitPace() throws InterruptedException {
+        while (true) {
+            long wait;
+            synchronized (pace) {
+                long now = System.nanoTime();
+                if (pace.tryAcquire(now)) {
+                    return;
+                }
+                wait = pace.nanosUntilAvailable(now);
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.max(wait, 1_000_000));
+        }
+    }
+
+    private int notifyUsers(List<User> users, String groupName, List<ScheduleOverride> diff) {
+        String text = describe(groupName, diff);
+        int sent = 0;
+        for (User user : users) {
+            if (user.getSubscriptionEnabled()) {
+                sender.submit(new SendMessage(String.valueOf(user.getChatId()), text), OutboundSender.Priority.BULK);
+                sent++;
+            }
+        }
+        return sent;
+    }
+
+
+    // по строке на день: сколько пар добавилось, пропало и изменилось. Смена аудитории или времени приходит из diff
+    // парой REMOVE + ADD — такую пару показываем как одну изменённую, а не как новую и отменённую
+    private static String describe(String groupName, List<ScheduleOverride> diff) {
+        Map<DayOfWeek, List<ScheduleOverride>> byDay = new TreeMap<>();
+        for (ScheduleOverride change : diff) {
+            byDay.computeIfAbsent(DayOfWeek.valueOf(change.getDayOfWeek().toUpperCase(Locale.ROOT)),
+                    d -> new ArrayList<>()).add(change);
+        }
+        StringBuilder sb = new StringBuilder("📅 Расписание группы " + groupName + " на этой неделе изменилось:\n");
+        for (Map.Entry<DayOfWeek, List<ScheduleOverride>> day : byDay.entrySet()) {
+            List<Lesson> added = new ArrayList<>();
+            List<Lesson> removed = new ArrayList<>();
+            int changed = 0;
+            for (ScheduleOverride change : day.getValue()) {
+                switch (change.getOp()) {
+                    case ADD:
+                        added.add(change.getLesson());
+                        break;
+                    case REMOVE:
+                        removed.add(change.getTarget());
+                        break;
+                    default: // REPLACE
+                        changed++;
+                }
+            }
+            changed += matchAndRemove(removed, added, (a, b) -> Objects.equals(a.getStartTime(), b.getStartTime()));
+            changed += matchAndRemove(removed, added, (a, b) -> Objects.equals(a.getSubject(), b.getSubject()));
+
+            List<String> parts = new ArrayList<>();
+            if (!added.isEmpty()) {
+                parts.add("новых пар — " + added.size());
+            }
+            if (!removed.isEmpty()) {
+                parts.add("отменено — " + removed.size());
+            }
+            if (changed > 0) {
+                parts.add("изменено — " + changed);
+            }
+            sb.append("• ").append(day.getKey().getDisplayName(TextStyle.FULL, RU)).append(": ")
+              .append(String.join(", ", parts)).append("\n");
+        }
+        return sb.append("\nПосмотреть: /schedule").toString();
+    }
+
+    // сначала та же пара по времени (сменились аудитория или предмет), затем тот же предмет в другое время
+    private static int matchAndRemove(List<Lesson> removed, List<Lesson> added, BiPredicate<Lesson, Lesson> sameSlot) {
+        int matched = 0;
+        for (Iterator<Lesson> it = removed.iterator(); it.hasNext(); ) {
+            Lesson gone = it.next();
+            for (Iterator<Lesson> candidates = added.iterator(); candidates.hasNext(); ) {
+                if (sameSlot.test(gone, candidates.next())) {
+                    candidates.remove();
+                    it.remove();
+                    matched++;
+                    break;
+                }
+            }
+        }
+        return matched;
+    }
+
+    private static List<User> usersOf(List<String> names, Map<String, List<User>> usersByGroup) {
+        List<User> users = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (String name : names) {
+            if (seen.add(groupKey(name))) {
+                users.addAll(usersByGroup.getOrDefault(groupKey(name), List.of()));
+            }
+        }
+        return users;
+    }
+
+    private static String groupKey(String groupName) {
+        return groupName.trim().toLowerCase(Locale.ROOT);
+    }
+
+
+    // --- метрики ---
+
+    public RunStats getLastRun() { // null — ещё не запускалась
+        return lastRun;
+    }
+
+    public String metricsSummary() {
+        RunStats last = lastRun;
+        return "runs=" + runs.get() + (last == null ? "" : ", last: " + format(last));
+    }
+
+    private static String format(RunStats stats) {
+        return String.format("groups=%d, changed=%d, failed=%d, skipped=%d, notified=%d, duration=%dms",
+                stats.groups(), stats.changed(), stats.failed(), stats.skipped(), stats.notified(), stats.durationMillis());
+    }
+}
@@ -0,0 +1,109 @@
+package bot.scheduler;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Иерархическое колесо таймеров с точностью до минуты.
+ *
+ * Вместо отдельной задачи в ScheduledExecutorService на каждого пользователя ключи раскладываются
+ * по корзинам-минутам: вставка, отмена и перенос — O(1), а все ключи одной минуты срабатывают пачкой.
+ *  - нижнее колесо — MINUTES_PER_DAY корзин, в нём ключи текущих суток (по эпохе, не по поясу),
+ *  - верхнее колесо — DAYS корзин по суткам; в начале суток корзина этих суток спускается в нижнее.
+ * Время задаётся номером минуты от эпохи, колесо двигает владелец (advanceTo) — своих потоков у него нет.
+ */
+public class TimingWheel<K> {
+
+    static final int MINUTES_PER_DAY = 24 * 60;
+    static final int DAYS = 64; // горизонт планирования верхнего колеса
+
+    private final List<Set<K>> minutes = new ArrayList<>(MINUTES_PER_DAY);
+    private final List<Set<K>> days = new ArrayList<>(DAYS);
+    private final Map<K, Long> due = new HashMap<>(); // ключ -> минута срабатывания (для отмены и переноса за O(1))
+    private final BiConsumer<Long, Collection<K>> onFire; // (минута, ключи) — вызывается под замком, должен быть быстрым
+    private long currentMinute; // последняя обработанная минута
+
+    public TimingWheel(long startMinute, BiConsumer<Long, Collection<K>> onFire) {
+        this.currentMinute = startMinute;
+        this.onFire = onFire;
+        for (int i = 0; i < MINUTES_PER_DAY; i++) {
+            minutes.add(new HashSet<>());
+        }
+        for (int i = 0; i < DAYS; i++) {
+            days.add(new HashSet<>());
+        }
+    }
+
+
+    public synchronized void schedule(K key, long minute) { // поставить (или перенести) key на минуту minute
+        cancel(key);
+        long at = Math.max(minute, currentMinute + 1); // прошедшее время — на ближайший тик
+        if (day(at) - day(currentMinute) >= DAYS) {
+            throw new IllegalArgumentException("Слишком далёкая дата для колеса таймеров: " + minute);
+        }
+        due.put(key, at);
+        bucketFor(at).add(key);
+    }
+
+    public synchronized boolean cancel(K key) {
+        Long at = due.remove(key);
+        if (at == null) {
+            return false;
+        }
+        bucketFor(at).remove(key);
+        return true;
+    }
+
+    public synchronized Long dueMinute(K key) {
+        return due.get(key);
+    }
+
+    public synchronized int size() {
+        return due.size();
+    }
+
+
+    public synchronized void advanceTo(long minute) { // обработать все минуты до minute включительно (догоняет пропуски)
+        while (currentMinute < minute) {
+            currentMinute++;
+            if (Math.floorMod(currentMinute, MINUTES_PER_DAY) == 0) { // начались новые сутки — спускаем их корзину вниз
+                Set<K> today = days.get(dayIndex(currentMinute));
+                for (K key : today) {
+                    minutes.get(minuteIndex(due.get(key))).add(key);
+                }
+                today.clear();
+            }
+
+            Set<K> bucket = minutes.get(minuteIndex(currentMinute));
+            if (bucket.isEmpty()) {
+                continue;
+            }
+            List<K> fired = new ArrayList<>(bucket);
+            bucket.clear();
+            for (K key : fired) {
+                due.remove(key);
+            }
+            onFire.accept(currentMinute, fired);
+        }
+    }
+
+
+    private Set<K> bucketFor(long at) {
+        if (day(at) == day(currentMinute)) {
+            return minutes.get(minuteIndex(at));
+        }
+        return days.get(dayIndex(at));
+    }
+
+    private static long day(long minute) {
+        return Math.floorDiv(minute, MINUTES_PER_DAY);
+    }
+
+    private static int minuteIndex(long minute) {
+        return (int) Math.floorMod(minute, MINUTES_PER_DAY);
+    }
+
+    private static int dayIndex(long minute) {
+        return (int) Math.floorMod(day(minute), DAYS);
+    }
+}
@@ -0,0 +1,110 @@
+package bot.session;
+
+import bot.schedule.Schedule;
+import bot.schedule.ScheduleManager;
+import bot.user.User;
+import bot.user.UserStorage;
+
+import java.util.function.Function;
+
+/**
+ * Контекст обработки одного апдейта.
+ *
+ * Пользователь и его расписание читаются не больше одного раза за апдейт — при первом
+ * обращении — и дальше все слои (Homeworkbot, DialogStateMachine, команды) работают
+ * с одним и тем же объектом User. Команды не пишут пользователя сами, а вызывают markDirty();
+ * в конце апдейта flush() сохраняет его одной записью.
+ */
+public class UserContext {
+
+    private final long chatId;
+    private final UserStorage userStorage;
+    private final Function<User, Schedule> scheduleLoader;
+
+    private User user;
+    private boolean userLoaded;
+    private boolean newUser; // создан в этом апдейте — при flush нужен saveUser, а не updateUser
+    private boolean dirty;
+
+    private Schedule schedule;
+    private boolean scheduleLoaded;
+
+
+    public UserContext(long chatId, UserStorage userStorage, ScheduleManager scheduleManager) {
+        this(chatId, userStorage, user -> scheduleManager == null ? null : scheduleManager.getScheduleForUser(user));
+    }
+
+    public UserContext(long chatId, UserStorage userStorage, Function<User, Schedule> scheduleLoader) {
+        this.chatId = chatId;
+        this.userStorage = userStorage;
+        this.scheduleLoader = scheduleLoader;
+    }
+
+
+    public long getChatId() {
+        return chatId;
+    }
+
+    public User getUser() { // пользователь из БД (null, если не зарегистрирован); читается один раз
+        if (!userLoaded) {
+            user = userStorage.getUser(chatId);
+            userLoaded = true;
+        }
+        return user;
+    }
+
+    public void setNewUser(User user) { // новый пользователь — будет сохранён при flush
+        this.user = user;
+        this.userLoaded = true;
+        this.newUser = true;
+        this.dirty = true;
+    }
+
+    public void markDirty() { // поля пользователя изменены — записать при flush
+        if (user != null) {
+            dirty = true;
+        }
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+
+    public Schedule getSchedule() { // расписание пользователя (кастомное или общее); читается один раз
+        if (!scheduleLoaded) {
+            User current = getUser();
+            schedule = current == null ? null : scheduleLoader.apply(current);
+            scheduleLoaded = true;
+        }
+        return schedule;
+    }
+
+    public void invalidateSchedule() { // расписание поменялось — при следующем обращении перечитаем
+        schedule = null;
+        scheduleLoaded = false;
+    }
+
+
+    public boolean flush() { // одна запись пользователя за апдейт (true — если что-то записали)
+        if (!dirty || user == null) {
+            return false;
+        }
+        if (newUser) {
+            userStorage.saveUser(user);
+            newUser = false;
+        } else {
+            userStorage.updateUser(user);
+        }
+        dirty = false;
+        return true;
+    }
+
+    public void reload() { // забыть загруженные данные (их изменили в обход контекста)
+        user = null;
+        userLoaded = false;
+        newUser = false;
+        dirty = false;
+        invalidateSchedule();
+    }
+}
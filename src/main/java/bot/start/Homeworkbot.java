@@ -3,14 +3,19 @@ package bot.start;
 import bot.commands.*;
 import bot.user.*;
 import bot.fsm.*;
+import bot.schedule.CatalogueCache;
 import bot.schedule.ScheduleManager;
+import bot.schedule.UrfuApiClient;
 import bot.homework.*;
 import bot.scheduler.*;
+import bot.dispatcher.OutboundSender;
+import bot.dispatcher.UpdateDispatcher;
+import bot.db.StorageRegistry;
+import bot.session.UserContext;
 
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.objects.Update;
-import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 
 import java.util.Map;
 import java.util.TreeMap; // сортированный словарь
@@ -19,97 +24,141 @@ public class Homeworkbot extends TelegramLongPollingBot {
 
     private final Map<String, Command> commands = new TreeMap<>();
 
+    private final StorageRegistry storages; // общие хранилища (по одному пулу соединений на файл БД)
     private final UserStorage userStorage;
+    private final ScheduleManager scheduleManager;
     private final StartCommand startCommand;
     private final EditScheduleCommand editScheduleCommand; 
     private final DialogStateMachine stateMachine;
     private final ShareGroupCommand shareGroupCommand;
 
     private final String envToken = System.getenv("BOT_TOKEN");
+
+    // границы очередей диспетчера (можно переопределить переменными окружения)
+    private static final int CHAT_QUEUE_LIMIT = envInt("DISPATCH_CHAT_QUEUE_LIMIT", 50);
+    private static final int TOTAL_QUEUE_LIMIT = envInt("DISPATCH_TOTAL_QUEUE_LIMIT", 10_000);
+    // лимиты исходящих сообщений Telegram: ~30 в секунду на бота, ~1 в секунду в один чат
+    private static final int SEND_PER_SECOND = envInt("SEND_PER_SECOND", 30);
+    private static final int SEND_PER_CHAT_PER_SECOND = envInt("SEND_PER_CHAT_PER_SECOND", 1);
+
+    private final UpdateDispatcher dispatcher;
+    private final OutboundSender outbound; // все исходящие сообщения идут через ограничитель скорости
     
     private DailyNotifier notifier;                    
-    private SQLiteHomeworkStorage hwStorageForNotifier; 
+    private ScheduleResyncJob resyncJob; // ночная сверка расписаний групп с УрФУ
 
     public Homeworkbot() {
-        userStorage = new SQLiteUserStorage();
-        userStorage.initialize();
-        startCommand = new StartCommand(userStorage);
-        editScheduleCommand = new EditScheduleCommand(userStorage, new ScheduleManager(userStorage));
+        storages = new StorageRegistry();
+        userStorage = storages.getUserStorage();
+        SQLiteHomeworkStorage hwStorage = storages.getHomeworkStorage();
+        HomeworkLinkStorage linkStorage = storages.getLinkStorage();
+        scheduleManager = storages.getScheduleManager();
+
+        startCommand = new StartCommand(userStorage, scheduleManager, storages.getScheduleProvider(),
+                storages.getRegistrationPrefetcher());
+        editScheduleCommand = new EditScheduleCommand(userStorage, scheduleManager);
         shareGroupCommand = new ShareGroupCommand(userStorage, getBotUsername(), 1); // срок действия 1 день
-        AddHomeworkCommand addHomeworkCommand = new AddHomeworkCommand(userStorage);
+        AddHomeworkCommand addHomeworkCommand = new AddHomeworkCommand(userStorage, hwStorage, scheduleManager, linkStorage);
         
         commands.put("/start", startCommand);
         commands.put("/about", new AboutCommand());
         commands.put("/authors", new AuthorsCommand());
         commands.put("/help", new HelpCommand(commands));
-        commands.put("/schedule", new ScheduleCommand(userStorage)); 
+        commands.put("/schedule", new ScheduleCommand(userStorage, scheduleManager)); 
         commands.put("/editschedule", editScheduleCommand); 
         commands.put("/sharegroup", shareGroupCommand);
         commands.put("/addhw", addHomeworkCommand);
-        commands.put("/deletehw", new DeleteHomeworkCommand());
-        commands.put("/homework", new PrintHomeworkCommand());
-        commands.put("/markhw", new MarkHomeworkCommand(true));
-        commands.put("/unmarkhw", new MarkHomeworkCommand(false));
+        commands.put("/deletehw", new DeleteHomeworkCommand(hwStorage, linkStorage));
+        commands.put("/homework", new PrintHomeworkCommand(hwStorage));
+        commands.put("/markhw", new MarkHomeworkCommand(hwStorage, true));
+        commands.put("/unmarkhw", new MarkHomeworkCommand(hwStorage, false));
         commands.put("/subscription", new SubscriptionCommand(userStorage));
         
-        InviteHandler inviteHandler = new InviteHandler(userStorage); // создаем invitehandler
+        InviteHandler inviteHandler = new InviteHandler(userStorage, scheduleManager, storages.getScheduleProvider()); // создаем invitehandler
 
         stateMachine = new DialogStateMachine(userStorage, startCommand, editScheduleCommand, inviteHandler, addHomeworkCommand);
+
+        outbound = new OutboundSender(message -> execute(message), SEND_PER_SECOND, SEND_PER_CHAT_PER_SECOND);
+        dispatcher = new UpdateDispatcher(this::handleUpdate, CHAT_QUEUE_LIMIT, TOTAL_QUEUE_LIMIT);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> { // дорабатываем уже принятые сообщения
+            dispatcher.shutdown(10);
+            System.out.println("UpdateDispatcher: " + dispatcher.metricsSummary());
+            System.out.println("User cache: " + storages.getUserStorage().metricsSummary());
+            System.out.println("Schedule cache (common): " + storages.getCommonScheduleStorage().metricsSummary());
+            System.out.println("Schedule cache (custom): " + storages.getCustomScheduleStorage().metricsSummary());
+            System.out.println("Catalogue cache: " + CatalogueCache.shared().metricsSummary());
+            System.out.println("URFU API: " + UrfuApiClient.metricsSummary());
+            System.out.println("ScheduleProvider: " + storages.getScheduleProvider().metricsSummary());
+            System.out.println("Registration prefetch: " + storages.getRegistrationPrefetcher().metricsSummary());
+            try {
+                if (notifier != null) notifier.stop();
+            } catch (Exception ignored) {}
+            if (resyncJob != null) {
+                resyncJob.stop();
+                System.out.println("Schedule resync: " + resyncJob.metricsSummary());
+            }
+            outbound.shutdown(10); // досылаем ответы, уже стоящие в очереди
+            System.out.println("OutboundSender: " + outbound.metricsSummary());
+            storages.close(); // закрываем пулы только после того, как все обработчики закончили
+        }));
         
         initNotifier();
+        initResync();
 
     }
     
     
     public void initNotifier() {
-        SQLiteHomeworkStorage hw = new SQLiteHomeworkStorage(); // 1) Инициализируем hw storage
-        hw.initialize();
-
-        // 2) Проверяем, что userStorage — это SQLiteUserStorage, прежде чем кастить
-        if (!(userStorage instanceof SQLiteUserStorage)) {
-            System.out.println("UserStorage isn't SQLiteUserStorage — notifier requires SQLiteUserStorage. Not starting notifier.");
-            try { hw.close(); } catch (Exception ignored) {} // Закрываем hw, так как notifier не будет использоваться
-            return;
-        }
-
-        // 3) Создаём и запускаем DailyNotifier 
+        // Создаём и запускаем DailyNotifier поверх общих хранилищ (останавливается в shutdown hook выше)
         try {
-            DailyNotifier localNotifier = new DailyNotifier(this, (SQLiteUserStorage) userStorage, hw); 
+            DailyNotifier localNotifier = new DailyNotifier(this, storages.getSQLiteUserStorage(),
+                    storages.getHomeworkStorage(), storages.getScheduleManager(), storages.getNotificationOutbox());
             localNotifier.startAll(); // планируем рассылки
             this.notifier = localNotifier;
-            this.hwStorageForNotifier = hw; // сохраняем ссылку на hw в полне класса, чтобы потом закрыть
-
-            // 4) Регистрируем shutdown hook ( поток, который JVM автоматически запустит при нормальном завершении JVM)
-            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                System.out.println("Shutdown hook: останавливаем DailyNotifier...");
-                try {
-                    if (notifier != null) notifier.stop();
-                } catch (Exception ignored) {}
-                try {
-                    if (hwStorageForNotifier != null) {
-                    	hwStorageForNotifier.close();
-                    }
-                } catch (Exception ignored) {}
-            }));
-
         } catch (Exception e) {
             System.out.println("Ошибка при старте DailyNotifier: " + e.getMessage());
             e.printStackTrace();
-            try { hw.close(); } catch (Exception ignored) {}
+        }
+    }
+
+    public void initResync() {
+        try {
+            ScheduleResyncJob job = new ScheduleResyncJob(storages.getScheduleManager(), storages.getSQLiteUserStorage(), outbound,
+                    storages.getScheduleProvider()); // общие с регистрацией полёты загрузки
+            job.start(); // первый проход — ближайшей ночью
+            this.resyncJob = job;
+        } catch (Exception e) {
+            System.out.println("Ошибка при старте ScheduleResyncJob: " + e.getMessage());
         }
     }
 
     @Override
     public void onUpdateReceived(Update update) {  // объект update - это всё, что пришло от ТГ
+        dispatcher.submit(update); // раскладываем по очередям чатов, обработка идёт в handleUpdate
+    }
+
+    public UpdateDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public OutboundSender getOutbound() {
+        return outbound;
+    }
+
+    private void handleUpdate(Update update) { // обработка одного апдейта (вызывается из очереди его чата)
         if (update.hasMessage() && update.getMessage().hasText()) {
             String text = update.getMessage().getText().trim(); // trim убирает пробелы с конца и начала строки
             long chatId = update.getMessage().getChatId(); // возвращает идентификатор чата
+
+            // пользователь и расписание читаются не больше одного раза за апдейт, запись — одна в конце
+            UserContext ctx = new UserContext(chatId, userStorage, scheduleManager);
             
             if (text != null && text.startsWith("/start invite_")) {
                 try {
-                    SendMessage response = stateMachine.handleInput(chatId, text);
+                    SendMessage response = stateMachine.handleInput(ctx, text);
                     if (response != null) {
-                        execute(response);
+                        ctx.flush();
+                        reply(response);
                         return; // Завершаем обработку, так как инвайт обработан
                     }
                 } catch (Exception e) {
@@ -123,71 +172,36 @@ public class Homeworkbot extends TelegramLongPollingBot {
             String commandName = parts[0].toLowerCase(); // toLowerCase чтобы регистр не мешал
 
             try {
+                SendMessage response;
                 if (text.startsWith("/")) {  // Проверяем, является ли сообщение командой
                     Command cmd = commands.get(commandName); // ищем команду в мапе
                     if (cmd != null) {
-                    	
-                        if (cmd instanceof StartCommand) {
-                            execute(startCommand.processStart(chatId));  // возвращает сообщение + кнопки
-
-                        } else if (cmd instanceof ScheduleCommand) {
-                            String response = ((ScheduleCommand) cmd).realizationWithChatId(chatId, parts);
-                            sendText(chatId, response);
-
-                        } else if (cmd instanceof EditScheduleCommand) {
-                            execute(((EditScheduleCommand) cmd).processChange(chatId, parts));
-
-                        } else if (cmd instanceof ShareGroupCommand) {
-                            String link = shareGroupCommand.start(chatId);
-                            sendText(chatId, link);
-
-                        } else if (cmd instanceof AddHomeworkCommand) {
-                            AddHomeworkCommand ahref = (AddHomeworkCommand) cmd;
-                            SendMessage response = ahref.start(chatId);
-                            execute(response); 
-
-                        } else if (cmd instanceof PrintHomeworkCommand) {
-                            String response = ((PrintHomeworkCommand) cmd).realizationWithChatId(chatId, parts);
-                            sendText(chatId, response);
-
-                        }
-                        else if (cmd instanceof DeleteHomeworkCommand) {
-                            String response = ((DeleteHomeworkCommand) cmd).realizationWithChatId(chatId, parts);
-                            sendText(chatId, response);
-                        }
-
-                        else if (cmd instanceof MarkHomeworkCommand) {
-                            String response = ((MarkHomeworkCommand) cmd).realizationWithChatId(chatId, parts);
-                            sendText(chatId, response);
-                            
-                        } else if (cmd instanceof SubscriptionCommand) {
-                            String response = ((SubscriptionCommand) cmd).realizationWithChatId(chatId, parts);
-                            sendText(chatId, response);  
-
-                        } else {
-                            sendText(chatId, cmd.realization(parts));
-                        }
+                        response = cmd.execute(ctx, parts); // каждая команда сама знает, как ответить
 
                     } else {
-                        User user = userStorage.getUser(chatId);
+                        User user = ctx.getUser();
 
                         if (user != null && user.getState() != DialogState.REGISTERED) {
                             // передаём команду в FSM — там она обработается как /skip
-                            SendMessage resp = stateMachine.handleInput(chatId, text);
-                            if (resp != null) {
-                                execute(resp);
-                                return;
-                            }
+                            response = stateMachine.handleInput(ctx, text);
+                        } else {
+                            response = null;
                         }
 
-                        // если не в диалоге — выводим стандартное сообщение
-                        sendText(chatId, "Неизвестная команда. Введите /help для списка команд.");
+                        if (response == null) {
+                            // если не в диалоге — выводим стандартное сообщение
+                            response = new SendMessage(String.valueOf(chatId), "Неизвестная команда. Введите /help для списка команд.");
+                        }
                     }
 
                 } else {
                     // обычный ввод (FSM)
-                    SendMessage response = stateMachine.handleInput(chatId, text);
-                    execute(response);
+                    response = stateMachine.handleInput(ctx, text);
+                }
+
+                ctx.flush(); // сохраняем пользователя до ответа
+                if (response != null) {
+                    reply(response);
                 }
 
             } catch (Exception e) {
@@ -198,11 +212,26 @@ public class Homeworkbot extends TelegramLongPollingBot {
     }
 
     private void sendText(long chatId, String text) {
-        SendMessage msg = new SendMessage(String.valueOf(chatId), text);
+        reply(new SendMessage(String.valueOf(chatId), text));
+    }
+
+    private void reply(SendMessage message) { // ответ пользователю — в приоритетную полосу, обработчик апдейта не ждёт сети
+        outbound.submit(message, OutboundSender.Priority.INTERACTIVE).whenComplete((ok, e) -> {
+            if (e != null) {
+                System.out.println("Ошибка отправки ответа в чат " + message.getChatId() + ": " + e.getMessage());
+            }
+        });
+    }
+
+    private static int envInt(String name, int defaultValue) { // читаем число из переменной окружения
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
         try {
-            execute(msg);
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
         }
     }
 
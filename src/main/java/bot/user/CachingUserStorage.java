@@ -0,0 +1,185 @@
+package bot.user;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэширующая обёртка над UserStorage.
+ *
+ * getUser читается из памяти, если пользователь уже загружался и запись не старше ttl.
+ * Неизвестные chatId тоже запоминаются (негативный кэш), чтобы не ходить в БД за каждым
+ * сообщением незарегистрированного пользователя. saveUser, updateUser и deleteUser пишут
+ * в базу и сразу сбрасывают запись из кэша. Размер ограничен: при переполнении вытесняется
+ * пользователь, к которому дольше всего не обращались (LRU).
+ *
+ * Наружу отдаются копии, поэтому изменения объекта User не попадают в кэш без updateUser.
+ */
+public class CachingUserStorage implements UserStorage {
+
+    private final UserStorage delegate;
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    private final LinkedHashMap<Long, CacheEntry> cache; // accessOrder = true -> порядок LRU
+    private final AtomicLong writeEpoch = new AtomicLong(); // растёт при каждой записи (см. getUser)
+
+    // метрики
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+
+    public CachingUserStorage(UserStorage delegate, int maxEntries, Duration ttl) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Размер кэша должен быть положительным");
+        }
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CacheEntry> eldest) {
+                if (size() > CachingUserStorage.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+
+    @Override
+    public User getUser(long chatId) {
+        synchronized (cache) {
+            CacheEntry entry = cache.get(chatId);
+            if (entry != null) {
+                if (System.nanoTime() - entry.loadedAt < ttlNanos) {
+                    hits.incrementAndGet();
+                    return entry.user == null ? null : entry.user.copy();
+                }
+                cache.remove(chatId); // устарела
+            }
+        }
+
+        misses.incrementAndGet();
+        long epoch = writeEpoch.get();
+        User loaded = delegate.getUser(chatId);
+
+        synchronized (cache) {
+            // если пока мы читали кто-то успел записать — не кладём, возможно прочитали старое
+            if (writeEpoch.get() == epoch) {
+                cache.put(chatId, new CacheEntry(loaded == null ? null : loaded.copy(), System.nanoTime()));
+            }
+        }
+        return loaded;
+    }
+
+
+    @Override
+    public void saveUser(User user) {
+        try {
+            delegate.saveUser(user);
+        } finally {
+            invalidate(user.getChatId()); // в т.ч. негативную запись "пользователя нет"
+        }
+    }
+
+    @Override
+    public void updateUser(User user) {
+        try {
+            delegate.updateUser(user);
+        } finally {
+            invalidate(user.getChatId());
+        }
+    }
+
+    @Override
+    public void deleteUser(long chatId) {
+        try {
+            delegate.deleteUser(chatId);
+        } finally {
+            invalidate(chatId);
+        }
+    }
+
+
+    @Override
+    public boolean userExists(long chatId) { // отвечаем через кэш getUser
+        return getUser(chatId) != null;
+    }
+
+    @Override
+    public void initialize() {
+        delegate.initialize();
+    }
+
+    @Override
+    public List<User> getAllUsers() { // полный список всегда из БД
+        return delegate.getAllUsers();
+    }
+
+
+    public void invalidate(long chatId) {
+        synchronized (cache) {
+            writeEpoch.incrementAndGet();
+            cache.remove(chatId);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (cache) {
+            writeEpoch.incrementAndGet();
+            cache.clear();
+        }
+    }
+
+    public UserStorage getDelegate() {
+        return delegate;
+    }
+
+
+    // --- метрики ---
+
+    public int getSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public double getHitRatio() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0.0 : (double) hits.get() / total;
+    }
+
+    public String metricsSummary() {
+        return String.format("size=%d, hits=%d, misses=%d, evictions=%d, hitRatio=%.2f",
+                getSize(), getHitCount(), getMissCount(), getEvictionCount(), getHitRatio());
+    }
+
+
+    private static final class CacheEntry {
+        private final User user; // null — пользователя нет в базе (негативная запись)
+        private final long loadedAt;
+
+        CacheEntry(User user, long loadedAt) {
+            this.user = user;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -3,26 +3,64 @@ import bot.user.exception.UserStorageException;
 
 
 import java.sql.*;
+import bot.db.SQLiteDatabase;
+import bot.db.SchemaMigrator;
 import bot.fsm.DialogState;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class SQLiteUserStorage implements UserStorage {
-    private final String DB_URL = "jdbc:sqlite:users.db"; // Путь к файлу базы данных
-    private Connection connection;
+    private static final String DB_FILE = "users.db"; // Путь к файлу базы данных
+    private static final int SQLITE_CONSTRAINT = 19; // код ошибки SQLite при нарушении ограничения
+    private static final int IN_BATCH = 500; // сколько chatId подставляем в один IN (...) (лимит параметров SQLite — 999)
+    private final SQLiteDatabase database; // пул соединений к users.db
+    private final boolean ownsDatabase; // создали ли мы пул сами (тогда и закрываем его сами)
+    private volatile boolean initialized;
+
+    private static final List<String> MIGRATIONS = List.of( // шаги миграции схемы (только добавлять в конец)
+            "CREATE INDEX IF NOT EXISTS idx_users_state ON users(state)" // getRegisteredUsers (DailyNotifier)
+    );
+
+    // Запросы хранилища; %s — плейсхолдеры IN (...). Те же строки проверяет QueryPlanTest (через QUERIES).
+    static final String SELECT_USER = "SELECT * FROM users WHERE chatId = ?";
+    static final String USER_EXISTS = "SELECT 1 FROM users WHERE chatId = ?";
+    static final String SELECT_ALL = "SELECT * FROM users"; // полный обход по смыслу, в QUERIES не входит
+    static final String SELECT_BY_STATE = "SELECT * FROM users WHERE state = ?";
+    static final String SELECT_BY_STATE_AND_IDS = "SELECT * FROM users WHERE state = ? AND chatId IN (%s)";
+    static final String INSERT = "INSERT INTO users (chatId, name, groupName, university, department, course, state, " +
+                                 "waitingForButton, hasCustomSchedule, subscriptionEnabled) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    static final String UPDATE = "UPDATE users SET name = ?, groupName = ?, university = ?, department = ?, course = ?, state = ?, " +
+                                 "waitingForButton = ?, hasCustomSchedule = ?, subscriptionEnabled = ? WHERE chatId = ?";
+    static final String DELETE = "DELETE FROM users WHERE chatId = ?";
+
+    public static final List<String> QUERIES = List.of( // IN (...) — на два значения
+            SELECT_USER, USER_EXISTS, SELECT_BY_STATE, String.format(SELECT_BY_STATE_AND_IDS, "?, ?"), INSERT, UPDATE, DELETE);
+
+
+    public SQLiteUserStorage() { // самостоятельное хранилище со своим пулом
+        this(new SQLiteDatabase(DB_FILE), true);
+    }
+
+    public SQLiteUserStorage(SQLiteDatabase database) { // хранилище поверх общего пула из StorageRegistry
+        this(database, false);
+    }
+
+    private SQLiteUserStorage(SQLiteDatabase database, boolean ownsDatabase) {
+        this.database = database;
+        this.ownsDatabase = ownsDatabase;
+    }
 
     
     @Override
     public void initialize() { // Инициализация (создание таблицы, если её нет)
-        try {
-        	
-        	// проверяем, инициализирован ли уже connection
-            if (this.connection != null && !this.connection.isClosed()) {
-                return; // Уже инициализировано
-            }
-            
-            connection = DriverManager.getConnection(DB_URL); // октрываем соединение с бд по указанному адресу
+        if (initialized) {
+            return; // Уже инициализировано
+        }
+        try (Connection connection = database.getConnection()) { // берём соединение из пула
             String sql = "CREATE TABLE IF NOT EXISTS users (" + // формирование sql запроса для создания таблицы
                          "chatId INTEGER PRIMARY KEY," +
                          "name TEXT," +
@@ -40,6 +78,8 @@ public class SQLiteUserStorage implements UserStorage {
             Statement statment = connection.createStatement(); 
             statment.execute(sql); // вызываем метод execute (объекта statment), который выполняет запрос
             statment.close(); // закрываем statment (запрос на создание отправили, он больше не нужен)
+            SchemaMigrator.migrate(connection, "users", MIGRATIONS); // индексы и прочие изменения схемы
+            initialized = true;
             
         } catch (SQLException e) {
             throw new UserStorageException("Ошибка инициализации базы данных", e); 
@@ -50,10 +90,9 @@ public class SQLiteUserStorage implements UserStorage {
     
     @Override 
     public User getUser(long chatId) { // Получить пользователя по chatId (возвращает объект типа юзер)
-        try {
-            String sql = "SELECT * FROM users WHERE chatId = ?"; // "выбрать все поля из таблицы users, где находится заданное id
+        try (Connection connection = database.getReadConnection()) {
             // PreparedStatment - тип отправителя запросов, который позволяет использовать параметры
-            PreparedStatement pstatment = connection.prepareStatement(sql); // создание запроса на основе строки sql 
+            PreparedStatement pstatment = connection.prepareStatement(SELECT_USER); // "выбрать все поля из таблицы users, где находится заданное id
             pstatment.setLong(1, chatId);  // в первый ? подставить chatId
             
             ResultSet result = pstatment.executeQuery(); // результат выполнения sql запроса (возвращает объект ResultSet, т.е. возвращает данные)
@@ -95,13 +134,19 @@ public class SQLiteUserStorage implements UserStorage {
     
     @Override
     public void saveUser(User user) { // сохранить нового пользователя
-        if (userExists(user.getChatId())) { // проверка, существует ли пользователь уже
-            throw new UserStorageException("Пользователь уже существует");
-        }
+        User snapshot = user.copy(); // пишем значения на момент вызова
         try {
-        	 String sql = "INSERT INTO users (chatId, name, groupName, university, department, course, state, waitingForButton, hasCustomSchedule, subscriptionEnabled) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-            PreparedStatement pstatment = connection.prepareStatement(sql); // создание запроса на основе строки sql
-            
+            database.writeAndWait(connection -> insertUser(connection, snapshot));
+        } catch (SQLException e) {
+            if ((e.getErrorCode() & 0xFF) == SQLITE_CONSTRAINT) { // первичный ключ уже занят (младший байт — основной код ошибки, отдельная проверка userExists не нужна)
+                throw new UserStorageException("Пользователь уже существует");
+            }
+            throw new UserStorageException("Ошибка сохранения пользователя", e);
+        }
+    }
+
+    private static int insertUser(Connection connection, User user) throws SQLException {
+        try (PreparedStatement pstatment = connection.prepareStatement(INSERT)) { // создание запроса на основе строки sql
             pstatment.setLong(1, user.getChatId());
             pstatment.setString(2, user.getName());
             pstatment.setString(3, user.getGroup());
@@ -113,26 +158,38 @@ public class SQLiteUserStorage implements UserStorage {
             pstatment.setInt(9, user.getHasCustomSchedule() ? 1 : 0);
             pstatment.setInt(10, user.getSubscriptionEnabled() ? 1 : 0);
             
-            pstatment.executeUpdate(); // выполнение запроса, который изменяет данные
-            
-            pstatment.close();
-            
-        } catch (SQLException e) {
-            throw new UserStorageException("Ошибка сохранения пользователя", e);
+            return pstatment.executeUpdate(); // выполнение запроса, который изменяет данные
         }
     }
 
    
     @Override
-    public void updateUser(User user) { // обновить пользователя
-        if (!userExists(user.getChatId())) { // проверка на существование пользоваетля
-            throw new UserStorageException("Пользоваетля с таким ID еще не существует в базе данных");
-        }
+    public void updateUser(User user) { // обновить пользователя (ждём, пока групповая транзакция зафиксируется)
         try {
-        	// обновляет поля пользователя с указанным ID
-        	String sql = "UPDATE users SET name = ?, groupName = ?, university = ?, department = ?, course = ?, state = ?, waitingForButton = ?, hasCustomSchedule = ?, subscriptionEnabled = ? WHERE chatId = ?";  
-            PreparedStatement pstatment = connection.prepareStatement(sql);
-            
+            updateUserAsync(user).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UserStorageException) {
+                throw (UserStorageException) cause;
+            }
+            throw new UserStorageException("Ошибка обновления данных пользователя", cause);
+        }
+    }
+
+
+    public CompletableFuture<Void> updateUserAsync(User user) { // обновить без ожидания: future завершится после COMMIT
+        User snapshot = user.copy();
+        return database.write(connection -> updateRow(connection, snapshot))
+                .thenAccept(updated -> {
+                    if (updated == 0) { // вместо отдельного запроса userExists смотрим на число изменённых строк
+                        throw new UserStorageException("Пользоваетля с таким ID еще не существует в базе данных");
+                    }
+                });
+    }
+
+    private static int updateRow(Connection connection, User user) throws SQLException {
+        // обновляет поля пользователя с указанным ID
+        try (PreparedStatement pstatment = connection.prepareStatement(UPDATE)) {
             pstatment.setString(1, user.getName());
             pstatment.setString(2, user.getGroup());
             pstatment.setString(3, user.getUniversity()); 
@@ -144,12 +201,7 @@ public class SQLiteUserStorage implements UserStorage {
             pstatment.setInt(9, user.getSubscriptionEnabled() ? 1 : 0);
             pstatment.setLong(10, user.getChatId());
             
-            pstatment.executeUpdate();
-            
-            pstatment.close();
-            
-        } catch (SQLException e) {
-            throw new UserStorageException("Ошибка обновления данных пользователя", e);
+            return pstatment.executeUpdate();
         }
     }
 
@@ -157,15 +209,12 @@ public class SQLiteUserStorage implements UserStorage {
     @Override
     public void deleteUser(long chatId) { // Удалить пользователя
         try {
-            String sql = "DELETE FROM users WHERE chatId = ?"; // удалить строку с определенным Id из 
-            PreparedStatement pstatment = connection.prepareStatement(sql);
-            
-            pstatment.setLong(1, chatId);
-            
-            pstatment.executeUpdate();
-            
-            pstatment.close();
-            
+            database.writeAndWait(connection -> {
+                try (PreparedStatement pstatment = connection.prepareStatement(DELETE)) { // удалить строку с определенным Id
+                    pstatment.setLong(1, chatId);
+                    return pstatment.executeUpdate();
+                }
+            });
         } catch (SQLException e) {
             throw new UserStorageException("Ошибка удаления пользователя", e);
         }
@@ -174,9 +223,8 @@ public class SQLiteUserStorage implements UserStorage {
     
     @Override
     public boolean userExists(long chatId) { // Проверить, существует ли пользователь
-        try {
-            String sql = "SELECT 1 FROM users WHERE chatId = ?"; // возвращает 1, если строка с заданным ID найдена в бд
-            PreparedStatement pstatment = connection.prepareStatement(sql);
+        try (Connection connection = database.getReadConnection()) {
+            PreparedStatement pstatment = connection.prepareStatement(USER_EXISTS); // возвращает 1, если строка с заданным ID найдена в бд
             
             pstatment.setLong(1, chatId);
             
@@ -195,12 +243,8 @@ public class SQLiteUserStorage implements UserStorage {
     
     
     public void close() {
-        try {
-            if (connection != null) {
-            	connection.close();
-            }
-        } catch (SQLException e) {
-            // ignore
+        if (ownsDatabase) { // общий пул закрывает StorageRegistry
+            database.close();
         }
     }
     
@@ -208,9 +252,8 @@ public class SQLiteUserStorage implements UserStorage {
     @Override
     public List<User> getAllUsers() { // возвращает всех пользователей
         List<User> resultList = new ArrayList<>();
-        try {
-            String sql = "SELECT * FROM users";
-            PreparedStatement pstat = connection.prepareStatement(sql);
+        try (Connection connection = database.getReadConnection()) {
+            PreparedStatement pstat = connection.prepareStatement(SELECT_ALL);
             ResultSet rs = pstat.executeQuery();
             while (rs.next()) {
                 long chatId = rs.getLong("chatId");
@@ -242,25 +285,39 @@ public class SQLiteUserStorage implements UserStorage {
     
     public List<User> getRegisteredUsers() { // проверяет зарегистрирован ли пользователь и возвращает только зарегистрированных пользователей
         List<User> resultList = new ArrayList<>();
-        String sql = "SELECT * FROM users WHERE state = ?";
-
-        try (PreparedStatement pstat = connection.prepareStatement(sql)) { // try with resourse
+        try (Connection connection = database.getReadConnection();
+             PreparedStatement pstat = connection.prepareStatement(SELECT_BY_STATE)) { // try with resourse
             pstat.setString(1, DialogState.REGISTERED.name());
             try (ResultSet result = pstat.executeQuery()) {
                 while (result.next()) {
-                    long chatId = result.getLong("chatId");
-                    String name = result.getString("name");
-                    String group = result.getString("groupName");
-                    String university = result.getString("university");
-                    String department = result.getString("department");
-                    String course = result.getString("course");
-                    // создаём объект с явно REGISTERED состоянием
-                    User user = new User(chatId, name, group, university, department, course, DialogState.REGISTERED);
-                    user.setWaitingForButton(result.getInt("waitingForButton") == 1); // если в базе 1 - то try 
-                    user.setHasCustomSchedule(result.getInt("hasCustomSchedule") == 1);
-                    user.setSubscriptionEnabled(result.getInt("subscriptionEnabled") == 1);
-                    
-                    resultList.add(user);
+                    resultList.add(readRegisteredUser(result));
+                }
+            }
+        } catch (SQLException e) {
+            throw new UserStorageException("Ошибка чтения зарегистрированных пользователей", e);
+        }
+        return resultList;
+    }
+
+    public List<User> getRegisteredUsers(Collection<Long> chatIds) { // то же, но только для заданных chatId (пачками по IN_BATCH)
+        List<User> resultList = new ArrayList<>();
+        List<Long> ids = new ArrayList<>(chatIds);
+
+        try (Connection connection = database.getReadConnection()) {
+            for (int from = 0; from < ids.size(); from += IN_BATCH) {
+                List<Long> batch = ids.subList(from, Math.min(ids.size(), from + IN_BATCH));
+                String placeholders = String.join(",", batch.stream().map(id -> "?").toList());
+                try (PreparedStatement pstat = connection.prepareStatement(String.format(SELECT_BY_STATE_AND_IDS, placeholders))) {
+                    pstat.setString(1, DialogState.REGISTERED.name());
+                    int index = 2;
+                    for (Long id : batch) {
+                        pstat.setLong(index++, id);
+                    }
+                    try (ResultSet result = pstat.executeQuery()) {
+                        while (result.next()) {
+                            resultList.add(readRegisteredUser(result));
+                        }
+                    }
                 }
             }
         } catch (SQLException e) {
@@ -268,4 +325,19 @@ public class SQLiteUserStorage implements UserStorage {
         }
         return resultList;
     }
+
+    private User readRegisteredUser(ResultSet result) throws SQLException {
+        long chatId = result.getLong("chatId");
+        String name = result.getString("name");
+        String group = result.getString("groupName");
+        String university = result.getString("university");
+        String department = result.getString("department");
+        String course = result.getString("course");
+        // создаём объект с явно REGISTERED состоянием
+        User user = new User(chatId, name, group, university, department, course, DialogState.REGISTERED);
+        user.setWaitingForButton(result.getInt("waitingForButton") == 1); // если в базе 1 - то try 
+        user.setHasCustomSchedule(result.getInt("hasCustomSchedule") == 1);
+        user.setSubscriptionEnabled(result.getInt("subscriptionEnabled") == 1);
+        return user;
+    }
 }
\ No newline at end of file
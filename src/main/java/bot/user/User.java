@@ -118,6 +118,15 @@ public class User {
     }
 
 
+    public User copy() { // независимая копия (снимок полей на текущий момент)
+        User copy = new User(chatId, name, group, university, department, course, state);
+        copy.waitingForButton = waitingForButton;
+        copy.hasCustomSchedule = hasCustomSchedule;
+        copy.subscriptionEnabled = subscriptionEnabled;
+        return copy;
+    }
+
+
     @Override
     public String toString() { // Строковое представление 
         return "User{" +
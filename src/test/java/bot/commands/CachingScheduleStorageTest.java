@@ -0,0 +1,111 @@
+package bot.commands;
+
+import bot.schedule.CachingScheduleStorage;
+import bot.schedule.Lesson;
+import bot.schedule.Schedule;
+import bot.schedule.ScheduleStorage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class CachingScheduleStorageTest {
+
+    private ScheduleStorage delegate;
+    private CachingScheduleStorage cache;
+
+    @BeforeEach
+    public void setUp() {
+        delegate = mock(ScheduleStorage.class);
+        cache = new CachingScheduleStorage(delegate, 10, Duration.ofMinutes(5));
+    }
+
+    private static Schedule schedule(String groupId, String groupName) {
+        Schedule schedule = new Schedule(groupId, groupName);
+        schedule.addLesson("MONDAY", new Lesson("Математика", LocalTime.of(9, 0), LocalTime.of(10, 30), "Р-101"));
+        return schedule;
+    }
+
+    @Test
+    public void groupMembers_shareOneSnapshot() {
+        when(delegate.getGroupIdByName("МЕН-240801")).thenReturn("42");
+        when(delegate.getScheduleByGroupId("42")).thenReturn(schedule("42", "МЕН-240801"));
+
+        Schedule first = cache.getScheduleByGroupName("МЕН-240801");
+        Schedule second = cache.getScheduleByGroupName("МЕН-240801");
+
+        assertSame(first, second); // один объект на всю группу
+        assertTrue(first.isFrozen());
+        verify(delegate, times(1)).getGroupIdByName("МЕН-240801");
+        verify(delegate, times(1)).getScheduleByGroupId("42");
+        assertEquals(1, cache.getSize());
+        assertTrue(cache.getHitRatio() > 0.0);
+    }
+
+    @Test
+    public void snapshot_isImmutable_butCopyIsNot() {
+        when(delegate.getScheduleByGroupId("42")).thenReturn(schedule("42", "МЕН-240801"));
+        Schedule snapshot = cache.getScheduleByGroupId("42");
+
+        Lesson extra = new Lesson("Физика", LocalTime.of(11, 0), LocalTime.of(12, 30), "Р-102");
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.addLesson("MONDAY", extra));
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.getLessonsForDay("MONDAY").clear());
+
+        Schedule copy = snapshot.copy();
+        copy.addLesson("MONDAY", extra);
+        assertEquals(2, copy.getLessonsForDay("MONDAY").size());
+        assertEquals(1, snapshot.getLessonsForDay("MONDAY").size());
+    }
+
+    @Test
+    public void missingCustomSchedule_isCachedNegatively_untilSave() {
+        when(delegate.getScheduleByGroupId("7")).thenReturn(null);
+
+        assertFalse(cache.scheduleExists("7"));
+        assertFalse(cache.scheduleExists("7"));
+        verify(delegate, times(1)).getScheduleByGroupId("7");
+
+        Schedule custom = schedule("7", "МЕН-240801_user_7");
+        cache.saveSchedule(custom);
+        verify(delegate).saveSchedule(custom);
+        when(delegate.getScheduleByGroupId("7")).thenReturn(custom);
+
+        assertTrue(cache.scheduleExists("7")); // негативная запись сброшена при сохранении
+        verify(delegate, times(2)).getScheduleByGroupId("7");
+    }
+
+    @Test
+    public void update_invalidatesSnapshotAndNameMapping() {
+        when(delegate.getGroupIdByName("МЕН-240801")).thenReturn("42");
+        when(delegate.getScheduleByGroupId("42")).thenReturn(schedule("42", "МЕН-240801"));
+        Schedule before = cache.getScheduleByGroupName("МЕН-240801");
+
+        Schedule refreshed = schedule("42", "МЕН-240801");
+        refreshed.addLesson("TUESDAY", new Lesson("История", LocalTime.of(9, 0), LocalTime.of(10, 30), "Т-1"));
+        when(delegate.updateSchedule(refreshed)).thenReturn(1);
+        cache.updateSchedule(refreshed);
+        when(delegate.getScheduleByGroupId("42")).thenReturn(refreshed);
+
+        Schedule after = cache.getScheduleByGroupName("МЕН-240801");
+        assertNotSame(before, after);
+        assertEquals(1, after.getLessonsForDay("TUESDAY").size());
+        verify(delegate, times(2)).getGroupIdByName("МЕН-240801");
+        verify(delegate, times(2)).getScheduleByGroupId("42");
+    }
+
+    @Test
+    public void updateWithoutChanges_keepsSnapshot() {
+        when(delegate.getScheduleByGroupId("42")).thenReturn(schedule("42", "МЕН-240801"));
+        Schedule before = cache.getScheduleByGroupId("42");
+
+        when(delegate.updateSchedule(any())).thenReturn(0); // ночная пересинхронизация без изменений
+        cache.updateSchedule(schedule("42", "МЕН-240801"));
+
+        assertSame(before, cache.getScheduleByGroupId("42"));
+        verify(delegate, times(1)).getScheduleByGroupId("42");
+    }
+}
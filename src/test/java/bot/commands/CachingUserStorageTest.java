@@ -0,0 +1,101 @@
+package bot.commands;
+
+import bot.fsm.DialogState;
+import bot.user.CachingUserStorage;
+import bot.user.User;
+import bot.user.UserStorage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class CachingUserStorageTest {
+
+    private UserStorage delegate;
+    private CachingUserStorage cache;
+
+    @BeforeEach
+    public void setUp() {
+        delegate = mock(UserStorage.class);
+        cache = new CachingUserStorage(delegate, 2, Duration.ofMinutes(5));
+    }
+
+    private static User registered(long chatId) {
+        return new User(chatId, "Имя", "МЕН-240801", "ИРИТ-РтФ", "ШПиАО", "2", DialogState.REGISTERED);
+    }
+
+    @Test
+    public void repeatedReads_hitDatabaseOnce() {
+        when(delegate.getUser(1L)).thenReturn(registered(1L));
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals("Имя", cache.getUser(1L).getName());
+        }
+
+        verify(delegate, times(1)).getUser(1L);
+        assertEquals(4, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void unknownChat_isCachedNegatively_untilSave() {
+        when(delegate.getUser(9L)).thenReturn(null);
+
+        assertNull(cache.getUser(9L));
+        assertFalse(cache.userExists(9L));
+        verify(delegate, times(1)).getUser(9L);
+
+        User user = new User(9L);
+        cache.saveUser(user);
+        when(delegate.getUser(9L)).thenReturn(user);
+
+        assertNotNull(cache.getUser(9L)); // негативная запись сброшена при сохранении
+        verify(delegate, times(2)).getUser(9L);
+    }
+
+    @Test
+    public void update_invalidatesEntry_andCopiesAreIsolated() {
+        when(delegate.getUser(1L)).thenReturn(registered(1L));
+
+        User copy = cache.getUser(1L);
+        copy.setName("Изменено без updateUser");
+        assertEquals("Имя", cache.getUser(1L).getName()); // кэш не испорчен чужим изменением
+
+        cache.updateUser(copy);
+        verify(delegate).updateUser(copy);
+        cache.getUser(1L);
+        verify(delegate, times(2)).getUser(1L); // после обновления перечитали из БД
+    }
+
+    @Test
+    public void leastRecentlyUsed_isEvicted() {
+        when(delegate.getUser(anyLong())).thenAnswer(inv -> registered(inv.getArgument(0)));
+
+        cache.getUser(1L);
+        cache.getUser(2L);
+        cache.getUser(1L); // 1 свежее, чем 2
+        cache.getUser(3L); // вытесняет 2
+
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+        cache.getUser(1L);
+        verify(delegate, times(1)).getUser(1L);
+        cache.getUser(2L);
+        verify(delegate, times(2)).getUser(2L);
+    }
+
+    @Test
+    public void expiredEntry_isReloaded() throws Exception {
+        CachingUserStorage shortLived = new CachingUserStorage(delegate, 10, Duration.ofMillis(20));
+        when(delegate.getUser(1L)).thenReturn(registered(1L));
+
+        shortLived.getUser(1L);
+        Thread.sleep(50);
+        shortLived.getUser(1L);
+
+        verify(delegate, times(2)).getUser(1L);
+    }
+}
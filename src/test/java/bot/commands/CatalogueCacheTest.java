@@ -0,0 +1,128 @@
+package bot.commands;
+
+import bot.schedule.CatalogueCache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CatalogueCacheTest {
+
+    private static final String URL = "https://urfu.ru/api/v2/schedule/divisions";
+    private static final long HOUR = Duration.ofHours(1).toMillis();
+
+    @TempDir
+    Path tempDir;
+
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+    private final List<String> requests = new ArrayList<>(); // какие заголовки условного запроса пришли "на сервер"
+
+    private CatalogueCache newCache() {
+        return new CatalogueCache(tempDir, Duration.ofHours(24), Duration.ofDays(30), clock::get, Runnable::run);
+    }
+
+    private CatalogueCache.Response server(String url, String etag, String lastModified) {
+        requests.add(String.valueOf(etag));
+        if ("\"v1\"".equals(etag)) {
+            return null; // 304 Not Modified
+        }
+        return new CatalogueCache.Response("[{\"id\":1}]", "\"v1\"", null);
+    }
+
+
+    @Test
+    public void freshEntry_isServedWithoutRequest_andSurvivesRestart() throws IOException {
+        CatalogueCache cache = newCache();
+        assertEquals("[{\"id\":1}]", cache.get(URL, this::server));
+        assertEquals("[{\"id\":1}]", cache.get(URL, this::server));
+        assertEquals(1, requests.size());
+
+        CatalogueCache afterRestart = newCache(); // тот же каталог на диске
+        assertEquals("[{\"id\":1}]", afterRestart.get(URL, this::server));
+        assertEquals(1, requests.size());
+        assertEquals(1.0, afterRestart.getHitRate());
+    }
+
+    @Test
+    public void staleEntry_isServedAndRevalidatedWithEtag() throws IOException {
+        CatalogueCache cache = newCache();
+        cache.get(URL, this::server);
+
+        clock.addAndGet(25 * HOUR); // старше ttl
+        assertEquals("[{\"id\":1}]", cache.get(URL, this::server));
+        assertEquals(List.of("null", "\"v1\""), requests); // второй запрос условный
+        assertEquals(1, cache.getNotModifiedCount());
+        assertEquals("[{\"id\":1}]".length(), cache.getBytesSaved());
+
+        cache.get(URL, this::server); // 304 продлил свежесть
+        assertEquals(2, requests.size());
+    }
+
+    @Test
+    public void veryOldEntry_isServedWhenUrfuIsDown() throws IOException {
+        CatalogueCache cache = newCache();
+        cache.get(URL, this::server);
+
+        clock.addAndGet(31 * 24 * HOUR);
+        String body = cache.get(URL, (url, etag, lastModified) -> {
+            throw new IOException("timeout");
+        });
+        assertEquals("[{\"id\":1}]", body);
+    }
+
+    @Test
+    public void concurrentColdMisses_shareOneRequest() throws Exception {
+        CatalogueCache cache = newCache();
+        int callers = 8;
+        AtomicInteger fetched = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        CatalogueCache.ConditionalFetcher slowServer = (url, etag, lastModified) -> {
+            fetched.incrementAndGet();
+            try {
+                assertTrue(release.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return new CatalogueCache.Response("[{\"id\":1}]", "\"v1\"", null);
+        };
+
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<String>> bodies = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                bodies.add(pool.submit(() -> cache.get(URL, slowServer)));
+            }
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (cache.getCoalescedCount() < callers - 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5); // ждём, пока все встанут в очередь к первой загрузке
+            }
+            release.countDown();
+            for (Future<String> body : bodies) {
+                assertEquals("[{\"id\":1}]", body.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(1, fetched.get());
+        assertEquals(callers - 1, cache.getCoalescedCount());
+        try (var files = Files.list(tempDir)) {
+            assertEquals(List.of(".json"), files.map(f -> f.getFileName().toString())
+                    .map(n -> n.substring(n.indexOf('.'))).toList()); // один файл записи, без брошенных .tmp
+        }
+    }
+}
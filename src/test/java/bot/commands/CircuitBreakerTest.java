@@ -0,0 +1,89 @@
+package bot.commands;
+
+import bot.schedule.CircuitBreaker;
+import bot.schedule.CircuitBreaker.State;
+import bot.schedule.RetryBudget;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CircuitBreakerTest {
+
+    private static final long OPEN_FOR = TimeUnit.SECONDS.toNanos(30);
+
+    private final AtomicLong now = new AtomicLong(); // наносекунды
+    private final CircuitBreaker breaker = new CircuitBreaker("test/schedule", 3, OPEN_FOR, now::get);
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onFailure();
+        }
+    }
+
+
+    @Test
+    public void opensAfterConsecutiveFailures_andRejectsWithoutWaiting() {
+        fail(2);
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess(); // успех сбрасывает серию
+        fail(2);
+        assertEquals(State.CLOSED, breaker.getState());
+
+        fail(1);
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(2, breaker.getRejectedCount());
+        assertEquals(1, breaker.getTransitionCount(State.OPEN));
+    }
+
+    @Test
+    public void halfOpen_letsOneProbe_andClosesOnSuccess() {
+        fail(3);
+        now.addAndGet(OPEN_FOR);
+
+        assertTrue(breaker.tryAcquire()); // проба
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire()); // пока проба не вернулась, остальные отклоняются
+        breaker.onSuccess();
+
+        assertEquals(State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        assertEquals(30_000, breaker.getOpenMillis());
+    }
+
+    @Test
+    public void failedProbe_reopens_andOpenTimeAccumulates() {
+        fail(3);
+        now.addAndGet(OPEN_FOR);
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertEquals(40_000, breaker.getOpenMillis()); // 30 с первого открытия + 10 с текущего
+        assertEquals(2, breaker.getTransitionCount(State.OPEN));
+        assertEquals(1, breaker.getTransitionCount(State.HALF_OPEN));
+        assertTrue(breaker.metricsSummary().startsWith("state=OPEN, opened=2"));
+    }
+
+    @Test
+    public void retryBudget_isLimitedToShareOfRequests() {
+        RetryBudget budget = new RetryBudget(0.5, 2);
+        assertTrue(budget.tryRetry());
+        assertTrue(budget.tryRetry());
+        assertFalse(budget.tryRetry()); // запас кончился
+
+        budget.onRequest();
+        assertFalse(budget.tryRetry()); // полжетона — мало
+        budget.onRequest();
+        assertTrue(budget.tryRetry());
+        assertEquals(3, budget.getRetryCount());
+        assertEquals(2, budget.getExhaustedCount());
+    }
+}
@@ -0,0 +1,73 @@
+package bot.commands;
+
+import bot.db.SQLiteDatabase;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConnectionPoolTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void closedConnection_returnsToPool() throws Exception {
+        SQLiteDatabase db = new SQLiteDatabase(tempDir.resolve("pool.db").toString(), 2);
+
+        Connection first = db.getConnection();
+        Connection physical = first.unwrap(Connection.class);
+        first.close(); // возвращаем в пул, а не закрываем
+
+        assertTrue(first.isClosed());
+        assertFalse(physical.isClosed());
+        assertEquals(1, db.getPool().getIdleCount());
+
+        try (Connection second = db.getConnection()) {
+            assertSame(physical, second.unwrap(Connection.class)); // то же физическое соединение
+        }
+        assertEquals(1, db.getPool().getOpenedCount());
+
+        db.close();
+        assertTrue(physical.isClosed());
+        assertThrows(SQLException.class, db::getConnection);
+    }
+
+    @Test
+    public void poolIsBounded_andThreadsGetOwnConnections() throws Exception {
+        SQLiteDatabase db = new SQLiteDatabase(tempDir.resolve("bounded.db").toString(), 2);
+        try (Connection c = db.getConnection(); Statement st = c.createStatement()) {
+            st.execute("CREATE TABLE t (id INTEGER PRIMARY KEY AUTOINCREMENT, v TEXT)");
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch done = new CountDownLatch(40);
+        for (int i = 0; i < 40; i++) {
+            executor.execute(() -> {
+                try (Connection c = db.getConnection(); Statement st = c.createStatement()) {
+                    st.executeUpdate("INSERT INTO t (v) VALUES ('x')");
+                } catch (SQLException e) {
+                    fail(e);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        assertTrue(db.getPool().getOpenedCount() <= 2); // больше двух соединений пул не открывает
+        try (Connection c = db.getConnection(); Statement st = c.createStatement()) {
+            var rs = st.executeQuery("SELECT COUNT(*) FROM t");
+            rs.next();
+            assertEquals(40, rs.getInt(1));
+        }
+        db.close();
+    }
+}
@@ -1,5 +1,7 @@
 package bot.commands;
 
+import bot.db.SQLiteDatabase;
+import bot.dispatcher.OutboundSender;
 import bot.homework.SQLiteHomeworkStorage;
 import bot.schedule.Lesson;
 import bot.schedule.Schedule;
@@ -8,10 +10,13 @@ import bot.start.Homeworkbot;
 import bot.user.SQLiteUserStorage;
 import bot.user.User;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import bot.scheduler.DailyNotifier;
+import bot.scheduler.NotificationOutbox;
 
 import java.lang.reflect.Field;
+import java.nio.file.Path;
 import java.time.*;
 import java.util.*;
 import java.util.concurrent.*;
@@ -22,6 +27,9 @@ import static org.mockito.Mockito.*;
 
 public class DailyNotifierTest {
 
+    @TempDir
+    Path tempDir;
+
     public interface TimeSource {
         long milliseconds();
         void sleep(long millis) throws InterruptedException;
@@ -207,4 +215,43 @@ public class DailyNotifierTest {
         assertTrue(task.executed);
         verify(mockBot, never()).execute(any(SendMessage.class));
     }
+
+    @Test
+    public void restartAfterSendMinute_stillSendsTodaysDigest() throws Exception {
+        ZoneId zone = ZoneId.of("Asia/Yekaterinburg");
+        LocalDate today = LocalDate.of(2025, 3, 3);
+        // пар нет — минута отправки 15:00, а бот поднимается в 21:00
+        AtomicLong now = new AtomicLong(LocalDateTime.of(today, LocalTime.of(21, 0)).atZone(zone).toInstant().toEpochMilli());
+
+        User u = new User(555L);
+        SQLiteUserStorage users = mock(SQLiteUserStorage.class);
+        when(users.getRegisteredUsers()).thenReturn(List.of(u));
+        when(users.getRegisteredUsers(anyCollection())).thenReturn(List.of(u));
+        OutboundSender sender = mock(OutboundSender.class);
+        when(sender.submit(any(SendMessage.class), any())).thenReturn(CompletableFuture.completedFuture(null));
+        Homeworkbot bot = mock(Homeworkbot.class);
+        when(bot.getOutbound()).thenReturn(sender);
+
+        SQLiteDatabase database = new SQLiteDatabase(tempDir.resolve("users.db").toString());
+        try {
+            NotificationOutbox outbox = new NotificationOutbox(database);
+            outbox.initialize();
+            for (int restart = 0; restart < 2; restart++) { // второй рестарт не должен прислать дубль
+                DailyNotifier notifier = new DailyNotifier(bot, users, mock(SQLiteHomeworkStorage.class),
+                        mock(ScheduleManager.class), new NotificationOutbox(database), now::get);
+                notifier.startAll();
+                long deadline = System.currentTimeMillis() + 10_000;
+                while (outbox.getStatus(555L, today.plusDays(1)) != NotificationOutbox.Status.SENT
+                        && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(20);
+                }
+                notifier.stop();
+                assertEquals(NotificationOutbox.Status.SENT, outbox.getStatus(555L, today.plusDays(1)));
+                now.addAndGet(TimeUnit.MINUTES.toMillis(30));
+            }
+            verify(sender, times(1)).submit(any(SendMessage.class), eq(OutboundSender.Priority.BULK));
+        } finally {
+            database.close();
+        }
+    }
 }
@@ -0,0 +1,73 @@
+package bot.commands;
+
+import bot.homework.HomeworkItem;
+import bot.homework.HomeworkStorage;
+import bot.schedule.Lesson;
+import bot.schedule.Schedule;
+import bot.schedule.ScheduleManager;
+import bot.scheduler.Digest;
+import bot.scheduler.DigestPlanner;
+import bot.user.User;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class DigestPlannerTest {
+
+    private static final LocalDate TODAY = LocalDate.of(2025, 3, 3); // понедельник
+    private static final LocalDate TOMORROW = TODAY.plusDays(1);
+
+    @Test
+    public void plan_readsHomeworkOnceForAllUsers() {
+        HomeworkStorage hw = mock(HomeworkStorage.class);
+        ScheduleManager manager = mock(ScheduleManager.class);
+
+        User first = new User(1L);
+        User second = new User(2L);
+
+        Schedule schedule = new Schedule("1", "МЕН-240801");
+        schedule.addLesson("TUESDAY", new Lesson("Математика", LocalTime.of(9, 0), LocalTime.of(10, 30), "101"));
+        schedule.addLesson("TUESDAY", new Lesson("Физика", LocalTime.of(10, 40), LocalTime.of(12, 10), "202"));
+        when(manager.getScheduleForUser(any(User.class))).thenReturn(schedule);
+
+        Map<Long, List<HomeworkItem>> homework = new HashMap<>();
+        homework.put(1L, List.of(
+                new HomeworkItem(10, 1, "Математика", "задачи 1-5", TOMORROW.plusDays(7), false, 1),
+                new HomeworkItem(11, 1, "История", "эссе", TOMORROW, false, 1),
+                new HomeworkItem(12, 1, "История", "доклад", TOMORROW.plusDays(3), false, 1)));
+        when(hw.getActiveHomeworkForUsers(any(), eq(TODAY))).thenReturn(homework);
+
+        Map<Long, Digest> digests = new DigestPlanner(hw, manager).plan(List.of(first, second), TODAY);
+
+        verify(hw, times(1)).getActiveHomeworkForUsers(any(), eq(TODAY));
+        verifyNoMoreInteractions(hw);
+
+        assertEquals(2, digests.size());
+        String message = digests.get(1L).getMessage();
+        assertTrue(message.contains("ID: 10 | Математика — задачи 1-5")); // предмет завтра есть
+        assertTrue(message.contains("ID: 11 | История — эссе")); // дедлайн ровно завтра
+        assertFalse(message.contains("доклад")); // ни предмета, ни дедлайна завтра
+        assertTrue(digests.get(2L).getMessage().contains("Домашние задания на завтра:\n— нет"));
+
+        assertEquals(TOMORROW, digests.get(1L).getDate());
+        assertEquals(LocalDateTime.of(TOMORROW, LocalTime.of(13, 10)), digests.get(1L).getNextSendAt()); // +1 час после последней пары
+    }
+
+    @Test
+    public void sendTimes_fallBackToAfternoonWithoutLessons() {
+        ScheduleManager manager = mock(ScheduleManager.class);
+        when(manager.getScheduleForUser(any(User.class))).thenReturn(null);
+
+        Map<Long, LocalDateTime> times = new DigestPlanner(mock(HomeworkStorage.class), manager)
+                .sendTimes(List.of(new User(5L)), TODAY);
+
+        assertEquals(LocalDateTime.of(TODAY, LocalTime.of(15, 0)), times.get(5L));
+    }
+}
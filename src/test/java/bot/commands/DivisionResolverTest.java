@@ -0,0 +1,80 @@
+package bot.commands;
+
+import bot.schedule.DivisionResolver;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DivisionResolverTest {
+
+    private static final String DIVISIONS = "[" +
+            "{\"id\":1,\"title\":\"Институт радиоэлектроники и информационных технологий - РтФ\"}," +
+            "{\"id\":2,\"title\":\"ИЕНиМ\"}," +
+            "{\"id\":10,\"parentId\":1,\"title\":\"Департамент информационных технологий и автоматики\"}," +
+            "{\"id\":11,\"parentId\":1,\"title\":\"Школа бакалавриата\"}," +
+            "{\"id\":20,\"parentId\":2,\"title\":\"Департамент математики, механики и компьютерных наук\"}," +
+            "{\"id\":21,\"parentId\":2,\"title\":\"Школа бакалавриата\"}" +
+            "]";
+
+    private static final String GROUPS = "[" +
+            "{\"id\":100,\"title\":\"МЕН-241001\"}," +
+            "{\"id\":101,\"title\":\"МЕН-241002\"}," +
+            "{\"id\":102,\"title\":\"РИ-230915\"}" +
+            "]";
+
+    private static DivisionResolver resolver(String json) throws Exception {
+        return DivisionResolver.of(new ObjectMapper().readTree(json));
+    }
+
+
+    @Test
+    public void institute_isFoundByExactTitleWordPrefixOrMidWord() throws Exception {
+        DivisionResolver divisions = resolver(DIVISIONS);
+
+        assertEquals(2, divisions.findInstitute("иеним").id()); // точное совпадение без учёта регистра
+        assertEquals(1, divisions.findInstitute("РтФ").id()); // начало слова
+        assertEquals(1, divisions.findInstitute("радиоэлектрон").id());
+        assertEquals(1, divisions.findInstitute("электроники").id()); // середина слова — запасной путь
+        assertFalse(divisions.findInstitute("ИГУП").found());
+        assertFalse(divisions.findInstitute(" - ").found()); // одни знаки — не совпадает с чем попало
+    }
+
+    @Test
+    public void department_isSearchedAmongChildrenOfInstitute() throws Exception {
+        DivisionResolver divisions = resolver(DIVISIONS);
+
+        assertEquals(21, divisions.findDepartment("ИЕНиМ", "Школа бакалавриата").id());
+        assertEquals(11, divisions.findDepartment("РтФ", "школа бакалавриата").id());
+        assertFalse(divisions.findDepartment("ИЕНиМ", "автоматики").found()); // чужой департамент
+        assertFalse(divisions.findDepartment("ИЕНиМ", null).found());
+    }
+
+    @Test
+    public void ambiguousMatch_picksFirstInCatalogueOrder() throws Exception {
+        DivisionResolver divisions = resolver(DIVISIONS);
+
+        DivisionResolver.Match match = divisions.findDepartment(null, "школа бакалавриата"); // институт не указан
+        assertTrue(match.isAmbiguous());
+        assertEquals(2, match.matches());
+        assertEquals(11, match.id());
+
+        DivisionResolver.Match departments = divisions.findInstitute("департамент");
+        assertEquals(10, departments.id());
+        assertEquals(2, departments.candidates().size());
+    }
+
+    @Test
+    public void group_ignoresHyphensSpacesAndCase() throws Exception {
+        DivisionResolver groups = resolver(GROUPS);
+
+        assertEquals(100, groups.findGroup("МЕН-241001").id());
+        assertEquals(100, groups.findGroup("мен241001").id());
+        assertEquals(102, groups.findGroup("РИ 230915").id());
+        assertEquals(101, groups.findGroup("241002").id());
+
+        DivisionResolver.Match prefix = groups.findGroup("мен-2410");
+        assertTrue(prefix.isAmbiguous());
+        assertEquals(100, prefix.id());
+    }
+}
@@ -0,0 +1,334 @@
+package bot.commands;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Локальный стенд API расписания УрФУ на com.sun.net.httpserver — чтобы гонять ScheduleFetcher без urfu.ru.
+ *
+ * Отдаёт записанные ответы из src/test/resources/urfu:
+ *  - /divisions — divisions.json;
+ *  - /divisions/{id}/groups?course=N — groups.json для записанного департамента и курса, для остальных —
+ *    сгенерированные группы того же вида (groupsPerCourse штук, названия уникальны на весь справочник);
+ *  - /groups/{id}/schedule?date_gte=...&date_lte=... — неделя из schedule_week.json, повторённая на каждую
+ *    неделю запрошенного диапазона; payloadScale повторяет каждое событие, чтобы увеличить ответ.
+ * Задержка ответа (случайная в [minLatency, maxLatency]) и доля ответов 503 (errorRate) настраиваются
+ * и до, и во время работы. Адрес для UrfuApiClient — getBaseUrl().
+ */
+public class FakeUrfuServer implements AutoCloseable {
+
+    public record Division(long id, long parentId, String title) {} // parentId == -1 — институт
+
+    private static final String API_PATH = "/api/v2/schedule";
+    private static final long RECORDED_DEPARTMENT = 62401; // для него и RECORDED_COURSE записан groups.json
+    private static final int RECORDED_COURSE = 2;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final byte[] divisionsJson;
+    private final byte[] recordedGroupsJson;
+    private final JsonNode recordedWeek; // события одной недели
+    private final LocalDate recordedMonday;
+    private final List<Division> divisions = new ArrayList<>();
+    private final Map<Long, Integer> departmentIndex = new HashMap<>(); // id департамента -> номер для префикса групп
+
+    private final Map<String, byte[]> responses = new ConcurrentHashMap<>(); // сгенерированные ответы
+    private final Random random;
+    private volatile long minLatencyMillis;
+    private volatile long maxLatencyMillis;
+    private volatile double errorRate;
+    private volatile int payloadScale = 1;
+    private volatile int groupsPerCourse = 10;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    // метрики
+    private final Map<String, AtomicLong> requests = new ConcurrentHashMap<>(); // divisions, groups, schedule
+    private final AtomicLong injectedErrors = new AtomicLong();
+
+
+    public FakeUrfuServer() {
+        this(42);
+    }
+
+    public FakeUrfuServer(long seed) { // seed — для повторяемых задержек и ошибок
+        random = new Random(seed);
+        divisionsJson = resource("divisions.json");
+        recordedGroupsJson = resource("groups.json");
+        try {
+            recordedWeek = mapper.readTree(resource("schedule_week.json")).get("events");
+            for (JsonNode node : mapper.readTree(divisionsJson)) {
+                Division division = new Division(node.get("id").asLong(), node.path("parentId").asLong(-1),
+                        node.get("title").asText());
+                divisions.add(division);
+                if (division.parentId() != -1) {
+                    departmentIndex.put(division.id(), departmentIndex.size());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        recordedMonday = LocalDate.parse(recordedWeek.get(0).get("date").asText()).with(DayOfWeek.MONDAY);
+    }
+
+
+    public FakeUrfuServer start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newCachedThreadPool(r -> { // задержки не должны занимать общий поток
+            Thread t = new Thread(r, "fake-urfu");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext(API_PATH, this::handle);
+        server.start();
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + API_PATH;
+    }
+
+
+    // --- настройки ---
+
+    public FakeUrfuServer setLatency(long minMillis, long maxMillis) {
+        this.minLatencyMillis = minMillis;
+        this.maxLatencyMillis = Math.max(minMillis, maxMillis);
+        return this;
+    }
+
+    public FakeUrfuServer setErrorRate(double errorRate) { // доля ответов 503
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    public FakeUrfuServer setPayloadScale(int payloadScale) { // во сколько раз повторять каждое событие
+        this.payloadScale = Math.max(1, payloadScale);
+        responses.clear();
+        return this;
+    }
+
+    public FakeUrfuServer setGroupsPerCourse(int groupsPerCourse) {
+        this.groupsPerCourse = groupsPerCourse;
+        responses.clear();
+        return this;
+    }
+
+
+    // --- справочники для сценариев ---
+
+    public List<Division> getDivisions() {
+        return Collections.unmodifiableList(divisions);
+    }
+
+    public List<String> groupTitles(long departmentId, int course) { // те же названия, что вернёт /groups
+        List<String> titles = new ArrayList<>();
+        try {
+            for (JsonNode group : mapper.readTree(groupsJson(departmentId, course))) {
+                titles.add(group.get("title").asText());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return titles;
+    }
+
+
+    // --- обработка запросов ---
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String[] path = exchange.getRequestURI().getPath().substring(API_PATH.length()).split("/");
+            Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+            // path: ["", "divisions"], ["", "divisions", id, "groups"], ["", "groups", id, "schedule"]
+            String endpoint = path.length == 2 && path[1].equals("divisions") ? "divisions"
+                    : path.length == 4 && path[1].equals("divisions") && path[3].equals("groups") ? "groups"
+                    : path.length == 4 && path[1].equals("groups") && path[3].equals("schedule") ? "schedule"
+                    : null;
+            if (endpoint == null || !"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            requests.computeIfAbsent(endpoint, k -> new AtomicLong()).incrementAndGet();
+
+            sleep(nextLatency());
+            if (nextError()) {
+                injectedErrors.incrementAndGet();
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            byte[] body;
+            switch (endpoint) {
+                case "divisions" -> body = divisionsJson;
+                case "groups" -> body = groupsJson(Long.parseLong(path[2]), Integer.parseInt(query.getOrDefault("course", "0")));
+                default -> body = scheduleJson(LocalDate.parse(query.get("date_gte")), LocalDate.parse(query.get("date_lte")));
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (RuntimeException e) { // кривой запрос — 400, а не оборванное соединение
+            exchange.sendResponseHeaders(400, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private byte[] groupsJson(long departmentId, int course) {
+        if (departmentId == RECORDED_DEPARTMENT && course == RECORDED_COURSE) {
+            return recordedGroupsJson;
+        }
+        return responses.computeIfAbsent("groups:" + departmentId + ":" + course, k -> {
+            Integer index = departmentIndex.get(departmentId);
+            ArrayNode groups = mapper.createArrayNode();
+            if (index == null || course < 1 || course > 6) {
+                return bytes(groups); // неизвестное подразделение — пустой список, как у УрФУ
+            }
+            String prefix = "Ф" + (char) ('А' + index / 32) + (char) ('А' + index % 32);
+            int admitted = academicYear() - course + 1;
+            for (int i = 1; i <= groupsPerCourse; i++) {
+                groups.addObject()
+                        .put("id", departmentId * 1000 + course * 100L + i)
+                        .put("title", String.format("%s-%02d10%02d", prefix, admitted % 100, i))
+                        .put("course", course)
+                        .put("divisionId", departmentId);
+            }
+            return bytes(groups);
+        });
+    }
+
+    private byte[] scheduleJson(LocalDate from, LocalDate to) { // ответ не зависит от группы — как будто у всех одна неделя
+        return responses.computeIfAbsent("schedule:" + from + ":" + to + ":" + payloadScale, k -> {
+            ObjectNode root = mapper.createObjectNode();
+            ArrayNode events = root.putArray("events");
+            LocalDate monday = from.with(DayOfWeek.MONDAY);
+            for (LocalDate week = monday; !week.isAfter(to); week = week.plusWeeks(1)) {
+                long shift = ChronoUnit.WEEKS.between(recordedMonday, week);
+                for (JsonNode event : recordedWeek) {
+                    LocalDate date = LocalDate.parse(event.get("date").asText()).plusWeeks(shift);
+                    if (date.isBefore(from) || date.isAfter(to)) {
+                        continue;
+                    }
+                    for (int copy = 0; copy < payloadScale; copy++) {
+                        ObjectNode shifted = event.deepCopy();
+                        shifted.put("date", date.toString());
+                        if (copy > 0) { // копии — отдельные пары того же времени
+                            shifted.put("auditoryTitle", event.path("auditoryTitle").asText() + "/" + copy);
+                        }
+                        events.add(shifted);
+                    }
+                }
+            }
+            return bytes(root);
+        });
+    }
+
+
+    private long nextLatency() {
+        long min = minLatencyMillis;
+        long max = maxLatencyMillis;
+        return max <= min ? min : min + (long) (random.nextDouble() * (max - min + 1));
+    }
+
+    private boolean nextError() {
+        double rate = errorRate;
+        return rate > 0 && random.nextDouble() < rate;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Map<String, String> query(String raw) {
+        Map<String, String> params = new HashMap<>();
+        if (raw != null) {
+            for (String pair : raw.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    params.put(pair.substring(0, eq), pair.substring(eq + 1));
+                }
+            }
+        }
+        return params;
+    }
+
+    private static int academicYear() { // учебный год с сентября, по Екатеринбургу
+        LocalDate today = LocalDate.now(ZoneId.of("Asia/Yekaterinburg"));
+        return today.getMonthValue() >= 9 ? today.getYear() : today.getYear() - 1;
+    }
+
+    private byte[] bytes(JsonNode node) {
+        try {
+            return mapper.writeValueAsBytes(node);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] resource(String name) {
+        try (InputStream in = FakeUrfuServer.class.getResourceAsStream("/urfu/" + name)) {
+            if (in == null) {
+                throw new IllegalStateException("нет фикстуры /urfu/" + name);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    // --- метрики ---
+
+    public long getRequestCount(String endpoint) { // divisions, groups, schedule (включая ответы 503)
+        AtomicLong count = requests.get(endpoint);
+        return count == null ? 0 : count.get();
+    }
+
+    public long getInjectedErrorCount() {
+        return injectedErrors.get();
+    }
+
+    public String metricsSummary() {
+        return String.format("divisions=%d, groups=%d, schedule=%d, injectedErrors=%d",
+                getRequestCount("divisions"), getRequestCount("groups"), getRequestCount("schedule"),
+                getInjectedErrorCount());
+    }
+}
@@ -0,0 +1,180 @@
+package bot.commands;
+
+import bot.db.SQLiteDatabase;
+import bot.fsm.DialogState;
+import bot.schedule.*;
+import bot.user.User;
+import bot.user.UserStorage;
+import bot.user.exception.ScheduleFetchException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+public class FakeUrfuServerTest {
+
+    private static final String INSTITUTE = "Институт естественных наук и математики";
+    private static final String DEPARTMENT = "Департамент математики, механики и компьютерных наук";
+
+    @TempDir
+    Path tempDir;
+
+    private FakeUrfuServer urfu;
+    private CatalogueCache catalogue;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        urfu = new FakeUrfuServer().start();
+        catalogue = new CatalogueCache(tempDir.resolve("catalogue"), CatalogueCache.DEFAULT_TTL,
+                CatalogueCache.DEFAULT_MAX_STALE, System::currentTimeMillis, Runnable::run); // холодный в каждом тесте
+    }
+
+    @AfterEach
+    public void tearDown() {
+        urfu.close();
+    }
+
+    private ScheduleFetcher fetcher() {
+        return new ScheduleFetcher(new UrfuApiClient(urfu.getBaseUrl(), catalogue));
+    }
+
+    private static int lessons(Schedule schedule) {
+        return schedule.getOccurrences().values().stream().mapToInt(List::size).sum();
+    }
+
+
+    @Test
+    public void fetcher_resolvesRecordedGroup_andDecodesWholeHorizon() throws Exception {
+        ScheduleFetcher fetcher = fetcher();
+        User user = new User(1L, "Студент", "мен 241001", INSTITUTE, DEPARTMENT, "2", DialogState.ASK_COURSE);
+
+        long groupId = fetcher.resolveGroupId(user);
+        assertEquals(62810, groupId);
+
+        LocalDate monday = LocalDate.of(2026, 10, 12);
+        Schedule schedule = fetcher.fetchWeek(groupId, "МЕН-241001", monday);
+        assertEquals(14 * ScheduleFetcher.HORIZON_WEEKS, lessons(schedule)); // записанная неделя на каждую неделю горизонта
+        assertEquals(monday, schedule.getOccurrences().firstKey());
+        assertFalse(schedule.getLessonsOn(monday.plusWeeks(3)).isEmpty());
+
+        assertEquals(1, urfu.getRequestCount("divisions"));
+        assertEquals(1, urfu.getRequestCount("groups"));
+        assertEquals(1, urfu.getRequestCount("schedule"));
+    }
+
+    @Test
+    public void payloadScale_repeatsEvents() throws Exception {
+        urfu.setPayloadScale(3);
+        Schedule schedule = fetcher().fetchWeek(62810, "МЕН-241001", LocalDate.of(2026, 10, 12));
+        assertEquals(3 * 14 * ScheduleFetcher.HORIZON_WEEKS, lessons(schedule));
+    }
+
+    @Test
+    public void injectedErrors_areRetried_thenFailTheFetch() {
+        urfu.setErrorRate(1.0);
+        assertThrows(ScheduleFetchException.class,
+                () -> fetcher().fetchWeek(62810, "МЕН-241001", LocalDate.of(2026, 10, 12)));
+        assertEquals(3, urfu.getRequestCount("schedule")); // запрос и два повтора UrfuApiClient
+        assertEquals(3, urfu.getInjectedErrorCount());
+    }
+
+    @Test
+    public void registrations_fetchEachGroupOnce() throws Exception { // маленький вариант RegistrationLoadBenchmark
+        SQLiteDatabase database = new SQLiteDatabase(tempDir.resolve("schedules.db").toString());
+        try {
+            SQLiteScheduleStorage common = new SQLiteScheduleStorage(database);
+            common.initialize();
+            ScheduleManager manager = new ScheduleManager(mock(UserStorage.class), common,
+                    mock(ScheduleStorage.class), mock(ScheduleOverlayStorage.class));
+            ScheduleProvider provider = new ScheduleProvider(manager, this::fetcher, Duration.ofDays(1),
+                    Duration.ofDays(14), System::currentTimeMillis, Runnable::run);
+
+            urfu.setGroupsPerCourse(3);
+            List<User> users = new ArrayList<>();
+            Set<String> groups = new HashSet<>();
+            long chatId = 1;
+            for (FakeUrfuServer.Division department : urfu.getDivisions()) {
+                if (department.parentId() == -1 || users.size() >= 60) {
+                    continue;
+                }
+                String institute = urfu.getDivisions().stream()
+                        .filter(d -> d.id() == department.parentId()).findFirst().orElseThrow().title();
+                for (String group : urfu.groupTitles(department.id(), 1)) {
+                    groups.add(group);
+                    for (int i = 0; i < 4; i++) { // четверо одногруппников
+                        users.add(new User(chatId++, "Студент", group, institute, department.title(), "1",
+                                DialogState.ASK_COURSE));
+                    }
+                }
+            }
+
+            for (User user : users) {
+                Schedule schedule = provider.scheduleFor(user);
+                assertNotNull(schedule, user.getGroup());
+                assertFalse(schedule.getOccurrences().isEmpty());
+            }
+            assertEquals(groups.size(), urfu.getRequestCount("schedule"));
+            assertEquals(groups.size(), provider.getFetchCount());
+            assertEquals(users.size() - groups.size(), provider.getLocalHitCount());
+            assertEquals(1, urfu.getRequestCount("divisions")); // справочники — из CatalogueCache
+        } finally {
+            database.close();
+        }
+    }
+
+    @Test
+    public void concurrentRegistrations_succeed_andShareCatalogueRequests() throws Exception {
+        SQLiteDatabase database = new SQLiteDatabase(tempDir.resolve("schedules.db").toString());
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        try {
+            SQLiteScheduleStorage common = new SQLiteScheduleStorage(database);
+            common.initialize();
+            ScheduleManager manager = new ScheduleManager(mock(UserStorage.class), common,
+                    mock(ScheduleStorage.class), mock(ScheduleOverlayStorage.class));
+            ScheduleProvider provider = new ScheduleProvider(manager, this::fetcher, Duration.ofDays(1),
+                    Duration.ofDays(14), System::currentTimeMillis, Runnable::run);
+
+            urfu.setGroupsPerCourse(5).setLatency(5, 20); // ответы медленные — регистрации пересекаются
+            FakeUrfuServer.Division department = urfu.getDivisions().stream()
+                    .filter(d -> d.parentId() != -1).findFirst().orElseThrow();
+            String institute = urfu.getDivisions().stream()
+                    .filter(d -> d.id() == department.parentId()).findFirst().orElseThrow().title();
+            List<User> users = new ArrayList<>();
+            for (int i = 0; i < 8; i++) { // восемь одногруппников на группу, вперемешку
+                for (String group : urfu.groupTitles(department.id(), 1)) {
+                    users.add(new User(users.size() + 1L, "Студент", group, institute, department.title(), "1",
+                            DialogState.ASK_COURSE));
+                }
+            }
+
+            List<Future<Schedule>> results = new ArrayList<>();
+            for (User user : users) {
+                results.add(pool.submit(() -> provider.scheduleFor(user))); // холодный CatalogueCache у всех сразу
+            }
+            for (Future<Schedule> result : results) {
+                assertNotNull(result.get(30, TimeUnit.SECONDS)); // ни SQLITE_BUSY, ни гонки сохранения новой группы
+            }
+            assertEquals(1, urfu.getRequestCount("divisions")); // промахи справочника схлопнуты
+            assertEquals(1, urfu.getRequestCount("groups"));
+            assertTrue(urfu.getRequestCount("schedule") < users.size());
+        } finally {
+            pool.shutdownNow();
+            database.close();
+        }
+    }
+}
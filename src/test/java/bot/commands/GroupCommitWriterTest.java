@@ -0,0 +1,156 @@
+package bot.commands;
+
+import bot.db.GroupCommitWriter;
+import bot.db.SQLiteDatabase;
+import bot.fsm.DialogState;
+import bot.homework.SQLiteHomeworkStorage;
+import bot.schedule.Lesson;
+import bot.schedule.ScheduleOverlayStorage;
+import bot.schedule.ScheduleOverride;
+import bot.user.SQLiteUserStorage;
+import bot.user.User;
+import bot.user.exception.UserStorageException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GroupCommitWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void burstOfUpdates_isCommittedInFewTransactions() {
+        SQLiteDatabase db = new SQLiteDatabase(tempDir.resolve("users.db").toString(), 2, true);
+        SQLiteUserStorage storage = new SQLiteUserStorage(db);
+        storage.initialize();
+
+        for (long id = 1; id <= 200; id++) {
+            storage.saveUser(new User(id));
+        }
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (long id = 1; id <= 200; id++) {
+            User user = new User(id);
+            user.setName("Студент " + id);
+            user.setState(DialogState.REGISTERED);
+            futures.add(storage.updateUserAsync(user));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        for (long id = 1; id <= 200; id++) {
+            User stored = storage.getUser(id);
+            assertEquals("Студент " + id, stored.getName());
+            assertEquals(DialogState.REGISTERED, stored.getState());
+        }
+
+        GroupCommitWriter writer = db.getWriter();
+        assertEquals(400, writer.getCommittedWrites());
+        assertTrue(writer.getBatchCount() < 400); // записи объединялись в общие транзакции
+        assertTrue(db.isWalMode());
+        db.close();
+    }
+
+    @Test
+    public void failedWrite_doesNotRollBackNeighbours() {
+        SQLiteDatabase db = new SQLiteDatabase(tempDir.resolve("batch.db").toString(), 2, true);
+        execute(db, "CREATE TABLE t (id INTEGER PRIMARY KEY)");
+
+        CompletableFuture<Integer> first = db.write(c -> insert(c, 1));
+        CompletableFuture<Integer> duplicate = db.write(c -> insert(c, 1)); // нарушает PRIMARY KEY
+        CompletableFuture<Integer> third = db.write(c -> insert(c, 3));
+
+        assertEquals(1, first.join());
+        assertEquals(1, third.join());
+        CompletionException e = assertThrows(CompletionException.class, duplicate::join);
+        assertInstanceOf(SQLException.class, e.getCause());
+
+        assertEquals(2, execute(db, "DELETE FROM t")); // обе соседние записи сохранились
+        db.close();
+    }
+
+    @Test
+    public void errorInWork_failsOnlyThatWrite_andWriterKeepsRunning() throws Exception {
+        SQLiteDatabase db = new SQLiteDatabase(tempDir.resolve("error.db").toString(), 2, true);
+        execute(db, "CREATE TABLE t (id INTEGER PRIMARY KEY)");
+
+        CompletableFuture<Integer> first = db.write(c -> insert(c, 1));
+        CompletableFuture<Integer> broken = db.write(c -> {
+            insert(c, 2);
+            throw new StackOverflowError("глубокая рекурсия");
+        });
+        CompletableFuture<Integer> third = db.write(c -> insert(c, 3));
+
+        assertEquals(1, first.join());
+        assertEquals(1, third.join());
+        CompletionException e = assertThrows(CompletionException.class, broken::join);
+        assertInstanceOf(StackOverflowError.class, e.getCause());
+
+        assertEquals(1, (int) db.writeAndWait(c -> insert(c, 4))); // писатель жив, следующие записи проходят
+        assertEquals(3, execute(db, "DELETE FROM t")); // запись упавшего изменения откатилась
+        db.close();
+    }
+
+    @Test
+    public void homeworkAndOverrideWrites_goThroughWriter() {
+        SQLiteDatabase db = new SQLiteDatabase(tempDir.resolve("homework.db").toString(), 2, true);
+        SQLiteHomeworkStorage homework = new SQLiteHomeworkStorage(db);
+        homework.initialize();
+        ScheduleOverlayStorage overlay = new ScheduleOverlayStorage(db);
+        overlay.initialize();
+
+        homework.addHomework(1, "Математика", "задачи", LocalDate.of(2025, 3, 10), 1);
+        long id = homework.getHomeworkByUser(1).get(0).getId();
+        homework.updateHomework(id, "Математика", "задачи 1-5", LocalDate.of(2025, 3, 11));
+        homework.markAsCompleted(id, true);
+        Lesson lesson = new Lesson("Физика", LocalTime.of(10, 0), LocalTime.of(11, 30), "101");
+        overlay.replaceOverrides(1, List.of(ScheduleOverride.add("MONDAY", lesson), ScheduleOverride.add("TUESDAY", lesson)));
+        assertEquals(2, overlay.getOverrides(1).size()); // читатель видит всё, что писатель зафиксировал
+        homework.deleteHomework(id);
+
+        assertEquals(5, db.getWriter().getCommittedWrites()); // ни одной записи мимо писателя
+        assertTrue(homework.getHomeworkByUser(1).isEmpty());
+        db.close();
+    }
+
+    @Test
+    public void updateMissingUser_andDuplicateSave_throw() {
+        SQLiteDatabase db = new SQLiteDatabase(tempDir.resolve("errors.db").toString());
+        SQLiteUserStorage storage = new SQLiteUserStorage(db);
+        storage.initialize();
+
+        assertThrows(UserStorageException.class, () -> storage.updateUser(new User(42L)));
+
+        storage.saveUser(new User(7L));
+        UserStorageException e = assertThrows(UserStorageException.class, () -> storage.saveUser(new User(7L)));
+        assertEquals("Пользователь уже существует", e.getMessage());
+        db.close();
+    }
+
+    private static int execute(SQLiteDatabase db, String sql) {
+        return db.write(c -> {
+            try (var st = c.createStatement()) {
+                return st.executeUpdate(sql);
+            }
+        }).join();
+    }
+
+    private static int insert(Connection connection, int id) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO t (id) VALUES (?)")) {
+            ps.setInt(1, id);
+            return ps.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package bot.commands;
+
+import bot.db.SQLiteDatabase;
+import bot.homework.HomeworkItem;
+import bot.homework.SQLiteHomeworkStorage;
+import bot.schedule.ScheduleManager;
+import bot.scheduler.DigestPlanner;
+import bot.user.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+public class HomeworkReminderTest {
+
+    private static final LocalDate TODAY = LocalDate.of(2025, 3, 3);
+
+    @TempDir
+    Path tempDir;
+
+    private SQLiteDatabase database;
+    private SQLiteHomeworkStorage storage;
+
+    @BeforeEach
+    public void setUp() {
+        database = new SQLiteDatabase(tempDir.resolve("homework.db").toString());
+        storage = new SQLiteHomeworkStorage(database);
+        storage.initialize();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        database.close();
+    }
+
+
+    @Test
+    public void reminderDay_followsAddUpdateAndCompletion() {
+        storage.addHomework(1, "Математика", "задачи", TODAY.plusDays(5), 3); // напомнить TODAY + 2
+        long id = storage.getHomeworkByUser(1).get(0).getId();
+
+        assertTrue(storage.getRemindersDue(TODAY, TODAY.plusDays(1)).isEmpty());
+        assertEquals(id, storage.getRemindersDue(TODAY.plusDays(2), TODAY.plusDays(2)).get(1L).get(0).getId());
+
+        storage.updateHomework(id, "Математика", "задачи", TODAY.plusDays(10)); // день напоминания сдвигается с дедлайном
+        assertTrue(storage.getRemindersDue(TODAY.plusDays(2), TODAY.plusDays(2)).isEmpty());
+        assertFalse(storage.getRemindersDue(TODAY.plusDays(7), TODAY.plusDays(7)).isEmpty());
+
+        storage.markAsCompleted(id, true);
+        assertTrue(storage.getRemindersDue(TODAY, TODAY.plusDays(30)).isEmpty());
+        storage.markAsCompleted(id, false);
+        assertFalse(storage.getRemindersDue(TODAY, TODAY.plusDays(30)).isEmpty());
+
+        storage.deleteHomework(id);
+        assertTrue(storage.getRemindersDue(TODAY, TODAY.plusDays(30)).isEmpty());
+    }
+
+    @Test
+    public void negativeRemindBeforeDays_remindsOnTheDueDate() throws Exception {
+        storage.addHomework(1, "Физика", "задачи", TODAY.plusDays(3), -2);
+        assertEquals(0, storage.getHomeworkByUser(1).get(0).getRemindBeforeDays());
+        assertFalse(storage.getRemindersDue(TODAY.plusDays(3), TODAY.plusDays(3)).isEmpty());
+
+        try (Connection connection = database.getConnection(); Statement statement = connection.createStatement()) {
+            // строка, записанная в обход addHomework: отрицательное значение и remindOn = NULL
+            statement.executeUpdate("INSERT INTO homework (chatId, subject, description, dueDate, completed, " +
+                                    "remindBeforeDays) VALUES (2, 'Химия', 'лабораторная', '2025-03-05', 0, -2)");
+        }
+        long id = storage.getHomeworkByUser(2).get(0).getId();
+        storage.updateHomework(id, "Химия", "лабораторная", TODAY.plusDays(4));
+        assertEquals(id, storage.getRemindersDue(TODAY.plusDays(4), TODAY.plusDays(4)).get(2L).get(0).getId());
+
+        HomeworkItem legacy = storage.getHomeworkByUser(2).get(0); // в строке по-прежнему -2
+        assertEquals(TODAY.plusDays(4), legacy.getRemindOn()); // как в SQL: не позже дедлайна
+        String message = new DigestPlanner(storage, mock(ScheduleManager.class))
+                .plan(List.of(new User(2L)), TODAY.plusDays(4), Map.of()).get(2L).getMessage();
+        assertTrue(message.contains("Химия — лабораторная"));
+    }
+
+    @Test
+    public void digest_listsRemindersOnTheRequestedDay() {
+        storage.addHomework(1, "История", "реферат", TODAY.plusDays(4), 4); // напомнить сегодня
+        storage.addHomework(1, "Химия", "лабораторная", TODAY.plusDays(6), 2); // ещё рано
+
+        Map<Long, List<HomeworkItem>> due = storage.getRemindersDue(TODAY, TODAY);
+        String message = new DigestPlanner(storage, mock(ScheduleManager.class))
+                .plan(List.of(new User(1L)), TODAY, due).get(1L).getMessage();
+
+        assertTrue(message.contains("Напоминания о дедлайнах:"));
+        assertTrue(message.contains("История — реферат"));
+        assertFalse(message.contains("лабораторная"));
+    }
+}
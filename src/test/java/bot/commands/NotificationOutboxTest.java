@@ -0,0 +1,110 @@
+package bot.commands;
+
+import bot.db.SQLiteDatabase;
+import bot.scheduler.Digest;
+import bot.scheduler.NotificationOutbox;
+import bot.scheduler.NotificationOutbox.Status;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NotificationOutboxTest {
+
+    private static final LocalDate DATE = LocalDate.of(2025, 3, 4);
+
+    @TempDir
+    Path tempDir;
+
+    private SQLiteDatabase database;
+    private NotificationOutbox outbox;
+
+    @BeforeEach
+    public void setUp() {
+        database = new SQLiteDatabase(tempDir.resolve("users.db").toString());
+        outbox = new NotificationOutbox(database);
+        outbox.initialize();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        database.close();
+    }
+
+
+    @Test
+    public void sameDigestTwice_isQueuedOnce() {
+        assertEquals(1, outbox.enqueue(List.of(digest(1)), 0));
+        assertEquals(1, outbox.claim(10, 0).size());
+
+        // повторная постановка (например, после рестарта) не создаёт второй рассылки
+        assertEquals(0, outbox.enqueue(List.of(digest(1)), 0));
+        assertTrue(outbox.claim(10, 0).isEmpty());
+    }
+
+    @Test
+    public void sentDigest_isNotResentAfterRestart() {
+        outbox.enqueue(List.of(digest(1), digest(2)), 0);
+        List<NotificationOutbox.Entry> claimed = outbox.claim(10, 0);
+        assertEquals(2, claimed.size());
+        outbox.markSent(claimed.get(0), 0); // вторую "прервал" рестарт
+
+        NotificationOutbox afterRestart = new NotificationOutbox(database);
+        afterRestart.initialize();
+        assertEquals(1, afterRestart.recoverInFlight(0));
+
+        List<NotificationOutbox.Entry> resent = afterRestart.claim(10, 0);
+        assertEquals(1, resent.size());
+        assertEquals(claimed.get(1).getChatId(), resent.get(0).getChatId());
+        assertEquals(Status.SENT, afterRestart.getStatus(claimed.get(0).getChatId(), DATE));
+    }
+
+    @Test
+    public void failedDigest_waitsForBackoffThenGoesDead() {
+        outbox.enqueue(List.of(digest(1)), 0);
+        NotificationOutbox.Entry entry = outbox.claim(10, 0).get(0);
+        outbox.markFailed(entry, 60_000, "timeout", 0);
+
+        assertTrue(outbox.claim(10, 59_999).isEmpty()); // отсрочка ещё не прошла
+        NotificationOutbox.Entry retry = outbox.claim(10, 60_000).get(0);
+        assertEquals(1, retry.getAttempts());
+
+        outbox.markDead(retry, "blocked", 60_000);
+        assertEquals(Status.DEAD, outbox.getStatus(1, DATE));
+        assertTrue(outbox.claim(10, Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void unmarkedDigests_areReleasedWithoutCountingAttempt() {
+        outbox.enqueue(List.of(digest(1), digest(2)), 0);
+        List<NotificationOutbox.Entry> claimed = outbox.claim(10, 0);
+        outbox.markSent(claimed.get(0), 0);
+
+        // отметить вторую не удалось — отправитель возвращает обе, но SENT остаётся SENT
+        assertEquals(1, outbox.release(claimed, 60_000, 0));
+        assertEquals(Status.SENT, outbox.getStatus(1, DATE));
+        assertEquals(Status.PENDING, outbox.getStatus(2, DATE));
+        assertTrue(outbox.claim(10, 59_999).isEmpty());
+        assertEquals(0, outbox.claim(10, 60_000).get(0).getAttempts());
+    }
+
+    @Test
+    public void pendingForPastDays_expire() {
+        outbox.enqueue(List.of(digest(1)), 0);
+        assertEquals(1, outbox.expireBefore(DATE.plusDays(1), 0));
+        assertTrue(outbox.claim(10, 0).isEmpty());
+        assertEquals(1, outbox.purgeBefore(DATE.plusDays(1)));
+        assertNull(outbox.getStatus(1, DATE));
+    }
+
+
+    private static Digest digest(long chatId) {
+        return new Digest(chatId, DATE, "План на завтра", null);
+    }
+}
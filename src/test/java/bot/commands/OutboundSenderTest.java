@@ -0,0 +1,123 @@
+package bot.commands;
+
+import bot.dispatcher.OutboundSender;
+import bot.dispatcher.OutboundSender.Priority;
+import bot.dispatcher.TokenBucket;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.ApiResponse;
+import org.telegram.telegrambots.meta.api.objects.ResponseParameters;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class OutboundSenderTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void tokenBucket_refillsAtRateAndHonoursPause() {
+        TokenBucket bucket = new TokenBucket(2, 1, 0);
+        assertTrue(bucket.tryAcquire(0));
+        assertTrue(bucket.tryAcquire(0));
+        assertFalse(bucket.tryAcquire(0)); // запас на всплеск кончился
+        assertEquals(SECOND, bucket.nanosUntilAvailable(0));
+        assertTrue(bucket.tryAcquire(SECOND));
+
+        bucket.pauseUntil(10 * SECOND); // retry_after: до паузы маркеров нет, пока она идёт — не копятся
+        assertFalse(bucket.tryAcquire(5 * SECOND));
+        assertFalse(bucket.tryAcquire(10 * SECOND));
+        assertTrue(bucket.tryAcquire(11 * SECOND));
+    }
+
+    @Test
+    public void interactiveReplies_goBeforeBulk() throws Exception {
+        AtomicLong clock = new AtomicLong();
+        List<String> sentTo = Collections.synchronizedList(new ArrayList<>());
+        OutboundSender sender = new OutboundSender(m -> sentTo.add(m.getChatId()), 1, 1, clock::get);
+        try {
+            sender.submit(new SendMessage("1", "первый"), Priority.BULK).get(5, TimeUnit.SECONDS); // общий маркер израсходован
+
+            CompletableFuture<Void> bulk = sender.submit(new SendMessage("2", "рассылка"), Priority.BULK);
+            CompletableFuture<Void> reply = sender.submit(new SendMessage("3", "ответ"), Priority.INTERACTIVE);
+            assertEquals(1, sender.getQueueDepth(Priority.BULK));
+
+            clock.addAndGet(SECOND); // один новый маркер — достаётся ответу
+            reply.get(5, TimeUnit.SECONDS);
+            assertFalse(bulk.isDone());
+
+            clock.addAndGet(SECOND);
+            bulk.get(5, TimeUnit.SECONDS);
+            assertEquals(List.of("1", "3", "2"), sentTo);
+            assertEquals(3, sender.getSentCount());
+        } finally {
+            sender.shutdown(1);
+        }
+    }
+
+    @Test
+    public void tooManyRequests_isRetriedAfterRetryAfter() throws Exception {
+        ApiResponse<?> response = mock(ApiResponse.class);
+        when(response.getErrorCode()).thenReturn(429);
+        when(response.getErrorDescription()).thenReturn("Too Many Requests: retry after 0");
+        when(response.getParameters()).thenReturn(new ResponseParameters(null, 0));
+
+        AtomicBoolean throttledOnce = new AtomicBoolean();
+        OutboundSender sender = new OutboundSender(m -> {
+            if (throttledOnce.compareAndSet(false, true)) {
+                throw new TelegramApiRequestException("429", response);
+            }
+        }, 30, 30);
+        try {
+            sender.submit(new SendMessage("7", "текст"), Priority.INTERACTIVE).get(5, TimeUnit.SECONDS);
+            assertEquals(1, sender.getThrottledCount());
+            assertEquals(1, sender.getSentCount());
+            assertEquals(0, sender.getFailedCount());
+        } finally {
+            sender.shutdown(1);
+        }
+    }
+
+    @Test
+    public void chatsNextMessage_waitsUntilPreviousSendFinishes() throws Exception {
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        List<String> sent = Collections.synchronizedList(new ArrayList<>());
+        OutboundSender sender = new OutboundSender(m -> {
+            if (m.getText().equals("первое")) { // Telegram отвечает на первое сообщение долго
+                firstStarted.countDown();
+                try {
+                    releaseFirst.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+            }
+            sent.add(m.getText());
+        }, 30, 30);
+        try {
+            CompletableFuture<Void> first = sender.submit(new SendMessage("5", "первое"), Priority.BULK);
+            assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+            CompletableFuture<Void> second = sender.submit(new SendMessage("5", "второе"), Priority.INTERACTIVE);
+            sender.submit(new SendMessage("6", "другой чат"), Priority.BULK).get(5, TimeUnit.SECONDS); // его не держим
+
+            Thread.sleep(100);
+            assertFalse(second.isDone()); // маркеры есть, но первое ещё отправляется
+            releaseFirst.countDown();
+            first.get(5, TimeUnit.SECONDS);
+            second.get(5, TimeUnit.SECONDS);
+            assertEquals(List.of("другой чат", "первое", "второе"), sent);
+        } finally {
+            releaseFirst.countDown();
+            sender.shutdown(1);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package bot.commands;
+
+import bot.db.SQLiteDatabase;
+import bot.db.SchemaMigrator;
+import bot.homework.HomeworkLinkStorage;
+import bot.homework.SQLiteHomeworkStorage;
+import bot.schedule.SQLiteScheduleStorage;
+import bot.schedule.ScheduleOverlayStorage;
+import bot.scheduler.NotificationOutbox;
+import bot.user.SQLiteUserStorage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryPlanTest {
+
+    @TempDir
+    Path tempDir;
+
+    // Запросы берутся из самих хранилищ (QUERIES), а не копируются сюда. Полные обходы по смыслу
+    // (SELECT * FROM users, список всех групп для ночной сверки) в QUERIES не входят.
+    private static final List<String> HOMEWORK_QUERIES = concat(SQLiteHomeworkStorage.QUERIES, HomeworkLinkStorage.QUERIES);
+    private static final List<String> SCHEDULE_QUERIES = concat(SQLiteScheduleStorage.QUERIES, ScheduleOverlayStorage.QUERIES);
+    private static final List<String> USER_QUERIES = concat(SQLiteUserStorage.QUERIES, NotificationOutbox.QUERIES);
+
+
+    @Test
+    public void everyStorageQuery_usesAnIndex() throws SQLException {
+        SQLiteDatabase homeworkDb = new SQLiteDatabase(tempDir.resolve("homework.db").toString());
+        SQLiteDatabase scheduleDb = new SQLiteDatabase(tempDir.resolve("schedules.db").toString());
+        SQLiteDatabase usersDb = new SQLiteDatabase(tempDir.resolve("users.db").toString());
+        try {
+            new SQLiteHomeworkStorage(homeworkDb).initialize();
+            new HomeworkLinkStorage(homeworkDb);
+            new SQLiteScheduleStorage(scheduleDb).initialize();
+            new ScheduleOverlayStorage(scheduleDb).initialize();
+            new SQLiteUserStorage(usersDb).initialize();
+            new NotificationOutbox(usersDb).initialize();
+
+            List<String> fullScans = new ArrayList<>();
+            fullScans.addAll(fullScans(homeworkDb, HOMEWORK_QUERIES));
+            fullScans.addAll(fullScans(scheduleDb, SCHEDULE_QUERIES));
+            fullScans.addAll(fullScans(usersDb, USER_QUERIES));
+
+            assertTrue(fullScans.isEmpty(), "Запросы без индекса: " + fullScans);
+        } finally {
+            homeworkDb.close();
+            scheduleDb.close();
+            usersDb.close();
+        }
+    }
+
+    @Test
+    public void migrations_areAppliedOnce() throws SQLException {
+        SQLiteDatabase homeworkDb = new SQLiteDatabase(tempDir.resolve("homework.db").toString());
+        try {
+            new SQLiteHomeworkStorage(homeworkDb).initialize();
+            new SQLiteHomeworkStorage(homeworkDb).initialize(); // повторный старт ничего не меняет
+
+            try (Connection c = homeworkDb.getConnection()) {
+                assertEquals(7, SchemaMigrator.currentVersion(c, "homework"));
+                assertEquals(0, SchemaMigrator.currentVersion(c, "unknown"));
+            }
+        } finally {
+            homeworkDb.close();
+        }
+    }
+
+
+    private static List<String> fullScans(SQLiteDatabase db, List<String> queries) throws SQLException {
+        List<String> result = new ArrayList<>();
+        try (Connection c = db.getConnection()) {
+            for (String sql : queries) {
+                try (PreparedStatement ps = c.prepareStatement("EXPLAIN QUERY PLAN " + sql)) {
+                    for (int i = 1; i <= ps.getParameterMetaData().getParameterCount(); i++) {
+                        ps.setNull(i, Types.NULL); // план от значений не зависит
+                    }
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            String detail = rs.getString("detail");
+                            // SCAN без индекса — полный обход таблицы (SCAN ... USING INDEX — обход по индексу, допустим)
+                            if (detail.startsWith("SCAN ") && !detail.contains("INDEX")) {
+                                result.add(sql + " -> " + detail);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    @SafeVarargs
+    private static List<String> concat(List<String>... lists) {
+        List<String> all = new ArrayList<>();
+        for (List<String> list : lists) {
+            all.addAll(list);
+        }
+        return all;
+    }
+}
@@ -0,0 +1,175 @@
+package bot.commands;
+
+import bot.fsm.DialogState;
+import bot.schedule.*;
+import bot.user.User;
+import bot.user.exception.ScheduleFetchException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+public class RegistrationPrefetcherTest {
+
+    // 10 ноября 2025: идёт 2025/26 учебный год, набор 2024 — второй курс
+    private static final long NOW = LocalDate.of(2025, 11, 10).atStartOfDay(ZoneId.of("Asia/Yekaterinburg"))
+            .toInstant().toEpochMilli();
+
+    private ScheduleProvider provider;
+    private ScheduleFetcher fetcher;
+    private final Queue<Runnable> background = new ArrayDeque<>(); // фоновые задачи выполняем вручную
+    private RegistrationPrefetcher prefetcher;
+
+    @BeforeEach
+    public void setUp() {
+        provider = mock(ScheduleProvider.class);
+        fetcher = mock(ScheduleFetcher.class);
+        prefetcher = new RegistrationPrefetcher(provider, () -> fetcher, () -> NOW, background::add);
+    }
+
+    private static User student(String course) {
+        return new User(42L, "Студент", "МЕН-241001", "ИЕНиМ", "ШН", course, DialogState.ASK_COURSE);
+    }
+
+    private void runBackground() {
+        while (!background.isEmpty()) {
+            background.poll().run();
+        }
+    }
+
+
+    @Test
+    public void guessesCourseFromAdmissionYear() {
+        assertEquals("2", RegistrationPrefetcher.guessCourse("МЕН-241001", LocalDate.of(2025, 11, 10)));
+        assertEquals("1", RegistrationPrefetcher.guessCourse("мен 241001", LocalDate.of(2025, 6, 30))); // до сентября — прошлый учебный год
+        assertEquals("1", RegistrationPrefetcher.guessCourse("РИ-250003", LocalDate.of(2025, 9, 1)));
+        assertNull(RegistrationPrefetcher.guessCourse("МЕН-181001", LocalDate.of(2025, 11, 10))); // седьмой курс не бывает
+        assertNull(RegistrationPrefetcher.guessCourse("группа 5", LocalDate.of(2025, 11, 10)));
+        assertNull(RegistrationPrefetcher.guessCourse(null, LocalDate.of(2025, 11, 10)));
+    }
+
+    @Test
+    public void warmsDivisionsWhenGroupIsAsked() throws Exception {
+        prefetcher.onGroupAsked();
+        verify(fetcher, never()).warmDivisions(); // не в потоке диалога
+        runBackground();
+        verify(fetcher).warmDivisions();
+    }
+
+    @Test
+    public void courseStepUsesPrefetchedSchedule() throws Exception {
+        Schedule schedule = new Schedule("62810", "МЕН-241001");
+        when(provider.scheduleFor(any())).thenReturn(schedule);
+
+        User user = student(null);
+        prefetcher.onDepartmentChosen(user);
+        runBackground(); // загрузка прошла, пока пользователь выбирал курс
+        verify(provider).scheduleFor(argThat(u -> "2".equals(u.getCourse())));
+
+        user.setCourse("2");
+        assertSame(schedule, prefetcher.scheduleFor(user));
+        verify(provider, times(1)).scheduleFor(any()); // второй загрузки нет
+        assertEquals(1, prefetcher.getUsedCount());
+        assertEquals(0, prefetcher.getMissedCount());
+    }
+
+    @Test
+    public void otherCourseFallsBackToDirectLoad() throws Exception {
+        Schedule guessed = new Schedule("62810", "МЕН-241001");
+        Schedule actual = new Schedule("62811", "МЕН-241001");
+        when(provider.scheduleFor(argThat(u -> u != null && "2".equals(u.getCourse())))).thenReturn(guessed);
+        when(provider.scheduleFor(argThat(u -> u != null && "3".equals(u.getCourse())))).thenReturn(actual);
+
+        User user = student(null);
+        prefetcher.onDepartmentChosen(user);
+        runBackground();
+
+        user.setCourse("3");
+        assertSame(actual, prefetcher.scheduleFor(user));
+        assertEquals(0, prefetcher.getUsedCount());
+        assertEquals(1, prefetcher.getMissedCount());
+    }
+
+    @Test
+    public void prefetchErrorSurfacesOnCourseStep() throws Exception {
+        when(provider.scheduleFor(any())).thenThrow(new ScheduleFetchException("Не удалось найти группу."));
+
+        User user = student(null);
+        prefetcher.onDepartmentChosen(user);
+        runBackground();
+
+        user.setCourse(" 2 ");
+        ScheduleFetchException e = assertThrows(ScheduleFetchException.class, () -> prefetcher.scheduleFor(user));
+        assertEquals("Не удалось найти группу.", e.getMessage());
+        verify(provider, times(1)).scheduleFor(any());
+    }
+
+    @Test
+    public void withoutPrefetchLoadsDirectly() throws Exception {
+        Schedule schedule = new Schedule("1", "Группа без кода");
+        when(provider.scheduleFor(any())).thenReturn(schedule);
+
+        User user = new User(7L, "Студент", "Группа без кода", "ИЕНиМ", "ШН", null, DialogState.ASK_COURSE);
+        prefetcher.onDepartmentChosen(user); // курс не угадать — заранее не грузим
+        assertTrue(background.isEmpty());
+
+        user.setCourse("1");
+        assertSame(schedule, prefetcher.scheduleFor(user));
+        assertEquals(0, prefetcher.getStartedCount());
+    }
+
+    @Test
+    public void notStartedPrefetchIsCancelled_andLoadedDirectly() throws Exception {
+        Schedule schedule = new Schedule("62810", "МЕН-241001");
+        when(provider.scheduleFor(any())).thenReturn(schedule);
+
+        User user = student(null);
+        prefetcher.onDepartmentChosen(user); // фоновая задача стоит в очереди и ещё не началась
+        user.setCourse("2");
+        assertSame(schedule, prefetcher.scheduleFor(user));
+
+        runBackground(); // запоздавшая задача видит, что работу уже взяли, и ничего не грузит
+        verify(provider, times(1)).scheduleFor(any());
+        assertEquals(1, prefetcher.getCancelledCount());
+        assertEquals(0, prefetcher.getUsedCount());
+    }
+
+    @Test
+    public void slowPrefetchFallsBackToDirectLoadAfterTimeout() throws Exception {
+        Schedule schedule = new Schedule("62810", "МЕН-241001");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(provider.scheduleFor(any())).thenAnswer(inv -> {
+            if (started.getCount() > 0) { // фоновая загрузка зависла на УрФУ
+                started.countDown();
+                release.await(10, TimeUnit.SECONDS);
+            }
+            return schedule;
+        });
+        RegistrationPrefetcher slow = new RegistrationPrefetcher(provider, () -> fetcher, () -> NOW,
+                r -> new Thread(r).start(), Duration.ofMillis(50));
+
+        User user = student(null);
+        slow.onDepartmentChosen(user);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        user.setCourse("2");
+        try {
+            assertSame(schedule, slow.scheduleFor(user));
+            assertEquals(1, slow.getTimedOutCount());
+            verify(provider, times(2)).scheduleFor(any());
+        } finally {
+            release.countDown();
+        }
+    }
+}
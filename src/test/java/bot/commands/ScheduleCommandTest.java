@@ -48,6 +48,10 @@ public class ScheduleCommandTest {
         when(mockClient.get("https://urfu.ru/api/v2/schedule/divisions/2/groups?course=2")).thenReturn(groupsJson);
         // а при любом запросе, начинающемся с https://urfu.ru/api/v2/schedule/groups/ вернём scheduleJson
         when(mockClient.get(startsWith("https://urfu.ru/api/v2/schedule/groups/"))).thenReturn(scheduleJson);
+        // расписание группы разбирается потоком прямо из тела ответа — отдаём те же байты
+        when(mockClient.getStream(startsWith("https://urfu.ru/api/v2/schedule/groups/"), any())).thenAnswer(invocation ->
+                invocation.<UrfuApiClient.BodyReader<?, ?>>getArgument(1)
+                        .read(new java.io.ByteArrayInputStream(scheduleJson.getBytes(java.nio.charset.StandardCharsets.UTF_8))));
 
         // Подмена приватного поля httpClient в fetcher через reflection (ScheduleFetcher создаёт его в конструкторе)
         Field clientField = ScheduleFetcher.class.getDeclaredField("httpClient"); //достаём приватное поле
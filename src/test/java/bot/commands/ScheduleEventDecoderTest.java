@@ -0,0 +1,86 @@
+package bot.commands;
+
+import bot.schedule.Lesson;
+import bot.schedule.Schedule;
+import bot.schedule.ScheduleEventDecoder;
+import bot.user.exception.ScheduleFetchException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ScheduleEventDecoderTest {
+
+    private static InputStream json(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static InputStream fixture() {
+        return ScheduleEventDecoderTest.class.getResourceAsStream("/urfu/schedule_week.json");
+    }
+
+    private static String describe(LocalDate date, Lesson lesson) {
+        return date + " " + lesson.getSubject() + " " + lesson.getStartTime() + "-" + lesson.getEndTime() + " " + lesson.getClassroom();
+    }
+
+
+    @Test
+    public void fixture_decodesLikeTreeBasedParser() throws Exception {
+        List<String> streamed = new ArrayList<>();
+        int count = ScheduleEventDecoder.decode(fixture(), (date, lesson) -> streamed.add(describe(date, lesson)));
+
+        List<String> expected = new ArrayList<>(); // прежний разбор: дерево + первый непустой вариант поля
+        for (JsonNode event : new ObjectMapper().readTree(fixture()).get("events")) {
+            Lesson lesson = new Lesson(first(event, "title", "discipline", "name"),
+                    LocalTime.parse(first(event, "timeBegin", "time_begin", "timeStart", "time_start")),
+                    LocalTime.parse(first(event, "timeEnd", "time_end")),
+                    first(event, "auditoryTitle", "auditoryLocation", "auditorium"));
+            expected.add(describe(LocalDate.parse(first(event, "date", "lesson_date", "lessonDate")), lesson));
+        }
+
+        assertEquals(14, count);
+        assertEquals(expected, streamed);
+        assertTrue(streamed.contains("2025-11-06 Физическая культура 10:15-11:45 Спорткомплекс")); // auditoryTitle = null
+    }
+
+    private static String first(JsonNode node, String... keys) {
+        for (String key : keys) {
+            if (node.has(key) && !node.get(key).isNull()) {
+                return node.get(key).asText();
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void aliases_followPriorityNotFieldOrder() throws Exception {
+        Schedule schedule = ScheduleEventDecoder.decodeSchedule(json("[" +
+                "{\"name\":\"Имя\",\"title\":\"Название\",\"date\":null,\"lessonDate\":\"2025-11-03\",\"time_start\":\"09:00\"}," +
+                "{\"title\":\"Без даты\"}," +
+                "42" +
+                "]"), "1", "МЕН-241001");
+
+        List<Lesson> monday = schedule.getWeeklySchedule().get("MONDAY");
+        assertEquals(1, monday.size());
+        assertEquals("Название", monday.get(0).getSubject());
+        assertEquals(LocalTime.of(9, 0), monday.get(0).getStartTime());
+        assertNull(monday.get(0).getEndTime());
+        assertEquals("", monday.get(0).getClassroom());
+    }
+
+    @Test
+    public void unexpectedShape_isFormatError() {
+        assertThrows(ScheduleFetchException.class, () -> ScheduleEventDecoder.decode(json("{\"items\":[]}"), (d, l) -> {}));
+        assertThrows(ScheduleFetchException.class, () -> ScheduleEventDecoder.decode(json("{\"events\":null}"), (d, l) -> {}));
+        assertThrows(ScheduleFetchException.class, () -> ScheduleEventDecoder.decode(json(""), (d, l) -> {}));
+    }
+}
@@ -0,0 +1,166 @@
+package bot.commands;
+
+import bot.db.SQLiteDatabase;
+import bot.schedule.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ScheduleOccurrencesTest {
+
+    private static final LocalDate MONDAY = LocalDate.of(2025, 11, 3);
+
+    @TempDir
+    Path tempDir;
+
+    private SQLiteDatabase database;
+    private SQLiteScheduleStorage storage;
+
+    @BeforeEach
+    public void setUp() {
+        database = new SQLiteDatabase(tempDir.resolve("schedules.db").toString());
+        storage = new SQLiteScheduleStorage(database);
+        storage.initialize();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        database.close();
+    }
+
+    private static Lesson lesson(String subject, int hour) {
+        return new Lesson(subject, LocalTime.of(hour, 0), LocalTime.of(hour + 1, 30), "Р-101");
+    }
+
+    // чётная/нечётная неделя по понедельникам, праздник 17 ноября, горизонт 4 недели
+    private static Schedule horizon() {
+        Schedule schedule = new Schedule("62810", "МЕН-241001");
+        schedule.addLesson("MONDAY", lesson("Математика", 9));
+        schedule.addOccurrence(MONDAY, lesson("Математика", 9));
+        schedule.addOccurrence(MONDAY.plusDays(1), lesson("Физика", 10));
+        schedule.addOccurrence(MONDAY.plusWeeks(1), lesson("Химия", 9));
+        schedule.addOccurrence(MONDAY.plusWeeks(3), lesson("Математика", 9));
+        schedule.setCoverage(MONDAY, MONDAY.plusWeeks(4).minusDays(1));
+        return schedule;
+    }
+
+    private List<Long> occurrenceIds(String date) throws Exception {
+        List<Long> ids = new ArrayList<>();
+        try (Connection connection = database.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT id FROM schedule_occurrences WHERE groupId = '62810' AND lessonDate = ? ORDER BY id")) {
+            statement.setString(1, date);
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    ids.add(result.getLong(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+
+    @Test
+    public void decoder_keepsDatesAndBuildsTemplateFromFirstWeek() throws Exception {
+        String json = "{\"events\":[" +
+                "{\"date\":\"2025-11-03\",\"timeBegin\":\"09:00\",\"timeEnd\":\"10:30\",\"title\":\"Математика\"}," +
+                "{\"date\":\"2025-11-10\",\"timeBegin\":\"09:00\",\"timeEnd\":\"10:30\",\"title\":\"Химия\"}," +
+                "{\"date\":\"2025-11-11\",\"timeBegin\":\"10:15\",\"timeEnd\":\"11:45\",\"title\":\"Физика\"}" +
+                "]}";
+        Schedule schedule = ScheduleEventDecoder.decodeSchedule(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), "62810", "МЕН-241001");
+
+        assertEquals(List.of("Математика"), schedule.getLessonsForDay("MONDAY").stream().map(Lesson::getSubject).toList());
+        assertEquals(List.of("Физика"), schedule.getLessonsForDay("TUESDAY").stream().map(Lesson::getSubject).toList());
+        assertEquals(3, schedule.getOccurrences().size());
+        assertEquals("Химия", schedule.getOccurrences().get(LocalDate.of(2025, 11, 10)).get(0).getSubject());
+    }
+
+    @Test
+    public void lessonsOn_usesDatesInsideHorizonAndTemplateOutside() {
+        storage.saveSchedule(horizon());
+        Schedule loaded = storage.getScheduleByGroupId("62810");
+
+        assertEquals(MONDAY, loaded.getCoveredFrom());
+        assertEquals("Химия", loaded.getLessonsOn(MONDAY.plusWeeks(1)).get(0).getSubject()); // вторая неделя — другая пара
+        assertTrue(loaded.getLessonsOn(MONDAY.plusWeeks(2)).isEmpty()); // праздник: по датам пар нет
+        assertEquals("Математика", loaded.getLessonsOn(MONDAY.plusWeeks(4)).get(0).getSubject()); // за горизонтом — шаблон
+    }
+
+    @Test
+    public void update_rewritesOnlyChangedDates() throws Exception {
+        storage.saveSchedule(horizon());
+        List<Long> mondayIds = occurrenceIds("2025-11-03");
+
+        Schedule changed = horizon();
+        changed.getOccurrences().get(MONDAY.plusDays(1)).set(0, lesson("Физика", 12)); // перенесли пару во вторник
+        int rows = storage.updateSchedule(changed);
+
+        assertEquals(2, rows); // строки: старая пара вторника удалена, новая вставлена
+        assertEquals(mondayIds, occurrenceIds("2025-11-03")); // остальные даты не переписывались
+        assertEquals(LocalTime.of(12, 0), storage.getScheduleByGroupId("62810")
+                .getLessonsOn(MONDAY.plusDays(1)).get(0).getStartTime());
+        assertEquals(2, storage.updateSchedule(horizon())); // вернули как было — снова одна дата, две строки
+        assertEquals(0, storage.updateSchedule(horizon())); // ничего не изменилось
+    }
+
+    @Test
+    public void coverage_extendsWithRollingHorizon() {
+        storage.saveSchedule(horizon());
+
+        Schedule nextWeek = new Schedule("62810", "МЕН-241001");
+        nextWeek.addLesson("MONDAY", lesson("Химия", 9));
+        nextWeek.addOccurrence(MONDAY.plusWeeks(4), lesson("Химия", 9));
+        nextWeek.setCoverage(MONDAY.plusWeeks(1), MONDAY.plusWeeks(5).minusDays(1));
+        storage.updateSchedule(nextWeek);
+
+        Schedule loaded = storage.getScheduleByGroupId("62810");
+        assertEquals(MONDAY, loaded.getCoveredFrom()); // прошлая неделя ещё в пределах KEEP_PAST_DAYS
+        assertEquals(MONDAY.plusWeeks(5).minusDays(1), loaded.getCoveredTo());
+        assertEquals("Математика", loaded.getLessonsOn(MONDAY).get(0).getSubject());
+        assertTrue(loaded.getLessonsOn(MONDAY.plusWeeks(3)).isEmpty()); // в новой загрузке пары 24-го нет
+        assertEquals("Химия", loaded.getLessonsOn(MONDAY.plusWeeks(4)).get(0).getSubject());
+    }
+
+    @Test
+    public void coverageShift_withoutLessons_invalidatesCachedSnapshot() {
+        CachingScheduleStorage cached = new CachingScheduleStorage(storage, 16, java.time.Duration.ofHours(6));
+        cached.saveSchedule(horizon());
+        assertEquals(MONDAY.plusWeeks(4).minusDays(1), cached.getScheduleByGroupId("62810").getCoveredTo());
+
+        Schedule holidays = horizon(); // та же загрузка, но горизонт продлён на неделю каникул без пар
+        holidays.setCoverage(MONDAY, MONDAY.plusWeeks(5).minusDays(1));
+        assertEquals(1, cached.updateSchedule(holidays)); // изменилась только строка groups с покрытием
+
+        Schedule loaded = cached.getScheduleByGroupId("62810");
+        assertEquals(MONDAY.plusWeeks(5).minusDays(1), loaded.getCoveredTo());
+        assertTrue(loaded.getLessonsOn(MONDAY.plusWeeks(4)).isEmpty()); // каникулы, а не пары по шаблону
+    }
+
+    @Test
+    public void overlay_appliesWeeklyEditsToEveryDate() {
+        Schedule custom = ScheduleOverlay.apply(horizon(), List.of(
+                ScheduleOverride.remove("MONDAY", lesson("Математика", 9)),
+                ScheduleOverride.add("WEDNESDAY", lesson("Английский", 14))), "42");
+
+        assertTrue(custom.getLessonsOn(MONDAY).isEmpty());
+        assertTrue(custom.getLessonsOn(MONDAY.plusWeeks(3)).isEmpty());
+        assertEquals("Химия", custom.getLessonsOn(MONDAY.plusWeeks(1)).get(0).getSubject()); // правка не про эту пару
+        assertEquals("Английский", custom.getLessonsOn(MONDAY.plusDays(2)).get(0).getSubject());
+        assertEquals("Английский", custom.getLessonsOn(MONDAY.plusWeeks(2).plusDays(2)).get(0).getSubject());
+    }
+}
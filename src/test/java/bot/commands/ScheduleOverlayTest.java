@@ -0,0 +1,129 @@
+package bot.commands;
+
+import bot.db.SQLiteDatabase;
+import bot.fsm.DialogState;
+import bot.schedule.*;
+import bot.user.User;
+import bot.user.UserStorage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class ScheduleOverlayTest {
+
+    @TempDir
+    Path tempDir;
+
+    private SQLiteDatabase commonDb;
+    private SQLiteDatabase customDb;
+    private SQLiteScheduleStorage common;
+    private SQLiteScheduleStorage custom;
+    private ScheduleOverlayStorage overlays;
+    private ScheduleManager manager;
+    private User user;
+
+    private static final Lesson MATH = new Lesson("Математика", LocalTime.of(9, 0), LocalTime.of(10, 30), "Р-101");
+    private static final Lesson PHYSICS = new Lesson("Физика", LocalTime.of(10, 40), LocalTime.of(12, 10), "Р-102");
+
+    @BeforeEach
+    public void setUp() {
+        commonDb = new SQLiteDatabase(tempDir.resolve("schedules.db").toString());
+        customDb = new SQLiteDatabase(tempDir.resolve("custom.db").toString());
+        common = new SQLiteScheduleStorage(commonDb);
+        common.initialize();
+        custom = new SQLiteScheduleStorage(customDb);
+        custom.initialize();
+        overlays = new ScheduleOverlayStorage(customDb);
+        overlays.initialize();
+
+        Schedule group = new Schedule("42", "МЕН-240801");
+        group.addLesson("MONDAY", MATH);
+        group.addLesson("MONDAY", PHYSICS);
+        common.saveSchedule(group);
+
+        user = new User(1L, "Имя", "МЕН-240801", "ИРИТ-РтФ", "ШПиАО", "2", DialogState.REGISTERED);
+        manager = new ScheduleManager(mock(UserStorage.class), common, custom, overlays);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        commonDb.close();
+        customDb.close();
+    }
+
+    @Test
+    public void edits_areStoredAsSingleRows_andLayeredOverCommon() {
+        manager.copyCommonToCustom(user);
+        assertTrue(user.getHasCustomSchedule());
+        assertTrue(overlays.getOverrides(1L).isEmpty()); // копия недели не создаётся
+
+        Lesson history = new Lesson("История", LocalTime.of(12, 40), LocalTime.of(14, 10), "Т-1");
+        manager.addCustomLesson(user, "MONDAY", history);
+        manager.removeCustomLesson(user, "MONDAY", MATH);
+
+        assertEquals(2, overlays.getOverrides(1L).size());
+        List<Lesson> monday = manager.getScheduleForUser(user).getLessonsForDay("MONDAY");
+        assertEquals(List.of("Физика", "История"), monday.stream().map(Lesson::getSubject).toList());
+
+        manager.removeCustomLesson(user, "MONDAY", history); // своя пара — правка просто удаляется
+        assertEquals(1, overlays.getOverrides(1L).size());
+    }
+
+    @Test
+    public void refreshedCommonSchedule_showsThrough() {
+        manager.copyCommonToCustom(user);
+        manager.removeCustomLesson(user, "MONDAY", PHYSICS);
+
+        Schedule refreshed = new Schedule("42", "МЕН-240801");
+        refreshed.addLesson("MONDAY", MATH);
+        refreshed.addLesson("MONDAY", PHYSICS);
+        refreshed.addLesson("TUESDAY", new Lesson("Английский", LocalTime.of(9, 0), LocalTime.of(10, 30), "Р-201"));
+        manager.saveCommonSchedule(refreshed);
+
+        Schedule view = manager.getScheduleForUser(user);
+        assertEquals(1, view.getLessonsForDay("MONDAY").size()); // правка сохранилась
+        assertEquals(1, view.getLessonsForDay("TUESDAY").size()); // новое из общего видно сразу
+    }
+
+    @Test
+    public void legacyFullCopy_isMigratedToOverridesOnFirstRead() {
+        Schedule legacy = new Schedule("1", "МЕН-240801_user_1");
+        legacy.addLesson("MONDAY", MATH);
+        legacy.addLesson("FRIDAY", new Lesson("Спорт", LocalTime.of(15, 0), LocalTime.of(16, 30), "Зал"));
+        custom.saveSchedule(legacy);
+        user.setHasCustomSchedule(true);
+
+        Schedule view = manager.getScheduleForUser(user);
+
+        assertEquals(1, view.getLessonsForDay("MONDAY").size());
+        assertEquals(1, view.getLessonsForDay("FRIDAY").size());
+        assertFalse(custom.scheduleExists("1")); // полная копия удалена
+        assertEquals(2, overlays.getOverrides(1L).size()); // REMOVE физики + ADD спорта
+
+        manager.resetToOriginalSchedule(user);
+        assertFalse(user.getHasCustomSchedule());
+        assertEquals(2, manager.getScheduleForUser(user).getLessonsForDay("MONDAY").size());
+    }
+
+    @Test
+    public void lessonWithoutTime_isSortedLast_insteadOfFailing() { // ScheduleEventDecoder оставляет время пустым, если не разобрал
+        Schedule base = new Schedule("42", "МЕН-240801");
+        Lesson untimed = new Lesson("Консультация", null, null, "Р-103");
+        base.addLesson("MONDAY", untimed);
+        base.addLesson("MONDAY", PHYSICS);
+
+        Schedule result = ScheduleOverlay.apply(base, List.of(ScheduleOverride.add("MONDAY", MATH)), "1");
+
+        List<Lesson> monday = result.getWeeklySchedule().get("MONDAY");
+        assertEquals(List.of("Математика", "Физика", "Консультация"), monday.stream().map(Lesson::getSubject).toList());
+        assertNull(monday.get(2).getStartTime());
+    }
+}
@@ -0,0 +1,151 @@
+package bot.commands;
+
+import bot.db.SQLiteDatabase;
+import bot.fsm.DialogState;
+import bot.schedule.*;
+import bot.user.User;
+import bot.user.UserStorage;
+import bot.user.exception.ScheduleFetchException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class ScheduleProviderTest {
+
+    private static final long DAY = Duration.ofDays(1).toMillis();
+
+    @TempDir
+    Path tempDir;
+
+    private SQLiteDatabase database;
+    private ScheduleFetcher fetcher;
+    private ScheduleProvider provider;
+    private final AtomicLong shift = new AtomicLong(); // насколько "часы" провайдера впереди настоящих
+
+    @BeforeEach
+    public void setUp() {
+        database = new SQLiteDatabase(tempDir.resolve("schedules.db").toString());
+        SQLiteScheduleStorage common = new SQLiteScheduleStorage(database);
+        common.initialize();
+        ScheduleManager manager = new ScheduleManager(mock(UserStorage.class), common,
+                mock(ScheduleStorage.class), mock(ScheduleOverlayStorage.class));
+
+        fetcher = mock(ScheduleFetcher.class);
+        provider = new ScheduleProvider(manager, () -> fetcher, Duration.ofDays(1), Duration.ofDays(14),
+                () -> System.currentTimeMillis() + shift.get(), Runnable::run);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        database.close();
+    }
+
+    private static User student(long chatId) {
+        return new User(chatId, "Студент", "МЕН-241001", "ИЕНиМ", "ШН", "2", DialogState.ASK_COURSE);
+    }
+
+    private void stubUrfu() throws Exception {
+        when(fetcher.resolveGroupId(any())).thenReturn(100L);
+        when(fetcher.fetchWeek(anyLong(), anyString(), any())).thenReturn(urfuSchedule());
+    }
+
+    private static Schedule urfuSchedule() {
+        Schedule schedule = new Schedule("100", "МЕН-241001");
+        schedule.addLesson("MONDAY", new Lesson("Математика", LocalTime.of(9, 0), LocalTime.of(10, 30), "101"));
+        return schedule;
+    }
+
+
+    @Test
+    public void classmates_reuseScheduleFetchedByFirstStudent() throws Exception {
+        stubUrfu();
+
+        assertNotNull(provider.scheduleFor(student(1)));
+        for (long chatId = 2; chatId <= 30; chatId++) {
+            Schedule schedule = provider.scheduleFor(student(chatId));
+            assertEquals("100", schedule.getGroupId());
+        }
+
+        verify(fetcher, times(1)).fetchWeek(anyLong(), anyString(), any()); // одна загрузка на всю группу
+        assertEquals(29, provider.getLocalHitCount());
+    }
+
+    @Test
+    public void staleSchedule_isServedAndRefreshedInBackground() throws Exception {
+        stubUrfu();
+        provider.scheduleFor(student(1));
+
+        shift.set(2 * DAY);
+        assertEquals("100", provider.scheduleFor(student(2)).getGroupId());
+
+        verify(fetcher, times(2)).fetchWeek(anyLong(), anyString(), any());
+        assertEquals(1, provider.getStaleHitCount());
+        assertEquals(1, provider.getRefreshCount());
+    }
+
+    @Test
+    public void veryOldSchedule_isServedWhenUrfuFails() throws Exception {
+        when(fetcher.resolveGroupId(any())).thenReturn(100L);
+        when(fetcher.fetchWeek(anyLong(), anyString(), any())).thenReturn(urfuSchedule())
+                .thenThrow(new ScheduleFetchException("Ошибка при загрузке расписания."));
+        assertFalse(provider.scheduleFor(student(1)).isStale());
+
+        shift.set(30 * DAY);
+        Schedule served = provider.scheduleFor(student(2));
+        assertEquals("100", served.getGroupId());
+        assertTrue(served.isStale()); // сохранённая копия помечена
+        assertEquals(2, provider.getFetchCount()); // загрузка была синхронной
+        assertEquals(1, provider.getStaleServedCount());
+    }
+
+    @Test
+    public void concurrentInvites_shareOneFetchAndOneSave() throws Exception {
+        int students = 20;
+        CountDownLatch release = new CountDownLatch(1);
+        when(fetcher.resolveGroupId(any())).thenReturn(100L);
+        when(fetcher.fetchWeek(anyLong(), anyString(), any())).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS); // держим загрузку, пока остальные не присоединятся
+            return urfuSchedule();
+        });
+
+        ExecutorService pool = Executors.newFixedThreadPool(students);
+        List<Future<Schedule>> results = new ArrayList<>();
+        for (long chatId = 1; chatId <= students; chatId++) {
+            User user = student(chatId);
+            results.add(pool.submit(() -> provider.scheduleFor(user)));
+        }
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (provider.getCoalescedCount() < students - 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+        for (Future<Schedule> result : results) {
+            assertEquals("100", result.get(5, TimeUnit.SECONDS).getGroupId());
+        }
+        pool.shutdown();
+
+        verify(fetcher, times(1)).fetchWeek(anyLong(), anyString(), any());
+        assertEquals(students - 1, provider.getCoalescedCount());
+    }
+
+    @Test
+    public void unknownGroup_failsLikeBefore() throws Exception {
+        when(fetcher.resolveGroupId(any())).thenThrow(new ScheduleFetchException("Не удалось найти группу."));
+        assertThrows(ScheduleFetchException.class, () -> provider.scheduleFor(student(1)));
+    }
+}
@@ -0,0 +1,259 @@
+package bot.commands;
+
+import bot.db.SQLiteDatabase;
+import bot.dispatcher.OutboundSender;
+import bot.fsm.DialogState;
+import bot.schedule.*;
+import bot.scheduler.ScheduleResyncJob;
+import bot.user.SQLiteUserStorage;
+import bot.user.User;
+import bot.user.UserStorage;
+import bot.user.exception.ScheduleFetchException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class ScheduleResyncJobTest {
+
+    @TempDir
+    Path tempDir;
+
+    private SQLiteDatabase schedulesDb;
+    private SQLiteDatabase usersDb;
+    private SQLiteUserStorage users;
+    private ScheduleManager manager;
+    private ScheduleFetcher fetcher;
+    private ScheduleProvider provider;
+    private OutboundSender sender;
+    private ScheduleResyncJob job;
+
+    @BeforeEach
+    public void setUp() {
+        schedulesDb = new SQLiteDatabase(tempDir.resolve("schedules.db").toString());
+        SQLiteScheduleStorage common = new SQLiteScheduleStorage(schedulesDb);
+        common.initialize();
+        manager = new ScheduleManager(mock(UserStorage.class), common, mock(ScheduleStorage.class),
+                mock(ScheduleOverlayStorage.class));
+
+        usersDb = new SQLiteDatabase(tempDir.resolve("users.db").toString());
+        users = new SQLiteUserStorage(usersDb);
+        users.initialize();
+
+        fetcher = mock(ScheduleFetcher.class);
+        sender = mock(OutboundSender.class);
+        provider = new ScheduleProvider(manager, () -> fetcher, Duration.ofDays(1), Duration.ofDays(14),
+                System::currentTimeMillis, Runnable::run);
+        job = new ScheduleResyncJob(manager, users, sender, provider, 2, 1000, System::currentTimeMillis);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        schedulesDb.close();
+        usersDb.close();
+    }
+
+    private static Schedule schedule(String groupId, String groupName, String classroom) {
+        Schedule schedule = new Schedule(groupId, groupName);
+        schedule.addLesson("MONDAY", new Lesson("Математика", LocalTime.of(8, 30), LocalTime.of(10, 0), classroom));
+        schedule.addLesson("TUESDAY", new Lesson("Физика", LocalTime.of(10, 15), LocalTime.of(11, 45), "Р-237"));
+        return schedule;
+    }
+
+    private void register(long chatId, String group, boolean subscribed) {
+        User user = new User(chatId, "Студент " + chatId, group, "ИЕНиМ", "ШН", "2", DialogState.REGISTERED);
+        user.setSubscriptionEnabled(subscribed);
+        users.saveUser(user);
+    }
+
+    private void setLastSynced(String groupId, long millis) throws Exception {
+        try (Connection connection = schedulesDb.getConnection();
+             PreparedStatement statement = connection.prepareStatement("UPDATE groups SET lastSynced = ? WHERE groupId = ?")) {
+            statement.setLong(1, millis);
+            statement.setString(2, groupId);
+            statement.executeUpdate();
+        }
+    }
+
+
+    @Test
+    public void changeWithinWeekIsSavedAndSubscribersNotified() throws Exception {
+        manager.saveCommonSchedule(schedule("62810", "МЕН-241001", "Р-101"));
+        manager.saveCommonMapping("мен-241001", "62810"); // одногруппник ввёл группу иначе
+        register(1, "МЕН-241001", true);
+        register(2, "мен-241001", true);
+        register(3, "МЕН-241001", false); // отписан — сообщение не нужно
+        when(fetcher.fetchWeek(eq(62810L), anyString(), any())).thenReturn(schedule("62810", "МЕН-241001", "Р-202"));
+
+        ScheduleResyncJob.RunStats stats = job.runOnce();
+
+        assertEquals(1, stats.groups());
+        assertEquals(1, stats.changed());
+        assertEquals(0, stats.failed());
+        assertEquals(2, stats.notified());
+        assertEquals("Р-202", manager.getCommonScheduleById("62810").getLessonsForDay("MONDAY").get(0).getClassroom());
+
+        ArgumentCaptor<SendMessage> sent = ArgumentCaptor.forClass(SendMessage.class);
+        verify(sender, times(2)).submit(sent.capture(), eq(OutboundSender.Priority.BULK));
+        assertEquals(List.of("1", "2"), sent.getAllValues().stream().map(SendMessage::getChatId).sorted().toList());
+        String text = sent.getValue().getText();
+        assertTrue(text.contains("МЕН-241001"));
+        assertTrue(text.contains("понедельник"));
+        assertFalse(text.contains("вторник")); // вторник не менялся
+    }
+
+    @Test
+    public void roomOrTimeChangeIsReportedAsOneChangedPair() throws Exception {
+        Schedule stored = schedule("62810", "МЕН-241001", "Р-101");
+        stored.addLesson("WEDNESDAY", new Lesson("История", LocalTime.of(12, 0), LocalTime.of(13, 30), "Т-1"));
+        manager.saveCommonSchedule(stored);
+        register(1, "МЕН-241001", true);
+
+        Schedule fresh = schedule("62810", "МЕН-241001", "Р-202"); // понедельник: другая аудитория
+        fresh.getWeeklySchedule().get("TUESDAY").set(0, // вторник: та же Физика позже
+                new Lesson("Физика", LocalTime.of(14, 0), LocalTime.of(15, 30), "Р-237"));
+        fresh.addLesson("THURSDAY", new Lesson("Химия", LocalTime.of(8, 30), LocalTime.of(10, 0), "Х-3")); // новая пара
+        when(fetcher.fetchWeek(eq(62810L), anyString(), any())).thenReturn(fresh); // История в среду отменена
+
+        job.runOnce();
+
+        ArgumentCaptor<SendMessage> sent = ArgumentCaptor.forClass(SendMessage.class);
+        verify(sender).submit(sent.capture(), eq(OutboundSender.Priority.BULK));
+        String text = sent.getValue().getText();
+        assertTrue(text.contains("• понедельник: изменено — 1\n"), text);
+        assertTrue(text.contains("• вторник: изменено — 1\n"), text);
+        assertTrue(text.contains("• среда: отменено — 1\n"), text);
+        assertTrue(text.contains("• четверг: новых пар — 1\n"), text);
+    }
+
+    @Test
+    public void unchangedScheduleOnlyRefreshesSyncTime() throws Exception {
+        manager.saveCommonSchedule(schedule("62810", "МЕН-241001", "Р-101"));
+        setLastSynced("62810", System.currentTimeMillis() - Duration.ofHours(1).toMillis());
+        register(1, "МЕН-241001", true);
+        when(fetcher.fetchWeek(anyLong(), anyString(), any())).thenReturn(schedule("62810", "МЕН-241001", "Р-101"));
+        long before = manager.getCommonLastSynced("62810");
+
+        ScheduleResyncJob.RunStats stats = job.runOnce();
+
+        assertEquals(0, stats.changed());
+        assertEquals(0, stats.notified());
+        verifyNoInteractions(sender);
+        assertTrue(manager.getCommonLastSynced("62810") > before);
+    }
+
+    @Test
+    public void newWeekIsSavedSilently() throws Exception {
+        manager.saveCommonSchedule(schedule("62810", "МЕН-241001", "Р-101"));
+        setLastSynced("62810", System.currentTimeMillis() - Duration.ofDays(8).toMillis()); // сверялось на прошлой неделе
+        register(1, "МЕН-241001", true);
+        when(fetcher.fetchWeek(anyLong(), anyString(), any())).thenReturn(schedule("62810", "МЕН-241001", "Р-202"));
+
+        ScheduleResyncJob.RunStats stats = job.runOnce();
+
+        assertEquals(0, stats.changed());
+        verifyNoInteractions(sender);
+        assertEquals("Р-202", manager.getCommonScheduleById("62810").getLessonsForDay("MONDAY").get(0).getClassroom());
+    }
+
+    @Test
+    public void groupsWithoutUsersAreSkippedAndFailuresCounted() throws Exception {
+        manager.saveCommonSchedule(schedule("62810", "МЕН-241001", "Р-101"));
+        manager.saveCommonSchedule(schedule("62811", "МЕН-241002", "Р-101"));
+        manager.saveCommonSchedule(schedule("70000", "РИ-250001", "Р-101"));
+        register(1, "МЕН-241001", true);
+        register(2, "МЕН-241002", true);
+        when(fetcher.fetchWeek(eq(62810L), anyString(), any())).thenThrow(new ScheduleFetchException("Ошибка при загрузке расписания."));
+        when(fetcher.fetchWeek(eq(62811L), anyString(), any())).thenReturn(schedule("62811", "МЕН-241002", "Р-101"));
+
+        ScheduleResyncJob.RunStats stats = job.runOnce();
+
+        assertEquals(3, stats.groups());
+        assertEquals(1, stats.failed());
+        assertEquals(1, stats.skipped());
+        verify(fetcher, never()).fetchWeek(eq(70000L), anyString(), any()); // у группы нет пользователей
+        assertTrue(job.metricsSummary().contains("failed=1"));
+    }
+
+    @Test
+    public void manyGroupsInParallel_allSavedWithoutFailures() throws Exception {
+        ScheduleResyncJob wide = new ScheduleResyncJob(manager, users, sender, provider, 4, 1000,
+                System::currentTimeMillis);
+        int groups = 60;
+        for (int i = 0; i < groups; i++) {
+            String groupId = String.valueOf(62000 + i);
+            manager.saveCommonSchedule(schedule(groupId, "МЕН-24" + groupId, "Р-101"));
+            register(100 + i, "МЕН-24" + groupId, true);
+        }
+        when(fetcher.fetchWeek(anyLong(), anyString(), any())).thenAnswer(invocation -> {
+            String groupId = String.valueOf((long) invocation.getArgument(0));
+            return schedule(groupId, invocation.getArgument(1), "Р-202");
+        });
+
+        ScheduleResyncJob.RunStats stats = wide.runOnce();
+
+        assertEquals(groups, stats.groups());
+        assertEquals(0, stats.failed());
+        assertEquals(groups, stats.changed());
+        assertEquals(groups, stats.notified());
+        for (int i = 0; i < groups; i++) {
+            String groupId = String.valueOf(62000 + i);
+            assertEquals("Р-202", manager.getCommonScheduleById(groupId).getLessonsForDay("MONDAY").get(0).getClassroom());
+        }
+    }
+
+    @Test
+    public void registrationDuringResync_joinsTheSameFetch() throws Exception {
+        manager.saveCommonSchedule(schedule("62810", "МЕН-241001", "Р-101"));
+        setLastSynced("62810", System.currentTimeMillis() - Duration.ofDays(30).toMillis()); // старше maxAge
+        register(1, "МЕН-241001", true);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(fetcher.resolveGroupId(any())).thenReturn(62810L);
+        when(fetcher.fetchWeek(eq(62810L), anyString(), any())).thenAnswer(invocation -> {
+            entered.countDown();
+            assertTrue(release.await(10, TimeUnit.SECONDS));
+            return schedule("62810", "МЕН-241001", "Р-202");
+        });
+
+        CompletableFuture<ScheduleResyncJob.RunStats> resync = CompletableFuture.supplyAsync(job::runOnce);
+        assertTrue(entered.await(10, TimeUnit.SECONDS));
+        User newcomer = new User(2L, "Студент 2", "МЕН-241001", "ИЕНиМ", "ШН", "2", DialogState.ASK_COURSE);
+        CompletableFuture<Schedule> registration = CompletableFuture.supplyAsync(() -> {
+            try {
+                return provider.scheduleFor(newcomer);
+            } catch (ScheduleFetchException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (provider.getCoalescedCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5); // регистрация должна встать в очередь к загрузке сверки
+        }
+        release.countDown();
+
+        assertEquals(0, resync.get(10, TimeUnit.SECONDS).failed());
+        assertEquals("Р-202", registration.get(10, TimeUnit.SECONDS).getLessonsForDay("MONDAY").get(0).getClassroom());
+        assertEquals(1, provider.getCoalescedCount());
+        verify(fetcher, times(1)).fetchWeek(eq(62810L), anyString(), any()); // один запрос к УрФУ на двоих
+    }
+}
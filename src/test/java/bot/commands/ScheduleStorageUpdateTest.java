@@ -0,0 +1,129 @@
+package bot.commands;
+
+import bot.db.SQLiteDatabase;
+import bot.schedule.Lesson;
+import bot.schedule.SQLiteScheduleStorage;
+import bot.schedule.Schedule;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ScheduleStorageUpdateTest {
+
+    @TempDir
+    Path tempDir;
+
+    private SQLiteDatabase db;
+    private SQLiteScheduleStorage storage;
+
+    @BeforeEach
+    public void setUp() {
+        db = new SQLiteDatabase(tempDir.resolve("schedules.db").toString());
+        storage = new SQLiteScheduleStorage(db);
+        storage.initialize();
+        storage.saveSchedule(week("Р-101"));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        db.close();
+    }
+
+    private static Schedule week(String mathRoom) {
+        Schedule schedule = new Schedule("42", "МЕН-240801");
+        schedule.addLesson("MONDAY", new Lesson("Математика", LocalTime.of(9, 0), LocalTime.of(10, 30), mathRoom));
+        schedule.addLesson("MONDAY", new Lesson("Физика", LocalTime.of(10, 40), LocalTime.of(12, 10), "Р-102"));
+        schedule.addLesson("TUESDAY", new Lesson("История", LocalTime.of(9, 0), LocalTime.of(10, 30), "Т-1"));
+        return schedule;
+    }
+
+    private List<Long> lessonIds() throws Exception {
+        List<Long> ids = new ArrayList<>();
+        try (Connection c = db.getConnection(); Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT id FROM schedule_lessons ORDER BY id")) {
+            while (rs.next()) {
+                ids.add(rs.getLong(1));
+            }
+        }
+        return ids;
+    }
+
+    @Test
+    public void unchangedWeek_writesNothing() throws Exception {
+        List<Long> before = lessonIds();
+
+        assertEquals(0, storage.updateSchedule(week("Р-101")));
+        assertEquals(before, lessonIds()); // id не меняются
+    }
+
+    @Test
+    public void changedLesson_isUpdatedInPlace() throws Exception {
+        List<Long> before = lessonIds();
+
+        assertEquals(1, storage.updateSchedule(week("Р-999")));
+
+        assertEquals(before, lessonIds());
+        assertEquals("Р-999", storage.getScheduleByGroupId("42").getLessonsForDay("MONDAY").get(0).getClassroom());
+    }
+
+    @Test
+    public void addedAndRemovedLessons_areInsertedAndDeleted() {
+        Schedule updated = new Schedule("42", "МЕН-240801");
+        updated.addLesson("MONDAY", new Lesson("Математика", LocalTime.of(9, 0), LocalTime.of(10, 30), "Р-101"));
+        updated.addLesson("MONDAY", new Lesson("Физика", LocalTime.of(10, 40), LocalTime.of(12, 10), "Р-102"));
+        updated.addLesson("FRIDAY", new Lesson("Спорт", LocalTime.of(15, 0), LocalTime.of(16, 30), "Зал"));
+
+        assertEquals(2, storage.updateSchedule(updated)); // DELETE вторника + INSERT пятницы
+
+        Schedule stored = storage.getScheduleByGroupId("42");
+        assertTrue(stored.getLessonsForDay("TUESDAY").isEmpty());
+        assertEquals(1, stored.getLessonsForDay("FRIDAY").size());
+        assertEquals(2, stored.getLessonsForDay("MONDAY").size());
+    }
+
+    @Test
+    public void concurrentSavesAndUpdates_allSucceed() throws Exception { // все записи — через одного писателя, без SQLITE_BUSY
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> saves = new ArrayList<>();
+            for (int g = 0; g < 200; g++) {
+                Schedule schedule = new Schedule(String.valueOf(1000 + g), "ГР-" + g);
+                schedule.addLesson("MONDAY", new Lesson("Математика", LocalTime.of(9, 0), LocalTime.of(10, 30), "Р-101"));
+                saves.add(pool.submit(() -> storage.saveSchedule(schedule)));
+                saves.add(pool.submit(() -> storage.saveGroupMapping(schedule.getGroupName().toLowerCase(),
+                        schedule.getGroupId()))); // одногруппник ввёл группу иначе — запись mapping вперемешку с пачкой
+            }
+            for (Future<?> f : saves) {
+                f.get();
+            }
+
+            List<Future<Integer>> updates = new ArrayList<>();
+            for (int g = 0; g < 200; g++) {
+                Schedule schedule = new Schedule(String.valueOf(1000 + g), "ГР-" + g);
+                schedule.addLesson("MONDAY", new Lesson("Математика", LocalTime.of(9, 0), LocalTime.of(10, 30), "Р-202"));
+                updates.add(pool.submit(() -> storage.updateSchedule(schedule)));
+            }
+            for (Future<Integer> f : updates) {
+                assertEquals(1, f.get()); // get() бросил бы ScheduleStorageException
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals("Р-202", storage.getScheduleByGroupId("1199").getLessonsForDay("MONDAY").get(0).getClassroom());
+        assertEquals("1199", storage.getGroupIdByName("гр-199"));
+    }
+}
@@ -0,0 +1,77 @@
+package bot.commands;
+
+import bot.scheduler.TimingWheel;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimingWheelTest {
+
+    private static final long START = 29_000_000L; // произвольная минута от эпохи
+    private static final int DAY = 24 * 60;
+
+    @Test
+    public void keysOfOneMinute_fireAsOneBatch() {
+        Map<Long, List<Long>> fired = new LinkedHashMap<>();
+        TimingWheel<Long> wheel = new TimingWheel<>(START, (minute, keys) -> fired.put(minute, new ArrayList<>(keys)));
+
+        wheel.schedule(1L, START + 10);
+        wheel.schedule(2L, START + 10);
+        wheel.schedule(3L, START + 20);
+
+        wheel.advanceTo(START + 15);
+        assertEquals(Set.of(START + 10), fired.keySet());
+        assertEquals(Set.of(1L, 2L), new HashSet<>(fired.get(START + 10)));
+        assertEquals(1, wheel.size());
+
+        wheel.advanceTo(START + 20);
+        assertEquals(List.of(3L), fired.get(START + 20));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void cancelAndReschedule_moveTheKey() {
+        List<Long> firedAt = new ArrayList<>();
+        TimingWheel<Long> wheel = new TimingWheel<>(START, (minute, keys) -> firedAt.add(minute));
+
+        wheel.schedule(1L, START + 5);
+        wheel.schedule(1L, START + 7); // перенос — старая корзина больше не содержит ключ
+        wheel.schedule(2L, START + 6);
+        assertTrue(wheel.cancel(2L));
+        assertFalse(wheel.cancel(2L));
+
+        wheel.advanceTo(START + 10);
+        assertEquals(List.of(START + 7), firedAt);
+    }
+
+    @Test
+    public void keysBeyondToday_cascadeFromDayWheel() {
+        Map<Long, List<Long>> fired = new LinkedHashMap<>();
+        TimingWheel<Long> wheel = new TimingWheel<>(START, (minute, keys) -> fired.put(minute, new ArrayList<>(keys)));
+
+        long inTwoDays = START + 2 * DAY + 30;
+        wheel.schedule(1L, inTwoDays);
+        wheel.schedule(2L, START + DAY); // та же минута через сутки — не должна сработать сегодня
+
+        wheel.advanceTo(START + DAY - 1);
+        assertTrue(fired.isEmpty());
+
+        wheel.advanceTo(inTwoDays);
+        assertEquals(List.of(START + DAY, inTwoDays), new ArrayList<>(fired.keySet()));
+        assertEquals(List.of(1L), fired.get(inTwoDays));
+    }
+
+    @Test
+    public void pastMinute_firesOnNextTick() {
+        List<Long> firedAt = new ArrayList<>();
+        TimingWheel<Long> wheel = new TimingWheel<>(START, (minute, keys) -> firedAt.add(minute));
+
+        wheel.schedule(1L, START - 3);
+        assertEquals(START + 1, wheel.dueMinute(1L));
+
+        wheel.advanceTo(START + 1);
+        assertEquals(List.of(START + 1), firedAt);
+    }
+}
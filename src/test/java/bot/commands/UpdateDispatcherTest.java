@@ -0,0 +1,92 @@
+package bot.commands;
+
+import bot.dispatcher.UpdateDispatcher;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.objects.Chat;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UpdateDispatcherTest {
+
+    private static Update update(long chatId, String text) { // собираем минимальный апдейт с текстом
+        Chat chat = new Chat();
+        chat.setId(chatId);
+        Message message = new Message();
+        message.setChat(chat);
+        message.setText(text);
+        Update update = new Update();
+        update.setMessage(message);
+        return update;
+    }
+
+    @Test
+    public void sameChat_keepsOrder() throws Exception {
+        List<String> seen = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(100);
+        UpdateDispatcher dispatcher = new UpdateDispatcher(u -> {
+            seen.add(u.getMessage().getText());
+            done.countDown();
+        }, 1000, 1000);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(dispatcher.submit(update(1L, String.valueOf(i))));
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(String.valueOf(i), seen.get(i)); // порядок сообщений одного чата сохранён
+        }
+        assertEquals(100, dispatcher.getProcessedCount());
+        dispatcher.shutdown(5);
+    }
+
+    @Test
+    public void slowChat_doesNotBlockOtherChats() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch fastDone = new CountDownLatch(1);
+        UpdateDispatcher dispatcher = new UpdateDispatcher(u -> {
+            if (u.getMessage().getChatId() == 1L) {
+                try { release.await(5, TimeUnit.SECONDS); } catch (InterruptedException ignored) {}
+            } else {
+                fastDone.countDown();
+            }
+        }, 10, 100);
+
+        dispatcher.submit(update(1L, "медленный запрос к УрФУ"));
+        dispatcher.submit(update(2L, "/help"));
+
+        // второй чат обработан, пока первый всё ещё висит
+        assertTrue(fastDone.await(2, TimeUnit.SECONDS));
+        release.countDown();
+        dispatcher.shutdown(5);
+    }
+
+    @Test
+    public void fullChatQueue_rejectsUpdate() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        UpdateDispatcher dispatcher = new UpdateDispatcher(u -> {
+            started.countDown();
+            try { release.await(5, TimeUnit.SECONDS); } catch (InterruptedException ignored) {}
+        }, 2, 100);
+
+        assertTrue(dispatcher.submit(update(5L, "1"))); // сразу уходит в обработку
+        assertTrue(started.await(2, TimeUnit.SECONDS));
+        assertTrue(dispatcher.submit(update(5L, "2")));
+        assertTrue(dispatcher.submit(update(5L, "3")));
+        assertFalse(dispatcher.submit(update(5L, "4"))); // в очереди уже 2 — лимит
+
+        assertEquals(2, dispatcher.getQueueDepth(5L));
+        assertEquals(1, dispatcher.getRejectedCount());
+
+        release.countDown();
+        dispatcher.shutdown(5);
+        assertEquals(0, dispatcher.getQueueDepth());
+        assertEquals(3, dispatcher.getProcessedCount());
+    }
+}
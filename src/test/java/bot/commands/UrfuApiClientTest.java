@@ -0,0 +1,135 @@
+package bot.commands;
+
+import bot.schedule.CircuitBreaker;
+import bot.schedule.UrfuApiClient;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UrfuApiClientTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private final AtomicInteger flakyHits = new AtomicInteger();
+    private final AtomicInteger deadHits = new AtomicInteger();
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/v2/schedule/groups/1/schedule", exchange -> {
+            byte[] body = "{\"events\":[]}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/api/v2/schedule/groups/2/schedule", exchange -> {
+            exchange.sendResponseHeaders(500, -1); // УрФУ упал
+            exchange.close();
+        });
+        server.createContext("/api/v2/schedule/groups/3/schedule", exchange -> {
+            if (flakyHits.incrementAndGet() == 1) { // первый раз — сбой, дальше — ответ
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+                return;
+            }
+            byte[] body = "{\"events\":[]}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/api/v2/schedule/groups/4/schedule", exchange -> {
+            deadHits.incrementAndGet();
+            exchange.sendResponseHeaders(502, -1);
+            exchange.close();
+        });
+        server.createContext("/api/v2/schedule/divisions", exchange -> {
+            exchange.sendResponseHeaders(404, -1); // 4xx — не простой УрФУ
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/api/v2/schedule/groups/";
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private static long[] schedule() { // {вызовы, ошибки} по /schedule
+        UrfuApiClient.EndpointStats stats = UrfuApiClient.getEndpointStats().get("schedule");
+        return stats == null ? new long[]{0, 0} : new long[]{stats.getCalls(), stats.getErrors()};
+    }
+
+
+    @Test
+    public void getAsync_returnsBody_andCountsEndpoint() throws Exception {
+        long[] before = schedule();
+
+        String body = new UrfuApiClient().getAsync(baseUrl + "1/schedule").get(10, TimeUnit.SECONDS);
+        assertEquals("{\"events\":[]}", body);
+        assertEquals("{\"events\":[]}", new UrfuApiClient().get(baseUrl + "1/schedule")); // второй экземпляр — тот же пул
+
+        long[] after = schedule();
+        assertEquals(2, after[0] - before[0]);
+        assertEquals(0, after[1] - before[1]);
+    }
+
+    @Test
+    public void failedResponse_isCountedAsError() {
+        long[] before = schedule();
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> new UrfuApiClient().getAsync(baseUrl + "2/schedule").get(10, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, e.getCause());
+        assertThrows(IOException.class, () -> new UrfuApiClient().get(baseUrl + "2/schedule"));
+
+        long[] after = schedule();
+        assertEquals(2, after[0] - before[0]);
+        assertEquals(2, after[1] - before[1]);
+    }
+
+    @Test
+    public void transientFailure_isRetried() throws Exception {
+        assertEquals("{\"events\":[]}", new UrfuApiClient().get(baseUrl + "3/schedule"));
+        assertEquals(2, flakyHits.get());
+    }
+
+    @Test
+    public void errorResponse_carriesStatusCode() {
+        UrfuApiClient.HttpStatusException e = assertThrows(UrfuApiClient.HttpStatusException.class,
+                () -> new UrfuApiClient().get(baseUrl.replace("groups/", "divisions")));
+        assertEquals(404, e.getCode());
+    }
+
+    @Test
+    public void repeatedOutage_opensBreaker_andFailsFast() {
+        for (int i = 0; i < 5; i++) {
+            assertThrows(UrfuApiClient.HttpStatusException.class, () -> new UrfuApiClient().get(baseUrl + "4/schedule"));
+        }
+        int hits = deadHits.get();
+        assertTrue(hits > 5); // были повторы
+
+        long start = System.nanoTime();
+        assertThrows(UrfuApiClient.CircuitOpenException.class, () -> new UrfuApiClient().get(baseUrl + "4/schedule"));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertEquals(hits, deadHits.get()); // к серверу не ходили
+
+        String name = "127.0.0.1:" + server.getAddress().getPort() + "/schedule";
+        CircuitBreaker breaker = UrfuApiClient.getCircuitBreakers().get(name);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(UrfuApiClient.metricsSummary().contains("breaker " + name + ": state=OPEN"));
+    }
+}
@@ -0,0 +1,79 @@
+package bot.commands;
+
+import bot.fsm.DialogState;
+import bot.schedule.Schedule;
+import bot.session.UserContext;
+import bot.user.User;
+import bot.user.UserStorage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class UserContextTest {
+
+    private UserStorage userStorage;
+
+    @BeforeEach
+    public void setUp() {
+        userStorage = mock(UserStorage.class);
+    }
+
+    @Test
+    public void userAndSchedule_areLoadedOncePerUpdate() {
+        User user = new User(1L, "Имя", "МЕН-240801", "ИРИТ-РтФ", "ШПиАО", "2", DialogState.REGISTERED);
+        when(userStorage.getUser(1L)).thenReturn(user);
+        AtomicInteger loads = new AtomicInteger();
+        Schedule schedule = new Schedule("1", "МЕН-240801");
+        UserContext ctx = new UserContext(1L, userStorage, u -> {
+            loads.incrementAndGet();
+            return schedule;
+        });
+
+        for (int i = 0; i < 3; i++) {
+            assertSame(user, ctx.getUser());
+            assertSame(schedule, ctx.getSchedule());
+        }
+
+        verify(userStorage, times(1)).getUser(1L);
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void severalChanges_areWrittenWithOneUpdate() {
+        User user = new User(1L);
+        when(userStorage.getUser(1L)).thenReturn(user);
+        UserContext ctx = new UserContext(1L, userStorage, u -> null);
+
+        ctx.getUser().setName("Имя");
+        ctx.markDirty();
+        ctx.getUser().setState(DialogState.ASK_GROUP);
+        ctx.markDirty();
+
+        assertTrue(ctx.flush());
+        assertFalse(ctx.flush()); // повторно писать нечего
+        verify(userStorage, times(1)).updateUser(user);
+        verify(userStorage, never()).saveUser(any());
+    }
+
+    @Test
+    public void newUser_isSavedNotUpdated() {
+        when(userStorage.getUser(5L)).thenReturn(null);
+        UserContext ctx = new UserContext(5L, userStorage, u -> null);
+
+        assertNull(ctx.getUser());
+        assertNull(ctx.getSchedule()); // без пользователя расписание не грузим
+        ctx.markDirty(); // пользователя нет — ничего не помечаем
+        assertFalse(ctx.flush());
+
+        User created = new User(5L);
+        ctx.setNewUser(created);
+        assertTrue(ctx.flush());
+
+        verify(userStorage, times(1)).saveUser(created);
+        verify(userStorage, never()).updateUser(any());
+    }
+}